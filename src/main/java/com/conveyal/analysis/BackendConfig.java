@@ -41,6 +41,7 @@ public class BackendConfig extends ConfigBase implements
     private final int lightThreads;
     private final int heavyThreads;
     private final int maxWorkers;
+    private final boolean shareBaseLinkages;
     // If set to true, the backend will start up and immediately exit with a success code.
     // This is used for testing that automated builds and JAR packaging are producing a usable artifact.
     public final boolean immediateShutdown;
@@ -69,6 +70,7 @@ public class BackendConfig extends ConfigBase implements
         lightThreads = intProp("light-threads");
         heavyThreads = intProp("heavy-threads");
         maxWorkers = intProp("max-workers");
+        shareBaseLinkages = boolProp("share-base-linkages");
         exitIfErrors();
     }
 
@@ -88,6 +90,7 @@ public class BackendConfig extends ConfigBase implements
     @Override public int     serverPort()           { return serverPort; }
     @Override public boolean offline()              { return offline; }
     @Override public int     maxWorkers()           { return maxWorkers; }
+    @Override public boolean shareBaseLinkages()    { return shareBaseLinkages; }
 
     // STATIC FACTORY METHODS
     // Always use these to construct BackendConfig objects for readability.
@@ -21,6 +21,7 @@ public abstract class WorkerConfig extends ConfigBase
     private final int     lightThreads;
     private final int     heavyThreads;
     private final boolean listenForSinglePoint;
+    private final boolean streamTasks;
 
     // CONSTRUCTORS
 
@@ -36,6 +37,7 @@ public abstract class WorkerConfig extends ConfigBase
             heavyThreads = availableProcessors;
         }
         listenForSinglePoint = boolProp("listen-for-single-point");
+        streamTasks = boolProp("stream-tasks");
         // No call to exitIfErrors() here, that should be done in concrete subclasses.
     }
 
@@ -48,5 +50,6 @@ public abstract class WorkerConfig extends ConfigBase
     @Override public int     lightThreads ()   { return lightThreads; }
     @Override public int     heavyThreads ()   { return heavyThreads; }
     @Override public boolean listenForSinglePoint() { return listenForSinglePoint; }
+    @Override public boolean streamTasks()     { return streamTasks; }
 
 }
@@ -79,6 +79,11 @@ public class HttpApi implements Component {
         spark.Service sparkService = spark.Service.ignite();
         sparkService.port(config.serverPort());
 
+        // WebSockets must be set up before any filters or routes, which cause Spark to initialize the server.
+        for (HttpController httpController : httpControllers) {
+            httpController.registerWebSocketEndpoints(sparkService);
+        }
+
         // Specify actions to take before the main logic of handling each HTTP request.
         sparkService.before((req, res) -> {
             // Record when the request started, so we can measure elapsed response time.
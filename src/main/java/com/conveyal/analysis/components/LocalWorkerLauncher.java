@@ -13,6 +13,7 @@ import com.conveyal.r5.transit.TransportNetworkCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -28,6 +29,7 @@ public class LocalWorkerLauncher implements WorkerLauncher {
     public interface Config {
         int serverPort ();
         String localCacheDirectory ();
+        boolean shareBaseLinkages ();
     }
 
     private final TransportNetworkCache transportNetworkCache;
@@ -40,12 +42,20 @@ public class LocalWorkerLauncher implements WorkerLauncher {
         LOG.debug("Running in OFFLINE mode, a maximum of {} worker threads will be started locally.", N_WORKERS_LOCAL);
         WorkerComponents.fileStorage = fileStorage; // Note this is a static field for now, should eventually be changed.
         transportNetworkCache = new TransportNetworkCache(fileStorage, gtfsCache, osmCache);
+        // Local workers are threads sharing this one cache, so memory-mapping the base linkages does not save copies
+        // between processes here. It only moves these large tables off the heap and into the OS page cache.
+        if (config.shareBaseLinkages()) {
+            File linkageDirectory = new File(config.localCacheDirectory(), "linkages");
+            linkageDirectory.mkdirs();
+            transportNetworkCache.shareBaseLinkages(linkageDirectory);
+        }
         // Create configuration for the locally running worker
         workerConfig.setProperty("work-offline", "true");
         workerConfig.setProperty("auto-shutdown", "false");
         workerConfig.setProperty("broker-address", "localhost");
         workerConfig.setProperty("broker-port", Integer.toString(config.serverPort()));
         workerConfig.setProperty("cache-dir", config.localCacheDirectory());
+        workerConfig.setProperty("stream-tasks", "false");
 
         // From a throughput perspective there is no point in running more than one worker locally, since each worker
         // has at least as many threads as there are processor cores. But for testing purposes (e.g. testing that task
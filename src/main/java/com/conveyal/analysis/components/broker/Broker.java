@@ -116,6 +116,16 @@ public class Broker implements Component {
      */
     public final int MAX_TASKS_PER_WORKER = 16;
 
+    /**
+     * Once a worker has reported its throughput on a job, we instead size each batch to keep it busy for about this
+     * many seconds, so fast workers poll less often and slow ones don't hoard tasks that others could be working on.
+     */
+    public final int TARGET_BATCH_SECONDS = 30;
+
+    /** Bounds on the adaptive batch size. The upper bound keeps response bodies to a reasonable size (about 65kB). */
+    public final int MIN_ADAPTIVE_TASKS_PER_WORKER = 2;
+    public final int MAX_ADAPTIVE_TASKS_PER_WORKER = 50;
+
     /**
      * Used when auto-starting spot instances. Set to a smaller value to increase the number of
      * workers requested automatically
@@ -332,30 +342,53 @@ public class Broker implements Component {
      * Attempt to find some tasks that match what a worker is requesting.
      * Always returns a non-null List, which may be empty if there is nothing to deliver.
      * Number of tasks in the list is strictly limited to maxTasksRequested.
+     * @param tasksPerMinuteByJobId the throughput recently observed by the worker, used to size the batch of tasks.
+     *                              May be null if the worker did not report any.
      */
-    public synchronized List<RegionalTask> getSomeWork (WorkerCategory workerCategory, int maxTasksRequested) {
+    public synchronized List<RegionalTask> getSomeWork (
+            WorkerCategory workerCategory, int maxTasksRequested, Map<String, Integer> tasksPerMinuteByJobId
+    ) {
         if (maxTasksRequested <= 0) {
             return Collections.EMPTY_LIST;
         }
-        Job job;
-        if (config.offline()) {
-            // Working in offline mode; get tasks from the first job that has any tasks to deliver.
-            job = jobs.values().stream()
-                    .filter(j -> j.hasTasksToDeliver()).findFirst().orElse(null);
-        } else {
-            // This worker has a preferred network, get tasks from a job on that network.
-            job = jobs.get(workerCategory).stream()
-                    .filter(j -> j.hasTasksToDeliver()).findFirst().orElse(null);
+        // Working in offline mode; get tasks from any job. Otherwise this worker has a preferred network, only get
+        // tasks from a job on that network.
+        Collection<Job> candidateJobs = config.offline() ? jobs.values() : jobs.get(workerCategory);
+        Job job = candidateJobs.stream().filter(j -> j.hasTasksToDeliver()).findFirst().orElse(null);
+        if (job != null) {
+            // Return up to N tasks that are waiting to be processed.
+            int batchSize = Math.min(maxTasksRequested, batchSize(job, tasksPerMinuteByJobId));
+            return job.generateSomeTasksToDeliver(batchSize);
         }
-        if (job == null) {
-            // No matching job was found.
-            return Collections.EMPTY_LIST;
+        // No job has regular tasks waiting. Rather than letting this worker idle until a redelivery pass begins,
+        // have it duplicate any stragglers at the end of a job on its network.
+        for (Job tailJob : candidateJobs) {
+            int batchSize = Math.min(maxTasksRequested, batchSize(tailJob, tasksPerMinuteByJobId));
+            List<RegionalTask> tasks = tailJob.generateSpeculativeTasksToDeliver(batchSize);
+            if (!tasks.isEmpty()) {
+                return tasks;
+            }
         }
-        // Return up to N tasks that are waiting to be processed.
-        if (maxTasksRequested > MAX_TASKS_PER_WORKER) {
-            maxTasksRequested = MAX_TASKS_PER_WORKER;
+        return Collections.EMPTY_LIST;
+    }
+
+    /**
+     * Decide how many tasks from the given job to hand to a polling worker. Until the worker reports throughput on
+     * the job, we use the conservative fixed MAX_TASKS_PER_WORKER. Afterward, the batch is sized from the worker's
+     * measured tasks per minute. Toward the end of a job, batches are also limited to a fair share of the remaining
+     * tasks among the workers active on the job, so the last few tasks are spread out rather than landing in one
+     * worker's queue (the slow-joiner problem).
+     */
+    int batchSize (Job job, Map<String, Integer> tasksPerMinuteByJobId) {
+        int batchSize = MAX_TASKS_PER_WORKER;
+        Integer tasksPerMinute = (tasksPerMinuteByJobId == null) ? null : tasksPerMinuteByJobId.get(job.jobId);
+        if (tasksPerMinute != null && tasksPerMinute > 0) {
+            batchSize = tasksPerMinute * TARGET_BATCH_SECONDS / 60;
+            batchSize = Math.max(MIN_ADAPTIVE_TASKS_PER_WORKER, Math.min(MAX_ADAPTIVE_TASKS_PER_WORKER, batchSize));
         }
-        return job.generateSomeTasksToDeliver(maxTasksRequested);
+        int activeWorkers = Math.max(1, workerCatalog.activeWorkersOnJob(job.jobId));
+        int fairShare = (job.nTasksRemainingInPass() + activeWorkers - 1) / activeWorkers;
+        return Math.max(1, Math.min(batchSize, fairShare));
     }
 
     /**
@@ -366,12 +399,14 @@ public class Broker implements Component {
      *      synchronization requirements. This would also allow returning errors as JSON and the
      *      grid result separately.
      *
-     * @return whether the task was found and removed.
+     * @return false if the task had already been marked completed (e.g. a redelivered or speculative duplicate).
      */
-    public synchronized void markTaskCompleted (Job job, int taskId) {
+    public synchronized boolean markTaskCompleted (Job job, int taskId) {
         checkNotNull(job);
         if (!job.markTaskCompleted(taskId)) {
-            LOG.error("Failed to mark task {} completed on job {}.", taskId, job.jobId);
+            // Duplicate results are expected now that straggling tasks are speculatively delivered to a second worker.
+            LOG.debug("Task {} on job {} was already completed or is out of range.", taskId, job.jobId);
+            return false;
         }
         // Once the last task is marked as completed, the job is finished.
         // Remove it and its associated result assembler from the maps.
@@ -382,6 +417,7 @@ public class Broker implements Component {
             resultAssemblers.remove(job.jobId);
             eventBus.send(new RegionalAnalysisEvent(job.jobId, COMPLETED).forUser(job.workerTags.user, job.workerTags.group));
         }
+        return true;
     }
 
     /**
@@ -419,6 +455,14 @@ public class Broker implements Component {
                 .orElse(null);
     }
 
+    /**
+     * Find the object assembling results for the job with the given jobId, returning null if that job does not exist
+     * or has already finished.
+     */
+    public synchronized MultiOriginAssembler findResultAssembler (String jobId) {
+        return resultAssemblers.get(jobId);
+    }
+
     /**
      * Delete the job with the given ID.
      */
@@ -478,6 +522,21 @@ public class Broker implements Component {
         workerCatalog.catalog(workerStatus);
     }
 
+    /**
+     * Handle a status report from a worker, whether it arrived by polling or over a task stream: record any regional
+     * analysis results it carries, then record the worker itself in the catalog, which serves as a heartbeat.
+     * The results field is cleared out afterward so it's not visible in the worker list API endpoint.
+     */
+    public void handleWorkerStatus (WorkerStatus workerStatus) {
+        if (workerStatus.results != null) {
+            for (RegionalWorkResult workResult : workerStatus.results) {
+                handleRegionalWorkResult(workResult);
+            }
+        }
+        workerStatus.results = null;
+        recordWorkerObservation(workerStatus);
+    }
+
     /**
      * Slots a single regional work result received from a worker into the appropriate position in the appropriate
      * files. Also considers requesting extra spot instances after a few results have been received.
@@ -506,7 +565,11 @@ public class Broker implements Component {
                 // Mark tasks completed first before passing results to the assembler. On the final result received,
                 // this will minimize the risk of race conditions by quickly making the job invisible to incoming stray
                 // results from spurious redeliveries, before the assembler is busy finalizing and uploading results.
-                markTaskCompleted(job, workResult.taskId);
+                // Results for tasks that were already completed (by another worker that received the same task in
+                // a redelivery or speculative delivery) are dropped, so they are not written to the results twice.
+                if (!markTaskCompleted(job, workResult.taskId)) {
+                    return;
+                }
             }
             // Unlike everything above, result assembly (like starting workers below) does not synchronize on the broker.
             // It contains some slow nested operations to move completed results into storage. Really we should not do
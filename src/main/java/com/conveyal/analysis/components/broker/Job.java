@@ -1,13 +1,16 @@
 package com.conveyal.analysis.components.broker;
 
 import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.WorkerCategory;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -39,9 +42,50 @@ public class Job {
     // to find random tasks as the set of completed tasks gets larger.
     // On the other hand, working on tasks from the same geographic area might be more efficient because
     // they probably use all the same transit lines and roads, which will already be in cache.
-    // So let's just keep track of where we're at in the sequence.
+    // So we deliver tasks in a spatially compact order (see taskOrder) and keep track of where we're at in it.
     private int nextTaskToDeliver;
 
+    /**
+     * Tasks are delivered in this order, which is a permutation of the task numbers. Task numbers are grouped into
+     * small square blocks of origins visited from coarse to fine (for grids) or ordered along a Z-order curve (for
+     * freeform origins), so each batch of consecutive tasks sent to one worker covers a compact area and shares stops,
+     * streets and linkage.
+     */
+    private final int[] taskOrder;
+
+    /** Width and height in pixels of the blocks of grid origins that are delivered together. */
+    public static final int ORIGIN_BLOCK_SIZE = 8;
+
+    /**
+     * Tail tasks that have been outstanding for this many times longer than the mean time from delivery to completion
+     * may be speculatively delivered to a second worker, so a single slow or vanished worker can't hold up a job.
+     */
+    public static final int SPECULATIVE_DELAY_FACTOR = 3;
+
+    /** Never speculatively redeliver a task that was delivered less than this many seconds ago. */
+    public static final int SPECULATIVE_MIN_DELAY_SEC = 15;
+
+    /**
+     * The time this job was created, from which task delivery times are measured. This is not final so tests can
+     * simulate the passage of time.
+     */
+    long creationTime = System.currentTimeMillis();
+
+    /**
+     * The most recent time each task was delivered, in seconds after the creation of this job. Compared with task
+     * completion times, this allows us to track how long tasks take to come back and detect stragglers.
+     */
+    private final int[] deliverySeconds;
+
+    /** Tasks that have already been speculatively redelivered within the current delivery pass. */
+    private final BitSet speculativelyDelivered;
+
+    /**
+     * An exponential moving average of the number of seconds between delivering a task and receiving its result,
+     * or a negative number if no results have been received yet.
+     */
+    private double meanTaskLatencySeconds = -1;
+
     /** A unique identifier for this job, we use random UUIDs. */
     public final String jobId;
 
@@ -143,6 +187,9 @@ public class Job {
         }
 
         this.completedTasks = new BitSet(nTasksTotal);
+        this.speculativelyDelivered = new BitSet(nTasksTotal);
+        this.deliverySeconds = new int[nTasksTotal];
+        this.taskOrder = spatialTaskOrder();
         this.workerTags = workerTags;
 
     }
@@ -150,7 +197,7 @@ public class Job {
     public boolean markTaskCompleted(int taskId) {
         // Don't allow negative or huge task numbers to avoid exceptions or expanding the bitset to
         // a huge size.
-        if (taskId < 0 || taskId > nTasksTotal) {
+        if (taskId < 0 || taskId >= nTasksTotal) {
             return false;
         }
         if (completedTasks.get(taskId)) {
@@ -158,10 +205,95 @@ public class Job {
         } else {
             completedTasks.set(taskId);
             nTasksCompleted += 1;
+            int latencySeconds = secondsSinceCreation() - deliverySeconds[taskId];
+            if (meanTaskLatencySeconds < 0) {
+                meanTaskLatencySeconds = latencySeconds;
+            } else {
+                meanTaskLatencySeconds = 0.95 * meanTaskLatencySeconds + 0.05 * latencySeconds;
+            }
             return true;
         }
     }
 
+    private int secondsSinceCreation () {
+        return (int) ((System.currentTimeMillis() - creationTime) / 1000);
+    }
+
+    /**
+     * Produce the order in which tasks will be delivered. Grid origins are visited block by block, each block being
+     * ORIGIN_BLOCK_SIZE pixels on a side. Blocks are visited from coarse to fine: first the blocks on a sparse lattice
+     * spanning the whole grid, then those halfway between them, and so on. Each batch of tasks still covers a compact
+     * area, but results received early in the job are spread evenly over the region, so partial results are a
+     * meaningful preview (see GridResultWriter.readPartialGrid). Freeform origins are sorted along a Z-order (Morton)
+     * curve over their bounding box.
+     */
+    private int[] spatialTaskOrder () {
+        int[] order = new int[nTasksTotal];
+        if (templateTask.originPointSet == null) {
+            int width = templateTask.width;
+            int height = templateTask.height;
+            int widthBlocks = (width + ORIGIN_BLOCK_SIZE - 1) / ORIGIN_BLOCK_SIZE;
+            int heightBlocks = (height + ORIGIN_BLOCK_SIZE - 1) / ORIGIN_BLOCK_SIZE;
+            int coarsestStride = Integer.highestOneBit(Math.max(widthBlocks, heightBlocks));
+            int i = 0;
+            // Visit blocks on ever finer lattices, skipping those already visited on a coarser one (whose block
+            // coordinates are both multiples of twice the current stride).
+            for (int stride = coarsestStride; stride > 0; stride /= 2) {
+                for (int blockY = 0; blockY < heightBlocks; blockY += stride) {
+                    for (int blockX = 0; blockX < widthBlocks; blockX += stride) {
+                        boolean visitedCoarser = stride < coarsestStride
+                                && blockX % (stride * 2) == 0 && blockY % (stride * 2) == 0;
+                        if (visitedCoarser) continue;
+                        int by = blockY * ORIGIN_BLOCK_SIZE;
+                        int bx = blockX * ORIGIN_BLOCK_SIZE;
+                        for (int y = by; y < Math.min(by + ORIGIN_BLOCK_SIZE, height); y++) {
+                            for (int x = bx; x < Math.min(bx + ORIGIN_BLOCK_SIZE, width); x++) {
+                                order[i++] = y * width + x;
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            PointSet origins = templateTask.originPointSet;
+            double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+            double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+            for (int p = 0; p < nTasksTotal; p++) {
+                minLat = Math.min(minLat, origins.getLat(p));
+                maxLat = Math.max(maxLat, origins.getLat(p));
+                minLon = Math.min(minLon, origins.getLon(p));
+                maxLon = Math.max(maxLon, origins.getLon(p));
+            }
+            // Sort on the interleaved bits of the 16-bit quantized coordinates, keeping the task number in the low bits.
+            long[] keys = new long[nTasksTotal];
+            for (int p = 0; p < nTasksTotal; p++) {
+                int x = quantize(origins.getLon(p), minLon, maxLon);
+                int y = quantize(origins.getLat(p), minLat, maxLat);
+                keys[p] = (interleaveBits(x, y) << 31) | p;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < nTasksTotal; i++) {
+                order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+            }
+        }
+        return order;
+    }
+
+    private static int quantize (double value, double min, double max) {
+        if (max <= min) return 0;
+        return (int) ((value - min) / (max - min) * 0xFFFF);
+    }
+
+    /** @return a 32-bit Morton code interleaving the low 16 bits of x and y. */
+    private static long interleaveBits (int x, int y) {
+        long code = 0;
+        for (int b = 0; b < 16; b++) {
+            code |= ((long) (x >> b) & 1) << (2 * b);
+            code |= ((long) (y >> b) & 1) << (2 * b + 1);
+        }
+        return code;
+    }
+
     public boolean isActive() {
         return !(isComplete() || isErrored());
     }
@@ -181,10 +313,12 @@ public class Job {
      */
     public List<RegionalTask> generateSomeTasksToDeliver (int maxTasks) {
         List<RegionalTask> tasks = new ArrayList<>(maxTasks);
-        // TODO use special bitset iteration syntax.
+        int now = secondsSinceCreation();
         while (nextTaskToDeliver < nTasksTotal && tasks.size() < maxTasks) {
-            if (!completedTasks.get(nextTaskToDeliver)) {
-                tasks.add(makeOneTask(nextTaskToDeliver));
+            int taskNumber = taskOrder[nextTaskToDeliver];
+            if (!completedTasks.get(taskNumber)) {
+                tasks.add(makeOneTask(taskNumber));
+                deliverySeconds[taskNumber] = now;
             }
             nextTaskToDeliver += 1;
         }
@@ -195,6 +329,42 @@ public class Job {
         return tasks;
     }
 
+    /** @return the number of tasks not yet handed out in the current delivery pass, including completed ones. */
+    public int nTasksRemainingInPass () {
+        return nTasksTotal - nextTaskToDeliver;
+    }
+
+    /**
+     * Once every task has been delivered in the current pass, idle workers would otherwise wait for the whole
+     * REDELIVERY_WAIT_SEC before starting a new pass, while a few straggling tasks hold up the end of the job.
+     * This method instead re-issues incomplete tasks that have been outstanding much longer than tasks usually take
+     * to come back. Each task is speculatively redelivered at most once per delivery pass. Whichever copy finishes
+     * first is kept, and later duplicate results are ignored by the broker.
+     *
+     * @param maxTasks the maximum number of tasks to return.
+     * @return some straggling tasks, or an empty list if regular delivery is still in progress or no task qualifies.
+     */
+    public List<RegionalTask> generateSpeculativeTasksToDeliver (int maxTasks) {
+        if (!isActive() || nextTaskToDeliver < nTasksTotal || meanTaskLatencySeconds < 0) {
+            return Collections.emptyList();
+        }
+        int now = secondsSinceCreation();
+        int minDelay = Math.max(SPECULATIVE_MIN_DELAY_SEC, (int) (meanTaskLatencySeconds * SPECULATIVE_DELAY_FACTOR));
+        List<RegionalTask> tasks = new ArrayList<>();
+        for (int t = completedTasks.nextClearBit(0); t < nTasksTotal && tasks.size() < maxTasks;
+                 t = completedTasks.nextClearBit(t + 1)) {
+            if (!speculativelyDelivered.get(t) && now - deliverySeconds[t] >= minDelay) {
+                speculativelyDelivered.set(t);
+                tasks.add(makeOneTask(t));
+            }
+        }
+        if (!tasks.isEmpty()) {
+            LOG.info("Speculatively redelivering {} straggling tasks for job {}.", tasks.size(), jobId);
+            nTasksDelivered += tasks.size();
+        }
+        return tasks;
+    }
+
     public boolean hasTasksToDeliver() {
         if (!(this.isActive())) {
             return false;
@@ -210,6 +380,7 @@ public class Job {
                 return false;
             }
             nextTaskToDeliver = 0;
+            speculativelyDelivered.clear();
             deliveryPass += 1;
             LOG.warn("Delivered all tasks for job {}, but {} seconds later {} results have not been received. Starting redelivery pass {}.",
                     jobId, REDELIVERY_WAIT_SEC, nTasksTotal - nTasksCompleted, deliveryPass);
@@ -45,6 +45,12 @@ public class WorkerCatalog {
      */
     private Map<WorkerCategory, String> singlePointWorkerIdByCategory = new HashMap<>();
 
+    /**
+     * The number of cataloged workers active on each job (see activeWorkersPerJob). This is kept up to date as
+     * observations are added and removed, so the broker can look it up on every poll without scanning all workers.
+     */
+    private TObjectIntMap<String> activeWorkersByJobId = new TObjectIntHashMap<>();
+
     /**
      * Record the fact that a worker with a particular ID was just observed polling for tasks.
      */
@@ -52,7 +58,9 @@ public class WorkerCatalog {
         String workerId = workerStatus.workerId;
         WorkerObservation observation = new WorkerObservation(workerStatus);
         WorkerObservation oldObservation = observationsByWorkerId.put(workerId, observation);
+        countActiveJobs(observation, 1);
         if (oldObservation != null) {
+            countActiveJobs(oldObservation, -1);
             // A worker with this ID has been seen before. The worker may have changed category.
             // Remove the worker from its previous category before adding it to the new category.
             if ( ! observation.category.equals(oldObservation.category)) {
@@ -85,6 +93,7 @@ public class WorkerCatalog {
         }
         for (WorkerObservation observation : ancientObservations) {
             observationsByWorkerId.remove(observation.workerId);
+            countActiveJobs(observation, -1);
             workerIdsByCategory.remove(observation.category, observation.workerId);
             singlePointWorkerIdByCategory.remove(observation.category, observation.workerId);
         }
@@ -102,7 +111,10 @@ public class WorkerCatalog {
 
         // Clear the shut down worker from places it had been cataloged
         singlePointWorkerIdByCategory.remove(workerCategory);
-        observationsByWorkerId.remove(oldSinglePointWorkerId);
+        WorkerObservation oldObservation = observationsByWorkerId.remove(oldSinglePointWorkerId);
+        if (oldObservation != null) {
+            countActiveJobs(oldObservation, -1);
+        }
         workerIdsByCategory.remove(workerCategory, oldSinglePointWorkerId);
 
         // If another worker for this workerCategory is running, set it to handle single-point work.
@@ -143,16 +155,30 @@ public class WorkerCatalog {
      * @return Map jobId to total workers "active on that job".
      */
     public synchronized TObjectIntMap<String> activeWorkersPerJob() {
-        Collection<WorkerObservation> observations = getAllWorkerObservations();
-        TObjectIntMap<String> workersPerJobPerMinute = new TObjectIntHashMap<>();
-        for (WorkerObservation wo : observations) {
-            for (Map.Entry<String, Integer> pair : wo.status.tasksPerMinuteByJobId.entrySet()) {
-                if (pair.getValue() > 0) {
-                    workersPerJobPerMinute.adjustOrPutValue(pair.getKey(), 1, 1);
+        purgeDeadWorkers();
+        return new TObjectIntHashMap<>(activeWorkersByJobId);
+    }
+
+    /**
+     * The number of workers active on a single job, as in activeWorkersPerJob. This does not purge dead workers or
+     * copy anything, so it is cheap enough to call on every poll. Workers that have stopped polling are still counted
+     * until the next call to a method that purges them.
+     */
+    public synchronized int activeWorkersOnJob (String jobId) {
+        return activeWorkersByJobId.get(jobId);
+    }
+
+    /** Add (delta = 1) or remove (delta = -1) the given observation's contribution to the active worker counts. */
+    private void countActiveJobs (WorkerObservation observation, int delta) {
+        if (observation.status.tasksPerMinuteByJobId == null) return;
+        for (Map.Entry<String, Integer> pair : observation.status.tasksPerMinuteByJobId.entrySet()) {
+            if (pair.getValue() != null && pair.getValue() > 0) {
+                String jobId = pair.getKey();
+                if (activeWorkersByJobId.adjustOrPutValue(jobId, delta, delta) <= 0) {
+                    activeWorkersByJobId.remove(jobId);
                 }
             }
         }
-        return workersPerJobPerMinute;
     }
 
     /**
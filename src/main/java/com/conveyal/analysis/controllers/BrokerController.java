@@ -18,7 +18,6 @@ import com.conveyal.gtfs.util.Util;
 import com.conveyal.r5.analyst.WorkerCategory;
 import com.conveyal.r5.analyst.cluster.AnalysisWorker;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
-import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
 import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
 import com.conveyal.r5.analyst.cluster.WorkerStatus;
 import com.conveyal.r5.common.JsonUtilities;
@@ -67,8 +66,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * Workers used to long-poll and hold connections open, allowing them to receive tasks instantly, as soon as the tasks
  * are enqueued. However, this adds a lot of complexity since we need to suspend the open connections and clear them
- * out when the connections are closed. The workers now short-poll, which allows a simple, standard HTTP API.
- * We don't care if it takes a few seconds for workers to start consuming regional tasks.
+ * out when the connections are closed. The workers now short-poll by default, which allows a simple, standard HTTP API.
+ * Workers configured to do so can instead hold a WebSocket open to /internal/stream (see WorkerStreamHandler), which
+ * avoids constant empty polls on large clusters and lets tasks flow as soon as queue slots free up.
  *
  * Single point (high priority) tasks are instead handled with a proxy-like push approach.
  * TODO refactor into TaskBroker and WebAPIServer components
@@ -115,6 +115,11 @@ public class BrokerController implements HttpController {
         sparkService.post("/api/analysis", this::singlePoint); // TODO rename HTTP path to "single" or something
     }
 
+    @Override
+    public void registerWebSocketEndpoints (spark.Service sparkService) {
+        sparkService.webSocket("/internal/stream", new WorkerStreamHandler(broker));
+    }
+
     /**
      * Handler for single-origin requests. This endpoint is contacted by the frontend rather than the worker, and
      * causes a single-point task to be pushed to an appropriate worker for immediate processing. These requests
@@ -353,20 +358,15 @@ public class BrokerController implements HttpController {
     private Object workerPoll (Request request, Response response) {
 
         WorkerStatus workerStatus = objectFromRequestBody(request, WorkerStatus.class);
-        List<RegionalWorkResult> perOriginResults = workerStatus.results;
-
-        // Record any regional analysis results that were supplied by the worker and mark them completed.
-        for (RegionalWorkResult workResult : perOriginResults) {
-            broker.handleRegionalWorkResult(workResult);
-        }
-        // Clear out the results field so it's not visible in the worker list API endpoint.
-        workerStatus.results = null;
 
-        // Add this worker to our catalog, tracking its graph affinity and the last time it was seen among other things.
-        broker.recordWorkerObservation(workerStatus);
+        // Record any regional analysis results that were supplied by the worker and mark them completed, then add this
+        // worker to our catalog, tracking its graph affinity and the last time it was seen among other things.
+        broker.handleWorkerStatus(workerStatus);
         WorkerCategory workerCategory = workerStatus.getWorkerCategory();
         // See if any appropriate tasks exist for this worker.
-        List<RegionalTask> tasks = broker.getSomeWork(workerCategory, workerStatus.maxTasksRequested);
+        List<RegionalTask> tasks = broker.getSomeWork(
+            workerCategory, workerStatus.maxTasksRequested, workerStatus.tasksPerMinuteByJobId
+        );
         // If there is no work for the worker, signal this clearly with a "no content" code,
         // so the worker can sleep a while before the next polling attempt.
         if (tasks.isEmpty()) {
@@ -10,4 +10,10 @@ public interface HttpController {
 
     void registerEndpoints (spark.Service sparkService);
 
+    /**
+     * Spark only allows WebSocket endpoints to be registered before any other route or filter, so controllers that
+     * need them override this method, which is called for every controller before registerEndpoints.
+     */
+    default void registerWebSocketEndpoints (spark.Service sparkService) { }
+
 }
@@ -10,6 +10,9 @@ import com.conveyal.analysis.models.OpportunityDataset;
 import com.conveyal.analysis.models.RegionalAnalysis;
 import com.conveyal.analysis.persistence.Persistence;
 import com.conveyal.analysis.results.CsvResultType;
+import com.conveyal.analysis.results.MultiGridResultWriter;
+import com.conveyal.analysis.results.MultiOriginAssembler;
+import com.conveyal.analysis.results.TiledAccessGrid;
 import com.conveyal.analysis.util.JsonUtil;
 import com.conveyal.file.FileStorage;
 import com.conveyal.file.FileStorageFormat;
@@ -19,6 +22,7 @@ import com.conveyal.r5.analyst.FreeFormPointSet;
 import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.PointSetCache;
+import com.conveyal.r5.analyst.cluster.PathResult;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.primitives.Ints;
@@ -30,11 +34,13 @@ import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -156,6 +162,94 @@ public class RegionalAnalysisController implements HttpController {
         }
     }
 
+    /**
+     * The single cutoff, percentile, and destination pointset of a regional analysis selected by the query parameters
+     * of a request for gridded results.
+     */
+    private class ResultSelection {
+
+        int percentile;
+        int cutoffMinutes;
+        int cutoffIndex;
+        String destinationPointSetId;
+
+        ResultSelection (RegionalAnalysis analysis, Request req) {
+            // Which channel to extract from results with multiple values per origin (for different travel time cutoffs)
+            // and multiple output files per analysis (for different percentiles of travel time and/or different
+            // destination pointsets). These initial values are for older regional analysis results with only a single
+            // cutoff, and no percentile or destination gridId in the file name.
+            // For newer analyses that have multiple cutoffs, percentiles, or destination pointsets, these initial values
+            // are coming from deprecated fields, are not meaningful and will be overwritten below from query parameters.
+            percentile = analysis.travelTimePercentile;
+            cutoffMinutes = analysis.cutoffMinutes;
+            cutoffIndex = 0;
+            destinationPointSetId = analysis.grid;
+
+            // Handle newer regional analyses with multiple cutoffs in an array.
+            // If a query parameter is supplied, range check it, otherwise use the middle value in the list.
+            // The cutoff variable holds the actual cutoff in minutes, not the position in the array of cutoffs.
+            if (analysis.cutoffsMinutes != null) {
+                int nCutoffs = analysis.cutoffsMinutes.length;
+                checkState(nCutoffs > 0, "Regional analysis has no cutoffs.");
+                cutoffMinutes = getIntQueryParameter(req, "cutoff", analysis.cutoffsMinutes[nCutoffs / 2]);
+                cutoffIndex = new TIntArrayList(analysis.cutoffsMinutes).indexOf(cutoffMinutes);
+                checkState(cutoffIndex >= 0,
+                        "Travel time cutoff for this regional analysis must be taken from this list: (%s)",
+                        Ints.join(", ", analysis.cutoffsMinutes)
+                );
+            }
+
+            // Handle newer regional analyses with multiple percentiles in an array.
+            // If a query parameter is supplied, range check it, otherwise use the middle value in the list.
+            // The percentile variable holds the actual percentile (25, 50, 95) not the position in the array.
+            if (analysis.travelTimePercentiles != null) {
+                int nPercentiles = analysis.travelTimePercentiles.length;
+                checkState(nPercentiles > 0, "Regional analysis has no percentiles.");
+                percentile = getIntQueryParameter(req, "percentile", analysis.travelTimePercentiles[nPercentiles / 2]);
+                checkArgument(new TIntArrayList(analysis.travelTimePercentiles).contains(percentile),
+                        "Percentile for this regional analysis must be taken from this list: (%s)",
+                        Ints.join(", ", analysis.travelTimePercentiles));
+            }
+
+            // Handle even newer regional analyses with multiple destination pointsets per analysis.
+            if (analysis.destinationPointSetIds != null) {
+                int nGrids = analysis.destinationPointSetIds.length;
+                checkState(nGrids > 0, "Regional analysis has no grids.");
+                destinationPointSetId = req.queryParams("destinationPointSetId");
+                if (destinationPointSetId == null) {
+                    destinationPointSetId = analysis.destinationPointSetIds[0];
+                }
+                checkArgument(Arrays.asList(analysis.destinationPointSetIds).contains(destinationPointSetId),
+                        "Destination gridId must be one of: %s",
+                        String.join(",", analysis.destinationPointSetIds));
+            }
+        }
+
+    }
+
+    /** Check that the requested file format is one in which a single-cutoff accessibility grid can be returned. */
+    private static FileStorageFormat getGridFormat (String fileFormatExtension) {
+        FileStorageFormat format = FileStorageFormat.valueOf(fileFormatExtension.toUpperCase());
+        if (!FileStorageFormat.GRID.equals(format) && !FileStorageFormat.PNG.equals(format) && !FileStorageFormat.GEOTIFF.equals(format)) {
+            throw AnalysisServerException.badRequest("Format \"" + format + "\" is invalid. Request format must be \"grid\", \"png\", or \"tiff\".");
+        }
+        return format;
+    }
+
+    private static void writeGrid (Grid grid, FileStorageFormat format, OutputStream outputStream) throws IOException {
+        switch (format) {
+            case GRID:
+                grid.write(new GZIPOutputStream(outputStream));
+                break;
+            case PNG:
+                grid.writePng(outputStream);
+                break;
+            case GEOTIFF:
+                grid.writeGeotiff(outputStream);
+                break;
+        }
+    }
+
     /**
      * This used to extract a particular percentile of a regional analysis as a grid file.
      * Now it just gets the single percentile that exists for any one analysis, either from the local buffer file
@@ -179,59 +273,14 @@ public class RegionalAnalysisController implements HttpController {
             throw AnalysisServerException.notFound("The specified regional analysis is unknown or has been deleted.");
         }
 
-        // Which channel to extract from results with multiple values per origin (for different travel time cutoffs)
-        // and multiple output files per analysis (for different percentiles of travel time and/or different
-        // destination pointsets). These initial values are for older regional analysis results with only a single
-        // cutoff, and no percentile or destination gridId in the file name.
-        // For newer analyses that have multiple cutoffs, percentiles, or destination pointsets, these initial values
-        // are coming from deprecated fields, are not meaningful and will be overwritten below from query parameters.
-        int percentile = analysis.travelTimePercentile;
-        int cutoffMinutes = analysis.cutoffMinutes;
-        int cutoffIndex = 0;
-        String destinationPointSetId = analysis.grid;
-
-        // Handle newer regional analyses with multiple cutoffs in an array.
-        // If a query parameter is supplied, range check it, otherwise use the middle value in the list.
-        // The cutoff variable holds the actual cutoff in minutes, not the position in the array of cutoffs.
-        if (analysis.cutoffsMinutes != null) {
-            int nCutoffs = analysis.cutoffsMinutes.length;
-            checkState(nCutoffs > 0, "Regional analysis has no cutoffs.");
-            cutoffMinutes = getIntQueryParameter(req, "cutoff", analysis.cutoffsMinutes[nCutoffs / 2]);
-            cutoffIndex = new TIntArrayList(analysis.cutoffsMinutes).indexOf(cutoffMinutes);
-            checkState(cutoffIndex >= 0,
-                    "Travel time cutoff for this regional analysis must be taken from this list: (%s)",
-                    Ints.join(", ", analysis.cutoffsMinutes)
-            );
-        }
-
-        // Handle newer regional analyses with multiple percentiles in an array.
-        // If a query parameter is supplied, range check it, otherwise use the middle value in the list.
-        // The percentile variable holds the actual percentile (25, 50, 95) not the position in the array.
-        if (analysis.travelTimePercentiles != null) {
-            int nPercentiles = analysis.travelTimePercentiles.length;
-            checkState(nPercentiles > 0, "Regional analysis has no percentiles.");
-            percentile = getIntQueryParameter(req, "percentile", analysis.travelTimePercentiles[nPercentiles / 2]);
-            checkArgument(new TIntArrayList(analysis.travelTimePercentiles).contains(percentile),
-                    "Percentile for this regional analysis must be taken from this list: (%s)",
-                    Ints.join(", ", analysis.travelTimePercentiles));
-        }
-
-        // Handle even newer regional analyses with multiple destination pointsets per analysis.
-        if (analysis.destinationPointSetIds != null) {
-            int nGrids = analysis.destinationPointSetIds.length;
-            checkState(nGrids > 0, "Regional analysis has no grids.");
-            destinationPointSetId = req.queryParams("destinationPointSetId");
-            if (destinationPointSetId == null) {
-                destinationPointSetId = analysis.destinationPointSetIds[0];
-            }
-            checkArgument(Arrays.asList(analysis.destinationPointSetIds).contains(destinationPointSetId),
-                    "Destination gridId must be one of: %s",
-                    String.join(",", analysis.destinationPointSetIds));
-        }
-
-        // We started implementing the ability to retrieve and display partially completed analyses.
-        // We eventually decided these should not be available here at the same endpoint as complete, immutable results.
+        ResultSelection selection = new ResultSelection(analysis, req);
+        int percentile = selection.percentile;
+        int cutoffMinutes = selection.cutoffMinutes;
+        int cutoffIndex = selection.cutoffIndex;
+        String destinationPointSetId = selection.destinationPointSetId;
 
+        // Partially completed analyses are not available here at the same endpoint as complete, immutable results.
+        // They can be previewed via getPartialRegionalResults.
         if (broker.findJob(regionalAnalysisId) != null) {
             throw AnalysisServerException.notFound("Analysis is incomplete, no results file is available.");
         }
@@ -243,66 +292,61 @@ public class RegionalAnalysisController implements HttpController {
         // The analysis has already completed, results should be stored and retrieved from S3 via redirects.
         LOG.debug("Returning {} minute accessibility to pointset {} (percentile {}) for regional analysis {}.",
                 cutoffMinutes, destinationPointSetId, percentile, regionalAnalysisId);
-        FileStorageFormat format = FileStorageFormat.valueOf(fileFormatExtension.toUpperCase());
-        if (!FileStorageFormat.GRID.equals(format) && !FileStorageFormat.PNG.equals(format) && !FileStorageFormat.GEOTIFF.equals(format)) {
-            throw AnalysisServerException.badRequest("Format \"" + format + "\" is invalid. Request format must be \"grid\", \"png\", or \"tiff\".");
+        FileStorageFormat format = getGridFormat(fileFormatExtension);
+
+        // Optionally, only a rectangle of the results can be requested, given in web mercator pixels at the zoom level
+        // of the analysis. Either all or none of these parameters must be supplied.
+        List<String> areaParameters = Arrays.asList("west", "north", "width", "height");
+        long nAreaParameters = areaParameters.stream().filter(p -> req.queryParams(p) != null).count();
+        checkArgument(nAreaParameters == 0 || nAreaParameters == areaParameters.size(),
+                "To select an area, all of these query parameters must be supplied: %s", areaParameters);
+        boolean selectArea = nAreaParameters > 0;
+        String areaSuffix = "";
+        if (selectArea) {
+            areaSuffix = String.format("_X%dY%dW%dH%d",
+                    getIntQueryParameter(req, "west", 0), getIntQueryParameter(req, "north", 0),
+                    getIntQueryParameter(req, "width", 0), getIntQueryParameter(req, "height", 0));
         }
 
         // Analysis grids now have the percentile and cutoff in their S3 key, because there can be many of each.
         // We do this even for results generated by older workers, so they will be re-extracted with the new name.
         // These grids are reasonably small, we may be able to just send all cutoffs to the UI instead of selecting.
-        String singleCutoffKey =
-                String.format("%s_%s_P%d_C%d.%s", regionalAnalysisId, destinationPointSetId, percentile, cutoffMinutes, fileFormatExtension);
+        String singleCutoffKey = String.format("%s_%s_P%d_C%d%s.%s", regionalAnalysisId, destinationPointSetId,
+                percentile, cutoffMinutes, areaSuffix, fileFormatExtension);
 
         // A lot of overhead here - UI contacts backend, backend calls S3, backend responds to UI, UI contacts S3.
         FileStorageKey singleCutoffFileStorageKey = new FileStorageKey(RESULTS, singleCutoffKey);
         if (!fileStorage.exists(singleCutoffFileStorageKey)) {
             // An accessibility grid for this particular cutoff has apparently never been extracted from the
-            // regional results file before. Extract one and save it for future reuse. Older regional analyses
-            // did not have arrays allowing multiple cutoffs, percentiles, or destination pointsets. The
-            // filenames of such regional accessibility results will not have a percentile or pointset ID.
-            // First try the newest form of regional results: multi-percentile, multi-destination-grid.
-            String multiCutoffKey = String.format("%s_%s_P%d.access", regionalAnalysisId, destinationPointSetId, percentile);
-            FileStorageKey multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
-            if (!fileStorage.exists(multiCutoffFileStorageKey)) {
-                LOG.warn("Falling back to older file name formats for regional results file: " + multiCutoffKey);
-                // Fall back to second-oldest form: multi-percentile, single destination grid.
-                multiCutoffKey = String.format("%s_P%d.access", regionalAnalysisId, percentile);
-                multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
-                if (fileStorage.exists(multiCutoffFileStorageKey)) {
-                    checkArgument(analysis.destinationPointSetIds.length == 1);
-                } else {
-                    // Fall back on oldest form of results, single-percentile, single-destination-grid.
-                    multiCutoffKey = regionalAnalysisId + ".access";
-                    multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
-                    if (fileStorage.exists(multiCutoffFileStorageKey)) {
-                        checkArgument(analysis.travelTimePercentiles.length == 1);
-                        checkArgument(analysis.destinationPointSetIds.length == 1);
+            // regional results file before. Extract one and save it for future reuse.
+            // Newer regional analyses also store results in a tiled layout, from which we can read only the tiles
+            // for the requested cutoff and area rather than decompressing and scanning the whole results file.
+            String tiledKey = String.format("%s_%s_P%d.access%s", regionalAnalysisId, destinationPointSetId, percentile,
+                    MultiGridResultWriter.TILED_SUFFIX);
+            FileStorageKey tiledFileStorageKey = new FileStorageKey(RESULTS, tiledKey);
+            Grid grid;
+            if (fileStorage.exists(tiledFileStorageKey)) {
+                LOG.debug("Single-cutoff grid {} not found on S3, reading it from {}.", singleCutoffKey, tiledKey);
+                try (TiledAccessGrid tiledAccessGrid = new TiledAccessGrid(fileStorage.getFile(tiledFileStorageKey))) {
+                    if (selectArea) {
+                        grid = tiledAccessGrid.readGrid(cutoffIndex,
+                                getIntQueryParameter(req, "west", 0), getIntQueryParameter(req, "north", 0),
+                                getIntQueryParameter(req, "width", 0), getIntQueryParameter(req, "height", 0));
                     } else {
-                        throw AnalysisServerException.notFound("Cannot find original source regional analysis output.");
+                        grid = tiledAccessGrid.readGrid(cutoffIndex);
                     }
                 }
+            } else {
+                if (selectArea) {
+                    throw AnalysisServerException.badRequest(
+                            "Selecting an area is not supported for the results of this older regional analysis.");
+                }
+                grid = extractGridFromAccessFile(analysis, regionalAnalysisId, destinationPointSetId, percentile,
+                        cutoffIndex, singleCutoffKey);
             }
-            LOG.debug("Single-cutoff grid {} not found on S3, deriving it from {}.", singleCutoffKey, multiCutoffKey);
-
-            InputStream multiCutoffInputStream = new FileInputStream(fileStorage.getFile(multiCutoffFileStorageKey));
-            Grid grid = new SelectingGridReducer(cutoffIndex).compute(multiCutoffInputStream);
 
             File localFile = FileUtils.createScratchFile(format.toString());
-            FileOutputStream fos = new FileOutputStream(localFile);
-
-            switch (format) {
-                case GRID:
-                    grid.write(new GZIPOutputStream(fos));
-                    break;
-                case PNG:
-                    grid.writePng(fos);
-                    break;
-                case GEOTIFF:
-                    grid.writeGeotiff(fos);
-                    break;
-            }
-
+            writeGrid(grid, format, new FileOutputStream(localFile));
             fileStorage.moveIntoStorage(singleCutoffFileStorageKey, localFile);
         }
         return JsonUtil.toJsonString(
@@ -310,6 +354,85 @@ public class RegionalAnalysisController implements HttpController {
         );
     }
 
+    /**
+     * Preview the accessibility results of a regional analysis that is still running, for one cutoff, percentile, and
+     * destination pointset selected as in getRegionalResults. The grid is read directly from the buffer files into
+     * which results are being written, with origins not yet received filled in from nearby received origins, so it is
+     * progressively refined as the analysis advances. Unlike complete results, the grid is returned in the response
+     * body rather than moved into file storage, as it's out of date as soon as another result arrives. The number of
+     * origins received so far and in total are returned in the X-Origins-Complete and X-Origins-Total headers.
+     */
+    private Object getPartialRegionalResults (Request req, Response res) throws IOException {
+        final String regionalAnalysisId = req.params("_id");
+        FileStorageFormat format = getGridFormat(req.params("format"));
+
+        RegionalAnalysis analysis = Persistence.regionalAnalyses.findPermitted(
+                QueryBuilder.start("_id").is(regionalAnalysisId).get(),
+                DBProjection.exclude("request.scenario.modifications"),
+                UserPermissions.from(req)
+        ).iterator().next();
+        if (analysis == null || analysis.deleted) {
+            throw AnalysisServerException.notFound("The specified regional analysis is unknown or has been deleted.");
+        }
+        ResultSelection selection = new ResultSelection(analysis, req);
+
+        MultiOriginAssembler assembler = broker.findResultAssembler(regionalAnalysisId);
+        if (assembler == null) {
+            throw AnalysisServerException.notFound("Analysis is not running, fetch its complete results instead.");
+        }
+        Grid grid = assembler.getPartialGrid(selection.destinationPointSetId, selection.percentile, selection.cutoffIndex);
+        if (grid == null) {
+            throw AnalysisServerException.badRequest("This analysis does not produce gridded accessibility results.");
+        }
+        LOG.debug("Returning partial {} minute accessibility to pointset {} (percentile {}) for regional analysis {}.",
+                selection.cutoffMinutes, selection.destinationPointSetId, selection.percentile, regionalAnalysisId);
+        res.header("X-Origins-Complete", Integer.toString(assembler.nComplete));
+        res.header("X-Origins-Total", Integer.toString(assembler.nOriginsTotal));
+        res.type(FileStorageFormat.GEOTIFF.equals(format) ? "image/tiff" :
+                FileStorageFormat.PNG.equals(format) ? "image/png" : "application/octet-stream");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writeGrid(grid, format, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Derive a single-cutoff grid by decompressing and scanning a whole regional results file in the original access
+     * grid format, which contains all cutoffs for one percentile. Older regional analyses did not have arrays allowing
+     * multiple cutoffs, percentiles, or destination pointsets. The filenames of such regional accessibility results
+     * will not have a percentile or pointset ID.
+     */
+    private Grid extractGridFromAccessFile (
+            RegionalAnalysis analysis, String regionalAnalysisId, String destinationPointSetId, int percentile,
+            int cutoffIndex, String singleCutoffKey
+    ) throws IOException {
+        // First try the newest form of regional results: multi-percentile, multi-destination-grid.
+        String multiCutoffKey = String.format("%s_%s_P%d.access", regionalAnalysisId, destinationPointSetId, percentile);
+        FileStorageKey multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
+        if (!fileStorage.exists(multiCutoffFileStorageKey)) {
+            LOG.warn("Falling back to older file name formats for regional results file: " + multiCutoffKey);
+            // Fall back to second-oldest form: multi-percentile, single destination grid.
+            multiCutoffKey = String.format("%s_P%d.access", regionalAnalysisId, percentile);
+            multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
+            if (fileStorage.exists(multiCutoffFileStorageKey)) {
+                checkArgument(analysis.destinationPointSetIds.length == 1);
+            } else {
+                // Fall back on oldest form of results, single-percentile, single-destination-grid.
+                multiCutoffKey = regionalAnalysisId + ".access";
+                multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
+                if (fileStorage.exists(multiCutoffFileStorageKey)) {
+                    checkArgument(analysis.travelTimePercentiles.length == 1);
+                    checkArgument(analysis.destinationPointSetIds.length == 1);
+                } else {
+                    throw AnalysisServerException.notFound("Cannot find original source regional analysis output.");
+                }
+            }
+        }
+        LOG.debug("Single-cutoff grid {} not found on S3, deriving it from {}.", singleCutoffKey, multiCutoffKey);
+
+        InputStream multiCutoffInputStream = new FileInputStream(fileStorage.getFile(multiCutoffFileStorageKey));
+        return new SelectingGridReducer(cutoffIndex).compute(multiCutoffInputStream);
+    }
+
     private String getCsvResults (Request req, Response res) {
         final String regionalAnalysisId = req.params("_id");
         final CsvResultType resultType = CsvResultType.valueOf(req.params("resultType").toUpperCase());
@@ -440,6 +563,13 @@ public class RegionalAnalysisController implements HttpController {
                     PointSetCache.readFreeFormFromFileStore(task.destinationPointSetKeys[0])
             };
         }
+        if (task.includePathResults && task.destinationPointSets != null) {
+            // Workers apply the same limit to every task, so fail here rather than on every origin.
+            checkArgument(
+                task.nTargetsPerOrigin() <= PathResult.maxDestinations,
+                "Paths can only be recorded to at most " + PathResult.maxDestinations + " destinations."
+            );
+        }
         if (task.recordTimes) {
             checkArgument(
                 task.destinationPointSets != null &&
@@ -549,6 +679,7 @@ public class RegionalAnalysisController implements HttpController {
             // For grids, no transformer is supplied: render raw bytes or input stream rather than transforming to JSON.
             sparkService.get("/:_id", this::getRegionalAnalysis);
             sparkService.get("/:_id/grid/:format", this::getRegionalResults);
+            sparkService.get("/:_id/partial/:format", this::getPartialRegionalResults);
             sparkService.get("/:_id/csv/:resultType", this::getCsvResults);
             sparkService.get("/:_id/scenarioJsonUrl", this::getScenarioJsonUrl);
             sparkService.delete("/:_id", this::deleteRegionalAnalysis, toJson);
@@ -0,0 +1,132 @@
+package com.conveyal.analysis.controllers;
+
+import com.conveyal.analysis.components.broker.Broker;
+import com.conveyal.analysis.util.JsonUtil;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.WorkerStatus;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Broker side of the persistent connections held open by workers configured to stream tasks rather than poll for them
+ * (see TaskStreamClient). Each incoming text message is a WorkerStatus, handled exactly like the body of a poll
+ * request: its results are recorded and it counts as a heartbeat. Its maxTasksRequested is added to a running credit
+ * for that connection. After each status message, tasks are pushed to the connection up to its credit.
+ *
+ * Each status message is handled like one poll: tasks are taken from the Broker with a single call to the same
+ * getSomeWork method, so they are recorded as delivered and will be redelivered if no result comes back, including
+ * when a connection drops with tasks in flight. Nothing is pushed between messages. A busy worker sends a message
+ * every fraction of a second as results come back and queue slots free up, while an idle worker still holding credit
+ * picks up newly enqueued jobs with its next heartbeat, just as a polling worker would with its next poll.
+ */
+@WebSocket(maxTextMessageSize = WorkerStreamHandler.MAX_MESSAGE_CHARS, maxIdleTime = WorkerStreamHandler.IDLE_TIMEOUT_MSEC)
+public class WorkerStreamHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerStreamHandler.class);
+
+    /** Status messages can carry many results with large accessibility arrays. */
+    static final int MAX_MESSAGE_CHARS = 64 * 1024 * 1024;
+
+    /** Workers send a heartbeat at least every 15 seconds, so a connection silent for this long is dead. */
+    static final int IDLE_TIMEOUT_MSEC = 2 * 60 * 1000;
+
+    private final Broker broker;
+
+    private final Map<Session, WorkerStream> streams = new ConcurrentHashMap<>();
+
+    /** State for one open worker connection. All access to the fields is synchronized on the instance. */
+    private static class WorkerStream {
+        /** The most recent status message, determining which tasks the worker can handle. Null until one arrives. */
+        WorkerStatus lastStatus;
+        /** The number of tasks the worker has asked for but not yet been sent. */
+        int credit;
+    }
+
+    public WorkerStreamHandler (Broker broker) {
+        this.broker = broker;
+    }
+
+    @OnWebSocketConnect
+    public void onConnect (Session session) {
+        LOG.info("Worker at {} opened a task stream.", session.getRemoteAddress());
+        streams.put(session, new WorkerStream());
+    }
+
+    @OnWebSocketClose
+    public void onClose (Session session, int statusCode, String reason) {
+        LOG.info("Task stream from worker at {} closed ({} {}).", session.getRemoteAddress(), statusCode, reason);
+        streams.remove(session);
+    }
+
+    @OnWebSocketMessage
+    public void onMessage (Session session, String message) {
+        WorkerStream stream = streams.get(session);
+        if (stream == null) {
+            return;
+        }
+        WorkerStatus workerStatus;
+        try {
+            workerStatus = JsonUtil.objectMapper.readValue(message, WorkerStatus.class);
+        } catch (Exception e) {
+            LOG.error("Could not decode status message on task stream: {}", e.toString());
+            return;
+        }
+        broker.handleWorkerStatus(workerStatus);
+        synchronized (stream) {
+            stream.lastStatus = workerStatus;
+            stream.credit += workerStatus.maxTasksRequested;
+        }
+        push(session, stream);
+    }
+
+    /**
+     * Send as many tasks as are available and allowed by the stream's credit to the worker at the other end. Tasks are
+     * taken and the credit updated under the stream's lock, but they are sent outside it. Sending is asynchronous, so
+     * a slow worker holds up neither the pushes to other workers nor the handling of its own messages.
+     */
+    private void push (Session session, WorkerStream stream) {
+        final List<RegionalTask> tasks;
+        synchronized (stream) {
+            if (stream.lastStatus == null || stream.credit <= 0 || !session.isOpen()) {
+                return;
+            }
+            tasks = broker.getSomeWork(
+                stream.lastStatus.getWorkerCategory(), stream.credit, stream.lastStatus.tasksPerMinuteByJobId
+            );
+            if (tasks.isEmpty()) {
+                return;
+            }
+            stream.credit -= tasks.size();
+        }
+        try {
+            session.getRemote().sendString(JsonUtil.objectMapper.writeValueAsString(tasks), new WriteCallback() {
+                @Override
+                public void writeFailed (Throwable e) {
+                    pushFailed(session, tasks, e);
+                }
+
+                @Override
+                public void writeSuccess () { }
+            });
+        } catch (Exception e) {
+            pushFailed(session, tasks, e);
+        }
+    }
+
+    private static void pushFailed (Session session, List<RegionalTask> tasks, Throwable e) {
+        // The tasks were recorded as delivered and will be redelivered to another worker in due course.
+        LOG.error("Could not push {} tasks over task stream: {}", tasks.size(), e.toString());
+        session.close();
+    }
+
+}
@@ -12,6 +12,7 @@ import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
 import com.conveyal.r5.analyst.scenario.Scenario;
 import com.conveyal.r5.api.util.LegMode;
 import com.conveyal.r5.api.util.TransitModes;
+import com.conveyal.r5.profile.FrequencyOffsetSampling;
 import com.mongodb.QueryBuilder;
 import org.apache.commons.codec.digest.DigestUtils;
 
@@ -78,6 +79,9 @@ public class AnalysisRequest {
     public int streetTime = 90;
     public int suboptimalMinutes = 5;
 
+    /** How Monte Carlo draws choose the offsets of frequency-based trips. See ProfileRequest. */
+    public FrequencyOffsetSampling frequencyOffsetSampling = FrequencyOffsetSampling.RANDOM;
+
     /**
      * Whether the R5 worker should log an analysis request it receives from the broker.
      * analysis-backend translates front-end requests to the format expected by R5. To debug this
@@ -211,6 +215,14 @@ public class AnalysisRequest {
 
         task.scenario = createScenario(userPermissions);
         task.scenarioId = task.scenario.id;
+        populateTaskParameters(task, userPermissions);
+    }
+
+    /**
+     * Copy all the parameters of this request other than the scenario into the task. This is separate from
+     * populateTask so it can be tested without looking up modifications in the database.
+     */
+    void populateTaskParameters (AnalysisWorkerTask task, UserPermissions userPermissions) {
         task.graphId = bundleId;
         task.workerVersion = workerVersion;
         task.maxFare = maxFare;
@@ -253,6 +265,7 @@ public class AnalysisRequest {
         task.suboptimalMinutes = suboptimalMinutes;
 
         task.monteCarloDraws = monteCarloDraws;
+        task.frequencyOffsetSampling = frequencyOffsetSampling;
         task.percentiles = percentiles;
         task.cutoffsMinutes = cutoffsMinutes;
         
@@ -31,7 +31,7 @@ public abstract class BaseResultWriter {
 
     private static final Logger LOG = LoggerFactory.getLogger(BaseResultWriter.class);
 
-    private final FileStorage fileStorage;
+    protected final FileStorage fileStorage;
 
     protected File bufferFile;
 
@@ -78,6 +78,15 @@ public abstract class BaseResultWriter {
         bufferFile.delete();
     }
 
+    /**
+     * Store a buffer file whose contents were already gzip compressed as they were written.
+     */
+    protected synchronized void finishCompressed (String fileName) {
+        LOG.info("Moving compressed results {} ({}) into file storage.", fileName, human(bufferFile.length(), "B"));
+        FileStorageKey fileStorageKey = new FileStorageKey(RESULTS, fileName);
+        fileStorage.moveIntoStorage(fileStorageKey, bufferFile);
+    }
+
     /**
      * Close all buffers and temporary files.
      */
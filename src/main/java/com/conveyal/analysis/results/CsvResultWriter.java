@@ -8,9 +8,16 @@ import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -20,15 +27,39 @@ import static com.google.common.base.Preconditions.checkState;
  * Common supertype of classes that write information from incoming regional work results out into CSV files.
  * Subclasses are used to record origin/destination "skim" matrices, accessibility indicators for non-gridded
  * ("freeform") origin point sets, and cataloging paths between pairs of origins and destinations.
+ * <p>
+ * Freeform origin/destination jobs can produce many millions of rows, and formatting them in the broker thread that
+ * receives work results would hold up intake of results from all workers. So incoming results are only validated
+ * by the caller, then placed on a bounded queue. A dedicated thread turns them into rows and writes those rows
+ * through a gzip stream, so the file is compressed incrementally as results arrive and finishing the job only needs
+ * to flush the last compressed block. When the writer thread falls behind, the queue fills up and the broker thread
+ * blocks until there is room again, slowing intake rather than accumulating unwritten results in memory.
  */
 public abstract class CsvResultWriter extends BaseResultWriter implements RegionalResultWriter {
 
     private static final Logger LOG = LoggerFactory.getLogger(CsvResultWriter.class);
 
+    /**
+     * The number of work results that may be waiting to be written before callers are blocked. Each may contain
+     * results for many destinations, so this is kept small.
+     */
+    private static final int QUEUE_CAPACITY = 32;
+
     public final String fileName;
     private final CsvWriter csvWriter;
     private int nDataColumns;
 
+    /** Results waiting to be written. An empty Optional signals that no more results will be added. */
+    private final BlockingQueue<Optional<RegionalWorkResult>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final Thread writerThread;
+
+    /** The first exception thrown while writing rows, which will be rethrown when the file is finished. */
+    private volatile Exception writerException;
+
+    /** Set when this writer is terminated, after which nothing will take results from the queue. */
+    private volatile boolean terminated = false;
+
     /**
      * Keep a reference to the task, for fetching percentiles, cutoffs, etc. in iteration over multidimensional results.
      * We could copy only the fields we need, but we end up copying six of them to identically named fields.
@@ -65,10 +96,14 @@ public abstract class CsvResultWriter extends BaseResultWriter implements Region
         checkArgument(task.originPointSet != null, "CsvResultWriters require FreeFormPointSet origins.");
         super.prepare(task.jobId);
         this.fileName = task.jobId + "_" + resultType() +".csv";
-        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(bufferFile));
-        csvWriter = new CsvWriter(bufferedWriter, ',');
+        OutputStream outputStream = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(bufferFile)));
+        csvWriter = new CsvWriter(outputStream, ',', StandardCharsets.UTF_8);
         setDataColumns(columnHeaders());
         this.task = task;
+        // The header row is written before the thread starts, so it's visible to the writer thread.
+        writerThread = new Thread(this::writeQueuedResults, "CSV writer " + fileName);
+        writerThread.setDaemon(true);
+        writerThread.start();
         LOG.info("Created CSV file to hold {} results for regional job {}", resultType(), task.jobId);
     }
 
@@ -81,38 +116,82 @@ public abstract class CsvResultWriter extends BaseResultWriter implements Region
     }
 
     /**
-     * Gzip the csv file and move it into permanent file storage such as AWS S3.
-     * Note: stored file will undergo gzip compression in super.finish(), but be stored with a .csv extension.
+     * Wait for all queued results to be written, then move the csv file into permanent file storage such as AWS S3.
+     * Note: the stored file is gzip compressed, but stored with a .csv extension.
      * When this file is downloaded from the UI, the browser will decompress, yielding a logically named .csv file.
      * Downloads through another channel (e.g. aws s3 cp), will need to be decompressed manually.
      */
     @Override
     public synchronized void finish () throws IOException {
+        try {
+            queue.put(Optional.empty());
+            writerThread.join();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while writing CSV results.", e);
+        }
+        // Closing the CsvWriter flushes and closes the gzip stream, writing the last compressed block.
         csvWriter.close();
-        super.finish(this.fileName);
+        if (writerException != null) {
+            throw new IOException("Failed to write CSV results.", writerException);
+        }
+        super.finishCompressed(this.fileName);
     }
 
     /**
-     * Write all rows for a single regional work result (single origin) into the CSV file.
+     * Queue all rows for a single regional work result (single origin) to be written into the CSV file. This blocks
+     * when too many results are already waiting to be written. The dimensions of the result are checked immediately,
+     * so problems are reported to the caller for the result that caused them. While blocked, this periodically checks
+     * whether the writer has been terminated, as the queue would then never have room again.
      */
     @Override
     public void writeOneWorkResult (RegionalWorkResult workResult) throws Exception {
-        // CsvWriter is not threadsafe and multiple threads may call this, so after values are generated,
-        // the actual writing is synchronized (TODO confirm)
-        // Is result row generation slow enough to bother synchronizing only the following block?
         checkDimension(workResult);
-        Iterable<String[]> rows = rowValues(workResult);
-        synchronized (this) {
-            for (String[] values : rows) {
-                Preconditions.checkArgument(values.length == nDataColumns,
-                        "Attempted to write the wrong number of columns to a result CSV");
-                csvWriter.writeRecord(values);
+        Optional<RegionalWorkResult> queuedResult = Optional.of(workResult);
+        do {
+            checkState(!terminated, "CSV writer was terminated.");
+            if (writerException != null) {
+                throw new IllegalStateException("Failed to write earlier CSV results.", writerException);
+            }
+        } while (!queue.offer(queuedResult, 1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Runs on the writer thread, converting queued results into rows until the end of results is signalled.
+     * CsvWriter is not threadsafe, so it's only used by this thread until the thread exits.
+     */
+    private void writeQueuedResults () {
+        try {
+            while (true) {
+                Optional<RegionalWorkResult> workResult = queue.take();
+                if (workResult.isEmpty()) {
+                    return;
+                }
+                // After any failure, keep draining the queue so callers are not blocked forever.
+                if (writerException == null) {
+                    try {
+                        for (String[] values : rowValues(workResult.get())) {
+                            Preconditions.checkArgument(values.length == nDataColumns,
+                                    "Attempted to write the wrong number of columns to a result CSV");
+                            csvWriter.writeRecord(values);
+                        }
+                    } catch (Exception e) {
+                        LOG.error("Failed to write {} results for regional job {}", resultType(), task.jobId, e);
+                        writerException = e;
+                    }
+                }
             }
+        } catch (InterruptedException e) {
+            // The writer was terminated, any remaining results are discarded.
         }
     }
 
     @Override
     public synchronized void terminate () throws Exception {
+        terminated = true;
+        writerThread.interrupt();
+        writerThread.join();
+        // Wake any caller blocked on the full queue, which will not be drained now that the writer thread has exited.
+        queue.clear();
         csvWriter.close();
         bufferFile.delete();
     }
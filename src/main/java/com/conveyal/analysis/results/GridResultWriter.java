@@ -1,18 +1,26 @@
 package com.conveyal.analysis.results;
 
 import com.conveyal.file.FileStorage;
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.file.FileUtils;
+import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.LittleEndianIntOutputStream;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.BitSet;
 
+import static com.conveyal.analysis.components.broker.Job.ORIGIN_BLOCK_SIZE;
+import static com.conveyal.file.FileCategory.RESULTS;
 import static com.conveyal.r5.common.Util.human;
+import static com.google.common.base.Preconditions.checkElementIndex;
 
 /**
  * Write regional analysis results arriving from workers into a binary grid format. This how we
@@ -43,6 +51,9 @@ public class GridResultWriter extends BaseResultWriter {
 
     private RandomAccessFile randomAccessFile;
 
+    /** Set once the buffer file has been closed by finish() or terminate(), so partial results can't be read. */
+    private boolean closed = false;
+
     /** The version of the access grids we produce */
     private static final int ACCESS_GRID_VERSION = 0;
 
@@ -59,6 +70,9 @@ public class GridResultWriter extends BaseResultWriter {
      */
     private final int channels;
 
+    /** The position and size of the grid of origins, needed to read back partial results while a job is running. */
+    private final int zoom, west, north, width, height;
+
     /**
      * Construct an writer for a single regional analysis result grid, using the proprietary
      * Conveyal grid format. This also creates the on-disk scratch buffer into which the results
@@ -66,8 +80,11 @@ public class GridResultWriter extends BaseResultWriter {
      */
     GridResultWriter (RegionalTask task, FileStorage fileStorage) {
         super(fileStorage);
-        int width = task.width;
-        int height = task.height;
+        this.zoom = task.zoom;
+        this.west = task.west;
+        this.north = task.north;
+        this.width = task.width;
+        this.height = task.height;
         this.channels = task.cutoffsMinutes.length;
         LOG.info(
             "Expecting multi-origin results for grid with width {}, height {}, {} values per origin.",
@@ -111,11 +128,24 @@ public class GridResultWriter extends BaseResultWriter {
         }
     }
 
+    /**
+     * Convert the accumulated results to a tiled access grid and move it into file storage, in addition to the gzipped
+     * access grid stored by finish(). This must be called before finish(), which deletes the buffer file.
+     */
+    synchronized void finishTiles (String fileName) throws IOException {
+        LOG.info("Tiling {} and moving into file storage.", fileName);
+        File tiledFile = FileUtils.createScratchFile();
+        TiledAccessGrid.write(bufferFile, tiledFile);
+        LOG.info("Tiled analysis results {} are {}.", fileName, human(tiledFile.length(), "B"));
+        fileStorage.moveIntoStorage(new FileStorageKey(RESULTS, fileName), tiledFile);
+    }
+
     /** Gzip the access grid and upload it to file storage (such as AWS S3). */
     @Override
     protected synchronized void finish (String fileName) throws IOException {
         super.finish(fileName);
         randomAccessFile.close();
+        closed = true;
     }
 
     /**
@@ -153,9 +183,64 @@ public class GridResultWriter extends BaseResultWriter {
         }
     }
 
+    /**
+     * Read one channel of the results received so far from the buffer file, for display while the job is still
+     * running. Results continue to arrive concurrently: each row is read while holding the same lock as
+     * writeOneOrigin, so no origin is ever seen half-written, but writes can proceed between rows.
+     * <p>
+     * Origins for which no result has been received yet are filled in from a received origin at the same position in
+     * a coarser lattice of origin blocks. The broker delivers origin blocks in coarse-to-fine order (see
+     * Job.spatialTaskOrder), so early in a job every origin is filled from one nearby, and the grid is progressively
+     * refined as the job advances. Origins with no received origin in any coarser lattice are left at zero.
+     *
+     * @param originsReceived the task numbers of the origins whose results have been written to this writer.
+     * @return null if the buffer file was closed before the whole grid could be read, i.e. the job has finished or
+     *         been canceled.
+     */
+    Grid readPartialGrid (int channel, BitSet originsReceived) throws IOException {
+        checkElementIndex(channel, channels);
+        Grid grid = new Grid(west, north, width, height, zoom);
+        ByteBuffer row = ByteBuffer.allocate(width * channels * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < height; y++) {
+            row.clear();
+            long rowOffset = HEADER_LENGTH_BYTES + (long) y * width * channels * Integer.BYTES;
+            synchronized (this) {
+                if (closed) return null;
+                while (row.hasRemaining()) {
+                    if (randomAccessFile.getChannel().read(row, rowOffset + row.position()) < 0) break;
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                // Values are delta-coded across the channels of each origin.
+                int value = 0;
+                for (int c = 0, index = x * channels * Integer.BYTES; c <= channel; c++, index += Integer.BYTES) {
+                    value += row.getInt(index);
+                }
+                grid.grid[x][y] = value;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (originsReceived.get(y * width + x)) continue;
+                // Look for the origin at the same position within the enclosing block at ever coarser levels.
+                int blockX = x / ORIGIN_BLOCK_SIZE, blockY = y / ORIGIN_BLOCK_SIZE;
+                for (int stride = 2; stride / 2 * ORIGIN_BLOCK_SIZE < Math.max(width, height); stride *= 2) {
+                    int coarseX = (blockX - blockX % stride) * ORIGIN_BLOCK_SIZE + x % ORIGIN_BLOCK_SIZE;
+                    int coarseY = (blockY - blockY % stride) * ORIGIN_BLOCK_SIZE + y % ORIGIN_BLOCK_SIZE;
+                    if (coarseX < width && coarseY < height && originsReceived.get(coarseY * width + coarseX)) {
+                        grid.grid[x][y] = grid.grid[coarseX][coarseY];
+                        break;
+                    }
+                }
+            }
+        }
+        return grid;
+    }
+
     @Override
     synchronized void terminate () throws IOException {
         randomAccessFile.close();
+        closed = true;
         bufferFile.delete();
     }
 
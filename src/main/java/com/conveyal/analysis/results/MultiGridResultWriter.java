@@ -2,8 +2,16 @@ package com.conveyal.analysis.results;
 
 import com.conveyal.analysis.models.RegionalAnalysis;
 import com.conveyal.file.FileStorage;
+import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
+import com.google.common.primitives.Ints;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Adapts our collection of grid writers (one for each destination pointset and percentile) to give them the
@@ -11,6 +19,12 @@ import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
  */
 public class MultiGridResultWriter implements RegionalResultWriter {
 
+    /**
+     * Appended to the name of each access grid file to give the name of the same results in a TiledAccessGrid, which
+     * allows extracting a single cutoff or area without reading the whole file.
+     */
+    public static final String TILED_SUFFIX = "tiles";
+
     private final RegionalAnalysis regionalAnalysis;
 
     private final RegionalTask task;
@@ -62,6 +76,21 @@ public class MultiGridResultWriter implements RegionalResultWriter {
         }
     }
 
+    /**
+     * Read the accessibility values received so far for one cutoff, percentile, and destination pointset while the
+     * job is still running. See GridResultWriter.readPartialGrid.
+     * @return null if the job has already finished or been canceled.
+     */
+    public Grid readPartialGrid (
+            String destinationPointSetId, int percentile, int cutoffIndex, BitSet originsReceived
+    ) throws IOException {
+        int d = Arrays.asList(regionalAnalysis.destinationPointSetIds).indexOf(destinationPointSetId);
+        int p = Ints.indexOf(task.percentiles, percentile);
+        checkArgument(d >= 0, "Unknown destination pointset for this analysis: %s", destinationPointSetId);
+        checkArgument(p >= 0, "Unknown percentile for this analysis: %s", percentile);
+        return accessibilityGridWriters[d][p].readPartialGrid(cutoffIndex, originsReceived);
+    }
+
     @Override
     public void terminate () throws Exception {
         for (GridResultWriter[] writers : accessibilityGridWriters) {
@@ -80,6 +109,7 @@ public class MultiGridResultWriter implements RegionalResultWriter {
                 // TODO verify that regionalAnalysis._id is the same as job.jobId
                 String gridFileName =
                         String.format("%s_%s_P%d.access", regionalAnalysis._id, destinationPointSetId, percentile);
+                accessibilityGridWriters[d][p].finishTiles(gridFileName + TILED_SUFFIX);
                 accessibilityGridWriters[d][p].finish(gridFileName);
             }
         }
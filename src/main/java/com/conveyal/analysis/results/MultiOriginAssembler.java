@@ -6,12 +6,14 @@ import com.conveyal.analysis.models.RegionalAnalysis;
 import com.conveyal.analysis.persistence.Persistence;
 import com.conveyal.file.FileStorage;
 import com.conveyal.file.FileStorageFormat;
+import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
 import com.conveyal.r5.util.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
@@ -199,6 +201,34 @@ public class MultiOriginAssembler {
         }
     }
 
+    /**
+     * Read one cutoff of a gridded accessibility result while the analysis is still running, filling in origins not
+     * yet received as described in GridResultWriter.readPartialGrid. Only the set of received origins is copied while
+     * synchronized on this assembler, so reading does not hold up incoming results.
+     * @return null if this analysis does not produce accessibility grids.
+     * @throws AnalysisServerException (not found) if the results were finished or canceled while being read.
+     */
+    public Grid getPartialGrid (String destinationPointSetId, int percentile, int cutoffIndex) throws IOException {
+        BitSet originsReceivedSnapshot;
+        synchronized (this) {
+            originsReceivedSnapshot = (BitSet) originsReceived.clone();
+        }
+        for (RegionalResultWriter writer : resultWriters) {
+            if (writer instanceof MultiGridResultWriter) {
+                Grid grid = ((MultiGridResultWriter) writer).readPartialGrid(
+                        destinationPointSetId, percentile, cutoffIndex, originsReceivedSnapshot
+                );
+                if (grid == null) {
+                    throw AnalysisServerException.notFound(
+                            "Analysis is no longer running, fetch its complete results instead."
+                    );
+                }
+                return grid;
+            }
+        }
+        return null;
+    }
+
     /** Clean up and cancel this grid assembler, typically when a job is canceled while still being processed. */
     public synchronized void terminate () throws Exception {
         for (RegionalResultWriter writer : resultWriters) {
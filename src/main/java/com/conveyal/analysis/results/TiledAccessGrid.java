@@ -0,0 +1,323 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.r5.analyst.Grid;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A layout for regional accessibility results that allows extracting the values for any one cutoff within any
+ * rectangle using a few positional reads, rather than decompressing and scanning the whole file as is necessary with
+ * the original access grid format (see GridResultWriter and SelectingGridReducer).
+ * <p>
+ * The grid is cut into square tiles of TILE_SIZE pixels on a side (smaller at the east and south edges). The values
+ * for each cutoff (channel) in each tile are stored as a separate chunk, with all the chunks for the first cutoff
+ * followed by all those for the second and so on, so that a whole single-cutoff grid is a contiguous range. Within a
+ * chunk, values are in row-major order and delta-coded along each row. Each chunk is individually deflated if that
+ * makes it smaller, and stored raw otherwise.
+ * <p>
+ * Tiled access grids look like this (all integers are little-endian):
+ * <ol>
+ * <li>Header (ASCII text "ACCESSTL")</li>
+ * <li>(4 byte int) File format version</li>
+ * <li>(4 byte int) Web mercator zoom level</li>
+ * <li>(4 byte int) west (x) edge of the grid, i.e. how many pixels this grid is east of the left edge of the world</li>
+ * <li>(4 byte int) north (y) edge of the grid, i.e. how many pixels this grid is south of the top edge of the world</li>
+ * <li>(4 byte int) width of the grid in pixels</li>
+ * <li>(4 byte int) height of the grid in pixels</li>
+ * <li>(4 byte int) number of values (channels) per pixel</li>
+ * <li>(4 byte int) width and height of the tiles in pixels</li>
+ * <li>(repeated 8 byte long, 4 byte int) index of the file offset and stored length of each chunk, in the same order
+ *     as the chunks: axis order (channel, tile row, tile column). The chunk is deflated if the stored length is less
+ *     than four bytes per pixel.</li>
+ * <li>The chunks.</li>
+ * </ol>
+ */
+public class TiledAccessGrid implements Closeable {
+
+    public static final String HEADER = "ACCESSTL";
+
+    /** The version of the tiled access grids we produce and read. */
+    public static final int VERSION = 0;
+
+    /** Small enough to make reading a small area cheap, large enough that compression is effective. */
+    public static final int TILE_SIZE = 64;
+
+    /** The length of the fixed part of the header, before the index. */
+    private static final int HEADER_LENGTH_BYTES = 8 + 8 * Integer.BYTES;
+
+    private static final int INDEX_ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+    /** The length of the header of the original access grid format. */
+    private static final int ACCESS_GRID_HEADER_LENGTH_BYTES = 9 * Integer.BYTES;
+
+    public final int zoom;
+    public final int west;
+    public final int north;
+    public final int width;
+    public final int height;
+    public final int channels;
+    public final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+
+    private final FileChannel fileChannel;
+
+    /** The whole index of chunk offsets and lengths, which is small enough to keep in memory. */
+    private final ByteBuffer index;
+
+    /** Open a tiled access grid for reading, loading only its header and index. */
+    public TiledAccessGrid (File file) throws IOException {
+        fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = readFully(fileChannel, 0, HEADER_LENGTH_BYTES);
+        byte[] magic = new byte[8];
+        header.get(magic);
+        checkArgument(HEADER.equals(new String(magic, StandardCharsets.US_ASCII)), "Input not in tiled access grid format!");
+        int version = header.getInt();
+        checkArgument(version == VERSION, "Version mismatch of tiled access grids, expected %s, found %s", VERSION, version);
+        zoom = header.getInt();
+        west = header.getInt();
+        north = header.getInt();
+        width = header.getInt();
+        height = header.getInt();
+        channels = header.getInt();
+        tileSize = header.getInt();
+        tilesX = ceilDiv(width, tileSize);
+        tilesY = ceilDiv(height, tileSize);
+        index = readFully(fileChannel, HEADER_LENGTH_BYTES, channels * tilesX * tilesY * INDEX_ENTRY_BYTES);
+    }
+
+    /** Extract a whole single-channel grid, e.g. accessibility at one cutoff. */
+    public Grid readGrid (int channel) throws IOException {
+        return readGrid(channel, west, north, width, height);
+    }
+
+    /**
+     * Extract the values for one channel within the given rectangle, which is clipped to the extents of this grid.
+     * Only the tiles overlapping the rectangle are read.
+     * @param west the west edge of the rectangle in pixels from the left edge of the world at this grid's zoom level.
+     * @param north the north edge of the rectangle in pixels from the top edge of the world at this grid's zoom level.
+     */
+    public Grid readGrid (int channel, int west, int north, int width, int height) throws IOException {
+        checkArgument(channel >= 0 && channel < channels, "Channel must be in the range [0, %s).", channels);
+        // Clip the requested rectangle to this grid, in pixels relative to the northwest corner of this grid.
+        int xMin = Math.max(west - this.west, 0);
+        int yMin = Math.max(north - this.north, 0);
+        int xMax = Math.min(west - this.west + width, this.width);
+        int yMax = Math.min(north - this.north + height, this.height);
+        checkArgument(xMax > xMin && yMax > yMin, "Requested area does not overlap the regional analysis results.");
+        Grid grid = new Grid(this.west + xMin, this.north + yMin, xMax - xMin, yMax - yMin, zoom);
+        for (int ty = yMin / tileSize; ty <= (yMax - 1) / tileSize; ty++) {
+            for (int tx = xMin / tileSize; tx <= (xMax - 1) / tileSize; tx++) {
+                int tileX0 = tx * tileSize;
+                int tileY0 = ty * tileSize;
+                int tileWidth = Math.min(tileSize, this.width - tileX0);
+                int tileHeight = Math.min(tileSize, this.height - tileY0);
+                int[] values = readChunk(channel, tx, ty, tileWidth * tileHeight);
+                for (int y = Math.max(tileY0, yMin); y < Math.min(tileY0 + tileHeight, yMax); y++) {
+                    for (int x = Math.max(tileX0, xMin); x < Math.min(tileX0 + tileWidth, xMax); x++) {
+                        grid.grid[x - xMin][y - yMin] = values[(y - tileY0) * tileWidth + (x - tileX0)];
+                    }
+                }
+            }
+        }
+        return grid;
+    }
+
+    /** Read, decompress and decode the values for one channel in one tile. */
+    private int[] readChunk (int channel, int tx, int ty, int nPixels) throws IOException {
+        int entry = (channel * tilesX * tilesY + ty * tilesX + tx) * INDEX_ENTRY_BYTES;
+        long offset = index.getLong(entry);
+        int storedLength = index.getInt(entry + Long.BYTES);
+        byte[] bytes = new byte[nPixels * Integer.BYTES];
+        ByteBuffer stored = readFully(fileChannel, offset, storedLength);
+        if (storedLength < bytes.length) {
+            Inflater inflater = new Inflater();
+            inflater.setInput(stored);
+            try {
+                int inflatedLength = inflater.inflate(bytes);
+                if (inflatedLength != bytes.length) {
+                    throw new IOException("Tiled access grid chunk is truncated.");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Tiled access grid chunk is corrupted.", e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            stored.get(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int tileWidth = Math.min(tileSize, width - tx * tileSize);
+        int[] values = new int[nPixels];
+        for (int i = 0, value = 0; i < nPixels; i++) {
+            // Values are delta-coded along each row.
+            if (i % tileWidth == 0) value = 0;
+            value += buffer.getInt();
+            values[i] = value;
+        }
+        return values;
+    }
+
+    @Override
+    public void close () throws IOException {
+        fileChannel.close();
+    }
+
+    /**
+     * Convert an uncompressed file in the original access grid format (as accumulated by GridResultWriter) to a tiled
+     * access grid. The source is read once from beginning to end, one row of tiles at a time. Chunks are accumulated
+     * in a scratch file per channel, so that they can be concatenated in channel-major order after the index.
+     */
+    public static void write (File accessGridFile, File tiledFile) throws IOException {
+        try (FileChannel source = FileChannel.open(accessGridFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(source, 0, ACCESS_GRID_HEADER_LENGTH_BYTES);
+            header.position(8 + Integer.BYTES); // skip "ACCESSGR" and version
+            int zoom = header.getInt();
+            int west = header.getInt();
+            int north = header.getInt();
+            int width = header.getInt();
+            int height = header.getInt();
+            int channels = header.getInt();
+            int tilesX = ceilDiv(width, TILE_SIZE);
+            int tilesY = ceilDiv(height, TILE_SIZE);
+            int nTiles = tilesX * tilesY;
+
+            File[] channelFiles = new File[channels];
+            OutputStream[] channelOutputs = new OutputStream[channels];
+            long[] channelLengths = new long[channels];
+            long[] chunkOffsets = new long[channels * nTiles];
+            int[] chunkLengths = new int[channels * nTiles];
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                for (int c = 0; c < channels; c++) {
+                    channelFiles[c] = File.createTempFile("access-tiles-", ".chunks");
+                    channelOutputs[c] = new BufferedOutputStream(new FileOutputStream(channelFiles[c]));
+                }
+                byte[] compressed = new byte[TILE_SIZE * TILE_SIZE * Integer.BYTES * 2];
+                for (int ty = 0; ty < tilesY; ty++) {
+                    int y0 = ty * TILE_SIZE;
+                    int rows = Math.min(TILE_SIZE, height - y0);
+                    // Read one row of tiles for all channels, undoing the delta coding across the channels of each pixel.
+                    ByteBuffer band = readFully(source,
+                            ACCESS_GRID_HEADER_LENGTH_BYTES + (long) y0 * width * channels * Integer.BYTES,
+                            rows * width * channels * Integer.BYTES);
+                    int[][] bandValues = new int[channels][rows * width];
+                    for (int pixel = 0; pixel < rows * width; pixel++) {
+                        for (int c = 0, value = 0; c < channels; c++) {
+                            value += band.getInt();
+                            bandValues[c][pixel] = value;
+                        }
+                    }
+                    for (int c = 0; c < channels; c++) {
+                        for (int tx = 0; tx < tilesX; tx++) {
+                            int x0 = tx * TILE_SIZE;
+                            int cols = Math.min(TILE_SIZE, width - x0);
+                            ByteBuffer raw = ByteBuffer.allocate(rows * cols * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                            for (int y = 0; y < rows; y++) {
+                                for (int x = 0, previous = 0; x < cols; x++) {
+                                    int value = bandValues[c][y * width + x0 + x];
+                                    raw.putInt(value - previous);
+                                    previous = value;
+                                }
+                            }
+                            deflater.reset();
+                            deflater.setInput(raw.array());
+                            deflater.finish();
+                            int compressedLength = deflater.deflate(compressed);
+                            int chunk = c * nTiles + ty * tilesX + tx;
+                            chunkOffsets[chunk] = channelLengths[c];
+                            if (deflater.finished() && compressedLength < raw.capacity()) {
+                                channelOutputs[c].write(compressed, 0, compressedLength);
+                                chunkLengths[chunk] = compressedLength;
+                            } else {
+                                channelOutputs[c].write(raw.array());
+                                chunkLengths[chunk] = raw.capacity();
+                            }
+                            channelLengths[c] += chunkLengths[chunk];
+                        }
+                    }
+                }
+                for (OutputStream output : channelOutputs) {
+                    output.close();
+                }
+
+                // Write the header and index, then append the chunks for each channel in turn.
+                ByteBuffer headerAndIndex = ByteBuffer
+                        .allocate(HEADER_LENGTH_BYTES + channels * nTiles * INDEX_ENTRY_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                headerAndIndex.put(HEADER.getBytes(StandardCharsets.US_ASCII));
+                headerAndIndex.putInt(VERSION);
+                headerAndIndex.putInt(zoom);
+                headerAndIndex.putInt(west);
+                headerAndIndex.putInt(north);
+                headerAndIndex.putInt(width);
+                headerAndIndex.putInt(height);
+                headerAndIndex.putInt(channels);
+                headerAndIndex.putInt(TILE_SIZE);
+                long channelStart = headerAndIndex.capacity();
+                for (int c = 0; c < channels; c++) {
+                    for (int tile = 0; tile < nTiles; tile++) {
+                        int chunk = c * nTiles + tile;
+                        headerAndIndex.putLong(channelStart + chunkOffsets[chunk]);
+                        headerAndIndex.putInt(chunkLengths[chunk]);
+                    }
+                    channelStart += channelLengths[c];
+                }
+                headerAndIndex.flip();
+                try (FileChannel output = FileChannel.open(tiledFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    while (headerAndIndex.hasRemaining()) {
+                        output.write(headerAndIndex);
+                    }
+                    for (File channelFile : channelFiles) {
+                        try (FileInputStream input = new FileInputStream(channelFile)) {
+                            FileChannel inputChannel = input.getChannel();
+                            long size = inputChannel.size();
+                            for (long transferred = 0; transferred < size; ) {
+                                transferred += inputChannel.transferTo(transferred, size - transferred, output);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                deflater.end();
+                for (int c = 0; c < channels; c++) {
+                    if (channelOutputs[c] != null) channelOutputs[c].close();
+                    if (channelFiles[c] != null) channelFiles[c].delete();
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer readFully (FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of tiled access grid file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int ceilDiv (int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+}
@@ -3,11 +3,15 @@ package com.conveyal.data.census;
 import com.conveyal.data.geobuf.GeobufDecoder;
 import com.conveyal.data.geobuf.GeobufFeature;
 import com.conveyal.r5.analyst.progress.ProgressListener;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.util.GeometricShapeFactory;
 import org.mapdb.DBMaker;
 import org.slf4j.Logger;
@@ -16,12 +20,18 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 
 import static com.conveyal.data.census.ShapeDataStore.lat2tile;
 import static com.conveyal.data.census.ShapeDataStore.lon2tile;
+import static com.conveyal.data.census.ShapeDataStore.tile2lat;
+import static com.conveyal.data.census.ShapeDataStore.tile2lon;
 
 /**
  * A tile source for seamless Census extracts
@@ -34,6 +44,12 @@ public abstract class SeamlessSource {
 
     private static final GeometryFactory geometryFactory = new GeometryFactory();
 
+    /**
+     * How many tiles are fetched and decoded in parallel before their features are merged into the result. This bounds
+     * the number of decoded tiles held in memory at once, while leaving enough tiles per batch to keep threads busy.
+     */
+    static final int TILES_PER_BATCH = 32;
+
     /** Extract features by bounding box */
     public Map<Long, GeobufFeature> extract(
             double north, double east, double south, double west, boolean onDisk, ProgressListener progressListener
@@ -46,10 +62,24 @@ public abstract class SeamlessSource {
         return extract(rect, onDisk, progressListener);
     }
 
-    /** Extract features by arbitrary polygons */
+    /**
+     * Extract features by arbitrary polygons.
+     *
+     * Tiles are fetched and decoded in parallel, in batches of TILES_PER_BATCH, then merged in a fixed order so the
+     * result does not depend on which thread finishes first. Only one batch of decoded tiles is held at a time, rather
+     * than every tile that finished ahead of a slow one. Features are tested against a prepared copy of the bounds,
+     * except in tiles lying entirely inside the bounds, where any feature whose envelope is within the tile is accepted
+     * without a geometric test. Tiles that don't touch the bounds at all are not fetched.
+     */
     public Map<Long, GeobufFeature> extract (
             Geometry bounds, boolean onDisk, ProgressListener progressListener
     ) throws IOException {
+        return extract(bounds, onDisk, progressListener, TILES_PER_BATCH);
+    }
+
+    Map<Long, GeobufFeature> extract (
+            Geometry bounds, boolean onDisk, ProgressListener progressListener, int tilesPerBatch
+    ) throws IOException {
 
         Map<Long, GeobufFeature> ret;
 
@@ -61,7 +91,7 @@ public abstract class SeamlessSource {
         Envelope env = bounds.getEnvelopeInternal();
         double west = env.getMinX(), east = env.getMaxX(), north = env.getMaxY(), south = env.getMinY();
 
-        // TODO: use prepared polygons
+        PreparedGeometry preparedBounds = PreparedGeometryFactory.prepare(bounds);
 
         // figure out how many tiles we're requesting
         int minX = lon2tile(west, ZOOM_LEVEL), maxX = lon2tile(east, ZOOM_LEVEL),
@@ -72,32 +102,36 @@ public abstract class SeamlessSource {
         LOG.info("Requesting {} tiles", tcount);
         progressListener.beginTask("Reading census tiles", tcount);
 
-        int fcount = 0;
-
-        // read all the relevant tiles
+        List<int[]> tiles = new ArrayList<>(tcount);
         for (int x = minX; x <= maxX; x++) {
             for (int y = minY; y <= maxY; y++) {
-                InputStream is = getInputStream(x, y);
-                if (is == null) {
-                    // no data in this tile
-                    progressListener.increment();
-                    continue;
-                }
-                // decoder closes input stream as soon as it has read the tile
-                GeobufDecoder decoder = new GeobufDecoder(new GZIPInputStream(new BufferedInputStream(is)));
-                while (decoder.hasNext()) {
-                    GeobufFeature f = decoder.next();
-                    // blocks are duplicated at the edges of tiles, no need to import twice
-                    if (ret.containsKey(f.numericId))
-                        continue;
-
-                    if (!bounds.disjoint(f.geometry)) {
-                        ret.put(f.numericId, f);
-                        fcount++;
-
-                        if (fcount % 1000 == 0)
-                            LOG.info("Read {} features", fcount);
-                    }
+                tiles.add(new int[] {x, y});
+            }
+        }
+
+        // blocks are duplicated at the edges of tiles, no need to import twice
+        TLongSet seen = new TLongHashSet();
+        int fcount = 0;
+
+        for (int start = 0; start < tiles.size(); start += tilesPerBatch) {
+            List<int[]> batch = tiles.subList(start, Math.min(start + tilesPerBatch, tiles.size()));
+            List<List<GeobufFeature>> featuresByTile;
+            try {
+                // Collecting a parallel stream keeps the tiles in the order of the batch.
+                featuresByTile = batch.parallelStream()
+                        .map(tile -> readTile(tile[0], tile[1], preparedBounds))
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (List<GeobufFeature> features : featuresByTile) {
+                for (GeobufFeature f : features) {
+                    if (!seen.add(f.numericId)) continue;
+                    ret.put(f.numericId, f);
+                    fcount++;
+
+                    if (fcount % 1000 == 0)
+                        LOG.info("Read {} features", fcount);
                 }
                 progressListener.increment();
             }
@@ -105,6 +139,45 @@ public abstract class SeamlessSource {
         return ret;
     }
 
+    /**
+     * Read and decode one tile, returning only those features that intersect the bounds. This is called on many
+     * threads at once: PreparedGeometry is safe to share between threads.
+     */
+    private List<GeobufFeature> readTile (int x, int y, PreparedGeometry bounds) {
+        List<GeobufFeature> features = new ArrayList<>();
+        Envelope tileEnvelope = new Envelope(
+                tile2lon(x, ZOOM_LEVEL), tile2lon(x + 1, ZOOM_LEVEL),
+                tile2lat(y + 1, ZOOM_LEVEL), tile2lat(y, ZOOM_LEVEL)
+        );
+        Geometry tilePolygon = geometryFactory.toGeometry(tileEnvelope);
+        if (bounds.disjoint(tilePolygon)) {
+            return features;
+        }
+        boolean interiorTile = bounds.contains(tilePolygon);
+        try {
+            InputStream is = getInputStream(x, y);
+            if (is == null) {
+                // no data in this tile
+                return features;
+            }
+            // decoder closes input stream as soon as it has read the tile
+            GeobufDecoder decoder = new GeobufDecoder(new GZIPInputStream(new BufferedInputStream(is)));
+            while (decoder.hasNext()) {
+                GeobufFeature f = decoder.next();
+                // Features are stored in every tile their envelope touches, so a feature can only be accepted without
+                // checking its geometry when its envelope lies entirely within a tile that is inside the bounds.
+                boolean inBounds = (interiorTile && tileEnvelope.contains(f.geometry.getEnvelopeInternal()))
+                        || bounds.intersects(f.geometry);
+                if (inBounds) {
+                    features.add(f);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return features;
+    }
+
     /** get an input stream for the given tile */
     protected abstract InputStream getInputStream(int x, int y) throws IOException;
 }
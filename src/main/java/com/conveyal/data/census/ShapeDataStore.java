@@ -115,6 +115,16 @@ public class ShapeDataStore {
         return (int) ((1 - lat / Math.PI) / 2 * Math.pow(2, zoom));
     }
 
+    /** Get the longitude of the west edge of a particular tile */
+    public static double tile2lon (int x, int zoom) {
+        return x / Math.pow(2, zoom) * 360 - 180;
+    }
+
+    /** Get the latitude of the north edge of a particular tile */
+    public static double tile2lat (int y, int zoom) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / Math.pow(2, zoom)))));
+    }
+
     /** Write GeoBuf tiles to a directory */
     public void writeTiles (File file) throws IOException {
         writeTilesInternal((x, y) -> {
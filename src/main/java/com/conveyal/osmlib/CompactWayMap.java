@@ -0,0 +1,163 @@
+package com.conveyal.osmlib;
+
+import com.conveyal.osmlib.serializer.VarInt;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An in-memory map from OSM way IDs to ways, which stores each way as a single small byte array rather than as a
+ * tree of Java objects (Way, long[], ArrayList, Tag, and two Strings per tag). Node references are delta-coded
+ * and written as varints, exactly as in WaySerializer. Tag keys and values are interned in a StringTable shared by
+ * all ways in the map and only their integer codes are stored, since a handful of keys and values (highway=residential,
+ * oneway=yes...) make up the vast majority of tags.
+ *
+ * Way objects are reconstructed on every call to get() or during iteration, so as with the MapDB tables, modifying
+ * a returned Way has no effect unless it is put back into the map. Tag strings in reconstructed ways are the
+ * interned instances, so repeatedly reading ways creates much less garbage than decoding them from MapDB.
+ *
+ * The encoded ways are held in a primitive-keyed hash map, so way IDs are not boxed. Like the MapDB tree maps, iteration
+ * is in ascending order of way ID: the IDs are sorted each time iteration begins. This class is not threadsafe for
+ * writes, but concurrent reads are fine once all ways have been added.
+ *
+ * This is only used when an OSM is held entirely in memory (see the OSM constructor). Network builds store OSM in
+ * MapDB files, which can be reused and need not fit on the heap, so they do not use this class.
+ */
+public class CompactWayMap extends AbstractMap<Long, Way> {
+
+    private final TLongObjectMap<byte[]> encodedWays = new TLongObjectHashMap<>();
+
+    private final StringTable strings = new StringTable();
+
+    @Override
+    public Way put (Long id, Way way) {
+        byte[] previous = encodedWays.put(id, encode(way));
+        return previous == null ? null : decode(previous);
+    }
+
+    @Override
+    public Way get (Object id) {
+        if (!(id instanceof Long)) return null;
+        byte[] encoded = encodedWays.get((Long) id);
+        return encoded == null ? null : decode(encoded);
+    }
+
+    @Override
+    public boolean containsKey (Object id) {
+        return id instanceof Long && encodedWays.containsKey((Long) id);
+    }
+
+    @Override
+    public Way remove (Object id) {
+        if (!(id instanceof Long)) return null;
+        byte[] previous = encodedWays.remove((Long) id);
+        return previous == null ? null : decode(previous);
+    }
+
+    @Override
+    public int size () {
+        return encodedWays.size();
+    }
+
+    @Override
+    public void clear () {
+        encodedWays.clear();
+        strings.clear();
+    }
+
+    @Override
+    public Set<Entry<Long, Way>> entrySet () {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Long, Way>> iterator () {
+                long[] ids = encodedWays.keys();
+                Arrays.sort(ids);
+                return new Iterator<>() {
+                    int next = 0;
+                    @Override
+                    public boolean hasNext () {
+                        return next < ids.length;
+                    }
+                    @Override
+                    public Entry<Long, Way> next () {
+                        if (next >= ids.length) throw new NoSuchElementException();
+                        long id = ids[next++];
+                        return new SimpleImmutableEntry<>(id, decode(encodedWays.get(id)));
+                    }
+                    @Override
+                    public void remove () {
+                        if (next == 0) throw new IllegalStateException();
+                        encodedWays.remove(ids[next - 1]);
+                    }
+                };
+            }
+            @Override
+            public int size () {
+                return encodedWays.size();
+            }
+        };
+    }
+
+    private byte[] encode (Way way) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(way.nodes.length * 2 + 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            VarInt.writeRawVarint32(out, way.nodes.length);
+            long lastNodeId = 0;
+            for (long nodeId : way.nodes) {
+                VarInt.writeSInt64NoTag(out, nodeId - lastNodeId);
+                lastNodeId = nodeId;
+            }
+            if (way.hasNoTags()) {
+                VarInt.writeRawVarint32(out, 0);
+            } else {
+                VarInt.writeRawVarint32(out, way.tags.size());
+                for (OSMEntity.Tag tag : way.tags) {
+                    VarInt.writeRawVarint32(out, strings.getCode(tag.key));
+                    VarInt.writeRawVarint32(out, strings.getCode(tag.value));
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Should never happen when writing to a byte array.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Way decode (byte[] encoded) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            Way way = new Way();
+            int nNodes = VarInt.readRawVarint32(in);
+            way.nodes = new long[nNodes];
+            long lastNodeId = 0;
+            for (int i = 0; i < nNodes; i++) {
+                lastNodeId += VarInt.readSInt64(in);
+                way.nodes[i] = lastNodeId;
+            }
+            int nTags = VarInt.readRawVarint32(in);
+            for (int i = 0; i < nTags; i++) {
+                String key = strings.getString(VarInt.readRawVarint32(in));
+                String value = strings.getString(VarInt.readRawVarint32(in));
+                way.addTag(key, value);
+            }
+            return way;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -1,74 +1,41 @@
 package com.conveyal.osmlib;
 
-import org.roaringbitmap.RoaringBitmap;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.HashMap;
-import java.util.Map;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
 
 /** 
  * A sparse bit set capable of handling 64-bit int indexes (like OSM IDs).
- * Node numbers in OSM tend to be contiguous so maybe the blocks should be bigger.
  *
  * MapDB TreeSets are much faster than MapDB HashSets, but in-memory NodeTrackers are
  * much faster than MapDB TreeSets.
  *
- * To save space, this uses RoaringBitmaps. RoaringBitmaps currently only support 32 bit keys
- * so we use multiple RoaringBitmaps containing the low 32 bits, stored in a map from the high
- * 32 bits to a roaringbitmap. Since the OSM IDs are concentrated towards the bottom of the long
- * space (i.e. they only need, so far, one more bit than an int provides), only a few blocks are used.
- *
- * This home-made implementation is probably not particularly fast, and the library now has a 64 bit mode:
+ * To save space, this uses RoaringBitmaps. This used to be a home-made map from the high 32 bits of the ID to a
+ * RoaringBitmap containing the low 32 bits. It now wraps the library's own 64-bit mode, which keeps the high parts
+ * in a sorted map and caches the most recently used bucket, so the long runs of nearby node IDs found in consecutive
+ * ways don't incur a boxed hash lookup per node:
  * https://github.com/RoaringBitmap/RoaringBitmap#64-bit-integers-long
- * TODO convert to standard 64-bit extension in library
  */
 public class NodeTracker {
 
-    private static final Logger LOG = LoggerFactory.getLogger(NodeTracker.class);
-
-    private Map<Integer, RoaringBitmap> blocks = new HashMap<>();
+    private final Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
 
     public void add(long x) {
-        int high = highIndex(x);
-        int low = lowIndex(x);
-
-        RoaringBitmap block = blocks.get(high);
-
-        if (block == null) {
-            block = new RoaringBitmap();
-            blocks.put(high, block);
-        }
-
-        block.add(low);
+        bitmap.addLong(x);
     }
 
     public boolean contains(long x) {
-        int high = highIndex(x);
-        RoaringBitmap block = blocks.get(high);
-        if (block != null) {
-            int low = lowIndex(x);
-            return block.contains(low);
-        } else {
-            return false; // block not found
-        }
+        return bitmap.contains(x);
     }
 
     public int cardinality () {
-        // cardinality is the sum of the cardinality of all member bitmaps
-        return blocks.values().stream()
-                .mapToInt(RoaringBitmap::getCardinality)
-                .sum();
-    }
-
-    private static int highIndex (long key) {
-        return (int) (key >> 32);
+        return (int) bitmap.getLongCardinality();
     }
 
-    private static int lowIndex (long key) {
-        // this truncation can change the sign of the int, but roaringbitmaps treats ints as unsigned, so that's
-        // not a problem.
-        return (int) key;
+    /**
+     * Convert dense runs of IDs to run-length encoded containers. This should be called once all IDs have been
+     * added, as it makes later additions slightly more expensive but can shrink the bitmap considerably.
+     */
+    public void optimize () {
+        bitmap.runOptimize();
     }
 
     public static NodeTracker acceptEverything() {
@@ -75,12 +75,15 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     /**
      * Construct a new MapDB-based random-access OSM data store.
      * If diskPath is null, OSM will be loaded into a temporary file and deleted on shutdown.
-     * If diskPath is the string "__MEMORY__" the OSM will be stored entirely in memory. 
+     * If diskPath is the string "__MEMORY__" the OSM will be stored entirely in memory. In that case ways are held
+     * on-heap in a CompactWayMap rather than in an off-heap MapDB table. Network builds (OSMCache, TransportNetwork
+     * and StreetLayer) always use MapDB files, so they are not affected.
      * 
      * @param diskPath - the file in which to save the data, null for a temp file, or "__MEMORY__" for in-memory.
      */
     public OSM (String diskPath) {
         DBMaker dbMaker;
+        boolean inMemory = false;
         if (diskPath == null) {
             LOG.info("OSM will be stored in a temporary file.");
             dbMaker = DBMaker.newTempFileDB().deleteFilesAfterClose();
@@ -89,6 +92,7 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
                 LOG.info("OSM will be stored in memory.");
                 // 'direct' means off-heap memory, no garbage collection overhead
                 dbMaker = DBMaker.newMemoryDirectDB(); 
+                inMemory = true;
             } else {
                 File dp = new File(diskPath);
                 reading = (diskPath.endsWith(".mapdb") || diskPath.endsWith(".db")) && dp.exists();
@@ -134,10 +138,14 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
                 .valueSerializer(new NodeSerializer())
                 .makeOrGet();
         
-        ways =  db.createTreeMap("ways")
-                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
-                .valueSerializer(new WaySerializer())
-                .makeOrGet();
+        if (inMemory) {
+            ways = new CompactWayMap();
+        } else {
+            ways = db.createTreeMap("ways")
+                    .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                    .valueSerializer(new WaySerializer())
+                    .makeOrGet();
+        }
 
         // need as btreemap below to bind function
         BTreeMap<Long, Relation> relations = db.createTreeMap("relations")
@@ -198,6 +206,7 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
                 }
                 //referenceNodes isn't needed after intersectionNodes is built
                 referencedNodes = null;
+                intersectionNodes.optimize();
                 LOG.info("Done detecting intersections.");
             }
             return;
@@ -380,7 +389,11 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
 
     @Override
     public void writeEnd() throws IOException {
-        // Do nothing.
+        // Node IDs are largely sequential, so run-length encoding the completed sets usually saves a lot of space.
+        if (intersectionDetection) {
+            referencedNodes.optimize();
+            intersectionNodes.optimize();
+        }
     }
 
     /** Close the database file to ensure clean shutdown and avoid leaving the async write thread running. */
@@ -10,6 +10,7 @@ import java.util.List;
 
 /**
  * Deduplicates strings and assigns them one-based integer codes, for PBF format.
+ * Also used to intern OSM tag keys and values in the compact in-memory way storage (see CompactWayMap).
  */
 public class StringTable {
 
@@ -33,6 +34,16 @@ public class StringTable {
         return code;
     }
 
+    /** @return the string that was assigned the given code by a previous call to getCode. */
+    public String getString(int code) {
+        return stringForCode.get(code);
+    }
+
+    /** @return the number of codes assigned so far, including the special zero code. */
+    public int size() {
+        return stringForCode.size();
+    }
+
     public void clear() {
         stringForCode.clear();
         codeForString.clear();
@@ -56,10 +56,11 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static com.conveyal.gtfs.util.Util.human;
 import static com.conveyal.r5.common.GeometryUtils.checkWgsEnvelopeSize;
@@ -104,6 +105,9 @@ public class Grid extends PointSet {
      * number of layers/attributes) */
     private static final int MAX_PIXELS = 10_000 * 10_000 * 10;
 
+    /** Number of shapefile features read before rasterizing them in parallel. */
+    private static final int FEATURE_BATCH_SIZE = 10_000;
+
     /** Used when reading a saved grid. */
     public Grid (int west, int north, int width, int height, int zoom) {
         this(new WebMercatorExtents(west, north, width, height, zoom));
@@ -169,13 +173,7 @@ public class Grid extends PointSet {
         List<PixelWeight> weights = new ArrayList<>();
 
         double area = geometry.getArea();
-        if (area < 1e-12) {
-            throw new IllegalArgumentException("Feature geometry is too small");
-        }
-
-        if (area > MAX_FEATURE_AREA_SQ_DEG) {
-            throw new IllegalArgumentException("Feature geometry is too large.");
-        }
+        checkFeatureArea(area);
 
         // PreparedGeometry is often faster for small numbers of vertices;
         // see https://github.com/chrisbennight/intersection-test
@@ -223,18 +221,15 @@ public class Grid extends PointSet {
         return weights;
     }
 
-    /**
-     * Do pycnoplactic mapping:
-     * the value associated with the supplied polygon will be split out proportionately to
-     * all the web Mercator pixels that intersect it.
-     *
-     * If you are creating multiple grids of the same size for different attributes of the same input features, you should
-     * call getPixelWeights(geometry) once for each geometry on any one of the grids, and then pass the returned weights
-     * and the attribute value into incrementFromPixelWeights function; this will avoid duplicating expensive geometric
-     * math.
-     */
-    private void rasterize (Geometry geometry, double value) {
-        incrementFromPixelWeights(getPixelWeights(geometry), value);
+    /** Reject polygons whose area (in square degrees) is too small to weight pixels by, or too large to upload. */
+    static void checkFeatureArea (double area) {
+        if (area < 1e-12) {
+            throw new IllegalArgumentException("Feature geometry is too small");
+        }
+
+        if (area > MAX_FEATURE_AREA_SQ_DEG) {
+            throw new IllegalArgumentException("Feature geometry is too large.");
+        }
     }
 
     /** Using a grid of weights produced by getPixelWeights, burn the value of a polygon into the grid. */
@@ -708,51 +703,74 @@ public class Grid extends PointSet {
             progressListener.setTotalItems(total);
         }
 
-        AtomicInteger count = new AtomicInteger(0);
         Map<String, Grid> grids = new HashMap<>();
 
-        reader.wgs84Stream().forEach(feat -> {
-            Geometry geom = (Geometry) feat.getDefaultGeometry();
-
-            for (Property p : feat.getProperties()) {
-                Object val = p.getValue();
-
-                if (!(val instanceof Number)) continue;
-                double numericVal = ((Number) val).doubleValue();
-                if (numericVal == 0) continue;
-
-                String attributeName = p.getName().getLocalPart();
-                
-                Grid grid = grids.get(attributeName);
-                if (grid == null) {
-                    grid = new Grid(extents);
-                    grid.name = attributeName;
-                    grids.put(attributeName, grid);
-                }
+        // Features are read sequentially but polygons are rasterized in parallel, a batch at a time. The weights of
+        // each polygon are computed only once and then applied to the grids for all of its attributes. They are
+        // applied in the order the features were read so the grids are the same however the work is divided.
+        Iterator<SimpleFeature> features = reader.wgs84Stream().iterator();
+        int count = 0;
+        while (features.hasNext()) {
+            List<SimpleFeature> batch = new ArrayList<>(FEATURE_BATCH_SIZE);
+            while (features.hasNext() && batch.size() < FEATURE_BATCH_SIZE) {
+                batch.add(features.next());
+            }
+            List<List<PixelWeight>> batchWeights = batch.parallelStream().map(feat -> {
+                Geometry geom = (Geometry) feat.getDefaultGeometry();
+                boolean hasValues = numericValues(feat).values().stream().anyMatch(v -> v != 0);
+                return (hasValues && geom instanceof Polygonal)
+                        ? PolygonRasterizer.getPixelWeights(geom, extents, false)
+                        : null;
+            }).collect(Collectors.toList());
+
+            for (int f = 0; f < batch.size(); f++) {
+                Geometry geom = (Geometry) batch.get(f).getDefaultGeometry();
+                for (Map.Entry<String, Double> entry : numericValues(batch.get(f)).entrySet()) {
+                    double numericVal = entry.getValue();
+                    if (numericVal == 0) continue;
+
+                    String attributeName = entry.getKey();
+                    Grid grid = grids.get(attributeName);
+                    if (grid == null) {
+                        grid = new Grid(extents);
+                        grid.name = attributeName;
+                        grids.put(attributeName, grid);
+                    }
 
-                if (geom instanceof Point) {
-                    Point point = (Point) geom;
-                    // already in WGS 84
-                    grid.incrementPoint(point.getY(), point.getX(), numericVal);
-                } else if (geom instanceof Polygon || geom instanceof MultiPolygon) {
-                    grid.rasterize(geom, numericVal);
-                } else {
-                    throw new IllegalArgumentException("Unsupported geometry type: " + geom);
+                    if (geom instanceof Point) {
+                        Point point = (Point) geom;
+                        // already in WGS 84
+                        grid.incrementPoint(point.getY(), point.getX(), numericVal);
+                    } else if (geom instanceof Polygon || geom instanceof MultiPolygon) {
+                        grid.incrementFromPixelWeights(batchWeights.get(f), numericVal);
+                    } else {
+                        throw new IllegalArgumentException("Unsupported geometry type: " + geom);
+                    }
                 }
             }
 
-            int currentCount = count.incrementAndGet();
+            count += batch.size();
             if (progressListener != null) {
-                progressListener.setCompletedItems(currentCount);
-            }
-            if (currentCount % 10000 == 0) {
-                LOG.info("{} / {} features read", human(currentCount), human(total));
+                progressListener.setCompletedItems(count);
             }
-        });
+            LOG.info("{} / {} features read", human(count), human(total));
+        }
         reader.close();
         return new ArrayList<>(grids.values());
     }
 
+    /** The values of all numeric attributes of a shapefile feature, in the order they appear in the feature. */
+    private static Map<String, Double> numericValues (SimpleFeature feature) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Property p : feature.getProperties()) {
+            Object val = p.getValue();
+            if (val instanceof Number) {
+                values.put(p.getName().getLocalPart(), ((Number) val).doubleValue());
+            }
+        }
+        return values;
+    }
+
     @Override
     public double sumTotalOpportunities() {
         double totalOpportunities = 0;
@@ -14,6 +14,9 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
+import java.util.function.UnaryOperator;
+
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Retains linkages between PointSets and the StreetLayers for specific StreetModes.
@@ -145,6 +148,21 @@ public class LinkageCache {
         linkageMap.put(key, newLinkage);
     }
 
+    /**
+     * Replace each un-evictable linkage with the result of the supplied function, which must return a linkage for the
+     * same PointSet, StreetLayer and mode (or the supplied linkage itself). This should only be done just after a
+     * network is loaded, before any scenario or cropped linkages have been built on top of the existing ones.
+     */
+    public void replaceUnevictableLinkages (UnaryOperator<LinkedPointSet> replacement) {
+        checkState(linkageCache.size() == 0, "Linkages have already been derived from the un-evictable ones.");
+        linkageMap.replaceAll((key, linkage) -> {
+            LinkedPointSet replaced = replacement.apply(linkage);
+            checkState(replaced.pointSet == key.pointSet && replaced.streetLayer == key.streetLayer
+                    && replaced.streetMode == key.streetMode, "Replacement linkage does not match the original.");
+            return replaced;
+        });
+    }
+
     public LinkageCache () {
         this.linkageCache = CacheBuilder.newBuilder()
                 .maximumSize(LINKAGE_CACHE_SIZE)
@@ -0,0 +1,218 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.analyst.Grid.PixelWeight;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.conveyal.r5.analyst.Grid.latToPixel;
+import static com.conveyal.r5.analyst.Grid.lonToPixel;
+import static com.conveyal.r5.analyst.Grid.pixelToLat;
+import static com.conveyal.r5.analyst.Grid.pixelToLon;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Finds the proportion of a polygon that falls within each pixel of a Web Mercator grid, producing the same weights
+ * as Grid.getPixelWeights without creating a JTS geometry or performing a JTS intersection for every pixel. This
+ * makes it practical to rasterize shapefiles with hundreds of thousands of polygons, such as census blocks.
+ *
+ * As in Grid.getPixelWeights, areas are measured in WGS84 degrees. Pixels are rectangles in those coordinates,
+ * with rows bounded by lines of latitude and columns by lines of longitude. By Green's theorem, the area of the part
+ * of a polygon west of longitude X is the integral of min(lon, X) d(lat) around its boundary. The area within one
+ * pixel is then the difference of this integral at the pixel's east and west edges, with latitude clamped to the
+ * pixel's row. So each polygon edge contributes an exactly computable amount to the pixels of each row it crosses:
+ * a partial amount to the pixels it passes through, and one constant amount to all pixels west of it in that row.
+ * These constant amounts are accumulated once per row rather than once per pixel. Summing the contributions of all
+ * edges of all rings (with holes oriented opposite to shells) yields the exact area of the polygon in every pixel.
+ */
+public abstract class PolygonRasterizer {
+
+    /** Pixels whose share of the polygon area is below this fraction are considered to be outside the polygon. */
+    private static final double MIN_RELATIVE_AREA = 1e-12;
+
+    /**
+     * Get the proportions of an input polygon feature that overlap each grid cell, as in Grid.getPixelWeights.
+     * This is threadsafe, so the weights for many features can be computed in parallel.
+     *
+     * @param geometry a Polygon or MultiPolygon whose coordinates are in WGS84.
+     * @param relativeToPixels if true, the weights are the proportion of each pixel that is covered by the polygon.
+     *                         Otherwise they are the proportion of the polygon which is within each pixel.
+     */
+    public static List<PixelWeight> getPixelWeights (
+            Geometry geometry, WebMercatorExtents extents, boolean relativeToPixels
+    ) {
+        checkArgument(geometry instanceof Polygonal, "Only polygons can be rasterized.");
+        double area = geometry.getArea();
+        Grid.checkFeatureArea(area);
+
+        // The same pixels considered by Grid.getPixelWeights: those touching the envelope and within the extents.
+        final int zoom = extents.zoom;
+        Envelope env = geometry.getEnvelopeInternal();
+        int minWorldX = Math.max(lonToPixel(env.getMinX(), zoom), extents.west);
+        int maxWorldX = Math.min(lonToPixel(env.getMaxX(), zoom), extents.west + extents.width - 1);
+        int minWorldY = Math.max(latToPixel(env.getMaxY(), zoom), extents.north);
+        int maxWorldY = Math.min(latToPixel(env.getMinY(), zoom), extents.north + extents.height - 1);
+        List<PixelWeight> weights = new ArrayList<>();
+        if (minWorldX > maxWorldX || minWorldY > maxWorldY) {
+            return weights;
+        }
+
+        Rows rows = new Rows(minWorldX, maxWorldX, minWorldY, maxWorldY, zoom);
+        for (int g = 0; g < geometry.getNumGeometries(); g++) {
+            Polygon polygon = (Polygon) geometry.getGeometryN(g);
+            rows.addRing(polygon.getExteriorRing(), false);
+            for (int h = 0; h < polygon.getNumInteriorRing(); h++) {
+                rows.addRing(polygon.getInteriorRingN(h), true);
+            }
+        }
+
+        for (int r = 0; r < rows.nRows; r++) {
+            double pixelArea = rows.pixelWidth * (rows.rowEdgeLats[r] - rows.rowEdgeLats[r + 1]);
+            double[] areas = rows.areas[r];
+            // Apply the contributions of edges lying east of each pixel, accumulating from east to west.
+            double westOfEdges = 0;
+            for (int c = rows.nCols - 1; c >= 0; c--) {
+                westOfEdges += rows.westOfEdges[r][c + 1];
+                double pixelPolygonArea = areas[c] + westOfEdges;
+                if (pixelPolygonArea > area * MIN_RELATIVE_AREA) {
+                    double weight = pixelPolygonArea / (relativeToPixels ? pixelArea : area);
+                    weights.add(new PixelWeight(minWorldX + c - extents.west, minWorldY + r - extents.north, weight));
+                }
+            }
+        }
+        return weights;
+    }
+
+    /** Accumulates the area of a polygon within each pixel of the rows and columns spanned by its envelope. */
+    private static class Rows {
+
+        final int nRows;
+        final int nCols;
+        final int minWorldY;
+        final int zoom;
+
+        /** The latitude of the north edge of each row, followed by the south edge of the last row. */
+        final double[] rowEdgeLats;
+
+        /** The longitude of the west edge of the first column. */
+        final double west;
+
+        /** The width of every pixel in degrees of longitude. */
+        final double pixelWidth;
+
+        /** Area of the polygon within each pixel (in degrees squared) from edges passing through the pixel's column. */
+        final double[][] areas;
+
+        /**
+         * Area contributed by edges to all pixels west of a column in each row. The value at index c applies to all
+         * columns less than c, with index nCols covering edges lying east of all the columns.
+         */
+        final double[][] westOfEdges;
+
+        Rows (int minWorldX, int maxWorldX, int minWorldY, int maxWorldY, int zoom) {
+            nRows = maxWorldY - minWorldY + 1;
+            nCols = maxWorldX - minWorldX + 1;
+            this.minWorldY = minWorldY;
+            this.zoom = zoom;
+            rowEdgeLats = new double[nRows + 1];
+            for (int r = 0; r <= nRows; r++) {
+                rowEdgeLats[r] = pixelToLat(minWorldY + r, zoom);
+            }
+            west = pixelToLon(minWorldX, zoom);
+            pixelWidth = pixelToLon(minWorldX + 1, zoom) - west;
+            areas = new double[nRows][nCols];
+            westOfEdges = new double[nRows][nCols + 1];
+        }
+
+        /** Add the contributions of all edges of one ring, oriented so shells add area and holes subtract it. */
+        void addRing (LinearRing ring, boolean hole) {
+            CoordinateSequence coordinates = ring.getCoordinateSequence();
+            if (coordinates.size() < 4) {
+                return;
+            }
+            // The integral is positive for counterclockwise rings, whatever orientation the input data uses.
+            boolean counterClockwise = signedArea(coordinates) > 0;
+            double sign = (counterClockwise != hole) ? 1 : -1;
+            for (int i = 0; i < coordinates.size() - 1; i++) {
+                addEdge(
+                    coordinates.getX(i), coordinates.getY(i),
+                    coordinates.getX(i + 1), coordinates.getY(i + 1),
+                    sign
+                );
+            }
+        }
+
+        /** The shoelace formula, positive for counterclockwise rings. */
+        private static double signedArea (CoordinateSequence coordinates) {
+            double x0 = coordinates.getX(0);
+            double y0 = coordinates.getY(0);
+            double twiceArea = 0;
+            for (int i = 1; i < coordinates.size() - 1; i++) {
+                twiceArea += (coordinates.getX(i) - x0) * (coordinates.getY(i + 1) - coordinates.getY(i - 1));
+            }
+            return twiceArea / 2;
+        }
+
+        private void addEdge (double lon0, double lat0, double lon1, double lat1, double sign) {
+            double dLat = lat1 - lat0;
+            if (dLat == 0) {
+                // Edges along lines of latitude contribute nothing to the integral.
+                return;
+            }
+            // Positions in units of pixel columns, relative to the west edge of the first column.
+            double u0 = (lon0 - west) / pixelWidth;
+            double u1 = (lon1 - west) / pixelWidth;
+            // Rows are numbered from north to south. Parts of the edge north or south of all rows contribute nothing.
+            // Start one row early in case of rounding differences between latToPixel and the row edges.
+            int firstRow = Math.max(0, latToPixel(Math.max(lat0, lat1), zoom) - minWorldY - 1);
+            while (firstRow < nRows && rowEdgeLats[firstRow + 1] >= Math.max(lat0, lat1)) firstRow++;
+            for (int r = firstRow; r < nRows && rowEdgeLats[r] > Math.min(lat0, lat1); r++) {
+                double south = rowEdgeLats[r + 1];
+                double north = rowEdgeLats[r];
+                double latA = Math.min(Math.max(lat0, south), north);
+                double latB = Math.min(Math.max(lat1, south), north);
+                if (latA == latB) continue;
+                double uA = u0 + (u1 - u0) * (latA - lat0) / dLat;
+                double uB = u0 + (u1 - u0) * (latB - lat0) / dLat;
+                addRowSegment(r, Math.min(uA, uB), Math.max(uA, uB), sign * (latB - latA) * pixelWidth);
+            }
+        }
+
+        /**
+         * Add the contribution of the part of an edge within one row, spanning columns uMin to uMax. For each column
+         * c this is the change in latitude (scaled by pixel width) times the mean of clamp(u, c, c + 1) - c along the
+         * edge, which is 1 for columns entirely west of the edge and 0 for columns entirely east of it.
+         */
+        private void addRowSegment (int row, double uMin, double uMax, double dLatTimesWidth) {
+            int firstCol = (int) Math.max(0, Math.min(nCols, Math.floor(uMin)));
+            int lastCol = (int) Math.min(nCols - 1, Math.floor(uMax));
+            westOfEdges[row][firstCol] += dLatTimesWidth;
+            double length = uMax - uMin;
+            for (int c = firstCol; c <= lastCol; c++) {
+                double mean;
+                if (length == 0) {
+                    mean = Math.min(Math.max(uMin - c, 0), 1);
+                } else {
+                    // Integrate clamp(u, c, c + 1) - c over the part of the edge within and east of this column.
+                    double a = Math.max(uMin, c);
+                    double b = Math.min(uMax, c + 1);
+                    double integral = (b > a) ? (b - a) * ((a + b) / 2 - c) : 0;
+                    double eastStart = Math.max(uMin, c + 1);
+                    if (uMax > eastStart) {
+                        integral += uMax - eastStart;
+                    }
+                    mean = integral / length;
+                }
+                areas[row][c] += dLatTimesWidth * mean;
+            }
+        }
+
+    }
+
+}
@@ -4,7 +4,6 @@ import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
 import com.google.common.base.Preconditions;
 
 import static com.conveyal.r5.common.Util.notNullOrEmpty;
-import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
 
 /**
  * An instance of this is included in a OneOriginResult for reporting how many opportunities are encountered during each
@@ -20,6 +19,13 @@ import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
  * This is more efficient in cases where N is small, and allows retaining the one-second resolution. However currently
  * there does not seem to be much demand among users for this level of detail, so it has been removed in the interest
  * of simplicity and maintainability. See issue 884 for more comments on implementation trade-offs.
+ *
+ * Targets are not added to the histograms one by one as they are recorded. Their travel times are buffered for a tile
+ * of consecutive calls, then the opportunity counts of the whole tile are gathered into a contiguous array once per
+ * destination set and added to the histogram of each percentile in a simple loop over the tile. This fetches each
+ * opportunity count once rather than once per percentile, and keeps the innermost loop free of PointSet calls and
+ * multidimensional array lookups. Each bin receives the same additions in the same order as it would target by target,
+ * so the results are identical. The accumulated histograms are only complete after calling finish().
  */
 public class TemporalDensityResult {
 
@@ -29,6 +35,24 @@ public class TemporalDensityResult {
     private final int nPercentiles;
     private final int opportunityThreshold;
 
+    /** The number of targets whose histogram bins are buffered before their opportunities are accumulated. */
+    private static final int TILE_SIZE = 1024;
+
+    /** The number of one-minute histogram bins, covering travel times up to two hours. */
+    private static final int N_MINUTES = 120;
+
+    /** The target indexes buffered in the current tile. */
+    private final int[] tileTargets = new int[TILE_SIZE];
+
+    /** For each percentile, the travel time in seconds to each target buffered in the current tile. */
+    private final int[][] tileSeconds;
+
+    /** Scratch array for the opportunity counts of the buffered targets in one destination set. */
+    private final double[] tileOpportunities = new double[TILE_SIZE];
+
+    /** The number of targets buffered in the current tile. */
+    private int tileSize = 0;
+
     // Externally visible fields for accumulating results
 
     /**
@@ -45,23 +69,48 @@ public class TemporalDensityResult {
         this.destinationPointSets = task.destinationPointSets;
         this.nPercentiles = task.percentiles.length;
         this.opportunityThreshold = task.dualAccessibilityThreshold;
-        this.opportunitiesPerMinute = new double[destinationPointSets.length][nPercentiles][120];
+        this.opportunitiesPerMinute = new double[destinationPointSets.length][nPercentiles][N_MINUTES];
+        this.tileSeconds = new int[nPercentiles][TILE_SIZE];
     }
 
     public void recordOneTarget (int target, int[] travelTimePercentilesSeconds) {
-        // Increment histogram bin for the number of minutes of travel by the number of opportunities at the target.
+        tileTargets[tileSize] = target;
+        for (int p = 0; p < nPercentiles; p++) {
+            tileSeconds[p][tileSize] = travelTimePercentilesSeconds[p];
+        }
+        tileSize += 1;
+        if (tileSize == TILE_SIZE) {
+            accumulateTile();
+        }
+    }
+
+    /**
+     * Increment the histogram bin for the number of minutes of travel to each buffered target, at each percentile, by the
+     * number of opportunities at that target, then empty the buffer.
+     */
+    private void accumulateTile () {
         for (int d = 0; d < destinationPointSets.length; d++) {
             PointSet dps = destinationPointSets[d];
+            for (int i = 0; i < tileSize; i++) {
+                tileOpportunities[i] = dps.getOpportunityCount(tileTargets[i]);
+            }
             for (int p = 0; p < nPercentiles; p++) {
-                if (travelTimePercentilesSeconds[p] == UNREACHED) {
-                    break; // If any percentile is unreached, all higher ones are also unreached.
-                }
-                int m = travelTimePercentilesSeconds[p] / 60;
-                if (m <= 120) {
-                    opportunitiesPerMinute[d][p][m] += dps.getOpportunityCount(target);
+                double[] histogram = opportunitiesPerMinute[d][p];
+                int[] seconds = tileSeconds[p];
+                for (int i = 0; i < tileSize; i++) {
+                    // UNREACHED is greater than any travel time within the histogram, so needs no special handling.
+                    if (seconds[i] < N_MINUTES * 60) {
+                        histogram[seconds[i] / 60] += tileOpportunities[i];
+                    }
                 }
             }
         }
+        tileSize = 0;
+    }
+
+    /** Accumulate any targets still buffered. This must be called after the last target is recorded. */
+    public void finish () {
+        accumulateTile();
     }
 
     /**
@@ -71,12 +120,13 @@ public class TemporalDensityResult {
      *         for each destination set and percentile of travel time.
      */
     public int[][] minutesToReachOpportunities(int n) {
+        accumulateTile();
         int[][] result = new int[destinationPointSets.length][nPercentiles];
         for (int d = 0; d < destinationPointSets.length; d++) {
             for (int p = 0; p < nPercentiles; p++) {
                 result[d][p] = -1;
                 double count = 0;
-                for (int m = 0; m < 120; m++) {
+                for (int m = 0; m < N_MINUTES; m++) {
                     count += opportunitiesPerMinute[d][p][m];
                     if (count >= n) {
                         result[d][p] = m + 1;
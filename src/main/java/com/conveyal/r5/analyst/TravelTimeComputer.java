@@ -14,6 +14,7 @@ import com.conveyal.r5.profile.FastRaptorWorker;
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.profile.PerTargetPropagater;
 import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.profile.TravelTimesToStops;
 import com.conveyal.r5.streets.LinkedPointSet;
 import com.conveyal.r5.streets.PointSetTimes;
 import com.conveyal.r5.streets.Split;
@@ -183,7 +184,7 @@ public class TravelTimeComputer {
                     LOG.info("Delaying transit access times by {} seconds (to wait for {} pick-up).",
                             accessService.waitTimeSeconds, accessMode);
                     if (accessService.stopsReachable != null) {
-                        travelTimesToStopsSeconds.retainEntries((k, v) -> accessService.stopsReachable.contains(k));
+                        travelTimesToStopsSeconds.retainEntries((k, v) -> accessService.stopsReachable.get(k));
                     }
                     travelTimesToStopsSeconds.transformValues(i -> i + accessService.waitTimeSeconds);
                 }
@@ -287,7 +288,7 @@ public class TravelTimeComputer {
         // II. Transit Routing ========================================================================================
         // Transit stops were reached. Perform transit routing from those stops to all other reachable stops. The result
         // is a travel time in seconds for each iteration (departure time x monte carlo draw), for each transit stop.
-        int[][] transitTravelTimesToStops;
+        TravelTimesToStops transitTravelTimesToStops;
         FastRaptorWorker worker = null;
         if (request.inRoutingFareCalculator == null) {
             worker = new FastRaptorWorker(network.transitLayer, request, bestAccessOptions.getTimes());
@@ -297,7 +298,7 @@ public class TravelTimeComputer {
                 worker.retainPaths = true;
             }
             // Run the main RAPTOR algorithm to find paths and travel times to all stops in the network.
-            // Returns the total travel times as a 2D array of [searchIteration][destinationStopIndex].
+            // Returns the total travel times for every searchIteration at every destination stop.
             // Additional detailed path information is retained in the FastRaptorWorker after routing.
             transitTravelTimesToStops = worker.route();
         } else {
@@ -310,7 +311,7 @@ public class TravelTimeComputer {
             McRaptorSuboptimalPathProfileRouter mcRaptorWorker = new McRaptorSuboptimalPathProfileRouter(network,
                     request, null, null, listSupplier, InRoutingFareCalculator.getCollator(request));
             mcRaptorWorker.route();
-            transitTravelTimesToStops = mcRaptorWorker.getBestTimes();
+            transitTravelTimesToStops = TravelTimesToStops.fromIterations(mcRaptorWorker.getBestTimes());
         }
 
         // III. Egress Propagation ======================================================================================
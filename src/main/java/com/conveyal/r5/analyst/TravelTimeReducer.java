@@ -226,6 +226,23 @@ public class TravelTimeReducer {
         recordTravelTimePercentilesForTarget(target, percentileTravelTimesSeconds);
     }
 
+    /**
+     * Equivalent to extractTravelTimePercentilesAndRecord when the caller knows all the travel times are the same,
+     * as when transit cannot improve on the non-transit time to the target. Every percentile is then that same value,
+     * so there's no need to sort the times.
+     */
+    public void recordUniformTravelTime (int target, int[] timesSeconds) {
+        checkArgument(timesSeconds.length == timesPerDestination,
+            "Number of times supplied must match the number of iterations in this search.");
+        checkArgument(timesSeconds[0] >= 0, "Travel times must be positive.");
+        if (travelTimeResult != null) {
+            travelTimeResult.recordHistogramIfEnabled(target, timesSeconds);
+        }
+        int[] percentileTravelTimesSeconds = new int[nPercentiles];
+        Arrays.fill(percentileTravelTimesSeconds, timesSeconds[0]);
+        recordTravelTimePercentilesForTarget(target, percentileTravelTimesSeconds);
+    }
+
     /**
      * Given a list of travel times in seconds, one for each percentile, store these percentiles of travel time
      * at a particular target location and/or store the derived accessibility values at the origin location. Note that
@@ -340,6 +357,9 @@ public class TravelTimeReducer {
      * origin point is not connected to the street network.
      */
     public OneOriginResult finish () {
+        if (temporalDensityResult != null) {
+            temporalDensityResult.finish();
+        }
         return new OneOriginResult(travelTimeResult, accessibilityResult, pathResult, temporalDensityResult);
     }
 
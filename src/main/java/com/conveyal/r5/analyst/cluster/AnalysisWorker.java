@@ -58,6 +58,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * This contains the main polling loop used by the worker to pull and asynchronously process regional analysis tasks.
  * It polls the broker requesting work over HTTP, telling the broker what networks and scenarios it has loaded.
+ * Alternatively it can hold a persistent WebSocket connection to the broker, which pushes tasks as queue slots free up.
  * It also contains methods invoked by the WorkerHttpApi for handling single-point requests, because they use many
  * of the same Components, but it may be clearer in the long run to factor that out.
  * Since this is now placed under Worker we should eventually rename it to something like RegionalTaskProcessor.
@@ -70,6 +71,7 @@ public class AnalysisWorker implements Component {
         String brokerAddress();
         String brokerPort();
         String initialGraphId();
+        boolean streamTasks();
     }
 
     // CONSTANTS
@@ -79,6 +81,7 @@ public class AnalysisWorker implements Component {
     private static final int POLL_INTERVAL_MIN_SECONDS = 1;
     private static final int POLL_INTERVAL_MAX_SECONDS = 15;
     private static final int POLL_JITTER_SECONDS = 5;
+    private static final int STREAM_REPORT_INTERVAL_MSEC = 500;
     private static final int QUEUE_SLOTS_PER_PROCESSOR = 8;
 
     /**
@@ -230,6 +233,10 @@ public class AnalysisWorker implements Component {
 
         // Before first polling the broker, randomly wait a few seconds to spread load when many workers start at once.
         sleepSeconds((new Random()).nextInt(POLL_JITTER_SECONDS));
+        if (config.streamTasks()) {
+            streamTasks(taskQueue);
+            return;
+        }
         while (true) {
             // We establish a lower limit on the wait time between polling to avoid flooding the broker with requests.
             // If worker handles all tasks in its internal queue in less than this time, this is a speed bottleneck.
@@ -261,16 +268,57 @@ public class AnalysisWorker implements Component {
                 // Either the broker supplied no work or an error occurred.
                 continue;
             }
-            for (RegionalTask task : tasks) {
-                // Executor services require blocking queues of fixed length. Tasks must be enqueued one by one, and
-                // may fail with a RejectedExecutionException if we exceed the queue length. We choose queue length
-                // and requested number of tasks carefully to avoid overfilling the queue, but should handle the
-                // exceptions just in case something is misconfigured.
-                try {
-                    regionalTaskExecutor.execute(new RegionalTaskRunnable(task));
-                } catch (RejectedExecutionException e) {
-                    LOG.error("Regional task could not be enqueued for processing (queue length exceeded). Task dropped.");
-                }
+            enqueueRegionalTasks(tasks);
+        }
+    }
+
+    /**
+     * Alternative to the polling loop above, where the worker holds one WebSocket connection open to the broker.
+     * The worker streams back its results and newly freed queue slots every fraction of a second instead of batching
+     * them up between polls, and the broker answers each of these status messages by pushing any available tasks.
+     * Status messages still go out at least every POLL_INTERVAL_MAX_SECONDS so they continue to serve as heartbeats,
+     * and so an idle worker picks up new jobs as quickly as a polling one.
+     * If the broker can't be reached over the stream (e.g. it's an older version) we fall back on occasional polling
+     * so that work still gets done, and retry the stream connection after each of those polls.
+     * If this thread is interrupted, the stream is closed and this method returns.
+     */
+    void streamTasks (BlockingQueue<Runnable> taskQueue) {
+        TaskStreamClient streamClient = new TaskStreamClient(this, brokerBaseUrl + "/stream");
+        while (!Thread.currentThread().isInterrupted()) {
+            if (!streamClient.isConnected() && !streamClient.connect()) {
+                enqueueRegionalTasks(getSomeWork(taskQueue.remainingCapacity()));
+                sleepSeconds(POLL_INTERVAL_MAX_SECONDS);
+                continue;
+            }
+            streamClient.report(taskQueue.remainingCapacity(), POLL_INTERVAL_MAX_SECONDS);
+            try {
+                Thread.sleep(STREAM_REPORT_INTERVAL_MSEC);
+            } catch (InterruptedException e) {
+                // Keep the interrupt flag set for any caller, but stop streaming rather than spinning on it.
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOG.info("Interrupted, closing task stream.");
+        streamClient.close();
+    }
+
+    /**
+     * Hand tasks received from the broker (by polling or streaming) to the regional task executor.
+     * @param tasks may be null, in which case nothing happens.
+     */
+    void enqueueRegionalTasks (List<RegionalTask> tasks) {
+        if (tasks == null) {
+            return;
+        }
+        for (RegionalTask task : tasks) {
+            // Executor services require blocking queues of fixed length. Tasks must be enqueued one by one, and
+            // may fail with a RejectedExecutionException if we exceed the queue length. We choose queue length
+            // and requested number of tasks carefully to avoid overfilling the queue, but should handle the
+            // exceptions just in case something is misconfigured.
+            try {
+                regionalTaskExecutor.execute(new RegionalTaskRunnable(task));
+            } catch (RejectedExecutionException e) {
+                LOG.error("Regional task could not be enqueued for processing (queue length exceeded). Task dropped.");
             }
         }
     }
@@ -328,8 +376,13 @@ public class AnalysisWorker implements Component {
         // TODO allow for a list of multiple already loaded TransitNetworks.
         networkId = task.graphId;
         TransportNetwork transportNetwork = networkLoaderState.value;
-        OneOriginResult oneOriginResult = handleOneSinglePointTask(task, transportNetwork);
-        return singlePointResultToBinary(oneOriginResult, task, transportNetwork);
+        networkPreloader.transportNetworkCache.pin(task.graphId);
+        try {
+            OneOriginResult oneOriginResult = handleOneSinglePointTask(task, transportNetwork);
+            return singlePointResultToBinary(oneOriginResult, task, transportNetwork);
+        } finally {
+            networkPreloader.transportNetworkCache.unpin(task.graphId);
+        }
     }
 
     /**
@@ -446,8 +499,8 @@ public class AnalysisWorker implements Component {
         checkElementIndex(0, task.percentiles.length, "Regional task must specify at least one percentile.");
 
         // Get the graph object for the ID given in the task, fetching inputs and building as needed.
-        // All requests handled together are for the same graph, and this call is synchronized so the graph will
-        // only be built once. Record the currently loaded network ID to remain on this same graph on subsequent polls.
+        // All requests handled together are for the same graph, and the network cache loads each graph only once,
+        // even when requested concurrently. Record the currently loaded network ID to remain on this same graph on subsequent polls.
         networkId = task.graphId;
 
         // Static site tasks do not specify destinations, but all other regional tasks should.
@@ -462,21 +515,29 @@ public class AnalysisWorker implements Component {
         // Note we're completely bypassing the async loader here and relying on the older nested LoadingCaches.
         // If those are ever removed, the async loader will need a synchronous mode with per-path blocking (kind of
         // reinventing the wheel of LoadingCache) or we'll need to make preparation for regional tasks async.
-        TransportNetwork transportNetwork = networkPreloader.synchronousPreload(task);
+        // The network is pinned in the cache while the task uses it, so it's not evicted to make room for others.
+        TransportNetworkCache transportNetworkCache = networkPreloader.transportNetworkCache;
+        transportNetworkCache.pin(task.graphId);
+        OneOriginResult oneOriginResult;
+        try {
+            TransportNetwork transportNetwork = networkPreloader.synchronousPreload(task);
 
-        // If we are generating a static site, there must be a single metadata file for an entire batch of results.
-        // Arbitrarily we create this metadata as part of the first task in the job.
-        if (task.makeTauiSite && task.taskId == 0) {
-            LOG.info("This is the first task in a job that will produce a static site. Writing shared metadata.");
-            saveTauiMetadata(task, transportNetwork);
-        }
+            // If we are generating a static site, there must be a single metadata file for an entire batch of results.
+            // Arbitrarily we create this metadata as part of the first task in the job.
+            if (task.makeTauiSite && task.taskId == 0) {
+                LOG.info("This is the first task in a job that will produce a static site. Writing shared metadata.");
+                saveTauiMetadata(task, transportNetwork);
+            }
 
-        // After the TransportNetwork has been loaded, signal that we will begin processing the task.
-        eventBus.send(new HandleRegionalEvent());
+            // After the TransportNetwork has been loaded, signal that we will begin processing the task.
+            eventBus.send(new HandleRegionalEvent());
 
-        // Perform the core travel time and accessibility computations.
-        TravelTimeComputer computer = new TravelTimeComputer(task, transportNetwork);
-        OneOriginResult oneOriginResult = computer.computeTravelTimes();
+            // Perform the core travel time and accessibility computations.
+            TravelTimeComputer computer = new TravelTimeComputer(task, transportNetwork);
+            oneOriginResult = computer.computeTravelTimes();
+        } finally {
+            transportNetworkCache.unpin(task.graphId);
+        }
 
         if (task.makeTauiSite) {
             // Unlike a normal regional task, this will write a time grid rather than an accessibility indicator
@@ -592,26 +653,7 @@ public class AnalysisWorker implements Component {
         LOG.debug("Polling backend to report status and request up to {} tasks.", tasksToRequest);
         String url = brokerBaseUrl + "/poll";
         HttpPost httpPost = new HttpPost(url);
-        WorkerStatus workerStatus = new WorkerStatus(this);
-        workerStatus.maxTasksRequested = tasksToRequest;
-        workerStatus.pollIntervalSeconds = POLL_INTERVAL_MAX_SECONDS;
-        // Include all completed work results when polling the backend.
-        // Atomically copy and clear the accumulated work results, while blocking writes from other threads.
-        synchronized (workResults) {
-            workerStatus.results = new ArrayList<>(workResults);
-            workResults.clear();
-        }
-
-        // Compute throughput in tasks per minute and include it in the worker status report.
-        // We poll too frequently to compute throughput just since the last poll operation.
-        // We may want to reduce polling frequency (with larger queue in worker) and compute shorter-term throughput.
-        workerStatus.tasksPerMinuteByJobId = throughputTracker.getTasksPerMinuteByJobId();
-
-        // Report how often we're polling for work, just for monitoring.
-        long timeNow = System.currentTimeMillis();
-        workerStatus.secondsSinceLastPoll = (timeNow - lastPollingTime) / 1000D;
-        lastPollingTime = timeNow;
-
+        WorkerStatus workerStatus = makeWorkerStatus(tasksToRequest);
         httpPost.setEntity(JsonUtilities.objectToJsonHttpEntity(workerStatus));
         HttpEntity responseEntity = null;
         try {
@@ -640,11 +682,50 @@ public class AnalysisWorker implements Component {
         }
         // If we did not return yet, something went wrong and the results were not delivered. Put them back on the list
         // for later re-delivery, safely interleaving with new results that may be coming from other worker threads.
+        restoreWorkResults(workerStatus.results);
+        return null;
+    }
+
+    /**
+     * Create a status report to send to the broker, taking all accumulated work results along with it.
+     * This is shared by the polling and streaming transports, and the resulting report also serves as a heartbeat.
+     */
+    WorkerStatus makeWorkerStatus (int tasksToRequest) {
+        WorkerStatus workerStatus = new WorkerStatus(this);
+        workerStatus.maxTasksRequested = tasksToRequest;
+        workerStatus.pollIntervalSeconds = POLL_INTERVAL_MAX_SECONDS;
+        // Include all completed work results when contacting the backend.
+        // Atomically copy and clear the accumulated work results, while blocking writes from other threads.
+        synchronized (workResults) {
+            workerStatus.results = new ArrayList<>(workResults);
+            workResults.clear();
+        }
+
+        // Compute throughput in tasks per minute and include it in the worker status report.
+        // We poll too frequently to compute throughput just since the last poll operation.
+        // We may want to reduce polling frequency (with larger queue in worker) and compute shorter-term throughput.
+        workerStatus.tasksPerMinuteByJobId = throughputTracker.getTasksPerMinuteByJobId();
+
+        // Report how often we're contacting the broker, just for monitoring.
+        long timeNow = System.currentTimeMillis();
+        workerStatus.secondsSinceLastPoll = (timeNow - lastPollingTime) / 1000D;
+        lastPollingTime = timeNow;
+        return workerStatus;
+    }
+
+    /** @return true if some results have accumulated since the last status report was made. */
+    boolean hasWorkResults () {
+        synchronized (workResults) {
+            return !workResults.isEmpty();
+        }
+    }
+
+    /** Put back results that could not be delivered to the broker, so they'll be included in the next report. */
+    void restoreWorkResults (List<RegionalWorkResult> undeliveredResults) {
         synchronized (workResults) {
             // TODO check here that results are not piling up too much?
-            workResults.addAll(workerStatus.results);
+            workResults.addAll(undeliveredResults);
         }
-        return null;
     }
 
     /**
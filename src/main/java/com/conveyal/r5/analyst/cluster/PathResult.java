@@ -14,7 +14,9 @@ import org.apache.commons.lang3.ArrayUtils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -28,6 +30,12 @@ import static com.google.common.base.Preconditions.checkState;
  *
  * This class is used to accumulate paths to be returned to the broker (similar to TravelTimeResult). In contrast,
  * workers use PathWriter to write paths directly to S3 for Taui sites.
+ *
+ * Regional tasks only ever report one summary row per path template at each destination, so for them paths are
+ * recorded compactly: each distinct path template is stored once per origin in a dictionary, and for each
+ * destination and template only the number of iterations and the details of the iterations that summarizeIterations
+ * would select for each Stat are kept, in primitive columns. This keeps memory use proportional to the number of
+ * distinct paths rather than the number of iterations, so paths can be recorded for many more destinations.
  */
 
 public class PathResult {
@@ -36,19 +44,52 @@ public class PathResult {
      * The maximum number of destinations for which we'll generate detailed path information in a single request.
      * Detailed path information was added on to the original design, which returned a simple grid of travel times.
      * These results are returned to the backend over an HTTP API so we don't want to risk making them too huge.
-     * This could be set to a higher number in cases where you know the result return channel can handle the size.
+     * Regional paths are recorded compactly, so this is much higher than the 5000 destinations allowed when every
+     * iteration was retained, and covers a grid of about 500 by 500 cells. It could be set to a higher number in
+     * cases where you know the result return channel can handle the size. The backend applies the same limit when
+     * a regional analysis with freeform destinations is created, so such analyses fail before any task is sent.
      */
-    public static int maxDestinations = 5000;
+    public static int maxDestinations = 250_000;
 
     private final int nDestinations;
     /**
      * Array with one entry per destination. Each entry is a map from a "path template" to the associated iteration
      * details. For now, the path template is a route-based path ignoring per-iteration details such as wait time.
      * With additional changes, patterns could be collapsed further to route combinations or modes.
+     * This is null when paths are recorded compactly.
      */
     public final Multimap<RouteSequence, Iteration>[] iterationsForPathTemplates;
     private final TransitLayer transitLayer;
 
+    /** Whether only the summary needed for regional results is recorded, rather than every iteration. */
+    private final boolean compact;
+
+    // The dictionary of distinct path templates to any destination from this origin, used in compact mode.
+    private final List<RouteSequence> templates = new ArrayList<>();
+    private final Map<RouteSequence, Integer> templateIndexes = new HashMap<>();
+
+    // In compact mode, the rows of each destination are rowsForDestination[d] consecutive rows starting at
+    // firstRowForDestination[d], and each row is one path template at one destination in the following columns.
+    private final int[] firstRowForDestination;
+    private final int[] rowsForDestination;
+    private final TIntList rowTemplate = new TIntArrayList();
+    private final TIntList rowIterations = new TIntArrayList();
+    /** The details of the iteration selected for each row by each Stat, indexed by the Stat's ordinal. */
+    private final SelectedIterations[] selectedIterations = new SelectedIterations[Stat.values().length];
+    private final TIntList allWaitTimes = new TIntArrayList();
+
+    /**
+     * Columns holding the details of one iteration per compactly recorded row. The wait times of row r are
+     * waitCount[r] values in allWaitTimes from firstWait[r]. When several statistics select the same iteration, their
+     * rows refer to the same wait times.
+     */
+    private static class SelectedIterations {
+        final TIntList totalTime = new TIntArrayList();
+        final TIntList transferTime = new TIntArrayList();
+        final TIntList firstWait = new TIntArrayList();
+        final TIntList waitCount = new TIntArrayList();
+    }
+
     public static String[] DATA_COLUMNS = new String[]{
             "routes",
             "boardStops",
@@ -63,29 +104,110 @@ public class PathResult {
     };
 
     public PathResult(AnalysisWorkerTask task, TransitLayer transitLayer) {
+        // In interactive single-point tasks, paths are only returned for one destination, with every iteration.
+        // In regional analyses, paths are returned to all destinations, summarized as they are recorded.
+        this(task, transitLayer, !(task instanceof TravelTimeSurfaceTask));
+    }
+
+    /**
+     * @param compact whether to summarize iterations as they are recorded. Retaining every iteration for a regional
+     *                task is only useful to check that the compact summary is the same.
+     */
+    PathResult(AnalysisWorkerTask task, TransitLayer transitLayer, boolean compact) {
         if (task instanceof TravelTimeSurfaceTask) {
-            // In interactive single-point tasks, paths are only returned for one destination
             nDestinations = 1;
         } else {
-            // In regional analyses, return paths to all destinations
             nDestinations = task.nTargetsPerOrigin();
-            // This limitation reflects the initial design, for use with freeform pointset destinations
             if (nDestinations > maxDestinations) {
                 throw new UnsupportedOperationException("Number of detailed path destinations exceeds limit of " + maxDestinations);
             }
         }
-        iterationsForPathTemplates = new Multimap[nDestinations];
+        this.compact = compact;
+        if (compact) {
+            iterationsForPathTemplates = null;
+            firstRowForDestination = new int[nDestinations];
+            rowsForDestination = new int[nDestinations];
+            for (Stat stat : Stat.values()) {
+                selectedIterations[stat.ordinal()] = new SelectedIterations();
+            }
+        } else {
+            iterationsForPathTemplates = new Multimap[nDestinations];
+            firstRowForDestination = null;
+            rowsForDestination = null;
+        }
         this.transitLayer = transitLayer;
     }
 
     /**
      * Populate the multimap of path templates to iterations, reducing by using route-based keys instead of
-     * pattern-based keys
+     * pattern-based keys. In compact mode, the iterations are instead reduced to one summary per path template,
+     * and the supplied multimap is not retained.
      */
     public void setTarget(int targetIndex, Multimap<PatternSequence, Iteration> patterns) {
         Multimap<RouteSequence, Iteration> routes = HashMultimap.create();
         patterns.forEach(((patternSeq, iteration) -> routes.put(new RouteSequence(patternSeq, transitLayer), iteration)));
-        iterationsForPathTemplates[targetIndex] = routes;
+        if (!compact) {
+            iterationsForPathTemplates[targetIndex] = routes;
+            return;
+        }
+        checkState(rowsForDestination[targetIndex] == 0, "Paths were already recorded for this destination.");
+        firstRowForDestination[targetIndex] = rowTemplate.size();
+        rowsForDestination[targetIndex] = routes.keySet().size();
+        for (RouteSequence routeSequence : routes.keySet()) {
+            Collection<Iteration> iterations = routes.get(routeSequence);
+            checkState(!iterations.isEmpty(), "A path was stored without any iterations");
+            Integer templateIndex = templateIndexes.get(routeSequence);
+            if (templateIndex == null) {
+                templateIndex = templates.size();
+                templates.add(routeSequence);
+                templateIndexes.put(routeSequence, templateIndex);
+            }
+            rowTemplate.add(templateIndex);
+            rowIterations.add(iterations.size());
+            Iteration previous = null;
+            for (Stat stat : Stat.values()) {
+                Iteration selected = selectIteration(iterations, stat);
+                SelectedIterations columns = selectedIterations[stat.ordinal()];
+                columns.totalTime.add(selected.totalTime);
+                columns.transferTime.add(routeSequence.stopSequence.transferTime(selected));
+                if (selected != previous) {
+                    columns.firstWait.add(allWaitTimes.size());
+                    allWaitTimes.addAll(selected.waitTimes);
+                } else {
+                    // Share the wait times already recorded for the previous statistic.
+                    columns.firstWait.add(allWaitTimes.size() - selected.waitTimes.size());
+                }
+                columns.waitCount.add(selected.waitTimes.size());
+                previous = selected;
+            }
+        }
+    }
+
+    /**
+     * Select the iteration summarizeIterations reports for the given statistic: the first one found whose total
+     * waiting time is closest to the minimum or mean total waiting time of all the iterations.
+     */
+    private static Iteration selectIteration (Collection<Iteration> iterations, Stat stat) {
+        IntStream totalWaits = iterations.stream().mapToInt(i -> i.waitTimes.sum());
+        double targetValue;
+        if (stat == Stat.MINIMUM) {
+            targetValue = totalWaits.min().orElse(-1);
+        } else if (stat == Stat.MEAN) {
+            targetValue = totalWaits.average().orElse(-1);
+        } else {
+            throw new RuntimeException("Unrecognized statistic for path summary");
+        }
+        Iteration selected = null;
+        double score = Double.MAX_VALUE;
+        for (Iteration iteration : iterations) {
+            double thisScore = Math.abs(targetValue - iteration.waitTimes.sum());
+            if (thisScore < score) {
+                selected = iteration;
+                if (thisScore == 0) break;
+                score = thisScore;
+            }
+        }
+        return selected;
     }
 
     /**
@@ -98,6 +220,9 @@ public class PathResult {
      *          of the itinerary with waiting time closest to the requested stat are included.
      */
     public ArrayList<String[]>[] summarizeIterations(Stat stat) {
+        if (compact) {
+            return summarizeCompactRows(stat);
+        }
         ArrayList<String[]>[] summary = new ArrayList[nDestinations];
         for (int d = 0; d < nDestinations; d++) {
             summary[d] = new ArrayList<>();
@@ -144,6 +269,39 @@ public class PathResult {
         return summary;
     }
 
+    /**
+     * Produce the same summary as summarizeIterations from the compactly recorded rows. The route and stop details of
+     * each path template are converted to strings only once, however many destinations it reaches.
+     */
+    private ArrayList<String[]>[] summarizeCompactRows (Stat stat) {
+        SelectedIterations columns = selectedIterations[stat.ordinal()];
+        String[][] templateDetails = new String[templates.size()][];
+        ArrayList<String[]>[] summary = new ArrayList[nDestinations];
+        for (int d = 0; d < nDestinations; d++) {
+            summary[d] = new ArrayList<>(rowsForDestination[d]);
+            for (int r = firstRowForDestination[d]; r < firstRowForDestination[d] + rowsForDestination[d]; r++) {
+                int template = rowTemplate.get(r);
+                if (templateDetails[template] == null) {
+                    templateDetails[template] = templates.get(template).detailsWithGtfsIds(transitLayer);
+                }
+                StringJoiner waitTimes = new StringJoiner("|");
+                int firstWait = columns.firstWait.get(r);
+                for (int w = firstWait; w < firstWait + columns.waitCount.get(r); w++) {
+                    waitTimes.add(String.format("%.1f", allWaitTimes.get(w) / 60f));
+                }
+                String[] row = ArrayUtils.addAll(templateDetails[template],
+                        String.format("%.1f", columns.transferTime.get(r) / 60f),
+                        waitTimes.toString(),
+                        String.format("%.1f", columns.totalTime.get(r) / 60f),
+                        String.valueOf(rowIterations.get(r))
+                );
+                checkState(row.length == DATA_COLUMNS.length);
+                summary[d].add(row);
+            }
+        }
+        return summary;
+    }
+
     public enum Stat {
         MEAN,
         MINIMUM
@@ -170,6 +328,7 @@ public class PathResult {
      * Returns human-readable details of path iterations, for JSON representation (e.g. in the UI console).
      */
     public List<PathIterations> getPathIterationsForDestination() {
+        checkState(!compact, "Individual iterations are not retained for compactly recorded paths.");
         checkState(iterationsForPathTemplates.length == 1, "Paths were stored for multiple " +
                 "destinations, but only one is being requested");
         List<PathIterations> detailsForDestination = new ArrayList<>();
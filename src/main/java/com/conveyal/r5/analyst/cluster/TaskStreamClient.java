@@ -0,0 +1,191 @@
+package com.conveyal.r5.analyst.cluster;
+
+import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.r5.util.ExceptionUtils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The worker side of a persistent WebSocket connection to the broker, used instead of repeated HTTP polling when the
+ * worker is configured with stream-tasks=true. Both directions carry the same JSON as the polling API: the worker
+ * sends WorkerStatus objects (with results attached) and the broker sends lists of RegionalTasks.
+ *
+ * Flow control works with credits. Each status message asks for maxTasksRequested more tasks on top of any that were
+ * already requested, and the broker keeps a running total which it decrements as it pushes tasks. The worker only
+ * grants queue slots that are not already spoken for by tasks in flight, so the two sides can't overfill the queue
+ * even when status messages and task batches cross each other on the wire. Credit is discarded on both ends when the
+ * connection is lost. Tasks that were pushed but never received are redelivered by the broker as usual.
+ *
+ * We use the JDK's built-in WebSocket client rather than the Apache client used for polling, since the latter can't
+ * hold a bidirectional connection.
+ */
+public class TaskStreamClient implements WebSocket.Listener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TaskStreamClient.class);
+
+    private static final int CONNECT_TIMEOUT_SEC = 10;
+
+    private static final int SEND_TIMEOUT_SEC = 30;
+
+    private final AnalysisWorker worker;
+
+    private final URI streamUri;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(CONNECT_TIMEOUT_SEC))
+            .build();
+
+    /** The open connection to the broker, or null if we are not currently connected. */
+    private volatile WebSocket webSocket;
+
+    /**
+     * Text messages may arrive in several fragments. They are accumulated here until the last one arrives.
+     * The Listener methods are never called concurrently for a single WebSocket, so this needs no synchronization.
+     */
+    private final StringBuilder messageBuffer = new StringBuilder();
+
+    /** The number of queue slots we've offered to the broker that have not yet been filled by incoming tasks. */
+    private final AtomicInteger outstandingCredit = new AtomicInteger();
+
+    /** The last time (in milliseconds since the epoch) that we sent a status message to the broker. */
+    private long lastReportTime = 0;
+
+    /**
+     * @param streamUrl the HTTP URL of the broker's streaming endpoint, which will be converted to a ws:// URL.
+     */
+    public TaskStreamClient (AnalysisWorker worker, String streamUrl) {
+        this.worker = worker;
+        this.streamUri = URI.create(streamUrl.replaceFirst("^http", "ws"));
+    }
+
+    /** @return true if the connection to the broker was established, false if the caller should retry later. */
+    public boolean connect () {
+        outstandingCredit.set(0);
+        lastReportTime = 0;
+        try {
+            webSocket = httpClient.newWebSocketBuilder()
+                    .buildAsync(streamUri, this)
+                    .get(CONNECT_TIMEOUT_SEC, TimeUnit.SECONDS);
+            LOG.info("Opened task stream to broker at {}.", streamUri);
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Could not open task stream to broker at {}: {}", streamUri, e.toString());
+            webSocket = null;
+            keepInterrupted(e);
+            return false;
+        }
+    }
+
+    public boolean isConnected () {
+        WebSocket ws = webSocket;
+        return ws != null && !ws.isInputClosed() && !ws.isOutputClosed();
+    }
+
+    /**
+     * Close the connection to the broker, if any. Tasks the broker has already sent but that have not arrived will be
+     * redelivered to another worker.
+     */
+    public void close () {
+        WebSocket ws = webSocket;
+        webSocket = null;
+        if (ws != null) {
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "Worker shutting down").whenComplete((result, error) -> ws.abort());
+        }
+    }
+
+    /**
+     * Send a status message to the broker if any results are waiting, if queue slots have been freed up since the
+     * last message, or if it's time to send a heartbeat. Otherwise do nothing, so this can be called frequently.
+     * If sending fails the results are put back on the worker's list and the connection is dropped.
+     * @param freeQueueSlots the number of tasks the worker could accept right now.
+     * @param heartbeatIntervalSeconds the maximum time to go without sending any message.
+     */
+    public void report (int freeQueueSlots, int heartbeatIntervalSeconds) {
+        WebSocket ws = webSocket;
+        if (ws == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int newCredit = Math.max(freeQueueSlots - outstandingCredit.get(), 0);
+        boolean heartbeatDue = (now - lastReportTime) > heartbeatIntervalSeconds * 1000L;
+        if (newCredit == 0 && !heartbeatDue && !worker.hasWorkResults()) {
+            return;
+        }
+        WorkerStatus workerStatus = worker.makeWorkerStatus(newCredit);
+        // Count the credit as outstanding before sending, as tasks may arrive before the send completes.
+        outstandingCredit.addAndGet(newCredit);
+        try {
+            String json = JsonUtilities.objectMapper.writeValueAsString(workerStatus);
+            ws.sendText(json, true).get(SEND_TIMEOUT_SEC, TimeUnit.SECONDS);
+            lastReportTime = now;
+        } catch (Exception e) {
+            LOG.error("Exception sending status over task stream: {}", ExceptionUtils.stackTraceString(e));
+            worker.restoreWorkResults(workerStatus.results);
+            webSocket = null;
+            ws.abort();
+            keepInterrupted(e);
+        }
+    }
+
+    /**
+     * Waiting on a future clears the thread's interrupt flag when it throws InterruptedException. Set it again so the
+     * worker's streaming loop sees the interrupt and stops, instead of reconnecting.
+     */
+    private static void keepInterrupted (Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onOpen (WebSocket webSocket) {
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText (WebSocket webSocket, CharSequence data, boolean last) {
+        messageBuffer.append(data);
+        if (last) {
+            String message = messageBuffer.toString();
+            messageBuffer.setLength(0);
+            try {
+                // Use the lenient object mapper in case the broker is a newer version sending unrecognized fields.
+                List<RegionalTask> tasks = JsonUtilities.lenientObjectMapper.readValue(
+                        message,
+                        new TypeReference<List<RegionalTask>>() {}
+                );
+                LOG.debug("Received {} tasks over task stream.", tasks.size());
+                outstandingCredit.addAndGet(-tasks.size());
+                worker.enqueueRegionalTasks(tasks);
+            } catch (Exception e) {
+                LOG.error("Could not decode tasks received over task stream: {}", ExceptionUtils.stackTraceString(e));
+            }
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose (WebSocket webSocket, int statusCode, String reason) {
+        LOG.info("Task stream closed by broker ({} {}).", statusCode, reason);
+        this.webSocket = null;
+        return null;
+    }
+
+    @Override
+    public void onError (WebSocket webSocket, Throwable error) {
+        LOG.error("Error on task stream: {}", ExceptionUtils.stackTraceString(error));
+        this.webSocket = null;
+    }
+
+}
@@ -54,4 +54,15 @@ public class TransportNetworkConfig {
      */
     public Set<StreetMode> buildGridsForModes;
 
+    /**
+     * If true, once the network is built the characteristics of its street edges and vertices are moved out of the
+     * heap into a geographically tiled file stored alongside the network (see StreetTileStore). Workers loading the
+     * network then read only the tiles their searches and linkages actually reach. The per-vertex edge lists and the
+     * street spatial index are not tiled: they remain on the heap, and are saved in the network file so they need not
+     * be rebuilt from every tile on load. This is intended for very large (e.g. national) street networks where
+     * analyses only touch one metro area. A Boolean rather than a boolean so it is left out of the JSON when unset,
+     * which keeps older workers with strict deserialization working.
+     */
+    public Boolean tiledStreets;
+
 }
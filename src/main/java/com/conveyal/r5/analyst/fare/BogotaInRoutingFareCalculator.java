@@ -2,14 +2,12 @@ package com.conveyal.r5.analyst.fare;
 
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.transit.RouteInfo;
-import gnu.trove.iterator.TIntIterator;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
 
 /**
  * Calculate fares in Bogotá, Colombia.
  */
-public class BogotaInRoutingFareCalculator extends InRoutingFareCalculator {
+public class BogotaInRoutingFareCalculator
+        extends IncrementalInRoutingFareCalculator<BogotaInRoutingFareCalculator.BogotaFareState> {
     // base fares, all in Colombian pesos
     /** Fare to ride TPC (local service) */
     public int tpcBaseFare = 0;
@@ -39,47 +37,57 @@ public class BogotaInRoutingFareCalculator extends InRoutingFareCalculator {
     // There is a maximum of four transfers but we're limiting the analysis to four rides, so that doesn't apply
     // There is also a maximum transfer window of 75 minutes but our analysis window is 60 minutes so it's non-binding
 
-    @Override
-    public FareBounds calculateFare(McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime) {
-        int fare = 0;
-
-        // extract the relevant rides
-        TIntList patterns = new TIntArrayList();
+    /** Only the fare paid so far and the kind of service last ridden affect the fare for subsequent rides. */
+    static class BogotaFareState implements FareState {
+        final int fare;
+        /** Null before the first ride. */
+        final RouteType prevRouteType;
 
-        while (state != null) {
-            if (state.pattern > -1) patterns.add(state.pattern);
-            state = state.back;
+        BogotaFareState (int fare, RouteType prevRouteType) {
+            this.fare = fare;
+            this.prevRouteType = prevRouteType;
         }
+    }
 
-        patterns.reverse();
-
-        RouteType prevRouteType = null;
-
-        for (TIntIterator patternIt = patterns.iterator(); patternIt.hasNext();) {
-            int pattern = patternIt.next();
-
-            RouteInfo ri = transitLayer.routes.get(transitLayer.tripPatterns.get(pattern).routeIndex);
-
-            RouteType routeType = RouteType.fromAgencyName(ri.agency_name, this);
-
-            if (prevRouteType == null) {
-                // not a transfer
-                if (routeType == RouteType.TPC) fare += tpcBaseFare;
-                else fare += tmBaseFare;
-            } else {
-                // NB this is only considering the previous ride. A clever traveler might keep separate tickets for their
-                // TPC and TransMilenio trips in order to take advantage of the transfer rules (I haven't evaluated if this
-                // could save you anything, but I can imagine a fare system where it would).
-                if (prevRouteType == RouteType.TPC && routeType == RouteType.TPC) fare += tpcToTpcFare;
-                else if (prevRouteType == RouteType.TPC && routeType == RouteType.TRANSMILENIO) fare += tpcToTmFare;
-                else if (prevRouteType == RouteType.TRANSMILENIO && routeType == RouteType.TPC) fare += tmToTpcFare;
-                else fare += tmToTmFare;
-            }
+    @Override
+    protected BogotaFareState initialFareState () {
+        return new BogotaFareState(0, null);
+    }
 
-            prevRouteType = routeType;
+    @Override
+    protected BogotaFareState extendFareState (
+            BogotaFareState previous, McRaptorSuboptimalPathProfileRouter.McRaptorState state
+    ) {
+        if (state.pattern == -1) return previous;
+
+        RouteInfo ri = transitLayer.routes.get(transitLayer.tripPatterns.get(state.pattern).routeIndex);
+
+        RouteType routeType = RouteType.fromAgencyName(ri.agency_name, this);
+        RouteType prevRouteType = previous.prevRouteType;
+        int fare = previous.fare;
+
+        if (prevRouteType == null) {
+            // not a transfer
+            if (routeType == RouteType.TPC) fare += tpcBaseFare;
+            else fare += tmBaseFare;
+        } else {
+            // NB this is only considering the previous ride. A clever traveler might keep separate tickets for their
+            // TPC and TransMilenio trips in order to take advantage of the transfer rules (I haven't evaluated if this
+            // could save you anything, but I can imagine a fare system where it would).
+            if (prevRouteType == RouteType.TPC && routeType == RouteType.TPC) fare += tpcToTpcFare;
+            else if (prevRouteType == RouteType.TPC && routeType == RouteType.TRANSMILENIO) fare += tpcToTmFare;
+            else if (prevRouteType == RouteType.TRANSMILENIO && routeType == RouteType.TPC) fare += tmToTpcFare;
+            else fare += tmToTmFare;
         }
 
-        return new StandardFareBounds(fare);
+        return new BogotaFareState(fare, routeType);
+    }
+
+    @Override
+    protected FareBounds toFareBounds (
+            BogotaFareState fareState, McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime
+    ) {
+        return new StandardFareBounds(fareState.fare);
     }
 
     @Override
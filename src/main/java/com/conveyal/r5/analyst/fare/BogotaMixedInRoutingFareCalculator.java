@@ -4,15 +4,11 @@ import com.conveyal.gtfs.model.Fare;
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.transit.RouteInfo;
 import com.conveyal.r5.transit.TransitLayer;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -31,7 +27,8 @@ import java.util.WeakHashMap;
  * - Transfers are only accepted by routes with corresponding fare_attributes:transfers > 0.
  * - unlimited free transfers are allowed between stops that share the same (non-blank) parent_station
  */
-public class BogotaMixedInRoutingFareCalculator extends InRoutingFareCalculator {
+public class BogotaMixedInRoutingFareCalculator extends
+        IncrementalInRoutingFareCalculator<BogotaMixedInRoutingFareCalculator.MixedSystemFareState> {
     /** If true, log a random 1e-6 sample of fares for spot checking */
     public static final boolean LOG_FARES = false;
 
@@ -79,9 +76,24 @@ public class BogotaMixedInRoutingFareCalculator extends InRoutingFareCalculator
         return fromParentStation != null && fromParentStation.equals(toParentStation);
     }
 
-    @Override
-    public FareBounds calculateFare(McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime) {
+    /** The fare situation after some rides, as needed to calculate the fare for any subsequent ride. */
+    static class MixedSystemFareState implements FareState {
+        final int cumulativeFarePaid;
+        final MixedSystemTransferAllowance transferAllowance;
+        /** The stop where the last ride ended, or -1 if no rides have been taken yet. */
+        final int lastAlightStop;
+
+        private MixedSystemFareState (
+                int cumulativeFarePaid, MixedSystemTransferAllowance transferAllowance, int lastAlightStop
+        ) {
+            this.cumulativeFarePaid = cumulativeFarePaid;
+            this.transferAllowance = transferAllowance;
+            this.lastAlightStop = lastAlightStop;
+        }
+    }
 
+    @Override
+    protected void prepare () {
         // First, load fare data from GTFS
         if (fares == null){
             synchronized (this) {
@@ -95,98 +107,80 @@ public class BogotaMixedInRoutingFareCalculator extends InRoutingFareCalculator
                 }
             }
         }
+    }
 
+    @Override
+    protected MixedSystemFareState initialFareState () {
         // Initialize: haven't boarded, paid a fare, or received a transfer allowance
-        int cumulativeFarePaid = 0;
-        MixedSystemTransferAllowance transferAllowance = new MixedSystemTransferAllowance();
-
-        // Extract relevant data about rides
-        TIntList patterns = new TIntArrayList();
-        TIntList boardStops = new TIntArrayList();
-        TIntList alightStops = new TIntArrayList();
-        TIntList boardTimes = new TIntArrayList();
-
-        List<String> routeNames;
-        if (LOG_FARES) routeNames = new ArrayList<>();
-
-        McRaptorSuboptimalPathProfileRouter.McRaptorState stateForTraversal = state;
-        while (stateForTraversal != null) {
-            if (stateForTraversal.pattern == -1) {
-                stateForTraversal = stateForTraversal.back;
-                continue; // on the street, not on transit
-            }
-            patterns.add(stateForTraversal.pattern);
-            alightStops.add(stateForTraversal.stop);
-            boardStops.add(transitLayer.tripPatterns.get(stateForTraversal.pattern).stops[stateForTraversal.boardStopPosition]);
-            boardTimes.add(stateForTraversal.boardTime);
-            stateForTraversal = stateForTraversal.back;
+        return new MixedSystemFareState(0, new MixedSystemTransferAllowance(), -1);
+    }
+
+    @Override
+    protected MixedSystemFareState extendFareState (
+            MixedSystemFareState previous, McRaptorSuboptimalPathProfileRouter.McRaptorState state
+    ) {
+        if (state.pattern == -1) return previous; // on the street, not on transit
+
+        RouteInfo route = transitLayer.routes.get(transitLayer.tripPatterns.get(state.pattern).routeIndex);
+
+        // board stop for this ride
+        int boardStopIndex = transitLayer.tripPatterns.get(state.pattern).stops[state.boardStopPosition];
+
+        int cumulativeFarePaid = previous.cumulativeFarePaid;
+        MixedSystemTransferAllowance transferAllowance = previous.transferAllowance;
+
+        // If this is the second ride or later, check whether the route stays within the paid area
+        if (previous.lastAlightStop != -1 && withinPaidArea(previous.lastAlightStop, boardStopIndex)) {
+            return new MixedSystemFareState(cumulativeFarePaid, transferAllowance, state.stop);
         }
 
-        // reverse data about the rides so we can step forward through them
-        patterns.reverse();
-        alightStops.reverse();
-        boardStops.reverse();
-        boardTimes.reverse();
-
-        // Loop over rides to get to the state in forward-chronological order
-        for (int ride = 0; ride < patterns.size(); ride ++) {
-            int pattern = patterns.get(ride);
-            RouteInfo route = transitLayer.routes.get(transitLayer.tripPatterns.get(pattern).routeIndex);
-            // used for logging
-            if (LOG_FARES) routeNames.add(route.route_short_name != null && !route.route_short_name.isEmpty() ?
-                    route.route_short_name : route.route_long_name);
-
-            // board stop for this ride
-            int boardStopIndex = boardStops.get(ride);
-
-            // If this is the second ride or later, check whether the route stays within the paid area
-            if (ride >= 1) {
-                int fromStopIndex = alightStops.get(ride - 1);
-                if (withinPaidArea(fromStopIndex, boardStopIndex)) continue;
-            }
+        int boardClockTime = state.boardTime;
+        Fare fare = fares.get(route.agency_id); // relies on non-standard convention described in class javadoc
 
-            int boardClockTime = boardTimes.get(ride);
-            Fare fare = fares.get(route.agency_id); // relies on non-standard convention described in class javadoc
-
-            // We are not staying within the paid area.  So...
-            // boarding at a station implies passing through fare gates.
-            boolean passingThroughFareGates = transitLayer.parentStationIdForStop.get(boardStopIndex) != null;
-            // Check if enough time has elapsed for transfer allowance to expire
-            if (transferAllowance.hasExpiredAt(boardTimes.get(ride))) transferAllowance = new MixedSystemTransferAllowance();
-
-            // Then check if a transfer might be redeemable
-            boolean transferValueAvailable =
-                    transferAllowance.value > 0 &&
-                    transferAllowance.number > 0 &&
-                    (transferAllowance.redeemableAtFareGates || !passingThroughFareGates);
-
-            int undiscountedPrice = priceToInt(fare.fare_attribute.price);
-
-            if (transferValueAvailable) { // If transfer value is available...
-                if (fare.fare_attribute.transfers > 0) { // and, following above convention, this route accepts it...
-                    // Pay difference and set updated transfer allowance
-                    cumulativeFarePaid += transferAllowance.payDifference(undiscountedPrice);
-                    transferAllowance = transferAllowance.redeemForOneRide(undiscountedPrice, passingThroughFareGates);
-                } else {
-                    // This route will not accept currently held transfer allowance.  Hold onto it, and pay full fare.
-                    cumulativeFarePaid += undiscountedPrice;
-                }
+        // We are not staying within the paid area.  So...
+        // boarding at a station implies passing through fare gates.
+        boolean passingThroughFareGates = transitLayer.parentStationIdForStop.get(boardStopIndex) != null;
+        // Check if enough time has elapsed for transfer allowance to expire
+        if (transferAllowance.hasExpiredAt(boardClockTime)) transferAllowance = new MixedSystemTransferAllowance();
+
+        // Then check if a transfer might be redeemable
+        boolean transferValueAvailable =
+                transferAllowance.value > 0 &&
+                transferAllowance.number > 0 &&
+                (transferAllowance.redeemableAtFareGates || !passingThroughFareGates);
+
+        int undiscountedPrice = priceToInt(fare.fare_attribute.price);
+
+        if (transferValueAvailable) { // If transfer value is available...
+            if (fare.fare_attribute.transfers > 0) { // and, following above convention, this route accepts it...
+                // Pay difference and set updated transfer allowance
+                cumulativeFarePaid += transferAllowance.payDifference(undiscountedPrice);
+                transferAllowance = transferAllowance.redeemForOneRide(undiscountedPrice, passingThroughFareGates);
             } else {
-                // Pay full fare and obtain new transfer allowance
+                // This route will not accept currently held transfer allowance.  Hold onto it, and pay full fare.
                 cumulativeFarePaid += undiscountedPrice;
-                transferAllowance = new MixedSystemTransferAllowance(priceToInt(fare.fare_attribute.price),
-                        fare.fare_attribute.transfers,boardClockTime + fare.fare_attribute.transfer_duration,
-                        passingThroughFareGates);
             }
+        } else {
+            // Pay full fare and obtain new transfer allowance
+            cumulativeFarePaid += undiscountedPrice;
+            transferAllowance = new MixedSystemTransferAllowance(priceToInt(fare.fare_attribute.price),
+                    fare.fare_attribute.transfers,boardClockTime + fare.fare_attribute.transfer_duration,
+                    passingThroughFareGates);
         }
+        return new MixedSystemFareState(cumulativeFarePaid, transferAllowance, state.stop);
+    }
 
+    @Override
+    protected FareBounds toFareBounds (
+            MixedSystemFareState fareState, McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime
+    ) {
         // warning: reams of log output
         // only log 1/1000000 of the fares
         if (LOG_FARES && logRandomizer.nextInt(1000000) == 42) {
-            LOG.info("Fare for {}: ${}", String.join(" -> ", routeNames), cumulativeFarePaid);
+            LOG.info("Fare for {}: ${}", String.join(" -> ", routeNames(state)), fareState.cumulativeFarePaid);
         }
 
-        return new FareBounds(cumulativeFarePaid, transferAllowance.tightenExpiration(maxClockTime));
+        return new FareBounds(fareState.cumulativeFarePaid, fareState.transferAllowance.tightenExpiration(maxClockTime));
     }
 
     @Override
@@ -4,13 +4,10 @@ import com.conveyal.gtfs.model.Fare;
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.transit.RouteInfo;
 import com.conveyal.r5.transit.TransitLayer;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -23,7 +20,8 @@ import java.util.WeakHashMap;
  * Fare calculator for the MBTA, assuming use of CharlieCard where accepted.  For an overview of the logic of
  * calculateFares(), including numerous MBTA special cases, see https://files.indicatrix.org/charlie.pdf
  */
-public class BostonInRoutingFareCalculator extends InRoutingFareCalculator {
+public class BostonInRoutingFareCalculator
+        extends IncrementalInRoutingFareCalculator<BostonInRoutingFareCalculator.BostonFareState> {
     /** If true, log a random 1e-6 sample of fares for spot checking */
     public static final boolean LOG_FARES = false;
 
@@ -235,9 +233,22 @@ public class BostonInRoutingFareCalculator extends InRoutingFareCalculator {
                 stationsConnected.contains(new HashSet<>(Arrays.asList(fromStation, toStation))));
     }
 
-    @Override
-    public FareBounds calculateFare(McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime) {
+    /** The fare situation after some rides, as needed to calculate the fare for any subsequent ride. */
+    static class BostonFareState implements FareState {
+        final int cumulativeFarePaid;
+        final BostonTransferAllowance transferAllowance;
+        /** The stop where the last ride ended, or -1 if no rides have been taken yet. */
+        final int lastAlightStop;
+
+        private BostonFareState (int cumulativeFarePaid, BostonTransferAllowance transferAllowance, int lastAlightStop) {
+            this.cumulativeFarePaid = cumulativeFarePaid;
+            this.transferAllowance = transferAllowance;
+            this.lastAlightStop = lastAlightStop;
+        }
+    }
 
+    @Override
+    protected void prepare () {
         // First, load fare data from GTFS
         if (fares == null){
             synchronized (this) {
@@ -251,132 +262,115 @@ public class BostonInRoutingFareCalculator extends InRoutingFareCalculator {
                 }
             }
         }
+    }
 
+    @Override
+    protected BostonFareState initialFareState () {
         // Initialize: haven't boarded, paid a fare, or received a transfer allowance
-        int cumulativeFarePaid = 0;
-        BostonTransferAllowance transferAllowance = noTransferAllowance;
-
-        // Extract relevant data about rides
-        TIntList patterns = new TIntArrayList();
-        TIntList boardStops = new TIntArrayList();
-        TIntList alightStops = new TIntArrayList();
-        TIntList boardTimes = new TIntArrayList();
-
-        List<String> routeNames;
-        if (LOG_FARES) routeNames = new ArrayList<>();
-
-        McRaptorSuboptimalPathProfileRouter.McRaptorState stateForTraversal = state;
-        while (stateForTraversal != null) {
-            if (stateForTraversal.pattern == -1) {
-                stateForTraversal = stateForTraversal.back;
-                continue; // on the street, not on transit
+        return new BostonFareState(0, noTransferAllowance, -1);
+    }
+
+    @Override
+    protected BostonFareState extendFareState (
+            BostonFareState previous, McRaptorSuboptimalPathProfileRouter.McRaptorState state
+    ) {
+        if (state.pattern == -1) return previous; // on the street, not on transit
+
+        int cumulativeFarePaid = previous.cumulativeFarePaid;
+        BostonTransferAllowance transferAllowance = previous.transferAllowance;
+
+        RouteInfo route = transitLayer.routes.get(transitLayer.tripPatterns.get(state.pattern).routeIndex);
+
+        // board stop for this ride
+        int boardStopIndex = transitLayer.tripPatterns.get(state.pattern).stops[state.boardStopPosition];
+        String boardStation = transitLayer.parentStationIdForStop.get(boardStopIndex);
+        String boardStopZoneId = transitLayer.fareZoneForStop.get(boardStopIndex);
+
+        // alight stop for this ride
+        int alightStopIndex = state.stop;
+        String alightStopZoneId = transitLayer.fareZoneForStop.get(alightStopIndex);
+
+        int boardClockTime = state.boardTime;
+
+        String routeId = getRouteId(route);
+
+        Fare fare = fares.getFareOrDefault(routeId, boardStopZoneId, alightStopZoneId);
+
+        // TransferAllowance is from a past ride (possibly several rides ago, if, say, commuter rail was ridden between
+        // local bus trips.
+        // Issuing may not necessarily be the previous ride. For instance, if you ride local bus -> commuter rail,
+        // your transfer allowance after alighting is still LOCAL_BUS; the CharlieCard system doesn't know you rode commuter
+        // rail versus walked really fast, etc.
+        TransferRuleGroup issuing = transferAllowance.transferRuleGroup;
+        TransferRuleGroup receiving = fareGroups.get(fare.fare_id);
+
+        // servicesConnectedBehindFareGates implies there was a previous ride, but check explicitly anyway
+        if (servicesConnectedBehindFareGates(issuing, receiving) && previous.lastAlightStop != -1) {
+            int fromStopIndex = previous.lastAlightStop;
+            String fromStation = transitLayer.parentStationIdForStop.get(fromStopIndex);
+            // if the previous alighting stop and this boarding stop are connected behind fare
+            // gates (and without riding a vehicle!), continue to the next ride. There is no CharlieCard tap
+            // and thus for fare purposes these are a single ride.
+            if (platformsConnected(fromStopIndex, fromStation, boardStopIndex, boardStation)) {
+                return new BostonFareState(cumulativeFarePaid, transferAllowance, alightStopIndex);
             }
-            patterns.add(stateForTraversal.pattern);
-            alightStops.add(stateForTraversal.stop);
-            boardStops.add(transitLayer.tripPatterns.get(stateForTraversal.pattern).stops[stateForTraversal.boardStopPosition]);
-            boardTimes.add(stateForTraversal.boardTime);
-            stateForTraversal = stateForTraversal.back;
         }
 
-        // reverse data about the rides so we can step forward through them
-        patterns.reverse();
-        alightStops.reverse();
-        boardStops.reverse();
-        boardTimes.reverse();
-
-        int alightStopIndex = -1;
-
-        // Loop over rides to get to the state in forward-chronological order
-        for (int ride = 0; ride < patterns.size(); ride ++) {
-            int pattern = patterns.get(ride);
-            RouteInfo route = transitLayer.routes.get(transitLayer.tripPatterns.get(pattern).routeIndex);
-
-            // board stop for this ride
-            int boardStopIndex = boardStops.get(ride);
-            String boardStation = transitLayer.parentStationIdForStop.get(boardStopIndex);
-            String boardStopZoneId = transitLayer.fareZoneForStop.get(boardStopIndex);
-
-            // alight stop for this ride
-            alightStopIndex = alightStops.get(ride);
-            String alightStopZoneId = transitLayer.fareZoneForStop.get(alightStopIndex);
-
-            int boardClockTime = boardTimes.get(ride);
-
-            // used for logging
-            if (LOG_FARES) routeNames.add(route.route_short_name != null && !route.route_short_name.isEmpty() ?
-                    route.route_short_name : route.route_long_name);
-
-            String routeId = getRouteId(route);
-
-            Fare fare = fares.getFareOrDefault(routeId, boardStopZoneId, alightStopZoneId);
-
-            // TransferAllowance is from a past ride (possibly several rides ago, if, say, commuter rail was ridden between
-            // local bus trips.
-            // Issuing may not necessarily be the previous ride. For instance, if you ride local bus -> commuter rail,
-            // your transfer allowance after alighting is still LOCAL_BUS; the CharlieCard system doesn't know you rode commuter
-            // rail versus walked really fast, etc.
-            TransferRuleGroup issuing = transferAllowance.transferRuleGroup;
-            TransferRuleGroup receiving = fareGroups.get(fare.fare_id);
-
-            // servicesConnectedBehindFareGates contains an implicit bounds check that ride >= 1
-            if (servicesConnectedBehindFareGates(issuing, receiving)) {
-                int fromStopIndex = alightStops.get(ride - 1);
-                String fromStation = transitLayer.parentStationIdForStop.get(fromStopIndex);
-                // if the previous alighting stop and this boarding stop are connected behind fare
-                // gates (and without riding a vehicle!), continue to the next ride. There is no CharlieCard tap
-                // and thus for fare purposes these are a single ride.
-                if (platformsConnected(fromStopIndex, fromStation, boardStopIndex, boardStation)) continue;
+        // Check for transferValue expiration
+        // This is not done on behind-faregate transfers because once you're in the subway, you don't tap your
+        // CharlieCard again, so, if you so desire, you can ride forever 'neath the streets of Boston (or at least
+        // until system closing).
+        if (transferAllowance.hasExpiredAt(boardClockTime)) transferAllowance = noTransferAllowance;
+
+        // We are doing a transfer that is not behind faregates, check if we might be able to redeem a transfer
+        boolean tryToRedeemTransfer =
+                transferEligibleSequencePairs.contains(Arrays.asList(issuing, receiving)) &&
+                transferAllowance.value > 0 && // last two checks probably not needed as issuing will be NONE in these cases
+                transferAllowance.number > 0;
+
+        // If the fare for this boarding accepts transfers and transfer value is available, attempt to use it.
+        if (tryToRedeemTransfer) {
+            // Handle special cases first
+            // Special case: transfer is local bus -> subway
+            if (issuing == TransferRuleGroup.LOCAL_BUS && receiving == TransferRuleGroup.SUBWAY) {
+                // pay difference and set special transfer allowance
+                cumulativeFarePaid += transferAllowance.payDifference(priceToInt(fare.fare_attribute.price));
+                transferAllowance = transferAllowance.localBusToSubwayTransferAllowance();
             }
-
-            // Check for transferValue expiration
-            // This is not done on behind-faregate transfers because once you're in the subway, you don't tap your
-            // CharlieCard again, so, if you so desire, you can ride forever 'neath the streets of Boston (or at least
-            // until system closing).
-            if (transferAllowance.hasExpiredAt(boardTimes.get(ride))) transferAllowance = noTransferAllowance;
-
-            // We are doing a transfer that is not behind faregates, check if we might be able to redeem a transfer
-            boolean tryToRedeemTransfer =
-                    transferEligibleSequencePairs.contains(Arrays.asList(issuing, receiving)) &&
-                    transferAllowance.value > 0 && // last two checks probably not needed as issuing will be NONE in these cases
-                    transferAllowance.number > 0;
-
-            // If the fare for this boarding accepts transfers and transfer value is available, attempt to use it.
-            if (tryToRedeemTransfer) {
-                // Handle special cases first
-                // Special case: transfer is local bus -> subway
-                if (issuing == TransferRuleGroup.LOCAL_BUS && receiving == TransferRuleGroup.SUBWAY) {
-                    // pay difference and set special transfer allowance
-                    cumulativeFarePaid += transferAllowance.payDifference(priceToInt(fare.fare_attribute.price));
-                    transferAllowance = transferAllowance.localBusToSubwayTransferAllowance();
-                }
-                // Special case: route prefix is (local bus -> subway)
-                else if (issuing == TransferRuleGroup.LOCAL_BUS_TO_SUBWAY){
-                    // local bus -> subway -> bus special case
-                    if (receiving == TransferRuleGroup.LOCAL_BUS) {
-                        //Don't increment cumulativeFarePaid, just clear transferAllowance. Local bus->subway->local bus is a free transfer.
-                        transferAllowance = noTransferAllowance;
-                    } else { // (local bus -> subway -> anything other than local bus) requires full fare on third
-                        // boarding
-                        // TODO suspect this is not true but other privileges are undocumented. On the ground verification
-                        // required. For instance, I (MWC) suspect local bus -> subway -> inner express bus costs 1.70 + 0.55 + 1.75 = 4
-                        cumulativeFarePaid += payFullFare(fare);
-                        transferAllowance = transferAllowance.updateTransferAllowance(fare, boardClockTime);
-                    }
-                } else {
-                    // If we are not facing one of the special cases above, and redeem the transfer, exhausting its value;
-                    cumulativeFarePaid += transferAllowance.payDifference(priceToInt(fare.fare_attribute.price));
+            // Special case: route prefix is (local bus -> subway)
+            else if (issuing == TransferRuleGroup.LOCAL_BUS_TO_SUBWAY){
+                // local bus -> subway -> bus special case
+                if (receiving == TransferRuleGroup.LOCAL_BUS) {
+                    //Don't increment cumulativeFarePaid, just clear transferAllowance. Local bus->subway->local bus is a free transfer.
                     transferAllowance = noTransferAllowance;
+                } else { // (local bus -> subway -> anything other than local bus) requires full fare on third
+                    // boarding
+                    // TODO suspect this is not true but other privileges are undocumented. On the ground verification
+                    // required. For instance, I (MWC) suspect local bus -> subway -> inner express bus costs 1.70 + 0.55 + 1.75 = 4
+                    cumulativeFarePaid += payFullFare(fare);
+                    transferAllowance = transferAllowance.updateTransferAllowance(fare, boardClockTime);
                 }
-            } else { // don't try to use transferValue; pay the full fare for this ride
-                cumulativeFarePaid += payFullFare(fare);
-                transferAllowance = transferAllowance.updateTransferAllowance(fare, boardClockTime);
+            } else {
+                // If we are not facing one of the special cases above, and redeem the transfer, exhausting its value;
+                cumulativeFarePaid += transferAllowance.payDifference(priceToInt(fare.fare_attribute.price));
+                transferAllowance = noTransferAllowance;
             }
+        } else { // don't try to use transferValue; pay the full fare for this ride
+            cumulativeFarePaid += payFullFare(fare);
+            transferAllowance = transferAllowance.updateTransferAllowance(fare, boardClockTime);
         }
+        return new BostonFareState(cumulativeFarePaid, transferAllowance, alightStopIndex);
+    }
 
+    @Override
+    protected FareBounds toFareBounds (
+            BostonFareState fareState, McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime
+    ) {
         // warning: reams of log output
         // only log 1/1000000 of the fares
         if (LOG_FARES && logRandomizer.nextInt(1000000) == 42) {
-            LOG.info("Fare for {}: ${}", String.join(" -> ", routeNames), String.format("%.2f", cumulativeFarePaid / 100D));
+            LOG.info("Fare for {}: ${}", String.join(" -> ", routeNames(state)),
+                    String.format("%.2f", fareState.cumulativeFarePaid / 100D));
         }
 
         // Check for out-of-subway transfers before returning the transfer allowance. We want to return the
@@ -385,11 +379,14 @@ public class BostonInRoutingFareCalculator extends InRoutingFareCalculator {
         // platforms are connected) to another subway stop, we do not know the next ride, but know that it cannot be a
         // free boarding to the subway. MBTA doesn't have designated free transfer stops, although it would be a good
         // idea e.g. between the platforms of Copley, Charles/MGH and Bowdoin, or Cleveland Circle and Reservoir.
+        // As in the original whole-itinerary calculation, this only adjusts the result for this state. It is not
+        // carried forward in the fare state, where behind-gate transfers are instead checked at the next boarding.
+        BostonTransferAllowance transferAllowance = fareState.transferAllowance;
         if (transferAllowance.transferRuleGroup == TransferRuleGroup.SUBWAY){
-            transferAllowance = transferAllowance.checkForSubwayExit(alightStopIndex, state, transitLayer);
+            transferAllowance = transferAllowance.checkForSubwayExit(fareState.lastAlightStop, state, transitLayer);
         }
 
-        return new FareBounds(cumulativeFarePaid, transferAllowance.tightenExpiration(maxClockTime));
+        return new FareBounds(fareState.cumulativeFarePaid, transferAllowance.tightenExpiration(maxClockTime));
     }
 
     @Override
@@ -2,74 +2,66 @@ package com.conveyal.r5.analyst.fare;
 
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.transit.RouteInfo;
-import gnu.trove.iterator.TIntIterator;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Greedy fare calculator for the Chicago Transit Authority.
  * Just looks at rail and bus, not at Metra, PACE, etc., and does not handle out-of-system rail transfers.
  */
-public class ChicagoInRoutingFareCalculator extends InRoutingFareCalculator {
+public class ChicagoInRoutingFareCalculator
+        extends IncrementalInRoutingFareCalculator<ChicagoInRoutingFareCalculator.ChicagoFareState> {
+
     public static final int L_FARE = 225;
     public static final int BUS_FARE = 200;
     public static final int TRANSFER_FARE = 25;
-    private static final Logger LOG = LoggerFactory.getLogger(ChicagoInRoutingFareCalculator.class);
-
-    @Override
-    public FareBounds calculateFare(McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime) {
-        int fare = 0;
-
-        // extract the relevant rides
-        TIntList patterns = new TIntArrayList();
 
-        boolean backL = false;
-        int rideCount = 0;
-
-        while (state != null) {
-            patterns.add(state.pattern);
-            state = state.back;
+    static class ChicagoFareState implements FareState {
+        final int fare;
+        /** Number of rides taken so far. Every fourth ride you have to pay full fare again. */
+        final int rideCount;
+        /** Whether the last step was a ride on the L, allowing a free transfer to another L line. */
+        final boolean backL;
+
+        ChicagoFareState (int fare, int rideCount, boolean backL) {
+            this.fare = fare;
+            this.rideCount = rideCount;
+            this.backL = backL;
         }
+    }
 
-        List<String> routeNames = new ArrayList();
-
-        patterns.reverse();
-
-        for (TIntIterator patternIt = patterns.iterator(); patternIt.hasNext();) {
-            int pattern = patternIt.next();
-
-            if (pattern == -1) {
-                // on street transfer, so no free transfer between L lines
-                backL = false;
-                continue;
-            }
+    @Override
+    protected ChicagoFareState initialFareState () {
+        return new ChicagoFareState(0, 0, false);
+    }
 
-            // is this a ride on the L?
-            RouteInfo route = transitLayer.routes.get(transitLayer.tripPatterns.get(pattern).routeIndex);
-            boolean isL = route.route_type == 1;
-            routeNames.add(route.route_short_name != null && !route.route_short_name.isEmpty() ?
-                    route.route_short_name : route.route_long_name);
+    @Override
+    protected ChicagoFareState extendFareState (
+            ChicagoFareState previous, McRaptorSuboptimalPathProfileRouter.McRaptorState state
+    ) {
+        if (state.pattern == -1) {
+            // on street transfer, so no free transfer between L lines
+            return previous.backL ? new ChicagoFareState(previous.fare, previous.rideCount, false) : previous;
+        }
 
-            // every fourth ride you have to pay full fare again
-            boolean fullFare = rideCount % 3 == 0;
+        // is this a ride on the L?
+        RouteInfo route = transitLayer.routes.get(transitLayer.tripPatterns.get(state.pattern).routeIndex);
+        boolean isL = route.route_type == 1;
 
-            if (fullFare) fare += isL ? L_FARE : BUS_FARE;
-            else if (!isL || !backL) fare += TRANSFER_FARE;
-            // transfers within the L are free
+        // every fourth ride you have to pay full fare again
+        boolean fullFare = previous.rideCount % 3 == 0;
 
-            backL = isL;
-            rideCount++;
-        }
+        int fare = previous.fare;
+        if (fullFare) fare += isL ? L_FARE : BUS_FARE;
+        else if (!isL || !previous.backL) fare += TRANSFER_FARE;
+        // transfers within the L are free
 
-        // warning: reams of log output
-        //  LOG.info("Fare for {}: ${}", String.join(" -> ", routeNames), String.format("%.2f", fare / 100D));
+        return new ChicagoFareState(fare, previous.rideCount + 1, isL);
+    }
 
-        return new StandardFareBounds(fare);
+    @Override
+    protected FareBounds toFareBounds (
+            ChicagoFareState fareState, McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime
+    ) {
+        return new StandardFareBounds(fareState.fare);
     }
 
     @Override
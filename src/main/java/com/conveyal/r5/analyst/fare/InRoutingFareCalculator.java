@@ -20,6 +20,9 @@ import java.util.function.ToIntFunction;
  *
  *  Fare calculator need not be greedy, see https://doi.org/10.1080/13658816.2019.1605075 and summary/open-access
  *  preprint at https://indicatrix.org/post/how-transit-fares-affect-accessibility/
+ *
+ *  calculateFare is called for every new McRaptor state, so implementations should extend
+ *  IncrementalInRoutingFareCalculator where possible rather than replaying the whole itinerary each time.
  */
 @JsonTypeInfo(use=JsonTypeInfo.Id.NAME, include=JsonTypeInfo.As.PROPERTY, property="type")
 @JsonSubTypes({
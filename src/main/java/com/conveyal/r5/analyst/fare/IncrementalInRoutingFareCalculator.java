@@ -0,0 +1,84 @@
+package com.conveyal.r5.analyst.fare;
+
+import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter.McRaptorState;
+import com.conveyal.r5.transit.RouteInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fare calculator that derives the fare situation at each state from a compact summary of the fare situation at the
+ * previous state, instead of walking back over the whole chain of states and replaying every ride each time a new
+ * state is evaluated. In a McRaptor search nearly every new state extends a state that was already evaluated when it
+ * was added to a FareDominatingList, so retaining these summaries on the states makes each fare calculation a single
+ * constant-time step rather than a pass over the whole itinerary.
+ *
+ * The summary for a fare system must capture everything about the itinerary so far that can affect the fare of any
+ * extension of it (e.g. the cumulative fare paid, the transfer privileges held, and the last alighting stop). It must
+ * not depend on the maxClockTime of the search, which is only applied when converting it to FareBounds. Summaries
+ * must be immutable, since all the states extending a given state share that state's summary.
+ *
+ * @param <S> the fare-system-specific summary type.
+ */
+public abstract class IncrementalInRoutingFareCalculator<S extends IncrementalInRoutingFareCalculator.FareState>
+        extends InRoutingFareCalculator {
+
+    /** Marker interface for the immutable summaries of the fare situation that are attached to McRaptorStates. */
+    public interface FareState { }
+
+    /**
+     * Called before any summaries are created or extended. Calculators that lazily load fare tables from the
+     * TransitLayer should do so here.
+     */
+    protected void prepare () { }
+
+    /** @return the fare situation at the start of an itinerary, before boarding any vehicle. */
+    protected abstract S initialFareState ();
+
+    /**
+     * Derive the fare situation after the given state from the situation after the state that precedes it. The state
+     * may be a ride on a transit vehicle (pattern != -1), or a transfer, access or egress leg on the street.
+     */
+    protected abstract S extendFareState (S previous, McRaptorState state);
+
+    /** Convert the summary for the given state into the FareBounds used for domination and fare cutoffs. */
+    protected abstract FareBounds toFareBounds (S fareState, McRaptorState state, int maxClockTime);
+
+    @Override
+    public FareBounds calculateFare (McRaptorState state, int maxClockTime) {
+        prepare();
+        return toFareBounds(fareStateFor(state), state, maxClockTime);
+    }
+
+    /**
+     * Find the summary for the given state, deriving it from the summary of the previous state and storing it on the
+     * state for reuse when evaluating all the states that extend this one. Only previous states that have never been
+     * evaluated are visited, which in practice means no more than the street legs between two rides.
+     */
+    @SuppressWarnings("unchecked")
+    private S fareStateFor (McRaptorState state) {
+        if (state.fareState != null) {
+            return (S) state.fareState;
+        }
+        S previous = (state.back == null) ? initialFareState() : fareStateFor(state.back);
+        S fareState = extendFareState(previous, state);
+        state.fareState = fareState;
+        return fareState;
+    }
+
+    /**
+     * Walk back over the whole itinerary to find the names of the routes ridden, in chronological order. This is only
+     * intended for logging samples of fares, so it does not matter that it's not incremental.
+     */
+    protected List<String> routeNames (McRaptorState state) {
+        List<String> routeNames = new ArrayList<>();
+        for (McRaptorState s = state; s != null; s = s.back) {
+            if (s.pattern == -1) continue;
+            RouteInfo route = transitLayer.routes.get(transitLayer.tripPatterns.get(s.pattern).routeIndex);
+            routeNames.add(0, route.route_short_name != null && !route.route_short_name.isEmpty() ?
+                    route.route_short_name : route.route_long_name);
+        }
+        return routeNames;
+    }
+
+}
@@ -5,19 +5,38 @@ import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 /**
  * A simple greedy fare calculator that simply applies a single fare at each boarding.
  */
-public class SimpleInRoutingFareCalculator extends InRoutingFareCalculator {
+public class SimpleInRoutingFareCalculator
+        extends IncrementalInRoutingFareCalculator<SimpleInRoutingFareCalculator.SimpleFareState> {
+
     public int fare;
 
-    @Override
-    public FareBounds calculateFare(McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime) {
-        int fareForState = 0;
+    /** The only thing that matters in this fare system is how much has been paid so far. */
+    static class SimpleFareState implements FareState {
+        final int farePaid;
 
-        while (state != null) {
-            if (state.pattern != -1) fareForState += fare;
-            state = state.back;
+        SimpleFareState (int farePaid) {
+            this.farePaid = farePaid;
         }
+    }
+
+    @Override
+    protected SimpleFareState initialFareState () {
+        return new SimpleFareState(0);
+    }
 
-        return new FareBounds(fareForState, new TransferAllowance());
+    @Override
+    protected SimpleFareState extendFareState (
+            SimpleFareState previous, McRaptorSuboptimalPathProfileRouter.McRaptorState state
+    ) {
+        if (state.pattern == -1) return previous;
+        return new SimpleFareState(previous.farePaid + fare);
+    }
+
+    @Override
+    protected FareBounds toFareBounds (
+            SimpleFareState fareState, McRaptorSuboptimalPathProfileRouter.McRaptorState state, int maxClockTime
+    ) {
+        return new FareBounds(fareState.farePaid, new TransferAllowance());
     }
 
     @Override
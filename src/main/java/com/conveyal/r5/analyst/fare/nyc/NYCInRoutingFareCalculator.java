@@ -21,6 +21,11 @@ import java.util.*;
  * An in-routing fare calculator for East-of-Hudson services in the NYC area, used for a specific project with
  * customized inputs. See note in NYCStaticFareData.
  *
+ * Unlike the calculators that extend IncrementalInRoutingFareCalculator, this one still walks back over the whole
+ * itinerary and recomputes the fare from the first ride for every new state. Its fare situation includes the lists of
+ * LIRR and Metro-North rides taken so far, and transfer expiry is seeded from the maxClockTime of the search, so it
+ * would need restructuring before it could be derived one step at a time from the previous state.
+ *
  * @author mattwigway
  */
 
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -68,6 +69,12 @@ public class IndexedPolygonCollection {
 
     private Map<String, ModificationPolygon> polygonsById = new HashMap<>();
 
+    /** All indexed polygons in the order they were loaded. */
+    private final List<ModificationPolygon> polygons = new ArrayList<>();
+
+    /** The envelope of all indexed polygons, in floating point WGS84 coordinates. */
+    private final Envelope envelope = new Envelope();
+
     private int featureCount = 0;
 
     private final List<String> errors = new ArrayList<>();
@@ -108,6 +115,11 @@ public class IndexedPolygonCollection {
     public void loadFromS3GeoJson() throws Exception {
         // FIXME How will we handle .gz data?
         File polygonInputFile = WorkerComponents.fileStorage.getFile(new FileStorageKey(DATASOURCES, polygonLayer));
+        loadGeoJson(polygonInputFile);
+    }
+
+    /** Load and index the polygons in a local GeoJSON file. */
+    void loadGeoJson (File polygonInputFile) throws Exception {
         GeoJSONDataStore dataStore = new GeoJSONDataStore(polygonInputFile);
         SimpleFeatureSource featureSource = dataStore.getFeatureSource();
         FeatureCollection featureCollection = featureSource.getFeatures();
@@ -169,6 +181,8 @@ public class IndexedPolygonCollection {
                     ((Number) priority).doubleValue()
                 );
                 polygonSpatialIndex.insert(geometry.getEnvelopeInternal(), polygon);
+                polygons.add(polygon);
+                envelope.expandToInclude(geometry.getEnvelopeInternal());
                 if (polygon.id != null) {
                     polygonsById.put(polygon.id, polygon);
                 }
@@ -187,6 +201,19 @@ public class IndexedPolygonCollection {
         return errors;
     }
 
+    public List<ModificationPolygon> getPolygons () {
+        return Collections.unmodifiableList(polygons);
+    }
+
+    public Envelope getEnvelope () {
+        return new Envelope(envelope);
+    }
+
+    /** The polygon returned by getWinningPolygon for locations outside all other polygons, which has no geometry. */
+    public ModificationPolygon getDefaultPolygon () {
+        return defaultPolygon;
+    }
+
     public ModificationPolygon getById(String id) {
         return polygonsById.get(id);
     }
@@ -1,5 +1,6 @@
 package com.conveyal.r5.analyst.scenario;
 
+import com.conveyal.r5.analyst.WebMercatorExtents;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.conveyal.r5.util.ExceptionUtils;
@@ -112,9 +113,12 @@ public class PickupDelay extends Modification {
             polygons.loadFromS3GeoJson();
             // Collect any errors from the IndexedPolygonCollection construction, so they can be seen in the UI.
             addErrors(polygons.getErrors());
+            // Precompute the pickup zone at each origin point of regional analyses on this network's grid.
+            int zoom = network.fullExtentGridPointSet == null ?
+                    WebMercatorExtents.DEFAULT_ZOOM : network.fullExtentGridPointSet.extents.zoom;
             // Handle pickup service to stop mapping if supplied in the modification JSON.
             if (stopsForZone == null) {
-                this.pickupWaitTimes = new PickupWaitTimes(polygons, null, Collections.emptySet(), this.streetMode);
+                this.pickupWaitTimes = new PickupWaitTimes(polygons, null, Collections.emptySet(), this.streetMode, zoom);
             } else {
                 // Iterate over all zone-stop mappings and resolve them against the network.
                 // Because they are used in lambda functions, these variables must be final and non-null.
@@ -166,7 +170,8 @@ public class PickupDelay extends Modification {
                         polygons,
                         stopNumbersForZonePolygon,
                         egressServices.values(),
-                        this.streetMode
+                        this.streetMode,
+                        zoom
                 );
             }
         } catch (Exception e) {
@@ -1,17 +1,24 @@
 package com.conveyal.r5.analyst.scenario;
 
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.WebMercatorExtents;
 import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.profile.StreetMode;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
-import gnu.trove.set.hash.TIntHashSet;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Point;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * This is the internal form of a PickupDelay modification that has been resolved against a particular TransportNetwork.
@@ -49,12 +56,55 @@ public class PickupWaitTimes {
 
     public final StreetMode streetMode;
 
-    // We could pass in a Collection<AccessService> as well.
+    /**
+     * Rasters covering more pixels than this are not built, and the winning polygon is found for every origin instead.
+     * At the default zoom level this is a square roughly 300 kilometers across, held in four megabytes.
+     */
+    static final int MAX_RASTER_PIXELS = 1_000_000;
+
+    /**
+     * The AccessService for each polygon, including the default polygon last. These are computed once and shared by
+     * all origins, rather than rebuilt (with a new set of reachable stops) every time an origin is evaluated.
+     */
+    private final AccessService[] accessServiceForPolygon;
+
+    /** The index of each polygon in accessServiceForPolygon. */
+    private final Map<ModificationPolygon, Integer> indexForPolygon = new IdentityHashMap<>();
+
+    /** The web Mercator zoom level at which the winning polygons are rasterized. */
+    private final int zoom;
+
+    /**
+     * The winning polygon at the center of each pixel of a web Mercator grid covering all the polygons, so that
+     * origins exactly at pixel centers (as in regional analyses with gridded origins) do not need to query the
+     * polygons at all. This is only built once such an origin is seen, so single point analyses, whose origins are
+     * almost never at pixel centers, do not pay for it. Null until then, or if the grid would be too large.
+     */
+    private PolygonRaster raster;
+
+    /** Whether an attempt has been made to build the raster, whose result may be null. */
+    private boolean rasterized = false;
+
+    private static class PolygonRaster {
+        final WebMercatorExtents extents;
+        final int[] polygonIndexForPixel;
+
+        PolygonRaster (WebMercatorExtents extents, int[] polygonIndexForPixel) {
+            this.extents = extents;
+            this.polygonIndexForPixel = polygonIndexForPixel;
+        }
+    }
+
+    /**
+     * @param zoom the web Mercator zoom level at which the pickup service is precomputed for every pixel center within
+     *             the envelope of the polygons. This should be the zoom of the gridded origins to be analyzed.
+     */
     public PickupWaitTimes (
         IndexedPolygonCollection polygons,
         Map<ModificationPolygon, TIntSet> stopNumbersForZonePolygon,
         Collection<EgressService> egressServices,
-        StreetMode streetMode
+        StreetMode streetMode,
+        int zoom
     ) {
         this.polygons = polygons;
         this.stopNumbersForZonePolygon = stopNumbersForZonePolygon;
@@ -66,32 +116,106 @@ public class PickupWaitTimes {
             });
         }
         this.streetMode = streetMode;
+
+        List<ModificationPolygon> allPolygons = new ArrayList<>(polygons.getPolygons());
+        allPolygons.add(polygons.getDefaultPolygon());
+        accessServiceForPolygon = new AccessService[allPolygons.size()];
+        for (int i = 0; i < allPolygons.size(); i++) {
+            indexForPolygon.put(allPolygons.get(i), i);
+            accessServiceForPolygon[i] = makeAccessService(allPolygons.get(i));
+        }
+
+        this.zoom = zoom;
+    }
+
+    /** Find the winning polygon at every pixel center, unless the polygons cover too many pixels. */
+    private PolygonRaster rasterizePolygons () {
+        Envelope envelope = polygons.getEnvelope();
+        if (envelope.isNull()) return null;
+        WebMercatorExtents extents = WebMercatorExtents.forWgsEnvelope(envelope, zoom);
+        if ((long) extents.width * extents.height > MAX_RASTER_PIXELS) return null;
+        int[] polygonIndexForPixel = new int[extents.width * extents.height];
+        IntStream.range(0, extents.height).parallel().forEach(y -> {
+            double lat = Grid.pixelToCenterLat(extents.north + y, zoom);
+            for (int x = 0; x < extents.width; x++) {
+                double lon = Grid.pixelToCenterLon(extents.west + x, zoom);
+                polygonIndexForPixel[y * extents.width + x] = indexForPolygon.get(getWinningPolygon(lat, lon));
+            }
+        });
+        return new PolygonRaster(extents, polygonIndexForPixel);
+    }
+
+    private synchronized PolygonRaster getRaster () {
+        if (!rasterized) {
+            raster = rasterizePolygons();
+            rasterized = true;
+        }
+        return raster;
+    }
+
+    /** Whether the raster has been built, for tests. */
+    synchronized boolean hasRaster () {
+        return raster != null;
     }
 
     /**
      * Given a particular departure location, get a description of the on-demand pickup service available there.
      * Currently this chooses just one "best" zone polygon based on location and priority values in the polygons.
+     * The returned AccessService is shared with all other locations in the same polygon and must not be modified.
      * @return an AccessService with the wait time to be picked up, and any restrictions on reachable stops.
      */
     public AccessService getAccessService (double lat, double lon) {
+        int x = Grid.lonToPixel(lon, zoom);
+        int y = Grid.latToPixel(lat, zoom);
+        // Only a location exactly at the center of a pixel is known to be in the polygon found for that pixel.
+        if (Grid.pixelToCenterLon(x, zoom) == lon && Grid.pixelToCenterLat(y, zoom) == lat) {
+            PolygonRaster raster = getRaster();
+            if (raster != null) {
+                WebMercatorExtents extents = raster.extents;
+                x -= extents.west;
+                y -= extents.north;
+                if (x < 0 || y < 0 || x >= extents.width || y >= extents.height) {
+                    // Outside the envelope of all the polygons, so only the default polygon applies.
+                    return accessServiceForPolygon[accessServiceForPolygon.length - 1];
+                }
+                return accessServiceForPolygon[raster.polygonIndexForPixel[y * extents.width + x]];
+            }
+        }
+        return getAccessServiceFromPolygons(lat, lon);
+    }
+
+    /** Find the AccessService at the given location by querying the polygons, without using the raster. */
+    AccessService getAccessServiceFromPolygons (double lat, double lon) {
+        return accessServiceForPolygon[indexForPolygon.get(getWinningPolygon(lat, lon))];
+    }
+
+    private ModificationPolygon getWinningPolygon (double lat, double lon) {
         Point point = GeometryUtils.geometryFactory.createPoint(new Coordinate(lon, lat));
-        ModificationPolygon polygon = polygons.getWinningPolygon(point);
-        double waitTimeMinutes = polygon == null ? polygons.defaultData : polygon.data;
+        return polygons.getWinningPolygon(point);
+    }
+
+    private AccessService makeAccessService (ModificationPolygon polygon) {
+        double waitTimeMinutes = polygon.data;
         if (waitTimeMinutes == -1) {
             return NO_SERVICE_HERE;
         }
         // Service is available here. Determine the waiting time, and any restrictions on which stops can be reached.
         // By default all stops can be reached (null means no restrictions applied).
         int waitTimeSeconds = (int) (waitTimeMinutes * 60);
-        TIntSet stopsReachable = null;
+        BitSet stopsReachable = null;
         // If an association has been made between pickup polygons and stop polygons, that restricts reachable stops.
         if (stopNumbersForZonePolygon != null) {
-            stopsReachable = stopNumbersForZonePolygon.get(polygon);
-            if (stopsReachable == null) {
-                // No stops were associated with the winning polygon (e.g. it is itself a stop polygon).
-                // stopsReachable should be empty, since null signals "no filtering" (all stops reachable).
-                stopsReachable = new TIntHashSet();
+            // If no stops were associated with the polygon (e.g. it is itself a stop polygon), stopsReachable should
+            // remain empty, since null signals "no filtering" (all stops reachable).
+            BitSet stops = new BitSet();
+            TIntSet stopNumbers = stopNumbersForZonePolygon.get(polygon);
+            if (stopNumbers != null) {
+                stopNumbers.forEach(stop -> {
+                    stops.set(stop);
+                    return true;
+                });
             }
+            stopsReachable = stops;
         }
         return new AccessService(waitTimeSeconds, stopsReachable);
     }
@@ -128,20 +252,20 @@ public class PickupWaitTimes {
 
         /**
          * If a limitation is placed on the transit stops one is allowed to access using this service, this is the
-         * set of allowed stops. This is null if all stops are reachable and no filtering should happen.
+         * set of allowed stop indexes. This is null if all stops are reachable and no filtering should happen.
+         * Instances are shared by many departure locations, so this set must not be modified.
          * If we eventually want to reflect multiple services with different waits, we could instead return a
          * TIntIntMap from allowed stop indexes to wait times.
          */
-        public final TIntSet stopsReachable;
+        public final BitSet stopsReachable;
 
-        public AccessService (int waitTimeSeconds, TIntSet stopsReachable) {
+        public AccessService (int waitTimeSeconds, BitSet stopsReachable) {
             this.waitTimeSeconds = waitTimeSeconds;
             this.stopsReachable = stopsReachable;
         }
     }
 
     // TODO pull all of these classes out into an on-demand Java package
-    // It's a bit weird that EgressServices are pre-computed and AccessService instances are built on demand.
     // The two classes could be almost identical with the exception of comments. One could extend the other.
     public static class EgressService {
 
@@ -6,6 +6,7 @@ import com.conveyal.r5.analyst.error.TaskError;
 import com.conveyal.r5.transit.TransferFinder;
 import com.conveyal.r5.transit.TransitLayer;
 import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.transit.TripPattern;
 import org.locationtech.jts.geom.Geometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,9 +14,12 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A scenario is an ordered sequence of modifications that will be applied non-destructively on top of a baseline graph.
@@ -102,6 +106,9 @@ public class Scenario implements Serializable {
         if (VERIFY_BASE_NETWORK_UNCHANGED) {
             baseNetworkChecksum = originalNetwork.checksum();
         }
+        // Record how long each step of building the scenario network takes, to report alongside the modification info.
+        List<String> timings = new ArrayList<>();
+        long stepStartTime = System.currentTimeMillis();
         TransportNetwork copiedNetwork = originalNetwork.scenarioCopy(this);
         LOG.info("Resolving modifications against TransportNetwork and sanity checking.");
         // Check all the parameters before applying any modifications.
@@ -119,6 +126,7 @@ public class Scenario implements Serializable {
         if (!modificationsWithErrors.isEmpty()) {
             throw new ScenarioApplicationException(modificationsWithErrors);
         }
+        stepStartTime = recordTiming(timings, "Copying network and resolving modifications", stepStartTime);
         // Apply each modification in turn to the same extensible copy of the TransitNetwork.
         LOG.info("Applying modifications to TransportNetwork.");
         for (Modification modification : modifications) {
@@ -130,6 +138,19 @@ public class Scenario implements Serializable {
                 throw new ScenarioApplicationException(Arrays.asList(modification));
             }
         }
+        stepStartTime = recordTiming(timings, "Applying modifications", stepStartTime);
+
+        // Modifications build new schedules for the patterns they change. Share their arrays with identical ones in
+        // the base network and in other scenarios on the same base network, so that each scenario network retains
+        // only the schedules that are actually unique to it. Unchanged patterns already have shared arrays.
+        Set<TripPattern> basePatterns = Collections.newSetFromMap(new IdentityHashMap<>());
+        basePatterns.addAll(originalNetwork.transitLayer.tripPatterns);
+        for (TripPattern pattern : copiedNetwork.transitLayer.tripPatterns) {
+            if (!basePatterns.contains(pattern)) {
+                copiedNetwork.transitLayer.tripTimesPool.intern(pattern);
+            }
+        }
+        stepStartTime = recordTiming(timings, "Sharing modified schedules", stepStartTime);
 
         copiedNetwork.scenarioApplicationWarnings = new ArrayList<>();
         copiedNetwork.scenarioApplicationInfo = new ArrayList<>();
@@ -144,18 +165,36 @@ public class Scenario implements Serializable {
 
         // Is it OK that we do this once after all modifications are applied, or do we need to do it after every mod?
         copiedNetwork.transitLayer.rebuildTransientIndexes();
-
-        // Rebuild edge lists to account for changes from scenario application
-        copiedNetwork.streetLayer.buildEdgeLists();
-        // TODO Elaborate on this
-        // Rebuild distance tables affected by street network changes
-        Geometry treeRebuildZone =
-                copiedNetwork.streetLayer.scenarioEdgesBoundingGeometry(TransitLayer.WALK_DISTANCE_LIMIT_METERS);
-        copiedNetwork.transitLayer.buildDistanceTables(treeRebuildZone);
-        
-        // Find the transfers originating at or terminating at new stops.
-        // TODO also rebuild transfers which are near street network changes but which do not connect to new stops.
-        new TransferFinder(copiedNetwork).findTransfers();
+        stepStartTime = recordTiming(timings, "Rebuilding transit indexes", stepStartTime);
+
+        // Stops can only be created along with the street vertices they are linked to, so if the street layer is
+        // unaffected the edge lists, stop distance tables and transfers of the base network all remain valid.
+        // This is the case for scenarios that only alter the trips on existing routes, e.g. changing frequencies.
+        if (affectsStreetLayer()) {
+            // Extend edge lists to include edges added by scenario application, at the vertices they touch.
+            int verticesUpdated = copiedNetwork.streetLayer.extendEdgeLists();
+            stepStartTime = recordTiming(timings, String.format("Updating edge lists at %d vertices", verticesUpdated),
+                    stepStartTime);
+
+            // Rebuild distance tables for stops near enough to street network changes to be affected by them.
+            Geometry treeRebuildZone =
+                    copiedNetwork.streetLayer.scenarioEdgesBoundingGeometry(TransitLayer.WALK_DISTANCE_LIMIT_METERS);
+            copiedNetwork.transitLayer.buildDistanceTables(treeRebuildZone);
+            stepStartTime = recordTiming(timings, "Rebuilding stop distance tables", stepStartTime);
+
+            // Find the transfers originating at or terminating at new stops, and recompute the transfers from any
+            // existing stops whose walking paths to other stops may have been changed by the street network changes.
+            Geometry transferRebuildZone =
+                    copiedNetwork.streetLayer.scenarioEdgesBoundingGeometry(TransitLayer.TRANSFER_DISTANCE_LIMIT_METERS);
+            int stopsUpdated = new TransferFinder(copiedNetwork).findTransfers(transferRebuildZone);
+            stepStartTime = recordTiming(timings,
+                    String.format("Finding transfers (recomputed for %d existing stops)", stopsUpdated), stepStartTime);
+        } else {
+            timings.add("Street layer unchanged, reusing edge lists, stop distance tables and transfers.");
+        }
+        TaskError timingInfo = new TaskError(null, "while building the network for this scenario.", timings.get(0));
+        timingInfo.messages.addAll(timings.subList(1, timings.size()));
+        copiedNetwork.scenarioApplicationInfo.add(timingInfo);
 
         // Any linkages to the new scenario street network will be built as needed based on the incoming request.
         // FIXME New routes drawn outside the original bounds cannot have an effect,
@@ -171,6 +210,18 @@ public class Scenario implements Serializable {
         return copiedNetwork;
     }
 
+    /**
+     * Add a message to the supplied list giving the time elapsed since the given start time, and log it.
+     * @return the current time, which is the start time of the next step.
+     */
+    private static long recordTiming (List<String> timings, String step, long startTime) {
+        long now = System.currentTimeMillis();
+        String message = String.format("%s took %d ms.", step, now - startTime);
+        LOG.info(message);
+        timings.add(message);
+        return now;
+    }
+
     /**
      * @return true if applying this scenario will cause changes to the StreetLayer of a TransportNetwork.
      * This indicates whether a protective copy must be made of the StreetLayer, whether the resulting
@@ -0,0 +1,30 @@
+package com.conveyal.r5.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.nio.IntBuffer;
+
+/**
+ * Serializes the full contents of an IntBuffer, whether it wraps an array or a memory-mapped file, and deserializes
+ * it as a buffer wrapping an array on the heap. Kryo's field serializer cannot handle the JDK's buffer classes.
+ */
+public class IntBufferSerializer extends Serializer<IntBuffer> {
+
+    @Override
+    public void write (Kryo kryo, Output output, IntBuffer buffer) {
+        int[] values = new int[buffer.capacity()];
+        buffer.get(0, values);
+        output.writeInt(values.length);
+        output.writeInts(values, 0, values.length);
+    }
+
+    @Override
+    public IntBuffer read (Kryo kryo, Input input, Class<? extends IntBuffer> type) {
+        int length = input.readInt();
+        return IntBuffer.wrap(input.readInts(length));
+    }
+
+}
@@ -4,11 +4,14 @@ import com.conveyal.r5.SoftwareVersion;
 import com.conveyal.kryo.InstanceCountingClassResolver;
 import com.conveyal.kryo.TIntArrayListSerializer;
 import com.conveyal.kryo.TIntIntHashMapSerializer;
+import com.conveyal.r5.streets.StreetTileStore;
+import com.conveyal.r5.streets.TiledGeometryList;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.ExternalizableSerializer;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
 import com.esotericsoftware.kryo.serializers.ImmutableCollectionsSerializers;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
@@ -24,6 +27,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.IntBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 
@@ -46,12 +50,13 @@ public abstract class KryoNetworkSerializer {
      * We considered using an ISO date string as the version but that could get confusing when seen in filenames.
      *
      * History of Network Version (NV) changes:
+     * nv5 2026-10-18 LinkedPointSet arrays stored as IntBuffers
      * nv4 2023-11-02 WebMercatorGridPointSet now contains nested WebMercatorExtents
      * nv3 2023-01-18 use Kryo 5 serialization format
      * nv2 2022-04-05
      * nv1 2021-04-30 stopped using r5 version string (which caused networks to be rebuilt for every new r5 version)
      */
-    public static final String NETWORK_FORMAT_VERSION = "nv3";
+    public static final String NETWORK_FORMAT_VERSION = "nv5";
 
     public static final byte[] HEADER = "R5NETWORK".getBytes();
 
@@ -91,6 +96,12 @@ public abstract class KryoNetworkSerializer {
         // The Kryo BitSet serializer in magro/kryo-serializers naively writes out a dense stream of booleans.
         // BitSet's built-in Java serializer saves the internal bitfields, which is efficient. We use that one.
         kryo.register(BitSet.class, new JavaSerializer());
+        // Linkages hold their arrays in IntBuffers, which may be views of memory-mapped files.
+        kryo.addDefaultSerializer(IntBuffer.class, new IntBufferSerializer());
+        // Street tile files are stored alongside the network file, only their name is written into the network.
+        kryo.register(StreetTileStore.class, new StreetTileStoreSerializer());
+        // The tiled geometry list is a List. Kryo would otherwise serialize it element by element, loading every tile.
+        kryo.register(TiledGeometryList.class, new FieldSerializer<>(kryo, TiledGeometryList.class));
         // Instantiation strategy: how should Kryo make new instances of objects when they are deserialized?
         // The default strategy requires every class you serialize, even in your dependencies, to have a zero-arg
         // constructor (which can be private). The setInstantiatorStrategy method completely replaces that default
@@ -125,6 +136,7 @@ public abstract class KryoNetworkSerializer {
         LOG.info("Reading transport network...");
         Input input = new Input(new FileInputStream(file));
         Kryo kryo = makeKryo();
+        kryo.getContext().put(StreetTileStoreSerializer.DIRECTORY_KEY, file.getAbsoluteFile().getParentFile());
         byte[] header = new byte[HEADER.length];
         input.read(header, 0, header.length);
         if (!Arrays.equals(HEADER, header)) {
@@ -0,0 +1,46 @@
+package com.conveyal.r5.kryo;
+
+import com.conveyal.r5.streets.IntHashGrid;
+import com.conveyal.r5.streets.StreetTileStore;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * The contents of a StreetTileStore are already in their own file, so we serialize only the name of that file, plus
+ * the edge lists and spatial index retained by the store. On deserialization the tile file is expected to be found in
+ * the same directory as the network file being read, which is supplied through the Kryo context. This keeps the
+ * serialized network small and means the base street layer never has to be fully materialized on the heap, or
+ * iterated over to rebuild its indexes, when a tiled network is loaded.
+ */
+public class StreetTileStoreSerializer extends Serializer<StreetTileStore> {
+
+    /** Key for the directory containing the network file in the Kryo context. */
+    public static final String DIRECTORY_KEY = "networkDirectory";
+
+    @Override
+    public void write (Kryo kryo, Output output, StreetTileStore store) {
+        output.writeString(store.file.getName());
+        kryo.writeObject(output, new ArrayList<>(store.outgoingEdges));
+        kryo.writeObject(output, new ArrayList<>(store.incomingEdges));
+        kryo.writeObject(output, store.spatialIndex);
+    }
+
+    @Override
+    public StreetTileStore read (Kryo kryo, Input input, Class<? extends StreetTileStore> type) {
+        String fileName = input.readString();
+        File directory = (File) kryo.getContext().get(DIRECTORY_KEY);
+        StreetTileStore store = StreetTileStore.open(
+            new File(directory, fileName), StreetTileStore.DEFAULT_MAX_RESIDENT_TILES
+        );
+        store.outgoingEdges = kryo.readObject(input, ArrayList.class);
+        store.incomingEdges = kryo.readObject(input, ArrayList.class);
+        store.spatialIndex = kryo.readObject(input, IntHashGrid.class);
+        return store;
+    }
+
+}
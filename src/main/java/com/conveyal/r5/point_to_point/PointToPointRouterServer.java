@@ -10,6 +10,7 @@ import com.conveyal.r5.common.GeoJsonFeature;
 import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.common.JsonUtilities;
 import com.conveyal.r5.kryo.KryoNetworkSerializer;
+import com.conveyal.r5.point_to_point.builder.BatchPlanRequest;
 import com.conveyal.r5.point_to_point.builder.PointToPointQuery;
 import com.conveyal.r5.point_to_point.builder.RouterInfo;
 import com.conveyal.r5.profile.ProfileRequest;
@@ -22,6 +23,7 @@ import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.streets.TurnRestriction;
 import com.conveyal.r5.streets.VertexStore;
 import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.util.ExceptionUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import gnu.trove.map.TIntIntMap;
@@ -36,6 +38,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -51,6 +56,7 @@ import static com.conveyal.r5.streets.VertexStore.fixedDegreesToFloating;
 import static com.conveyal.r5.streets.VertexStore.floatingDegreesToFixed;
 import static spark.Spark.before;
 import static spark.Spark.get;
+import static spark.Spark.halt;
 import static spark.Spark.post;
 import static spark.Spark.options;
 import static spark.Spark.port;
@@ -930,6 +936,41 @@ public class PointToPointRouterServer {
         }, JsonUtilities.objectMapper::writeValueAsString);
 
         post("/pareto", paretoServer::handle);
+
+        // Plans transit trips between many origin-destination pairs sharing the same request parameters.
+        // Each result is written as one line of JSON as soon as it is complete, with the index of its pair. A pair
+        // that can't be planned gets a line with an error message instead, and the other pairs are still planned.
+        post("/planBatch", (request, response) -> {
+            BatchPlanRequest batchPlanRequest =
+                JsonUtilities.objectMapper.readValue(request.body(), BatchPlanRequest.class);
+            if (batchPlanRequest.request == null || batchPlanRequest.pairs == null) {
+                halt(400, "Batch plan request must contain request parameters and origin-destination pairs.");
+            }
+            if (batchPlanRequest.pairs.size() > BatchPlanRequest.MAX_PAIRS) {
+                halt(400, String.format("Batch plan request may contain at most %d origin-destination pairs.",
+                    BatchPlanRequest.MAX_PAIRS));
+            }
+            response.header("Content-Type", "application/x-ndjson");
+            OutputStream out = response.raw().getOutputStream();
+            pointToPointQuery.getPlans(batchPlanRequest.request, batchPlanRequest.pairs,
+                (profileResponse, pair) -> writeBatchLine(out, pair, "data", profileResponse),
+                (exception, pair) -> writeBatchLine(out, pair, "error", ExceptionUtils.shortCauseString(exception)));
+            return "";
+        });
+    }
+
+    /** Write one line of a batch plan response, holding the index of the pair and its result or error. */
+    private static void writeBatchLine(OutputStream out, int pair, String key, Object value) {
+        Map<String, Object> content = new HashMap<>(2);
+        content.put("pair", pair);
+        content.put(key, value);
+        try {
+            out.write(JsonUtilities.objectMapper.writeValueAsBytes(content));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
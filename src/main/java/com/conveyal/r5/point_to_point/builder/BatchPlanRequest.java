@@ -0,0 +1,31 @@
+package com.conveyal.r5.point_to_point.builder;
+
+import com.conveyal.r5.profile.ProfileRequest;
+
+import java.util.List;
+
+/**
+ * Request to plan trips between many pairs of origins and destinations
+ *
+ * All trips share the same parameters (modes, date, time window etc.) and differ only in their coordinates.
+ */
+public class BatchPlanRequest {
+
+    /**
+     * The largest number of pairs accepted in one request. Trips are planned one origin after another on the thread
+     * handling the request, so this bounds how long a single request can occupy the server.
+     */
+    public static final int MAX_PAIRS = 1_000;
+
+    /** Parameters shared by all trips. Its origin and destination coordinates are ignored. */
+    public ProfileRequest request;
+
+    public List<OriginDestination> pairs;
+
+    public static class OriginDestination {
+        public double fromLat;
+        public double fromLon;
+        public double toLat;
+        public double toLon;
+    }
+}
@@ -4,14 +4,15 @@ import com.conveyal.r5.api.ProfileResponse;
 import com.conveyal.r5.api.util.LegMode;
 import com.conveyal.r5.api.util.ProfileOption;
 import com.conveyal.r5.api.util.StreetSegment;
+import com.conveyal.r5.point_to_point.builder.BatchPlanRequest.OriginDestination;
 import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.profile.PathWithTimes;
 import com.conveyal.r5.profile.ProfileRequest;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.profile.StreetPath;
 import com.conveyal.r5.profile.SuboptimalDominatingList;
+import com.conveyal.r5.streets.BikeShareRouter;
 import com.conveyal.r5.streets.ParkRideRouter;
-import com.conveyal.r5.streets.Split;
 import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.streets.VertexStore;
 import com.conveyal.r5.transit.RouteInfo;
@@ -23,16 +24,22 @@ import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.locationtech.jts.geom.Coordinate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -105,103 +112,235 @@ public class PointToPointQuery {
             Map<LegMode, StreetRouter> accessRouter = findAccessPaths(request);
             Map<LegMode, StreetRouter> egressRouter = findEgressPaths(request);
 
-            Map<LegMode, TIntIntMap> accessTimes = accessRouter.entrySet().stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getReachedStops()));
-            Map<LegMode, TIntIntMap> egressTimes = egressRouter.entrySet().stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getReachedStops()));
+            Map<LegMode, TIntIntMap> accessTimes = getReachedStops(accessRouter);
+            Map<LegMode, TIntIntMap> egressTimes = getReachedStops(egressRouter);
 
             McRaptorSuboptimalPathProfileRouter router = new McRaptorSuboptimalPathProfileRouter(transportNetwork,
                     request, accessTimes, egressTimes, (t)->new SuboptimalDominatingList(request.suboptimalMinutes),
                     null);
-            List<PathWithTimes> usefullpathList = new ArrayList<>();
-
-            // getPaths actually returns a set, which is important so that things are deduplicated. However we need a list
-            // so we can sort it below.
-            usefullpathList.addAll(router.getPaths());
-
-            //This sort is necessary only for text debug output so it will be disabled when it is finished
-
-            /**
-             * Orders first no transfers then one transfers 2 etc
-             * - then orders according to first trip:
-             *   - board stop
-             *   - alight stop
-             *   - alight time
-             * - same for one transfer trip
-             */
-            usefullpathList.sort((o1, o2) -> {
-                int c;
-                c = Integer.compare(o1.patterns.length, o2.patterns.length);
-                if (c==0) {
-                    c = Integer.compare(o1.boardStops[0], o2.boardStops[0]);
-                }
-                if (c==0) {
-                    c = Integer.compare(o1.alightStops[0], o2.alightStops[0]);
-                }
-                if (c==0) {
-                    c = Integer.compare(o1.alightTimes[0], o2.alightTimes[0]);
-                }
-                if (c==0 && o1.patterns.length == 2) {
-                    c = Integer.compare(o1.boardStops[1], o2.boardStops[1]);
-                    if (c==0) {
-                        c = Integer.compare(o1.alightStops[1], o2.alightStops[1]);
-                    }
-                    if (c==0) {
-                        c = Integer.compare(o1.alightTimes[1], o2.alightTimes[1]);
-                    }
-                }
-                return c;
-            });
-            LOG.info("Usefull paths:{}", usefullpathList.size());
-            int seen_paths = 0;
-            int boardStop =-1, alightStop = -1;
-            for (PathWithTimes path : usefullpathList) {
-                profileResponse.addTransitPath(accessRouter, egressRouter, path, transportNetwork, request.getFromTimeDateZD());
-                //LOG.info("Num patterns:{}", path.patterns.length);
-                //ProfileOption transit_option = new ProfileOption();
+            addTransitPaths(profileResponse, accessRouter, egressRouter, router.getPaths(), request);
+            profileResponse.generateStreetTransfers(transportNetwork, request);
+        }
 
+        profileResponse.recomputeStats(request);
 
-                /*if (path.patterns.length == 1) {
-                    continue;
-                }*/
+        LOG.info("Returned {} options", profileResponse.getOptions().size());
+        LOG.info("Took {} ms", System.currentTimeMillis() - startRouting);
 
-                /*if (seen_paths > 20) {
-                    break;
-                }*/
-
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(" ");
-                    for (int i = 0; i < path.patterns.length; i++) {
-                        //TransitSegment transitSegment = new TransitSegment(transportNetwork.transitLayer, path.boardStops[i], path.alightStops[i], path.patterns[i]);
-                        if (!(((boardStop == path.boardStops[i] && alightStop == path.alightStops[i])))) {
-                            LOG.debug("   BoardStop: {} pattern: {} allightStop: {}", path.boardStops[i],
-                                path.patterns[i], path.alightStops[i]);
+        return profileResponse;
+    }
+
+    /**
+     * Plans trips between many origins and destinations that share all other request parameters. The street searches
+     * from each distinct origin and to each distinct destination are run only once, and a single McRAPTOR search from
+     * each origin finds transit paths to all the destinations paired with it. Direct paths are still found for each
+     * pair separately, since they depend on both ends of the trip.
+     *
+     * Each response contains every option getPlan would return for the same pair, but may contain more of them: the
+     * shared McRAPTOR search only prunes states that can't be useful at any of the origin's destinations, so it can
+     * keep suboptimal paths to one destination that a search toward that destination alone would have discarded.
+     *
+     * @param request parameters shared by all trips. Its origin and destination coordinates are ignored.
+     * @param pairs origin and destination of each trip
+     * @param consumer receives each response with the index of its pair as soon as it's complete. Pairs with the same
+     *                 origin are completed together, in the order their origins first appear in pairs.
+     * @param errorConsumer receives the exception that prevented planning a pair, with the index of that pair. If the
+     *                      search from an origin fails, every pair from that origin is reported. Planning then
+     *                      continues with the remaining pairs.
+     */
+    public void getPlans(ProfileRequest request, List<OriginDestination> pairs,
+            ObjIntConsumer<ProfileResponse> consumer, ObjIntConsumer<Exception> errorConsumer) {
+        long startRouting = System.currentTimeMillis();
+        request.zoneId = transportNetwork.getTimeZone();
+
+        // Group the pairs by origin, and count the pairs going to each destination.
+        Map<Coordinate, TIntList> pairsForOrigin = new LinkedHashMap<>();
+        TObjectIntMap<Coordinate> remainingPairsToDestination = new TObjectIntHashMap<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            OriginDestination pair = pairs.get(i);
+            pairsForOrigin.computeIfAbsent(new Coordinate(pair.fromLon, pair.fromLat), c -> new TIntArrayList()).add(i);
+            remainingPairsToDestination.adjustOrPutValue(new Coordinate(pair.toLon, pair.toLat), 1, 1);
+        }
+        // The egress search to each destination is kept until all pairs going there have been planned.
+        Map<Coordinate, Map<LegMode, StreetRouter>> egressRouterForDestination = new HashMap<>();
+
+        for (Map.Entry<Coordinate, TIntList> entry : pairsForOrigin.entrySet()) {
+            Coordinate origin = entry.getKey();
+            TIntList pairIndexes = entry.getValue();
+            ProfileRequest originRequest = request.clone();
+            originRequest.fromLat = origin.y;
+            originRequest.fromLon = origin.x;
+
+            Map<LegMode, StreetRouter> accessRouter = null;
+            Map<Coordinate, Integer> indexForDestination = new HashMap<>();
+            List<Collection<PathWithTimes>> pathsToDestinations = null;
+            Exception originError = null;
+            try {
+                if (request.hasTransit()) {
+                    accessRouter = findAccessPaths(originRequest);
+                    List<Map<LegMode, TIntIntMap>> egressTimes = new ArrayList<>();
+                    for (int i = 0; i < pairIndexes.size(); i++) {
+                        OriginDestination pair = pairs.get(pairIndexes.get(i));
+                        Coordinate destination = new Coordinate(pair.toLon, pair.toLat);
+                        if (indexForDestination.containsKey(destination)) {
+                            continue;
                         }
-                        TripPattern pattern = transportNetwork.transitLayer.tripPatterns.get(path.patterns[i]);
-                        if (pattern.routeIndex >= 0) {
-                            RouteInfo routeInfo = transportNetwork.transitLayer.routes.get(pattern.routeIndex);
-                            LOG.debug("     Pattern:{} on route:{} ({}) with {} stops", path.patterns[i],
-                                routeInfo.route_long_name, routeInfo.route_short_name, pattern.stops.length);
+                        indexForDestination.put(destination, egressTimes.size());
+                        Map<LegMode, StreetRouter> egressRouter = egressRouterForDestination.get(destination);
+                        if (egressRouter == null) {
+                            ProfileRequest destinationRequest = request.clone();
+                            destinationRequest.toLat = destination.y;
+                            destinationRequest.toLon = destination.x;
+                            egressRouter = findEgressPaths(destinationRequest);
+                            egressRouterForDestination.put(destination, egressRouter);
                         }
-                        LOG.debug("     {}->{} ({}:{})", transportNetwork.transitLayer.stopNames.get(path.boardStops[i]),
-                            transportNetwork.transitLayer.stopNames.get(path.alightStops[i]),
-                            path.alightTimes[i] / 3600, path.alightTimes[i] % 3600 / 60);
-                        //transit_option.addTransit(transitSegment);
+                        egressTimes.add(getReachedStops(egressRouter));
                     }
-                    boardStop = path.boardStops[0];
-                    alightStop = path.alightStops[0];
+                    McRaptorSuboptimalPathProfileRouter router = new McRaptorSuboptimalPathProfileRouter(
+                            transportNetwork, originRequest, getReachedStops(accessRouter), egressTimes,
+                            (t)->new SuboptimalDominatingList(request.suboptimalMinutes));
+                    pathsToDestinations = router.getPathsToDestinations();
+                }
+            } catch (Exception e) {
+                LOG.error("Failed to plan trips from {}", origin, e);
+                originError = e;
+            }
+
+            for (int i = 0; i < pairIndexes.size(); i++) {
+                OriginDestination pair = pairs.get(pairIndexes.get(i));
+                Coordinate destination = new Coordinate(pair.toLon, pair.toLat);
+                ProfileRequest pairRequest = originRequest.clone();
+                pairRequest.toLat = destination.y;
+                pairRequest.toLon = destination.x;
+
+                // Exceptions thrown by the consumers are not caught, so that e.g. a closed connection stops planning.
+                ProfileResponse profileResponse = null;
+                Exception pairError = originError;
+                if (pairError == null) {
+                    try {
+                        profileResponse = new ProfileResponse();
+                        ProfileOption option = new ProfileOption();
+                        findDirectPaths(pairRequest, option);
+                        option.summary = option.generateSummary();
+                        profileResponse.addOption(option);
+                        if (request.hasTransit()) {
+                            addTransitPaths(profileResponse, accessRouter, egressRouterForDestination.get(destination),
+                                    pathsToDestinations.get(indexForDestination.get(destination)), pairRequest);
+                            profileResponse.generateStreetTransfers(transportNetwork, pairRequest);
+                        }
+                        profileResponse.recomputeStats(pairRequest);
+                    } catch (Exception e) {
+                        LOG.error("Failed to plan trip {}", pairIndexes.get(i), e);
+                        pairError = e;
+                    }
+                }
+
+                if (remainingPairsToDestination.adjustOrPutValue(destination, -1, 0) == 0) {
+                    egressRouterForDestination.remove(destination);
+                }
+                if (pairError == null) {
+                    consumer.accept(profileResponse, pairIndexes.get(i));
+                } else {
+                    errorConsumer.accept(pairError, pairIndexes.get(i));
                 }
-                seen_paths++;
             }
-            profileResponse.generateStreetTransfers(transportNetwork, request);
         }
 
-        profileResponse.recomputeStats(request);
+        LOG.info("Planned {} trips from {} origins in {} ms", pairs.size(), pairsForOrigin.size(),
+                System.currentTimeMillis() - startRouting);
+    }
 
-        LOG.info("Returned {} options", profileResponse.getOptions().size());
-        LOG.info("Took {} ms", System.currentTimeMillis() - startRouting);
+    private static Map<LegMode, TIntIntMap> getReachedStops(Map<LegMode, StreetRouter> routers) {
+        return routers.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getReachedStops()));
+    }
 
-        return profileResponse;
+    /**
+     * Add the given transit paths to the response, in a stable order, along with the access and egress street paths
+     * found by the given routers.
+     */
+    private void addTransitPaths(ProfileResponse profileResponse, Map<LegMode, StreetRouter> accessRouter,
+            Map<LegMode, StreetRouter> egressRouter, Collection<PathWithTimes> paths, ProfileRequest request) {
+        List<PathWithTimes> usefullpathList = new ArrayList<>();
+
+        // getPaths actually returns a set, which is important so that things are deduplicated. However we need a list
+        // so we can sort it below.
+        usefullpathList.addAll(paths);
+
+        //This sort is necessary only for text debug output so it will be disabled when it is finished
+
+        /**
+         * Orders first no transfers then one transfers 2 etc
+         * - then orders according to first trip:
+         *   - board stop
+         *   - alight stop
+         *   - alight time
+         * - same for one transfer trip
+         */
+        usefullpathList.sort((o1, o2) -> {
+            int c;
+            c = Integer.compare(o1.patterns.length, o2.patterns.length);
+            if (c==0) {
+                c = Integer.compare(o1.boardStops[0], o2.boardStops[0]);
+            }
+            if (c==0) {
+                c = Integer.compare(o1.alightStops[0], o2.alightStops[0]);
+            }
+            if (c==0) {
+                c = Integer.compare(o1.alightTimes[0], o2.alightTimes[0]);
+            }
+            if (c==0 && o1.patterns.length == 2) {
+                c = Integer.compare(o1.boardStops[1], o2.boardStops[1]);
+                if (c==0) {
+                    c = Integer.compare(o1.alightStops[1], o2.alightStops[1]);
+                }
+                if (c==0) {
+                    c = Integer.compare(o1.alightTimes[1], o2.alightTimes[1]);
+                }
+            }
+            return c;
+        });
+        LOG.info("Usefull paths:{}", usefullpathList.size());
+        int seen_paths = 0;
+        int boardStop =-1, alightStop = -1;
+        for (PathWithTimes path : usefullpathList) {
+            profileResponse.addTransitPath(accessRouter, egressRouter, path, transportNetwork, request.getFromTimeDateZD());
+            //LOG.info("Num patterns:{}", path.patterns.length);
+            //ProfileOption transit_option = new ProfileOption();
+
+
+            /*if (path.patterns.length == 1) {
+                continue;
+            }*/
+
+            /*if (seen_paths > 20) {
+                break;
+            }*/
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(" ");
+                for (int i = 0; i < path.patterns.length; i++) {
+                    //TransitSegment transitSegment = new TransitSegment(transportNetwork.transitLayer, path.boardStops[i], path.alightStops[i], path.patterns[i]);
+                    if (!(((boardStop == path.boardStops[i] && alightStop == path.alightStops[i])))) {
+                        LOG.debug("   BoardStop: {} pattern: {} allightStop: {}", path.boardStops[i],
+                            path.patterns[i], path.alightStops[i]);
+                    }
+                    TripPattern pattern = transportNetwork.transitLayer.tripPatterns.get(path.patterns[i]);
+                    if (pattern.routeIndex >= 0) {
+                        RouteInfo routeInfo = transportNetwork.transitLayer.routes.get(pattern.routeIndex);
+                        LOG.debug("     Pattern:{} on route:{} ({}) with {} stops", path.patterns[i],
+                            routeInfo.route_long_name, routeInfo.route_short_name, pattern.stops.length);
+                    }
+                    LOG.debug("     {}->{} ({}:{})", transportNetwork.transitLayer.stopNames.get(path.boardStops[i]),
+                        transportNetwork.transitLayer.stopNames.get(path.alightStops[i]),
+                        path.alightTimes[i] / 3600, path.alightTimes[i] % 3600 / 60);
+                    //transit_option.addTransit(transitSegment);
+                }
+                boardStop = path.boardStops[0];
+                alightStop = path.alightStops[0];
+            }
+            seen_paths++;
+        }
     }
 
     /**
@@ -255,7 +394,7 @@ public class PointToPointQuery {
                     LOG.warn("Bike sharing trip requested but no bike sharing stations in the streetlayer");
                     continue;
                 }
-                streetRouter = findBikeRentalPath(request, streetRouter, true);
+                streetRouter = findBikeRentalPath(request, true);
                 if (streetRouter != null) {
                     StreetRouter.State lastState = streetRouter.getState(request.toLat, request.toLon);
                     if (lastState != null) {
@@ -321,7 +460,7 @@ public class PointToPointQuery {
                     LOG.warn("Bike sharing trip requested but no bike sharing stations in the streetlayer");
                     continue;
                 }
-                streetRouter = findBikeRentalPath(request, streetRouter, false);
+                streetRouter = findBikeRentalPath(request, false);
                 if (streetRouter != null) {
                     accessRouter.put(LegMode.BICYCLE_RENT, streetRouter);
                 } else {
@@ -389,92 +528,20 @@ public class PointToPointQuery {
     }
 
     /**
-     * Uses 3 streetSearches to first search from fromLat/fromLon to all the bike renting places in
-     * WALK mode. Then from all found bike renting places to other bike renting places with BIKE
-     * and then just routing from those found bike renting places in WALK mode.
+     * Searches from fromLat/fromLon, walking to bike renting places, cycling from those to other bike renting places
+     * and walking from there, as one search with a separate StreetRouter for each of the three parts.
      *
      * This can then be used as streetRouter for access paths or as a direct search for specific destination
      *
      * Last streetRouter (WALK from bike rentals) is returned
      * @param request profileRequest from which from/to destination is used
-     * @param streetRouter where profileRequest was already set
      * @param direct
      * @return null if path isn't found
      */
-    private StreetRouter findBikeRentalPath(ProfileRequest request, StreetRouter streetRouter,
-        boolean direct) {
-        streetRouter.streetMode = StreetMode.WALK;
-        // TODO add time and distance limits to routing, not just weight.
-        streetRouter.timeLimitSeconds = request.maxWalkTime * 60;
-        if (!direct) {
-            streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
-        }
-        streetRouter.flagSearch = VertexStore.VertexFlag.BIKE_SHARING;
-        if(streetRouter.setOrigin(request.fromLat, request.fromLon)) {
-            //if we can't find destination we can stop search before even trying
-            if (direct && !streetRouter.setDestination(request.toLat, request.toLon)) {
-                return null;
-            }
-            Split destinationSplit = streetRouter.getDestinationSplit();
-
-            //reset destinationSplit since we need it at the last part of routing
-            streetRouter.setDestination(null);
-            streetRouter.route();
-            //This finds all the nearest bicycle rent stations when walking
-            TIntObjectMap<StreetRouter.State> bikeStations = streetRouter.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING);
-            LOG.info("BIKE RENT: Found {} bike stations which are {} minutes away", bikeStations.size(), streetRouter.timeLimitSeconds/60);
-                        /*LOG.info("Start to bike share:");
-                        bikeStations.forEachEntry((idx, state) -> {
-                            LOG.info("   {} ({}m)", idx, state.distance);
-                            return true;
-                        });*/
-
-            //This finds best cycling path from best start bicycle station to end bicycle station
-            StreetRouter bicycle = new StreetRouter(transportNetwork.streetLayer);
-            bicycle.previousRouter = streetRouter;
-            bicycle.streetMode = StreetMode.BICYCLE;
-            bicycle.profileRequest = request;
-            bicycle.flagSearch = streetRouter.flagSearch;
-            bicycle.flagSearchQuantity = Integer.MAX_VALUE;
-            //Longer bike part if this is direct search
-            if (direct) {
-                bicycle.timeLimitSeconds = request.streetTime * 60;
-            } else {
-                bicycle.timeLimitSeconds = request.maxBikeTime * 60;
-                bicycle.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
-            }
-            bicycle.setOrigin(bikeStations, BIKE_RENTAL_PICKUP_TIME_S, BIKE_RENTAL_PICKUP_COST, LegMode.BICYCLE_RENT);
-            bicycle.setDestination(destinationSplit);
-            bicycle.route();
-            TIntObjectMap<StreetRouter.State> cycledStations = bicycle.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING);
-            LOG.info("BIKE RENT: Found {} cycled stations which are {} minutes away", cycledStations.size(), bicycle.timeLimitSeconds/60);
-                        /*LOG.info("Bike share to bike share:");
-                        cycledStations.retainEntries((idx, state) -> {
-                            if (bikeStations.containsKey(idx)) {
-                                LOG.warn("  MM:{} ({}m)", idx, state.distance/1000);
-                                return false;
-                            } else {
-                                LOG.info("   {} ({}m)", idx, state.distance / 1000);
-                                return true;
-                            }
-
-                        });*/
-            //This searches for walking path from end bicycle station to end point
-            StreetRouter end = new StreetRouter(transportNetwork.streetLayer);
-            end.streetMode = StreetMode.WALK;
-            end.profileRequest = request;
-            end.timeLimitSeconds = bicycle.timeLimitSeconds;
-            if (!direct) {
-                end.transitStopSearch = true;
-                end.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
-            }
-            end.setOrigin(cycledStations, BIKE_RENTAL_DROPOFF_TIME_S, BIKE_RENTAL_DROPOFF_COST, LegMode.BICYCLE_RENT);
-            end.route();
-            end.previousRouter = bicycle;
-            return end;
-        } else {
-            return null;
-        }
+    private StreetRouter findBikeRentalPath(ProfileRequest request, boolean direct) {
+        BikeShareRouter bikeShareRouter = new BikeShareRouter(transportNetwork.streetLayer, request,
+            BIKE_RENTAL_PICKUP_TIME_S, BIKE_RENTAL_DROPOFF_TIME_S);
+        return bikeShareRouter.route(direct);
     }
 
     /** Combine the results of several street searches using different modes into a single map
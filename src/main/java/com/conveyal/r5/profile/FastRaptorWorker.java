@@ -104,7 +104,7 @@ public class FastRaptorWorker {
     private final AnalysisWorkerTask request;
 
     /** Generates and stores departure time offsets for every frequency-based set of trips. */
-    private final FrequencyRandomOffsets offsets;
+    final FrequencyRandomOffsets offsets;
 
     /** Services active on the date of the search. */
     private final BitSet servicesActive;
@@ -141,8 +141,6 @@ public class FastRaptorWorker {
         this.accessStops = accessStops;
         this.servicesActive  = transit.getActiveServicesForDate(request.date);
 
-        offsets = new FrequencyRandomOffsets(transitLayer);
-
         // compute number of minutes for scheduled search
         nMinutes = request.getTimeWindowLengthMinutes();
 
@@ -151,6 +149,11 @@ public class FastRaptorWorker {
         // the user has signalled half-headway mode), only one set of schedules needs to be tested per minute.
         iterationsPerMinute = request.getIterationsPerMinute(transit.hasFrequencies);
 
+        // Stratified offsets are spread over all the draws at all departure minutes, which are pooled in the results.
+        offsets = new FrequencyRandomOffsets(
+                transitLayer, request.frequencyOffsetSampling, Math.max(1, iterationsPerMinute * nMinutes)
+        );
+
         // Hidden feature: activate half-headway boarding times by specifying zero Monte Carlo draws.
         // The UI requires one or more draws, so this can only be activated by editing request JSON directly.
         boardingMode = (request.monteCarloDraws == 0) ? HALF_HEADWAY : MONTE_CARLO;
@@ -158,11 +161,9 @@ public class FastRaptorWorker {
 
     /**
      * For each iteration (minute + MC draw combination), return the minimum travel time (duration) to each transit stop
-     * in seconds.
-     * Return value dimension order is [searchIteration][transitStopIndex]
-     * TODO Create proper types for return values?
+     * in seconds. These are stored compactly and grouped by stop, as expected by propagation.
      */
-    public int[][] route () {
+    public TravelTimesToStops route () {
         raptorTimer.fullSearch.start();
         raptorTimer.patternFiltering.start();
         filteredPatterns = transit.filteredPatternCache.get(request.transitModes, servicesActive);
@@ -172,7 +173,7 @@ public class FastRaptorWorker {
         final int nIterations = iterationsPerMinute * nMinutes;
         LOG.info("Performing {} total iterations ({} per minute); boarding {}; frequencies {}",
                 nIterations, iterationsPerMinute, boardingMode, transit.hasFrequencies);
-        int[][] travelTimesToStopsPerIteration = new int[nIterations][];
+        TravelTimesToStops travelTimesToStops = new TravelTimesToStops(nStops, nIterations);
         if (retainPaths) pathsPerIteration = new ArrayList<>();
 
         // This main outer loop iterates backward over all minutes in the departure times window.
@@ -189,24 +190,18 @@ public class FastRaptorWorker {
             int[][] resultsForDepartureMinute = runRaptorForDepartureMinute(departureTime);
             // Iterate over the results for different Monte Carlo draws at this departure minute.
             for (int[] arrivalTimesAtStops : resultsForDepartureMinute) {
-                // Make a protective copy of the arrival times, transforming them into travel times (durations).
+                // Copy the arrival times into the matrix for all iterations at all minutes, transforming them into
+                // travel times (durations).
                 checkState(arrivalTimesAtStops.length == nStops, "Result should contain one value per stop.");
-                int[] travelTimesToStops = new int[nStops];
-                for (int s = 0; s < nStops; s++) {
-                    int arrivalTime = arrivalTimesAtStops[s];
-                    travelTimesToStops[s] = (arrivalTime == UNREACHED) ? UNREACHED : arrivalTime - departureTime;
-                }
-                // Accumulate the duration-transformed Monte Carlo iterations for the current minute
-                // into one big flattened array representing all iterations at all minutes.
-                travelTimesToStopsPerIteration[currentIteration++] = travelTimesToStops;
+                travelTimesToStops.setIterationFromArrivalTimes(currentIteration++, arrivalTimesAtStops, departureTime);
             }
         }
         checkState(currentIteration == nIterations, "Unexpected number of iterations.");
         raptorTimer.fullSearch.stop();
         raptorTimer.log();
         // For debugging:
-        // dumpAllTimesToFile(travelTimesToStopsPerIteration, 45);
-        return travelTimesToStopsPerIteration;
+        // dumpAllTimesToFile(travelTimesToStops, 45);
+        return travelTimesToStops;
     }
 
     /**
@@ -215,12 +210,11 @@ public class FastRaptorWorker {
      * times greater than that number (including UNREACHED) will be recorded as "OVER", to facilitate simple comparisons
      * on the command line with diff.
      */
-    private void dumpAllTimesToFile(int[][] arrivalTimesAtStopsPerIteration, int maxDurationMinutes) {
+    private void dumpAllTimesToFile(TravelTimesToStops travelTimesToStops, int maxDurationMinutes) {
         try (PrintWriter pw = new PrintWriter(new BufferedOutputStream(new FileOutputStream("dump.csv")))) {
-            for (int i = 0; i < arrivalTimesAtStopsPerIteration.length; i++) {
-                int[] arrivalTimesForIteration = arrivalTimesAtStopsPerIteration[i];
-                for (int s = 0; s < arrivalTimesForIteration.length; s++) {
-                    int time = arrivalTimesForIteration[s];
+            for (int i = 0; i < travelTimesToStops.nIterations; i++) {
+                for (int s = 0; s < travelTimesToStops.nStops; s++) {
+                    int time = travelTimesToStops.get(s, i);
                     String timeStr = "OVER"; // Including UNREACHED
                     if (time < maxDurationMinutes * 60) {
                         timeStr = Integer.toString(time);
@@ -0,0 +1,16 @@
+package com.conveyal.r5.profile;
+
+/**
+ * How the departure offsets ("phases") of frequency-based trips are chosen for successive Monte Carlo draws.
+ */
+public enum FrequencyOffsetSampling {
+    /** Each offset of each draw is chosen independently and uniformly from the headway. */
+    RANDOM,
+    /**
+     * Latin hypercube sampling: over a search's N draws, each frequency entry's offsets fall once in each of N
+     * equal slices of its headway, in an order shuffled independently for each entry. Every entry still has a uniform
+     * offset in every draw, but the set of draws covers the headways evenly, so travel time distributions converge
+     * with fewer draws than independent random sampling.
+     */
+    LATIN_HYPERCUBE
+}
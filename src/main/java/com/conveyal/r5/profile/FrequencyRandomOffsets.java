@@ -3,16 +3,19 @@ package com.conveyal.r5.profile;
 import com.conveyal.r5.transit.TransitLayer;
 import com.conveyal.r5.transit.TripPattern;
 import com.conveyal.r5.transit.TripSchedule;
-import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 import org.apache.commons.math3.random.MersenneTwister;
 
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
-import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -20,8 +23,12 @@ import static com.google.common.base.Preconditions.checkState;
   * Generates and stores departure time offsets for every frequency-based set of trips.
   * This holds only one set of offsets at a time. It is re-randomized before each Monte Carlo iteration.
   * Therefore we have no memory of exactly which offsets were used in a particular Monte Carlo search.
-  * It may be preferable to work with reproducible low-discrepancy sets instead of simple random samples, in which case
-  * we'd need to make alternate implementations that pre-generate the entire set or use deterministic seeded generators.
+  * The offsets may be independent random samples, or stratified across all the draws of a search (Latin hypercube
+  * sampling, see FrequencyOffsetSampling) in which case this also tracks which stratum each draw falls in.
+  *
+  * Frequency entries that are synchronized with other entries ("phased") are not randomized themselves: their offset
+  * is the offset of their source entry plus a constant. Before the first draw, the phasing of all entries is resolved
+  * into flat arrays in dependency order, so each draw is then a single pass over those arrays with no lookups.
   */
 public class FrequencyRandomOffsets {
 
@@ -37,21 +44,73 @@ public class FrequencyRandomOffsets {
     /**
      * Secondary copy of the offsets keyed on TripSchedule objects.
      * This allows lookups where patterns and trips have been filtered and int indexes no longer match unfiltered ones.
-     * This can't simply replace the other offsets map because we need to fetch stop sequences from TripPatterns
-     * to look up phase targets on the fly. It's awkward to store them if they're looked up in advance because the
-     * natural key is frequency entries, which are not objects but just array slots.
+     * The arrays are the same instances held in the offsets map, which are updated in place by each draw.
      */
     private final Map<TripSchedule, int[]> offsetsForTripSchedule = new HashMap<>();
 
     /** The mersenne twister is a higher quality random number generator than the one included with Java */
     private MersenneTwister mt = new MersenneTwister();
 
+    private final FrequencyOffsetSampling sampling;
+
+    /** The number of draws over which Latin hypercube samples are stratified. */
+    private final int nDraws;
+
+    /** The number of times randomize() has been called. */
+    private int draw = 0;
+
+    /** Whether the arrays below have been filled in from the phasing of the frequency entries. */
+    private boolean phasingResolved = false;
+
+    // Unphased frequency entries, which are randomized independently. Entry u is at position unphasedPosition[u] in
+    // the array unphasedOffsets[u], one of the arrays held in the offsets map.
+    private int[][] unphasedOffsets;
+    private int[] unphasedPosition;
+    private int[] unphasedHeadwaySeconds;
+
+    /**
+     * For Latin hypercube sampling, the stratum of each draw for each unphased frequency entry:
+     * strata[unphasedEntry][draw]. These are shuffled again at the start of every nDraws draws.
+     */
+    private int[][] strata;
+
+    // Phased frequency entries, in an order where every entry comes after its source entry if that is also phased.
+    // The offset of entry p is phasedOffsets[p][phasedPosition[p]], which is the offset of its source entry plus
+    // phaseDeltaSeconds[p], modulo its headway.
+    private int[][] phasedOffsets;
+    private int[] phasedPosition;
+    private int[][] sourceOffsets;
+    private int[] sourcePosition;
+    private int[] phaseDeltaSeconds;
+    private int[] phasedHeadwaySeconds;
+
+    FrequencyOffsetSampling getSampling () {
+        return sampling;
+    }
+
+    /** Seed the random number generator, so that tests can compare searches drawing the same offsets. */
+    void setSeed (int seed) {
+        mt.setSeed(seed);
+    }
+
+    /** Generate independent random offsets for every draw. */
     public FrequencyRandomOffsets(TransitLayer data) {
+        this(data, FrequencyOffsetSampling.RANDOM, 1);
+    }
+
+    /**
+     * @param nDraws the number of times randomize() will be called in one search. Stratified samples cover the
+     *               headways evenly over this many draws.
+     */
+    public FrequencyRandomOffsets(TransitLayer data, FrequencyOffsetSampling sampling, int nDraws) {
+        checkArgument(nDraws > 0, "Offsets must be sampled for at least one draw.");
         this.data = data;
+        this.sampling = checkNotNull(sampling);
+        this.nDraws = nDraws;
         if (!data.hasFrequencies) {
             return;
         }
-        // Create skeleton empty data structure with slots for all offsets that will be generated.
+        // Create data structure with slots for all offsets that will be generated, initially -1 (not randomized).
         for (int pattIdx = 0; pattIdx < data.tripPatterns.size(); pattIdx++) {
             TripPattern tp = data.tripPatterns.get(pattIdx);
             if (!tp.hasFrequencies) {
@@ -61,7 +120,13 @@ public class FrequencyRandomOffsets {
 
             for (int tripIdx = 0; tripIdx < tp.tripSchedules.size(); tripIdx++) {
                 TripSchedule ts = tp.tripSchedules.get(tripIdx);
-                offsetsThisPattern[tripIdx] = ts.headwaySeconds == null ? null : new int[ts.headwaySeconds.length];
+                // It is possible to have both frequency and non-frequency (scheduled) trips on the same pattern.
+                // Scheduled trips have no offsets. There's no point in storing null values in the secondary map.
+                if (ts.headwaySeconds != null) {
+                    offsetsThisPattern[tripIdx] = new int[ts.headwaySeconds.length];
+                    Arrays.fill(offsetsThisPattern[tripIdx], -1);
+                    offsetsForTripSchedule.put(ts, offsetsThisPattern[tripIdx]);
+                }
             }
 
             offsets.put(pattIdx, offsetsThisPattern);
@@ -83,168 +148,219 @@ public class FrequencyRandomOffsets {
         return offset;
     }
 
-     /**
-      * Take a new Monte Carlo draw if requested (i.e. if boarding assumption is not half-headway): for each
-      * frequency-based route, choose how long after service starts the first vehicle leaves (the route's "phase").
-      * We run all Raptor rounds with one draw before proceeding to the next draw.
-      */
-    public void randomize () {
-        // The number of TripSchedules for which we still need to generate a random offset.
-        int remaining = 0;
-
-        // First, initialize all offsets for all trips and entries on this pattern with -1 ("not yet randomized").
-        for (TIntObjectIterator<int[][]> it = offsets.iterator(); it.hasNext(); ) {
-            it.advance();
-            for (int[] offsetsPerEntry : it.value()) {
-                // If this pattern has mixed schedule and frequency trips, and this is a scheduled trip,
-                // it doesn't need to be randomized and there is no offsets array in this position.
-                if (offsetsPerEntry == null) continue;
-                Arrays.fill(offsetsPerEntry, -1);
-                remaining += offsetsPerEntry.length;
+    /**
+     * Find the source of every phased frequency entry, and the stops at which it is phased, and record the resulting
+     * constant difference between the offsets of the source and target entries. Order the phased entries so that
+     * each is computed after its source. This is done only once, but not until the first draw, so that problems with
+     * phasing are reported only by searches that actually use random offsets, as they always have been.
+     */
+    private void resolvePhasing () {
+        TIntList unphasedPatterns = new TIntArrayList(), unphasedTrips = new TIntArrayList();
+        TIntList unphasedEntries = new TIntArrayList();
+        TIntList phasedPatterns = new TIntArrayList(), phasedTrips = new TIntArrayList();
+        TIntList phasedEntries = new TIntArrayList();
+        // The index of each phased entry in the lists above, keyed on its pattern, trip and entry indexes.
+        TLongIntMap phasedIndex = new TLongIntHashMap(16, 0.5f, -1, -1);
+        for (int pattIdx : offsets.keys()) {
+            TripPattern pattern = data.tripPatterns.get(pattIdx);
+            for (int tripIdx = 0; tripIdx < pattern.tripSchedules.size(); tripIdx++) {
+                TripSchedule schedule = pattern.tripSchedules.get(tripIdx);
+                if (schedule.headwaySeconds == null) continue;
+                for (int entry = 0; entry < schedule.headwaySeconds.length; entry++) {
+                    if (schedule.phaseFromId != null && schedule.phaseFromId[entry] != null) {
+                        phasedIndex.put(entryKey(pattIdx, tripIdx, entry), phasedPatterns.size());
+                        phasedPatterns.add(pattIdx);
+                        phasedTrips.add(tripIdx);
+                        phasedEntries.add(entry);
+                    } else {
+                        unphasedPatterns.add(pattIdx);
+                        unphasedTrips.add(tripIdx);
+                        unphasedEntries.add(entry);
+                    }
+                }
             }
         }
 
-        // If some randomized schedules are synchronized with other schedules ("phased") we perform multiple passes. In
-        // each pass we randomize only schedules whose phasing target is already known (randomized in a previous pass).
-        // This will loop forever if the phasing dependency graph has cycles - we must catch stalled progress. This is
-        // essentially performing depth-first traversal of the dependency graph iteratively without materializing it.
-        while (remaining > 0) {
-            int remainingAfterPreviousPass = remaining;
+        int nUnphased = unphasedPatterns.size();
+        unphasedOffsets = new int[nUnphased][];
+        unphasedPosition = new int[nUnphased];
+        unphasedHeadwaySeconds = new int[nUnphased];
+        for (int u = 0; u < nUnphased; u++) {
+            unphasedOffsets[u] = offsets.get(unphasedPatterns.get(u))[unphasedTrips.get(u)];
+            unphasedPosition[u] = unphasedEntries.get(u);
+            unphasedHeadwaySeconds[u] = data.tripPatterns.get(unphasedPatterns.get(u)).tripSchedules
+                    .get(unphasedTrips.get(u)).headwaySeconds[unphasedEntries.get(u)];
+        }
+        if (sampling == FrequencyOffsetSampling.LATIN_HYPERCUBE) {
+            strata = new int[nUnphased][nDraws];
+        }
 
-            for (TIntObjectIterator<int[][]> it = offsets.iterator(); it.hasNext(); ) {
-                it.advance();
-                // The only thing we need from the TripPattern is the stop sequence, which is used only in phase solving.
-                TripPattern pattern = data.tripPatterns.get(it.key());
-                int[][] val = it.value();
+        // Resolve the source and phase of each phased entry, in the order they appear.
+        int nPhased = phasedPatterns.size();
+        int[][] targetOffsetsUnordered = new int[nPhased][];
+        int[][] sourceOffsetsUnordered = new int[nPhased][];
+        int[] sourcePositionUnordered = new int[nPhased];
+        // The index of the source of each phased entry if the source is itself phased, otherwise -1.
+        int[] phasedSource = new int[nPhased];
+        int[] deltaUnordered = new int[nPhased];
+        int[] headwayUnordered = new int[nPhased];
+        for (int p = 0; p < nPhased; p++) {
+            TripPattern pattern = data.tripPatterns.get(phasedPatterns.get(p));
+            TripSchedule schedule = pattern.tripSchedules.get(phasedTrips.get(p));
+            int frequencyEntryIndex = phasedEntries.get(p);
+
+            // Find source phase information. TODO refactor to use references instead of ints.
+            int[] source = data.frequencyEntryIndexForId.get(schedule.phaseFromId[frequencyEntryIndex]);
+            // Throw a meaningful error when invalid IDs are encountered instead of NPE.
+            // Really this should be done when resolving or applying the modifications rather than during search.
+            if (source == null) {
+                throw new RuntimeException("This pattern ID specified in a scenario does not exist: "
+                        + schedule.phaseFromId[frequencyEntryIndex]);
+            }
+            int sourcePatternIdx = source[0];
+            int sourceTripScheduleIdx = source[1];
+            int sourceFrequencyEntryIdx = source[2];
+            TripPattern phaseFromPattern = data.tripPatterns.get(sourcePatternIdx);
+            TripSchedule phaseFromSchedule = phaseFromPattern.tripSchedules.get(sourceTripScheduleIdx);
+
+            // TODO This should really be checked also before modifications are applied.
+            int sourceStopIndexInPattern = findStop(phaseFromPattern, schedule.phaseFromStop[frequencyEntryIndex]);
+            if (sourceStopIndexInPattern == -1) {
+                throw new IllegalArgumentException(String.format("Stop %s was not found in source pattern!",
+                        schedule.phaseFromStop[frequencyEntryIndex]));
+            }
+            int targetStopIndexInPattern = findStop(pattern, schedule.phaseAtStop[frequencyEntryIndex]);
+            if (targetStopIndexInPattern == -1) {
+                throw new IllegalArgumentException(String.format("Stop %s was not found in target pattern!",
+                        schedule.phaseAtStop[frequencyEntryIndex]));
+            }
 
-                for (int tripScheduleIndex = 0; tripScheduleIndex < val.length; tripScheduleIndex++) {
-                    TripSchedule schedule = pattern.tripSchedules.get(tripScheduleIndex);
+            // use arrivals at last stop
+            int[] sourceTravelTimes = sourceStopIndexInPattern < phaseFromPattern.stops.length - 1 ?
+                    phaseFromSchedule.departures : phaseFromSchedule.arrivals;
+            int[] targetTravelTimes = targetStopIndexInPattern < pattern.stops.length - 1 ?
+                    schedule.departures : schedule.arrivals;
+
+            // When the source trip passes its stop with an offset of 0, and when the target trip passes its stop
+            // with an offset of 0. The target's offset is such that the trips pass the stops at the same time, plus
+            // the desired phase.
+            int timeAtSourceStop = phaseFromSchedule.startTimes[sourceFrequencyEntryIdx] +
+                    sourceTravelTimes[sourceStopIndexInPattern];
+            int timeAtTargetStop = schedule.startTimes[frequencyEntryIndex] +
+                    targetTravelTimes[targetStopIndexInPattern];
+
+            targetOffsetsUnordered[p] = offsets.get(phasedPatterns.get(p))[phasedTrips.get(p)];
+            sourceOffsetsUnordered[p] = offsets.get(sourcePatternIdx)[sourceTripScheduleIdx];
+            sourcePositionUnordered[p] = sourceFrequencyEntryIdx;
+            phasedSource[p] = phasedIndex.get(
+                    entryKey(sourcePatternIdx, sourceTripScheduleIdx, sourceFrequencyEntryIdx)
+            );
+            deltaUnordered[p] = timeAtSourceStop - timeAtTargetStop + schedule.phaseSeconds[frequencyEntryIndex];
+            headwayUnordered[p] = schedule.headwaySeconds[frequencyEntryIndex];
+        }
 
-                    // It is possible to have both frequency and non-frequency (scheduled) trips on the same pattern.
-                    // If this is a scheduled trip, don't set offset.
-                    if (schedule.headwaySeconds == null) {
-                        val[tripScheduleIndex] = null;
-                    } else {
-                        for (int frequencyEntryIndex = 0; frequencyEntryIndex < val[tripScheduleIndex].length; frequencyEntryIndex++) {
-                            if (schedule.phaseFromId == null || schedule.phaseFromId[frequencyEntryIndex] == null) {
-                                // This trip is not phased so does not require solving. Generate a random offset
-                                // immediately. Do this only once - don't overwrite with a new random number on each
-                                // phase solving pass, as other trips may be be phased from this one.
-                                if (val[tripScheduleIndex][frequencyEntryIndex] == -1) {
-                                    val[tripScheduleIndex][frequencyEntryIndex] = mt.nextInt(schedule.headwaySeconds[frequencyEntryIndex]);
-                                    remaining--;
-                                }
-                            }
-                            else {
-                                // This trip is phased from another.
-                                if (val[tripScheduleIndex][frequencyEntryIndex] != -1) {
-                                    continue; // Offset has already have been generated.
-                                }
-                                // No random offset has been generated for this trip yet.
-                                // Find source phase information. TODO refactor to use references instead of ints.
-                                int[] source = data.frequencyEntryIndexForId.get(schedule.phaseFromId[frequencyEntryIndex]);
-                                // Throw a meaningful error when invalid IDs are encountered instead of NPE.
-                                // Really this should be done when resolving or applying the modifications rather than during search.
-                                if (source == null) {
-                                    throw new RuntimeException("This pattern ID specified in a scenario does not exist: "
-                                            + schedule.phaseFromId[frequencyEntryIndex]);
-                                }
-                                int sourcePatternIdx = source[0];
-                                int sourceTripScheduleIdx = source[1];
-                                int sourceFrequencyEntryIdx = source[2];
-
-                                // check if it's already been randomized
-                                int previousOffset = offsets.get(sourcePatternIdx)[sourceTripScheduleIdx][sourceFrequencyEntryIdx];
-
-                                if (previousOffset != -1) {
-                                    TripPattern phaseFromPattern = data.tripPatterns.get(sourcePatternIdx);
-                                    TripSchedule phaseFromSchedule = phaseFromPattern.tripSchedules.get(sourceTripScheduleIdx);
-
-                                    // figure out stop indices
-                                    int sourceStopIndexInPattern = 0;
-                                    int sourceStopIndexInNetwork = data.indexForStopId.get(schedule.phaseFromStop[frequencyEntryIndex]);
-
-                                    // TODO check that stop IDs were found.
-                                    // TODO find all stop IDs in advance when resolving/applying modifications or constructing FrequencyRandomOffsets.
-                                    while (sourceStopIndexInPattern < phaseFromPattern.stops.length &&
-                                            phaseFromPattern.stops[sourceStopIndexInPattern] != sourceStopIndexInNetwork) {
-                                        sourceStopIndexInPattern++;
-                                    }
-
-                                    if (sourceStopIndexInPattern == phaseFromPattern.stops.length) {
-                                        throw new IllegalArgumentException(String.format("Stop %s was not found in source pattern!", schedule.phaseFromStop[frequencyEntryIndex]));
-                                    }
-
-                                    int targetStopIndexInPattern = 0;
-                                    int targetStopIndexInNetwork = data.indexForStopId.get(schedule.phaseAtStop[frequencyEntryIndex]);
-
-                                    while (targetStopIndexInPattern < pattern.stops.length &&
-                                            pattern.stops[targetStopIndexInPattern] != targetStopIndexInNetwork) {
-                                        targetStopIndexInPattern++;
-                                    }
-
-                                    // TODO This should really be checked also before modifications are applied.
-                                    if (targetStopIndexInPattern == pattern.stops.length) {
-                                        throw new IllegalArgumentException(String.format("Stop %s was not found in target pattern!", schedule.phaseAtStop[frequencyEntryIndex]));
-                                    }
-
-                                    // use arrivals at last stop
-                                    int[] sourceTravelTimes = sourceStopIndexInPattern < phaseFromPattern.stops.length - 1 ?
-                                            phaseFromSchedule.departures : phaseFromSchedule.arrivals;
-
-                                    // figure out the offset if they were to pass the stops at the same time
-                                    int timeAtSourceStop = phaseFromSchedule.startTimes[sourceFrequencyEntryIdx] +
-                                            sourceTravelTimes[sourceStopIndexInPattern] +
-                                            previousOffset;
-
-                                    // use arrivals at last stop
-                                    int[] targetTravelTimes = targetStopIndexInPattern < pattern.stops.length - 1 ?
-                                            schedule.departures : schedule.arrivals;
-
-                                    // figure out when the target trip passes the stop if the offset were 0.
-                                    int timeAtTargetStop = schedule.startTimes[frequencyEntryIndex] +
-                                            targetTravelTimes[targetStopIndexInPattern];
-
-                                    int offset = timeAtSourceStop - timeAtTargetStop;
-
-                                    // this is the offset so the trips arrive at the same time. We now add the desired phase.
-                                    offset += schedule.phaseSeconds[frequencyEntryIndex];
-
-                                    // make sure it's positive
-                                    while (offset < 0) offset += schedule.headwaySeconds[frequencyEntryIndex];
-
-                                    // make it as small as possible...
-                                    offset %= schedule.headwaySeconds[frequencyEntryIndex];
-
-                                    val[tripScheduleIndex][frequencyEntryIndex] = offset;
-                                    remaining--;
-                                }
-                            }
-                        }
-                    }
+        // Order the phased entries so each one's source is computed before it. Entries whose source is not phased can
+        // be computed immediately; others only after their source. This performs multiple passes, and detects cycles
+        // in the phasing dependency graph by a pass that makes no progress.
+        int[] order = new int[nPhased];
+        int nOrdered = 0;
+        boolean[] ordered = new boolean[nPhased];
+        while (nOrdered < nPhased) {
+            int orderedBeforePass = nOrdered;
+            for (int p = 0; p < nPhased; p++) {
+                if (ordered[p]) continue;
+                if (phasedSource[p] == -1 || ordered[phasedSource[p]]) {
+                    order[nOrdered++] = p;
+                    ordered[p] = true;
                 }
             }
-            if (remainingAfterPreviousPass == remaining && remaining > 0) {
+            if (nOrdered == orderedBeforePass) {
                 throw new IllegalArgumentException("Cannot solve phasing, you may have a circular reference!");
             }
-            // Copy results of randomization to a Map keyed on TripSchedules (instead of TripPattern index ints). This
-            // allows looking up offsets in a context where we only have a filtered list of running frequency trips and
-            // don't know the original unfiltered index of the trip within the pattern. Ideally we'd just build the
-            // original map keyed on TripSchedules (or hypothetical FreqEntries) but that reqires a lot of refactoring.
-            offsetsForTripSchedule.clear();
-            for (TIntObjectIterator<int[][]> it = offsets.iterator(); it.hasNext(); ) {
-                it.advance();
-                TripPattern tripPattern = data.tripPatterns.get(it.key());
-                int[][] offsetsForTrip = it.value();
-                for (int ts = 0; ts < tripPattern.tripSchedules.size(); ts++) {
-                    TripSchedule tripSchedule = tripPattern.tripSchedules.get(ts);
-                    // On patterns with mixed scheduled and frequency trips, scheduled trip slots will be null.
-                    // Maps can store null values, but there's no point in storing them. We only store non-null arrays.
-                    if (offsetsForTrip[ts] != null) {
-                        offsetsForTripSchedule.put(tripSchedule, offsetsForTrip[ts]);
-                    }
-                }
+        }
+
+        phasedOffsets = new int[nPhased][];
+        phasedPosition = new int[nPhased];
+        sourceOffsets = new int[nPhased][];
+        sourcePosition = new int[nPhased];
+        phaseDeltaSeconds = new int[nPhased];
+        phasedHeadwaySeconds = new int[nPhased];
+        for (int i = 0; i < nPhased; i++) {
+            int p = order[i];
+            phasedOffsets[i] = targetOffsetsUnordered[p];
+            phasedPosition[i] = phasedEntries.get(p);
+            sourceOffsets[i] = sourceOffsetsUnordered[p];
+            sourcePosition[i] = sourcePositionUnordered[p];
+            phaseDeltaSeconds[i] = deltaUnordered[p];
+            phasedHeadwaySeconds[i] = headwayUnordered[p];
+        }
+        phasingResolved = true;
+    }
+
+    /** Combine the indexes identifying one frequency entry into a single key. */
+    private static long entryKey (int patternIndex, int tripScheduleIndex, int frequencyEntryIndex) {
+        return ((long) patternIndex << 40) | ((long) tripScheduleIndex << 20) | frequencyEntryIndex;
+    }
+
+    /** @return the index within the pattern of the stop with the given ID, or -1 if the pattern doesn't visit it. */
+    private int findStop (TripPattern pattern, String stopId) {
+        int stopIndexInNetwork = data.indexForStopId.get(stopId);
+        for (int s = 0; s < pattern.stops.length; s++) {
+            if (pattern.stops[s] == stopIndexInNetwork) return s;
+        }
+        return -1;
+    }
+
+    /** Randomly reorder the strata of every unphased frequency entry, each independently of the others. */
+    private void shuffleStrata () {
+        for (int[] strataPerDraw : strata) {
+            // Fisher-Yates shuffle of the stratum numbers 0...nDraws-1.
+            for (int i = 0; i < nDraws; i++) {
+                int j = mt.nextInt(i + 1);
+                strataPerDraw[i] = strataPerDraw[j];
+                strataPerDraw[j] = i;
             }
         }
     }
+
+    /**
+     * Choose the offset of one unphased frequency entry for the current draw: either uniformly over the whole
+     * headway, or uniformly within this draw's stratum of the headway.
+     */
+    private int sampleOffset (int unphasedEntry) {
+        int headwaySeconds = unphasedHeadwaySeconds[unphasedEntry];
+        if (sampling == FrequencyOffsetSampling.RANDOM) {
+            return mt.nextInt(headwaySeconds);
+        }
+        int stratum = strata[unphasedEntry][draw % nDraws];
+        int offset = (int) ((stratum + mt.nextDouble()) * headwaySeconds / nDraws);
+        return Math.min(offset, headwaySeconds - 1);
+    }
+
+     /**
+      * Take a new Monte Carlo draw if requested (i.e. if boarding assumption is not half-headway): for each
+      * frequency-based route, choose how long after service starts the first vehicle leaves (the route's "phase").
+      * We run all Raptor rounds with one draw before proceeding to the next draw.
+      */
+    public void randomize () {
+        if (!data.hasFrequencies) {
+            return;
+        }
+        if (!phasingResolved) {
+            resolvePhasing();
+        }
+        if (sampling == FrequencyOffsetSampling.LATIN_HYPERCUBE && draw % nDraws == 0) {
+            shuffleStrata();
+        }
+        for (int u = 0; u < unphasedOffsets.length; u++) {
+            unphasedOffsets[u][unphasedPosition[u]] = sampleOffset(u);
+        }
+        // Phased entries are ordered so that their sources, if phased themselves, have already been computed.
+        for (int p = 0; p < phasedOffsets.length; p++) {
+            int offset = sourceOffsets[p][sourcePosition[p]] + phaseDeltaSeconds[p];
+            // make it positive and as small as possible
+            phasedOffsets[p][phasedPosition[p]] = Math.floorMod(offset, phasedHeadwaySeconds[p]);
+        }
+        draw++;
+    }
 }
@@ -2,6 +2,7 @@ package com.conveyal.r5.profile;
 
 import com.conveyal.r5.analyst.fare.FareBounds;
 import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
+import com.conveyal.r5.analyst.fare.IncrementalInRoutingFareCalculator;
 import com.conveyal.r5.api.util.LegMode;
 import com.conveyal.r5.api.util.TransitModes;
 import com.conveyal.r5.streets.StreetRouter;
@@ -12,6 +13,7 @@ import com.conveyal.r5.transit.TripFlag;
 import com.conveyal.r5.transit.TripPattern;
 import com.conveyal.r5.transit.TripSchedule;
 import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectIntMap;
@@ -25,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -32,6 +35,8 @@ import java.util.Map;
 import java.util.function.IntFunction;
 import java.util.function.Supplier;
 
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  * A profile routing implementation which uses McRAPTOR to store bags of arrival times and paths per
  * vertex, so we can find suboptimal paths. We're not using range-RAPTOR here, yet, as the obvious implementation
@@ -55,10 +60,15 @@ public class McRaptorSuboptimalPathProfileRouter {
     private TransportNetwork network;
     private ProfileRequest request;
     private Map<LegMode, TIntIntMap> accessTimes;
-    private Map<LegMode, TIntIntMap> egressTimes = null;
+    /**
+     * For each destination, the times from stops to that destination by egress mode. Null if the search is not
+     * toward particular destinations. This usually contains a single destination, but searching toward several at
+     * once allows one search to serve many trips from the same origin.
+     */
+    private List<Map<LegMode, TIntIntMap>> egressTimesForDestinations = null;
     private InRoutingFareCalculator.Collater collapseParetoSurfaceToTime;
 
-    private FrequencyRandomOffsets offsets;
+    final FrequencyRandomOffsets offsets;
 
     private TIntObjectMap<McRaptorStateBag> bestStates = new TIntObjectHashMap<>();
 
@@ -66,6 +76,8 @@ public class McRaptorSuboptimalPathProfileRouter {
     private int departureTime;
 
     private BitSet touchedStops;
+    /** The stops at which states were added in the previous round, i.e. the only stops at which we need to board. */
+    private BitSet stopsTouchedLastRound;
     private BitSet touchedPatterns;
     private BitSet patternsNearDestination;
     private BitSet servicesActive;
@@ -74,13 +86,28 @@ public class McRaptorSuboptimalPathProfileRouter {
     private MersenneTwister mersenneTwister;
 
     /** In order to properly do target pruning we store the best times at each target _by access mode_, so car trips don't quash walk trips */
+    private List<TObjectIntMap<LegMode>> bestTimesAtDestinationsByAccessMode;
+
+    /**
+     * The latest of the best times at all destinations by access mode. States arriving more than the suboptimal time
+     * after this can't be useful at any destination, so they are pruned.
+     */
     private TObjectIntMap<LegMode> bestTimesAtTargetByAccessMode = new TObjectIntHashMap<>(4, 0.95f, Integer.MAX_VALUE);
 
+    /** For each stop with egress times to any destination, the indexes of those destinations. */
+    private TIntObjectMap<TIntList> destinationsNearStop;
+
+    /** For each destination, the states found there at all departure times. */
+    private List<List<McRaptorState>> statesAtDestinations;
+
     /** if saveFinalStates is true, contains the final states for every departure time */
     public TIntObjectMap<Collection<McRaptorState>> finalStatesByDepartureTime = null;
 
     public final boolean saveFinalStates;
 
+    /** Reused for each pattern explored, to avoid allocating maps of boarding information for each pattern. */
+    private final RideSet rides = new RideSet();
+
     /** backwards compatibility */
     public McRaptorSuboptimalPathProfileRouter (TransportNetwork network, ProfileRequest req, Map<LegMode,
             TIntIntMap> accessTimes, Map<LegMode, TIntIntMap> egressTimes, IntFunction<DominatingList> listSupplier,
@@ -97,7 +124,8 @@ public class McRaptorSuboptimalPathProfileRouter {
      * @param listSupplier
      * @param collapseParetoSurfaceToTime
      * @param saveFinalStates if true, save the best states by departure time in the field finalStatesByDepartureTime.
-     *                        egressTimes must not be null in this case.
+     *                        egressTimes must not be null in this case. This is not supported when searching toward
+     *                        several destinations.
      */
     public McRaptorSuboptimalPathProfileRouter (TransportNetwork network, ProfileRequest req, Map<LegMode,
             TIntIntMap> accessTimes, Map<LegMode, TIntIntMap> egressTimes, IntFunction<DominatingList> listSupplier,
@@ -106,14 +134,18 @@ public class McRaptorSuboptimalPathProfileRouter {
         this.network = network;
         this.request = req;
         this.accessTimes = accessTimes;
-        this.egressTimes = egressTimes;
+        this.egressTimesForDestinations = egressTimes == null ? null : Collections.singletonList(egressTimes);
         this.listSupplier = listSupplier;
         this.collapseParetoSurfaceToTime = collapseParetoSurfaceToTime;
         this.touchedStops = new BitSet(network.transitLayer.getStopCount());
+        this.stopsTouchedLastRound = new BitSet(network.transitLayer.getStopCount());
         this.touchedPatterns = new BitSet(network.transitLayer.tripPatterns.size());
         this.patternsNearDestination = new BitSet(network.transitLayer.tripPatterns.size());
         this.servicesActive = network.transitLayer.getActiveServicesForDate(req.date);
-        this.offsets = new FrequencyRandomOffsets(network.transitLayer);
+        // One set of offsets is drawn for each departure time sampled, so stratified samples are spread over those.
+        this.offsets = new FrequencyRandomOffsets(
+                network.transitLayer, req.frequencyOffsetSampling, Math.max(1, req.monteCarloDraws)
+        );
         this.saveFinalStates = saveFinalStates;
         if (saveFinalStates) this.finalStatesByDepartureTime = new TIntObjectHashMap<>();
 
@@ -123,6 +155,21 @@ public class McRaptorSuboptimalPathProfileRouter {
         this.mersenneTwister = new MersenneTwister((int) (request.fromLat * 1e9));
     }
 
+    /**
+     * Search from a single origin toward several destinations at once, as when planning trips from one origin to many
+     * destinations with the same request parameters. Paths to each destination are then found with
+     * getPathsToDestinations(). Target pruning only removes states that can't be useful at any of the destinations, so
+     * this explores more of the network than a search toward any one of them, but much less than searching toward each
+     * destination in turn.
+     * @param egressTimesForDestinations for each destination, the times from stops to that destination by egress mode.
+     */
+    public McRaptorSuboptimalPathProfileRouter (TransportNetwork network, ProfileRequest req, Map<LegMode,
+            TIntIntMap> accessTimes, List<Map<LegMode, TIntIntMap>> egressTimesForDestinations,
+                                                IntFunction<DominatingList> listSupplier) {
+        this(network, req, accessTimes, (Map<LegMode, TIntIntMap>) null, listSupplier, null, false);
+        this.egressTimesForDestinations = egressTimesForDestinations;
+    }
+
     /** Get a McRAPTOR state bag for every departure minute */
     public Collection<McRaptorState> route () {
 
@@ -134,16 +181,37 @@ public class McRaptorSuboptimalPathProfileRouter {
 
         // Optimization for modeify (PointToPointQuery): find patterns near destination
         // on the final round of the search we only explore these patterns
-        if (this.egressTimes != null) {
-            this.egressTimes.values().forEach(times -> times.forEachKey(s -> {
-                network.transitLayer.patternsForStop.get(s).forEach(p -> {
-                    patternsNearDestination.set(p);
+        if (this.egressTimesForDestinations != null) {
+            int nDestinations = egressTimesForDestinations.size();
+            // Final states are kept by departure time only, so states at one destination would replace another's.
+            checkState(!saveFinalStates || nDestinations == 1,
+                    "Final states can only be saved in a search toward a single destination.");
+            bestTimesAtDestinationsByAccessMode = new ArrayList<>(nDestinations);
+            statesAtDestinations = new ArrayList<>(nDestinations);
+            destinationsNearStop = new TIntObjectHashMap<>();
+            for (int d = 0; d < nDestinations; d++) {
+                final int destination = d;
+                bestTimesAtDestinationsByAccessMode.add(new TObjectIntHashMap<>(4, 0.95f, Integer.MAX_VALUE));
+                statesAtDestinations.add(new ArrayList<>());
+                egressTimesForDestinations.get(d).values().forEach(times -> times.forEachKey(s -> {
+                    network.transitLayer.patternsForStop.get(s).forEach(p -> {
+                        patternsNearDestination.set(p);
+                        return true;
+                    });
+                    TIntList destinations = destinationsNearStop.get(s);
+                    if (destinations == null) {
+                        destinations = new TIntArrayList();
+                        destinationsNearStop.put(s, destinations);
+                    }
+                    // The same stop may be reached by several egress modes.
+                    if (destinations.isEmpty() || destinations.get(destinations.size() - 1) != destination) {
+                        destinations.add(destination);
+                    }
                     return true;
-                });
-                return true;
-            }));
+                }));
+            }
 
-            LOG.info("{} patterns found near the destination", patternsNearDestination.cardinality());
+            LOG.info("{} patterns found near {} destinations", patternsNearDestination.cardinality(), nDestinations);
         }
 
         List<McRaptorState> codominatingStatesToBeReturned = new ArrayList<>();
@@ -201,11 +269,15 @@ public class McRaptorSuboptimalPathProfileRouter {
             while (doOneRound() && round < request.maxRides + 1);
 
             // TODO this means we wind up with some duplicated states.
-            if (egressTimes != null) {
+            if (egressTimesForDestinations != null) {
                 // In a PointToPointQuery (for Modeify), egressTimes will already be computed
-                Collection<McRaptorState> states = doPropagationToDestination(finalDepartureTime);
-                codominatingStatesToBeReturned.addAll(states);
-                if (saveFinalStates) finalStatesByDepartureTime.put(departureTime, states);
+                for (int d = 0; d < egressTimesForDestinations.size(); d++) {
+                    Collection<McRaptorState> states =
+                            doPropagationToDestination(finalDepartureTime, egressTimesForDestinations.get(d));
+                    statesAtDestinations.get(d).addAll(states);
+                    codominatingStatesToBeReturned.addAll(states);
+                    if (saveFinalStates) finalStatesByDepartureTime.put(departureTime, states);
+                }
             }
 
             if (collapseParetoSurfaceToTime != null) {
@@ -270,7 +342,25 @@ public class McRaptorSuboptimalPathProfileRouter {
     /** Perform a McRAPTOR search and extract paths */
     public Collection<PathWithTimes> getPaths () {
         Collection<McRaptorState> states = route();
+        return getPaths(states, egressTimesForDestinations.get(0));
+    }
 
+    /**
+     * Perform a McRAPTOR search toward all the destinations given to the constructor and extract the paths to each.
+     * @return the paths to each destination, in the order of the destinations.
+     */
+    public List<Collection<PathWithTimes>> getPathsToDestinations () {
+        route();
+        List<Collection<PathWithTimes>> pathsToDestinations = new ArrayList<>(statesAtDestinations.size());
+        for (int d = 0; d < statesAtDestinations.size(); d++) {
+            pathsToDestinations.add(getPaths(statesAtDestinations.get(d), egressTimesForDestinations.get(d)));
+        }
+        return pathsToDestinations;
+    }
+
+    /** Extract the best path using each sequence of patterns from the given states at a destination. */
+    private Collection<PathWithTimes> getPaths (Collection<McRaptorState> states,
+                                                Map<LegMode, TIntIntMap> egressTimes) {
         // A map to keep track of the best path among each group of paths using the same sequence of patterns.
         // We will often find multiple paths that board or transfer to the same patterns at different locations.
         // We only want to retain the best set of boarding, transfer, and alighting stops for a particular pattern sequence.
@@ -295,33 +385,27 @@ public class McRaptorSuboptimalPathProfileRouter {
 
     /** perform one round of the McRAPTOR search. Returns true if anything changed */
     private boolean doOneRound () {
-        // make a protective copy of bestStates so we're not reading from the same structure we're writing to
-        // Otherwise the router can ride multiple transit vehicles in a single round, if it explores the pattern of the first
-        // before the pattern of the second
-        TIntObjectMap<Collection<McRaptorState>> bestStatesBeforeRound = new TIntObjectHashMap<>();
-        TIntObjectMap<Collection<McRaptorState>> bestNonTransferStatesBeforeRound = new TIntObjectHashMap<>();
-        bestStates.forEachEntry((stop, bag) -> {
-            bestStatesBeforeRound.put(stop, new ArrayList<>(bag.getBestStates()));
-            bestNonTransferStatesBeforeRound.put(stop, new ArrayList<>(bag.getNonTransferStates()));
-            return true; // continue iteration
-        });
+        // Make a protective copy of the states found in the previous round, which are the only ones we board from.
+        // Otherwise they could be evicted from their bags by states found in this round before we explore all their
+        // patterns. States found in this round are never boarded, otherwise the router could ride multiple transit
+        // vehicles in a single round, if it explores the pattern of the first before the pattern of the second.
+        // Only stops touched in the previous round can hold states from that round, so we don't need to copy every bag.
+        TIntObjectMap<List<McRaptorState>> statesFromPreviousRound = new TIntObjectHashMap<>();
+        for (int stop = stopsTouchedLastRound.nextSetBit(0); stop >= 0; stop = stopsTouchedLastRound.nextSetBit(stop + 1)) {
+            List<McRaptorState> states = new ArrayList<>();
+            for (McRaptorState state : bestStates.get(stop).getBestStates()) {
+                if (state.round == round - 1) states.add(state);
+            }
+            if (!states.isEmpty()) statesFromPreviousRound.put(stop, states);
+        }
 
         // optimization: on the last round, only explore patterns near the destination in a point to point search
-        if (round == request.maxRides && egressTimes != null)
+        if (round == request.maxRides && egressTimesForDestinations != null)
             touchedPatterns.and(patternsNearDestination);
 
         for (int patIdx = touchedPatterns.nextSetBit(0); patIdx >= 0; patIdx = touchedPatterns.nextSetBit(patIdx + 1)) {
-            // All states that have been propagated
-            List<McRaptorState> states = new ArrayList<>();
-
-            // The board stop position in the pattern for each state (not the R5 or GTFS stop ID)
-            TObjectIntMap<McRaptorState> boardStopPositionInPattern = new TObjectIntHashMap<>();
-
-            // The board time, for frequency trips
-            TObjectIntMap<McRaptorState> boardTimeForFrequencyTrips = new TObjectIntHashMap<>();
-
-            // The trip index in the pattern (not GTFS Trip ID) that produced each state
-            TObjectIntMap<McRaptorState> tripIndicesInPattern = new TObjectIntHashMap<>();
+            // All states that have boarded this pattern
+            rides.clear();
 
             TripPattern pattern = network.transitLayer.tripPatterns.get(patIdx);
             RouteInfo routeInfo = network.transitLayer.routes.get(pattern.routeIndex);
@@ -346,19 +430,21 @@ public class McRaptorSuboptimalPathProfileRouter {
                 // Perform this check here so we don't needlessly loop over states at a stop that are only created by
                 // getting off this pattern. This optimization may limit the usefulness of R5 for a strict Class B
                 // (touch all stations) Subway Challenge attempt (http://www.gricer.com/anysrc/anysrc.html).
-                boolean stopReachedViaDifferentPattern = bestStatesBeforeRound.containsKey(stop);
+                boolean stopReachedViaDifferentPattern = statesFromPreviousRound.containsKey(stop);
 
                 // get off the bus, if we can
-                for (McRaptorState state : states) {
-                    int tripIndexInPattern = tripIndicesInPattern.get(state);
+                for (int ride = 0; ride < rides.size; ride++) {
+                    McRaptorState state = rides.states[ride];
+                    int firstEntry = rides.firstEntries[ride];
+                    int tripIndexInPattern = rides.trips[firstEntry];
                     TripSchedule sched = pattern.tripSchedules.get(tripIndexInPattern);
-                    int boardStopPosition = boardStopPositionInPattern.get(state);
+                    int boardStopPosition = rides.boardStopPositions[firstEntry];
                     int arrival, boardTime;
 
                     // we know we have no mixed schedule/frequency patterns, see check on boarding
                     if (sched.headwaySeconds != null) {
                         int travelTimeToStop = sched.arrivals[stopPositionInPattern] - sched.departures[boardStopPosition];
-                        boardTime = boardTimeForFrequencyTrips.get(state);
+                        boardTime = rides.boardTimes[firstEntry];
                         arrival = boardTime + travelTimeToStop;
                     } else {
                         arrival = sched.arrivals[stopPositionInPattern];
@@ -372,8 +458,7 @@ public class McRaptorSuboptimalPathProfileRouter {
 
                 // get on the bus, if we can
                 if (stopReachedViaDifferentPattern) {
-                    STATES: for (McRaptorState state : bestStatesBeforeRound.get(stop)) {
-                        if (state.round != round - 1) continue; // don't continually reexplore states
+                    STATES: for (McRaptorState state : statesFromPreviousRound.get(stop)) {
 
                         // don't reexplore patterns.
                         // NB checking and preventing reboarding any pattern that's been boarded in a previous
@@ -404,9 +489,7 @@ public class McRaptorSuboptimalPathProfileRouter {
                                 int departure = tripSchedule.departures[stopPositionInPattern];
                                 if (departure > state.time + BOARD_SLACK) {
                                     // boarding is possible here
-                                    states.add(state);
-                                    tripIndicesInPattern.put(state, currentTrip);
-                                    boardStopPositionInPattern.put(state, stopPositionInPattern);
+                                    rides.add(state, currentTrip, stopPositionInPattern, -1);
 
                                     // we found the best trip we can board at this stop based on travel time (we know this because trips
                                     // are sorted by departure time from first stop), break loop regardless of whether
@@ -459,10 +542,7 @@ public class McRaptorSuboptimalPathProfileRouter {
                                     // on end time may not actually occur
                                     if (departure > latestDeparture) continue;
 
-                                    states.add(state);
-                                    tripIndicesInPattern.put(state, currentTrip);
-                                    boardTimeForFrequencyTrips.put(state, departure);
-                                    boardStopPositionInPattern.put(state, stopPositionInPattern);
+                                    rides.add(state, currentTrip, stopPositionInPattern, departure);
                                 }
                             }
                         }
@@ -508,7 +588,8 @@ public class McRaptorSuboptimalPathProfileRouter {
     }
 
     /** propagate states to the destination in a point-to-point search */
-    private Collection<McRaptorState> doPropagationToDestination(int departureTime) {
+    private Collection<McRaptorState> doPropagationToDestination(int departureTime,
+                                                                 Map<LegMode, TIntIntMap> egressTimes) {
         McRaptorStateBag bag = createStateBag(departureTime);
 
         egressTimes.forEach((mode, times) -> times.forEachEntry((stop, egressTime) -> {
@@ -582,6 +663,8 @@ public class McRaptorSuboptimalPathProfileRouter {
     /** Mark patterns at touched stops, to be explored in a subsequent round */
     private void markPatterns () {
         this.touchedPatterns.clear();
+        this.stopsTouchedLastRound.clear();
+        this.stopsTouchedLastRound.or(touchedStops);
 
         for (int stop = touchedStops.nextSetBit(0); stop >= 0; stop = touchedStops.nextSetBit(stop + 1)) {
             network.transitLayer.patternsForStop.get(stop).forEach(pat -> {
@@ -651,20 +734,34 @@ public class McRaptorSuboptimalPathProfileRouter {
         boolean optimal = bag.add(state);
 
         // target pruning: keep track of best time at destination
-        if (egressTimes != null && optimal && pattern != -1) {
-            // Save the worst egress time by any egress mode and use this for target pruning
-            // we don't know what egress mode will be used when we do target pruning, above, so we just store the
-            // best time for each access mode and the slowest egress mode
-            int[] egressTimeWithSlowestEgressMode = new int[] { -1 };
-            egressTimes.forEach((mode, times) -> {
-                if (!times.containsKey(stop)) return;
-                int timeAtDest = time + times.get(stop);
-                egressTimeWithSlowestEgressMode[0] = Math.max(egressTimeWithSlowestEgressMode[0], timeAtDest);
-            });
+        TIntList destinations = destinationsNearStop == null ? null : destinationsNearStop.get(stop);
+        if (destinations != null && optimal && pattern != -1) {
+            boolean improved = false;
+            for (int i = 0; i < destinations.size(); i++) {
+                // Save the worst egress time by any egress mode and use this for target pruning
+                // we don't know what egress mode will be used when we do target pruning, above, so we just store the
+                // best time for each access mode and the slowest egress mode
+                int[] egressTimeWithSlowestEgressMode = new int[] { -1 };
+                egressTimesForDestinations.get(destinations.get(i)).forEach((mode, times) -> {
+                    if (!times.containsKey(stop)) return;
+                    int timeAtDest = time + times.get(stop);
+                    egressTimeWithSlowestEgressMode[0] = Math.max(egressTimeWithSlowestEgressMode[0], timeAtDest);
+                });
 
-            if (egressTimeWithSlowestEgressMode[0] != -1 &&
-                    egressTimeWithSlowestEgressMode[0] < bestTimesAtTargetByAccessMode.get(accessMode)) {
-                bestTimesAtTargetByAccessMode.put(accessMode, egressTimeWithSlowestEgressMode[0]);
+                TObjectIntMap<LegMode> bestTimes = bestTimesAtDestinationsByAccessMode.get(destinations.get(i));
+                if (egressTimeWithSlowestEgressMode[0] != -1 &&
+                        egressTimeWithSlowestEgressMode[0] < bestTimes.get(accessMode)) {
+                    bestTimes.put(accessMode, egressTimeWithSlowestEgressMode[0]);
+                    improved = true;
+                }
+            }
+            if (improved) {
+                // A state can only be pruned if it can't be useful at any destination.
+                int latestBestTime = 0;
+                for (TObjectIntMap<LegMode> bestTimes : bestTimesAtDestinationsByAccessMode) {
+                    latestBestTime = Math.max(latestBestTime, bestTimes.get(accessMode));
+                }
+                bestTimesAtTargetByAccessMode.put(accessMode, latestBestTime);
             }
         }
 
@@ -726,6 +823,12 @@ public class McRaptorSuboptimalPathProfileRouter {
          */
         public FareBounds fare;
 
+        /**
+         * A summary of the fare situation after this state, used by IncrementalInRoutingFareCalculator to find the fare
+         * at the states extending this one without walking back over the whole itinerary. Null until first needed.
+         */
+        public IncrementalInRoutingFareCalculator.FareState fareState;
+
         public String dump(TransportNetwork network) {
             StringBuilder sb = new StringBuilder();
             sb.append("BEGIN PATH DUMP (reverse chronological order, read up)\n");
@@ -751,6 +854,54 @@ public class McRaptorSuboptimalPathProfileRouter {
         }
     }
 
+    /**
+     * The states riding along a pattern, with the trip each boarded and where, in parallel primitive arrays. A single
+     * instance is cleared and refilled for every pattern explored, so the arrays only grow to the largest number of
+     * states boarding any one pattern in a round. This behaves like the list of states and the maps keyed on state that
+     * it replaces: when a state boards again (e.g. on another frequency entry of the same trip, or at a later stop on a
+     * loop pattern) a further entry is appended, but all the entries for that state then ride the last trip boarded.
+     */
+    private static class RideSet {
+        McRaptorState[] states = new McRaptorState[16];
+        /** The trip index in the pattern (not GTFS Trip ID) boarded */
+        int[] trips = new int[16];
+        /** The board stop position in the pattern (not the R5 or GTFS stop ID) */
+        int[] boardStopPositions = new int[16];
+        /** The board time, for frequency trips only */
+        int[] boardTimes = new int[16];
+        /** The entry holding the trip, board stop and board time of the state in each entry */
+        int[] firstEntries = new int[16];
+        /** The first entry for each state in the set */
+        TObjectIntMap<McRaptorState> firstEntryForState = new TObjectIntHashMap<>(16, 0.5f, -1);
+        int size = 0;
+
+        void add (McRaptorState state, int trip, int boardStopPosition, int boardTime) {
+            if (size == states.length) {
+                int newLength = size * 2;
+                states = Arrays.copyOf(states, newLength);
+                trips = Arrays.copyOf(trips, newLength);
+                boardStopPositions = Arrays.copyOf(boardStopPositions, newLength);
+                boardTimes = Arrays.copyOf(boardTimes, newLength);
+                firstEntries = Arrays.copyOf(firstEntries, newLength);
+            }
+            int firstEntry = firstEntryForState.putIfAbsent(state, size);
+            if (firstEntry == -1) firstEntry = size;
+            states[size] = state;
+            firstEntries[size] = firstEntry;
+            trips[firstEntry] = trip;
+            boardStopPositions[firstEntry] = boardStopPosition;
+            boardTimes[firstEntry] = boardTime;
+            size++;
+        }
+
+        void clear () {
+            // release references so states from earlier departure times can be garbage collected
+            Arrays.fill(states, 0, size, null);
+            firstEntryForState.clear();
+            size = 0;
+        }
+    }
+
     /** A bag of states which maintains dominance, and also keeps transfer and non-transfer states separately. */
     public static class McRaptorStateBag {
         /** best states at stops */
@@ -17,6 +17,7 @@ import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.transit.path.Path;
 import com.conveyal.r5.transit.path.PatternSequence;
+import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.map.TIntIntMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +67,12 @@ public class PerTargetPropagater {
     /** the profilerequest (used for walk speed etc.) */
     public final ProfileRequest request;
 
+    /**
+     * Whether to skip propagation to targets that transit cannot reach faster than the non-transit time or the cutoff.
+     * This should never change the results. It can be turned off to compare against full propagation.
+     */
+    public boolean pruneTargets = true;
+
     /** how travel times are summarized and written or streamed back to a client TODO inline that whole class here. */
     public TravelTimeReducer travelTimeReducer;
 
@@ -75,8 +82,15 @@ public class PerTargetPropagater {
     /** Times at targets using the street network */
     private final int[] nonTransitTravelTimesToTargets;
 
-    /** Times at transit stops for each iteration. Plus a transposed version of that same matrix as an optimization. */
-    private int[][] travelTimesToStopsForIteration, travelTimesToStop;
+    /** Times at transit stops for each iteration, stored contiguously for each stop as needed by propagation. */
+    private final TravelTimesToStops travelTimesToStops;
+
+    /**
+     * The lowest travel time to each transit stop over all iterations. Adding the egress time from a stop to a target
+     * gives a lower bound on the travel time to that target via that stop in any iteration, which lets us skip
+     * propagation to the many targets that transit can't help reach within the cutoff.
+     */
+    private int[] minTravelTimeToStop;
 
     /**
      * The number of "iterations" (departure minutes & Monte Carlo schedules) and the number of stops and destination
@@ -146,13 +160,13 @@ public class PerTargetPropagater {
             StreetLayer streetLayer,
             EnumSet<StreetMode> modes,
             AnalysisWorkerTask task,
-            int[][] travelTimesToStopsForIteration,
+            TravelTimesToStops travelTimesToStops,
             int[] nonTransitTravelTimesToTargets
     ) {
         this.targets = targets;
         this.modes = modes;
         this.request = task;
-        this.travelTimesToStopsForIteration = travelTimesToStopsForIteration;
+        this.travelTimesToStops = travelTimesToStops;
         this.nonTransitTravelTimesToTargets = nonTransitTravelTimesToTargets;
         this.oneToOne = request instanceof RegionalTask && ((RegionalTask) request).oneToOne;
 
@@ -181,14 +195,14 @@ public class PerTargetPropagater {
                 destinationIndexForPaths = task.taskId;
             }
         }
-        nIterations = travelTimesToStopsForIteration.length;
-        nStops = travelTimesToStopsForIteration[0].length;
+        nIterations = travelTimesToStops.nIterations;
+        nStops = travelTimesToStops.nStops;
         nTargets = targets.featureCount();
         linkedTargets = new ArrayList<>(modes.size());
 
         timer.fullPropagation.start();
-        timer.transposition.start();
-        invertTravelTimes();
+        timer.preparation.start();
+        findMinTravelTimes();
         if (nonTransitTravelTimesToTargets.length != nTargets) {
             throw new IllegalArgumentException("Non-transit travel times must have the same number of entries as there are points.");
         }
@@ -200,7 +214,7 @@ public class PerTargetPropagater {
             linkedTargetsForMode.getEgressCostTable().destructivelyTransposeForPropagationAsNeeded();
             linkedTargets.add(linkedTargetsForMode);
         }
-        timer.transposition.stop();
+        timer.preparation.stop();
         // Prevent top-level timer from counting any intervening actions until caller calls propagate()
         timer.fullPropagation.stop();
     }
@@ -246,11 +260,28 @@ public class PerTargetPropagater {
                 Arrays.fill(perIterationPaths, null);
             }
 
+            // Find a lower bound on the transit travel time to this target over all iterations. If that can't beat the
+            // non-transit time or the cutoff, propagation can't change any of the per-iteration times or paths and
+            // all iterations keep the same non-transit time. This is common for large grids around a single origin.
+            timer.pruning.start();
+            int nonTransitTime = nonTransitTravelTimesToTargets[targetIdx];
+            boolean pruned = pruneTargets
+                    && transitLowerBound(targetIdx) >= Math.min(nonTransitTime, maxTravelTimeSeconds);
+            timer.pruning.stop();
+
             // Improve upon these non-transit travel times based on transit travel times to nearby stops.
             // This fills in perIterationTravelTimes and perIterationPaths for one particular target.
-            timer.propagation.start();
-            propagateTransit(targetIdx);
-            timer.propagation.stop();
+            if (pruned) {
+                timer.targetsPruned += 1;
+                if (nonTransitTime >= maxTravelTimeSeconds) {
+                    timer.targetsPrunedUnreached += 1;
+                }
+            } else {
+                timer.targetsPropagated += 1;
+                timer.propagation.start();
+                propagateTransit(targetIdx);
+                timer.propagation.stop();
+            }
 
             // Construct the PathScorer before extracting percentiles because the scorer needs to make a copy of
             // the unsorted complete travel times.
@@ -274,7 +305,11 @@ public class PerTargetPropagater {
             // Extract the requested percentiles and save them (and/or the resulting accessibility indicator values)
             int targetToWrite = oneToOne ? 0 : targetIdx;
             timer.reducer.start();
-            travelTimeReducer.extractTravelTimePercentilesAndRecord(targetToWrite, perIterationTravelTimes);
+            if (pruned) {
+                travelTimeReducer.recordUniformTravelTime(targetToWrite, perIterationTravelTimes);
+            } else {
+                travelTimeReducer.extractTravelTimePercentilesAndRecord(targetToWrite, perIterationTravelTimes);
+            }
             timer.reducer.stop();
 
             if (savePaths == SavePaths.WRITE_TAUI) {
@@ -299,31 +334,71 @@ public class PerTargetPropagater {
     }
 
     /**
-     * Transpose the travel times to stops array in order to provide better memory locality in the tight loop below.
-     * We have confirmed that this provides a significant speedup.
-     * TODO quantify that speedup and record here in comment.
-     *      This takes something like 800msec for a large 6000-iteration search
-     * This speedup is expected because Java represents multidimensional arrays as an array of references to arrays.
-     * This means that each row is stored in a separate chunk of address space, and may not be contiguous with
-     * other rows. The CPU and cache probably can't efficiently predict and prefetch the values we need next.
-     * When we transpose the array, we then have all travel times to a particular stop for all iterations
-     * in a single contiguous array. This means we pull in all the travel times for a particular stop into cache, at
-     * once, rather than unneeded times for the same iteration at other stops. Since we are also looping over the
-     * targets with geographic locality (adjacent cells in the destination grid are geographically adjacent),
-     * it is likely that the stops pulled into cache by handling one target will be reused when handling the next target.
-     * This should not increase memory consumption very much as we're only duplicating the travel times to transit
-     * stops. For example, the Netherlands has about 70,000 stops, if you do 1,000 iterations to 70,000 stops, the
-     * array being transposed and duplicated is 70,000 * 1000 * 4 bytes per int ~= 267 megabytes. It does not seem
-     * worthwhile to change the routing algorithm to output already-transposed data, as that will create memory
-     * locality problems elsewhere (since the pathfinding algorithm solves one iteration for all stops simultaneously).
+     * Find the lowest travel time to each stop over all iterations, for use in pruning targets that transit can't help
+     * reach. The routing algorithm supplies travel times already grouped by stop, so unlike the per-iteration arrays
+     * it used to return, no transposition is needed and the travel times to each stop are scanned contiguously.
+     */
+    private void findMinTravelTimes () {
+        minTravelTimeToStop = new int[nStops];
+        for (int stop = 0; stop < nStops; stop++) {
+            minTravelTimeToStop[stop] = travelTimesToStops.getMin(stop);
+        }
+    }
+
+    /**
+     * Find the lowest travel time to the given target via any nearby stop and any egress mode in any iteration. This
+     * applies the same egress leg limits and pickup delays as propagateTransit, but visits each stop only once
+     * instead of once per iteration.
+     * @return a travel time in seconds that is less than or equal to any time propagateTransit could find for any
+     *         iteration, or UNREACHED if the target has no usable stops nearby.
      */
-    private void invertTravelTimes() {
-        travelTimesToStop = new int[nStops][nIterations];
-        for (int iteration = 0; iteration < nIterations; iteration++) {
-            for (int stop = 0; stop < nStops; stop++) {
-                travelTimesToStop[stop][iteration] = travelTimesToStopsForIteration[iteration][stop];
+    private int transitLowerBound (int targetIndex) {
+        int lowerBound = FastRaptorWorker.UNREACHED;
+        for (LinkedPointSet linkedPointSet : linkedTargets) {
+            EgressCostTable egressCostTable = linkedPointSet.getEgressCostTable();
+            TIntIntMap pointToStopLinkageCostTable = egressCostTable.getCostTableForPoint(targetIndex);
+            if (pointToStopLinkageCostTable == null) {
+                continue;
+            }
+            int speedMillimetersPerSecond = (int) (request.getSpeedForMode(linkedPointSet.streetMode) * MM_PER_METER);
+            int egressLegTimeLimitSeconds = request.getMaxTimeSeconds(linkedPointSet.streetMode);
+            for (TIntIntIterator it = pointToStopLinkageCostTable.iterator(); it.hasNext(); ) {
+                it.advance();
+                int stop = it.key();
+                int timeToReachStop = minTravelTimeToStop[stop];
+                if (timeToReachStop >= maxTravelTimeSeconds) {
+                    continue;
+                }
+                int secondsFromStopToTarget = egressSeconds(
+                        it.value(), egressCostTable.linkageCostUnit, speedMillimetersPerSecond
+                );
+                if (secondsFromStopToTarget >= egressLegTimeLimitSeconds) {
+                    continue;
+                }
+                if (egressCostTable.egressStopDelaysSeconds != null) {
+                    int delayAtEgress = egressCostTable.egressStopDelaysSeconds[stop];
+                    if (delayAtEgress < 0) {
+                        continue;
+                    }
+                    secondsFromStopToTarget += delayAtEgress;
+                }
+                lowerBound = Math.min(lowerBound, timeToReachStop + secondsFromStopToTarget);
             }
         }
+        return lowerBound;
+    }
+
+    /** Convert a linkage cost in the given unit to a duration in seconds for an egress leg at the given speed. */
+    private static int egressSeconds (
+            int linkageCost, StreetRouter.State.RoutingVariable unit, int speedMillimetersPerSecond
+    ) {
+        if (unit == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS) {
+            return linkageCost / speedMillimetersPerSecond;
+        } else if (unit == StreetRouter.State.RoutingVariable.DURATION_SECONDS) {
+            return linkageCost;
+        } else {
+            throw new UnsupportedOperationException("Linkage costs have an unknown unit.");
+        }
     }
 
     /**
@@ -372,14 +447,7 @@ public class PerTargetPropagater {
         if (pointToStopLinkageCostTable != null) {
             // Propagate all iterations from each relevant alighting stop out to this target.
             pointToStopLinkageCostTable.forEachEntry((stop, linkageCost) -> {
-                int secondsFromStopToTarget;
-                if (unit == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS) {
-                    secondsFromStopToTarget = linkageCost / speedMillimetersPerSecond;
-                } else if (unit == StreetRouter.State.RoutingVariable.DURATION_SECONDS) {
-                    secondsFromStopToTarget = linkageCost;
-                } else {
-                    throw new UnsupportedOperationException("Linkage costs have an unknown unit.");
-                }
+                int secondsFromStopToTarget = egressSeconds(linkageCost, unit, speedMillimetersPerSecond);
                 if (secondsFromStopToTarget < egressLegTimeLimitSeconds){
                     // Account for any additional delay waiting for pickup at the egress stop.
                     if (egressCostTable.egressStopDelaysSeconds != null) {
@@ -401,7 +469,7 @@ public class PerTargetPropagater {
                     for (int iteration = 0; iteration < nIterations; iteration++) {
                         // The travel time (in seconds) needed to reach this stop. Note this is indeed a duration, as
                         // calculated in the Raptor route() method.
-                        int timeToReachStop = travelTimesToStop[stop][iteration];
+                        int timeToReachStop = travelTimesToStops.get(stop, iteration);
                         if (timeToReachStop >= maxTravelTimeSeconds || timeToReachStop >= perIterationTravelTimes[iteration]) {
                             // Skip propagation if the travel time to reach this stop is longer than the maximum
                             // travel time, or the travel time all the way to this target (via another stop).
@@ -240,6 +240,15 @@ public class ProfileRequest implements Serializable, Cloneable {
      */
     public int monteCarloDraws = 220;
 
+    /**
+     * How the Monte Carlo draws choose the offsets of frequency-based trips. Stratified sampling reaches the same
+     * accuracy with fewer draws. Both the standard and the fare-constrained (McRaptor) routers respect this setting.
+     * This is not serialized when left at its default value, so older workers can still read requests that don't
+     * use it.
+     */
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public FrequencyOffsetSampling frequencyOffsetSampling = FrequencyOffsetSampling.RANDOM;
+
     /**
      * WARNING This whole tree of classes contains non-primitive compound fields. Cloning WILL NOT DEEP COPY these
      * fields. Modifying some aspects of the cloned object may modify the same aspects of the one it was cloned from.
@@ -1,5 +1,8 @@
 package com.conveyal.r5.profile;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * This groups together all the timers recording execution time of various steps of travel time propagation, which
  * is performed after the raptor search itself.
@@ -11,16 +14,31 @@ package com.conveyal.r5.profile;
  */
 public class PropagationTimer {
 
+    private static final Logger LOG = LoggerFactory.getLogger(PropagationTimer.class);
+
     public final ExecutionTimer fullPropagation = new ExecutionTimer("Full travel time propagation");
 
-    public final ExecutionTimer transposition = new ExecutionTimer(fullPropagation, "Travel time matrix transposition");
+    public final ExecutionTimer preparation = new ExecutionTimer(fullPropagation, "Stop time bounds and target linkage");
+
+    public final ExecutionTimer pruning = new ExecutionTimer(fullPropagation, "Lower bound pruning");
 
     public final ExecutionTimer propagation = new ExecutionTimer(fullPropagation, "Propagation");
 
     public final ExecutionTimer reducer = new ExecutionTimer(fullPropagation, "Travel time reducer");
 
+    /** Targets for which transit propagation was actually performed. */
+    public int targetsPropagated = 0;
+
+    /** Targets skipped because their lower bound travel time via transit could not improve on walking or the cutoff. */
+    public int targetsPruned = 0;
+
+    /** Of the pruned targets, those not reachable at all within the maximum travel time. */
+    public int targetsPrunedUnreached = 0;
+
     public void log () {
         fullPropagation.logWithChildren();
+        LOG.debug("- Transit propagated to {} targets, pruned {} targets of which {} unreached.",
+                targetsPropagated, targetsPruned, targetsPrunedUnreached);
     }
 
 }
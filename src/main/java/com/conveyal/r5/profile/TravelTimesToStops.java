@@ -0,0 +1,99 @@
+package com.conveyal.r5.profile;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Travel times (durations in seconds) to every transit stop for every iteration (departure minute and Monte Carlo
+ * draw) of a transit search, as handed from the routing algorithm to egress propagation.
+ * <p>
+ * This can be a very large matrix: the Netherlands has about 70,000 stops, so 1,000 iterations is 70 million values,
+ * and regional workers hold one matrix per origin being processed concurrently. Every usable travel time is below the
+ * maximum trip duration, which can't be more than a few hours, so the times are stored as unsigned 16-bit values
+ * (Java chars), with the largest value reserved to represent stops that were not reached. Any travel time too large
+ * to store is also recorded as unreached, which is harmless as it's far beyond any maximum trip duration.
+ * <p>
+ * The values are stored in stop-major order, so all the travel times to one stop are contiguous as needed for
+ * propagation, which loops over all iterations for each stop near each target. The routing algorithm solves one
+ * iteration at a time for all stops, so it writes the values with a stride, but each value is only written once.
+ */
+public class TravelTimesToStops {
+
+    /** Stored in place of FastRaptorWorker.UNREACHED, and for any travel time that's too large to store. */
+    private static final char UNREACHED_CHAR = Character.MAX_VALUE;
+
+    public final int nStops;
+
+    public final int nIterations;
+
+    /** The travel time to each stop in each iteration, at index (stop * nIterations + iteration). */
+    private final char[] times;
+
+    public TravelTimesToStops (int nStops, int nIterations) {
+        long nValues = (long) nStops * nIterations;
+        checkArgument(nValues <= Integer.MAX_VALUE, "Too many stops and iterations to store travel times: %s", nValues);
+        this.nStops = nStops;
+        this.nIterations = nIterations;
+        this.times = new char[(int) nValues];
+    }
+
+    /** Copy travel times that were stored in the old iteration-major format, as produced by the McRaptor router. */
+    public static TravelTimesToStops fromIterations (int[][] travelTimesPerIteration) {
+        TravelTimesToStops travelTimesToStops = new TravelTimesToStops(
+                travelTimesPerIteration[0].length,
+                travelTimesPerIteration.length
+        );
+        for (int iteration = 0; iteration < travelTimesPerIteration.length; iteration++) {
+            travelTimesToStops.setIteration(iteration, travelTimesPerIteration[iteration]);
+        }
+        return travelTimesToStops;
+    }
+
+    /**
+     * Record the travel times to all stops for one iteration.
+     * @param travelTimes the travel time to every stop in seconds, or FastRaptorWorker.UNREACHED.
+     */
+    public void setIteration (int iteration, int[] travelTimes) {
+        checkArgument(travelTimes.length == nStops, "Travel times should contain one value per stop.");
+        for (int stop = 0, index = iteration; stop < nStops; stop++, index += nIterations) {
+            times[index] = encode(travelTimes[stop]);
+        }
+    }
+
+    /**
+     * Record the travel times to all stops for one iteration, converting arrival clock times to durations.
+     * @param arrivalTimes the arrival clock time at every stop in seconds, or FastRaptorWorker.UNREACHED.
+     */
+    public void setIterationFromArrivalTimes (int iteration, int[] arrivalTimes, int departureTime) {
+        checkArgument(arrivalTimes.length == nStops, "Arrival times should contain one value per stop.");
+        for (int stop = 0, index = iteration; stop < nStops; stop++, index += nIterations) {
+            int arrivalTime = arrivalTimes[stop];
+            times[index] = (arrivalTime == UNREACHED) ? UNREACHED_CHAR : encode(arrivalTime - departureTime);
+        }
+    }
+
+    /** @return the travel time to the given stop in the given iteration in seconds, or FastRaptorWorker.UNREACHED. */
+    public int get (int stop, int iteration) {
+        char time = times[stop * nIterations + iteration];
+        return (time == UNREACHED_CHAR) ? UNREACHED : time;
+    }
+
+    /** @return the lowest travel time to the given stop in any iteration, or FastRaptorWorker.UNREACHED. */
+    public int getMin (int stop) {
+        char min = UNREACHED_CHAR;
+        for (int index = stop * nIterations, end = index + nIterations; index < end; index++) {
+            if (times[index] < min) min = times[index];
+        }
+        return (min == UNREACHED_CHAR) ? UNREACHED : min;
+    }
+
+    /**
+     * This is called for every stop in every iteration, so negative times are only caught when assertions are enabled,
+     * as they are in tests. The routers never produce them, as no stop can be reached before the departure time.
+     */
+    private static char encode (int travelTimeSeconds) {
+        assert travelTimeSeconds >= 0 : "Travel times must not be negative.";
+        return (travelTimeSeconds >= UNREACHED_CHAR) ? UNREACHED_CHAR : (char) travelTimeSeconds;
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.StreetRouter.State;
+import gnu.trove.list.TIntList;
+import org.apache.commons.math3.util.FastMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.PriorityQueue;
+
+/**
+ * Finds bike share paths with a single street search over three layers of states: walking to a bike share station,
+ * riding a rented bike to another station, and walking from there. Each layer is held in its own StreetRouter, which
+ * is configured exactly as one of the three searches previously run one after another, and the routers are chained
+ * through previousRouter so that paths can be unrolled with StreetPath as before. Instead of running each router to
+ * completion, states are always taken from whichever layer has the lowest priority, and states reaching a station are
+ * immediately copied into the next layer with the pickup or dropoff time added.
+ *
+ * When there is a destination, every layer is directed toward it with an A* heuristic (using the faster of walking
+ * and cycling before the bike is dropped off), and the whole search ends once no queued state can improve on the best
+ * arrival found at the destination. Without a destination (when finding access paths to transit) the search visits
+ * states in order of duration, so it finds the same stations and stops as the three separate searches did.
+ */
+public class BikeShareRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BikeShareRouter.class);
+
+    private final StreetLayer streetLayer;
+
+    private final ProfileRequest request;
+
+    private final int pickupTimeSeconds;
+
+    private final int dropoffTimeSeconds;
+
+    /** Walking to bike share stations, then riding, then walking from the station where the bike is dropped off. */
+    private StreetRouter walk, bicycle, end;
+
+    private Split destinationSplit;
+
+    private double millimetersPerUnitLonFixed;
+
+    private int bestDurationAtDestination = Integer.MAX_VALUE;
+
+    public BikeShareRouter (StreetLayer streetLayer, ProfileRequest request, int pickupTimeSeconds,
+                            int dropoffTimeSeconds) {
+        this.streetLayer = streetLayer;
+        this.request = request;
+        this.pickupTimeSeconds = pickupTimeSeconds;
+        this.dropoffTimeSeconds = dropoffTimeSeconds;
+    }
+
+    /**
+     * Search from the origin of the request, either toward its destination (direct) or to nearby transit stops.
+     * @return the router for the final walking layer, whose previousRouter is the cycling layer, whose previousRouter
+     *         is the initial walking layer. Null if the origin, or for a direct search the destination, is not near
+     *         any street.
+     */
+    public StreetRouter route (boolean direct) {
+        walk = new StreetRouter(streetLayer);
+        walk.profileRequest = request;
+        walk.streetMode = StreetMode.WALK;
+        walk.timeLimitSeconds = request.maxWalkTime * 60;
+        walk.quantityToMinimize = State.RoutingVariable.DURATION_SECONDS;
+        walk.flagSearch = VertexStore.VertexFlag.BIKE_SHARING;
+        if (!walk.setOrigin(request.fromLat, request.fromLon)) {
+            return null;
+        }
+        if (direct) {
+            if (!walk.setDestination(request.toLat, request.toLon)) {
+                return null;
+            }
+            destinationSplit = walk.getDestinationSplit();
+            walk.setDestination(null);
+        }
+
+        bicycle = new StreetRouter(streetLayer);
+        bicycle.previousRouter = walk;
+        bicycle.profileRequest = request;
+        bicycle.streetMode = StreetMode.BICYCLE;
+        bicycle.quantityToMinimize = State.RoutingVariable.DURATION_SECONDS;
+        bicycle.flagSearch = VertexStore.VertexFlag.BIKE_SHARING;
+        bicycle.flagSearchQuantity = Integer.MAX_VALUE;
+        // Longer bike part if this is direct search
+        bicycle.timeLimitSeconds = (direct ? request.streetTime : request.maxBikeTime) * 60;
+
+        end = new StreetRouter(streetLayer);
+        end.previousRouter = bicycle;
+        end.profileRequest = request;
+        end.streetMode = StreetMode.WALK;
+        end.quantityToMinimize = State.RoutingVariable.DURATION_SECONDS;
+        end.timeLimitSeconds = bicycle.timeLimitSeconds;
+        end.transitStopSearch = !direct;
+        end.setDestination(destinationSplit);
+
+        // Without a destination, only the nearest stations are used, as in a standalone search for stations.
+        StreetRouter.VertexFlagVisitor walkStations = new StreetRouter.VertexFlagVisitor(streetLayer,
+                walk.quantityToMinimize, walk.flagSearch, direct ? Integer.MAX_VALUE : walk.flagSearchQuantity,
+                request.getMinTimeSeconds(StreetMode.WALK));
+        StreetRouter.VertexFlagVisitor cycledStations = new StreetRouter.VertexFlagVisitor(streetLayer,
+                bicycle.quantityToMinimize, bicycle.flagSearch, bicycle.flagSearchQuantity,
+                request.getMinTimeSeconds(StreetMode.BICYCLE));
+        StreetRouter.StopVisitor stops = direct ? null : new StreetRouter.StopVisitor(streetLayer,
+                end.quantityToMinimize, end.transitStopSearchQuantity, request.getMinTimeSeconds(StreetMode.WALK));
+        walk.setRoutingVisitor(walkStations);
+        bicycle.setRoutingVisitor(cycledStations);
+        end.setRoutingVisitor(stops);
+
+        // Until the bike is dropped off, the rest of the trip may be cycled.
+        double secondsPerMillimeterRiding = secondsPerMillimeter(Math.max(request.walkSpeed, request.bikeSpeed));
+        double secondsPerMillimeterWalking = secondsPerMillimeter(request.walkSpeed);
+        if (destinationSplit != null) {
+            int maxAbsLatFixed = Math.max(Math.abs(destinationSplit.fixedLat), Math.abs(walk.getOriginSplit().fixedLat));
+            double maxAbsLatRadians = Math.toRadians(VertexStore.fixedDegreesToFloating(maxAbsLatFixed));
+            millimetersPerUnitLonFixed = StreetRouter.MM_PER_UNIT_LAT_FIXED * Math.cos(maxAbsLatRadians);
+            for (State state : walk.queue) {
+                state.heuristic = heuristic(state, secondsPerMillimeterRiding);
+            }
+        }
+
+        long startTime = System.currentTimeMillis();
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+        while (true) {
+            StreetRouter layer = walk;
+            for (StreetRouter other : new StreetRouter[] {bicycle, end}) {
+                if (priority(other.queue) < priority(layer.queue)) layer = other;
+            }
+            if (layer.queue.isEmpty()) break;
+            State s0 = layer.queue.poll();
+            // Skip states that were dominated after being queued, as in StreetRouter.route().
+            if (s0.backEdge >= 0 && !layer.bestStatesAtEdge.get(s0.backEdge).contains(s0)) continue;
+            // No state remaining in any layer can improve on the best arrival at the destination.
+            if (s0.getDurationSeconds() + s0.heuristic > bestDurationAtDestination) break;
+
+            if (layer == walk) {
+                walkStations.visitVertex(s0);
+                if (walkStations.getVertices().get(s0.vertex) == s0) {
+                    addSwitchState(bicycle, s0, pickupTimeSeconds, secondsPerMillimeterRiding);
+                }
+                if (walkStations.shouldBreakSearch()) {
+                    walk.queue.clear();
+                    continue;
+                }
+            } else if (layer == bicycle) {
+                cycledStations.visitVertex(s0);
+                if (cycledStations.getVertices().get(s0.vertex) == s0) {
+                    addSwitchState(end, s0, dropoffTimeSeconds, secondsPerMillimeterWalking);
+                }
+            } else {
+                if (stops != null) {
+                    stops.visitVertex(s0);
+                    if (stops.shouldBreakSearch()) break;
+                }
+                if (destinationSplit != null &&
+                        (s0.vertex == destinationSplit.vertex0 || s0.vertex == destinationSplit.vertex1)) {
+                    State atDestination = end.getState(destinationSplit);
+                    if (atDestination != null) {
+                        bestDurationAtDestination = Math.min(bestDurationAtDestination,
+                                atDestination.getDurationSeconds());
+                    }
+                }
+            }
+
+            double secondsPerMillimeter = (layer == end) ? secondsPerMillimeterWalking : secondsPerMillimeterRiding;
+            TIntList edgeList = streetLayer.outgoingEdges.get(s0.vertex);
+            for (int i = 0; i < edgeList.size(); i++) {
+                edge.seek(edgeList.get(i));
+                State s1 = edge.traverse(s0, layer.streetMode, request, layer.timeCalculator);
+                if (s1 != null && s1.getDurationSeconds() < timeLimitSeconds(layer) && !layer.isDominated(s1)) {
+                    s1.heuristic = heuristic(s1, secondsPerMillimeter);
+                    layer.bestStatesAtEdge.put(s1.backEdge, s1);
+                    layer.queue.add(s1);
+                }
+            }
+        }
+        LOG.info("BIKE RENT: Found {} bike stations within {} minutes walk and {} cycled stations in {} msec",
+                walkStations.getVertices().size(), walk.timeLimitSeconds / 60, cycledStations.getVertices().size(),
+                System.currentTimeMillis() - startTime);
+        return end;
+    }
+
+    /**
+     * Start a new leg in the next layer at the vertex of the given state, as StreetRouter.setOrigin does for the
+     * states found by a previous search.
+     */
+    private void addSwitchState (StreetRouter layer, State previousState, int switchTimeSeconds,
+                                 double secondsPerMillimeter) {
+        // backEdge needs to be unique for each start state or they will wind up dominating each other.
+        State state = new State(previousState.vertex, previousState.backEdge, layer.streetMode);
+        state.durationSeconds = previousState.durationSeconds;
+        state.incrementTimeInSeconds(switchTimeSeconds);
+        state.isBikeShare = true;
+        state.distance = previousState.distance;
+        if (!layer.isDominated(state)) {
+            state.heuristic = heuristic(state, secondsPerMillimeter);
+            layer.bestStatesAtEdge.put(state.backEdge, state);
+            layer.queue.add(state);
+        }
+    }
+
+    /** As in StreetRouter, a time limit of zero means there is no limit. */
+    private static int timeLimitSeconds (StreetRouter layer) {
+        return layer.timeLimitSeconds > 0 ? layer.timeLimitSeconds : Integer.MAX_VALUE;
+    }
+
+    private static int priority (PriorityQueue<State> queue) {
+        State state = queue.peek();
+        return state == null ? Integer.MAX_VALUE : state.getDurationSeconds() + state.heuristic;
+    }
+
+    private static double secondsPerMillimeter (float speedMetersPerSecond) {
+        return 1 / (speedMetersPerSecond * 1000d);
+    }
+
+    /** An underestimate of the remaining time to the destination, as in StreetRouter. Zero without a destination. */
+    private int heuristic (State state, double secondsPerMillimeter) {
+        if (destinationSplit == null) return 0;
+        VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor(state.vertex);
+        double millimetersX = millimetersPerUnitLonFixed * (destinationSplit.fixedLon - vertex.getFixedLon());
+        double millimetersY = StreetRouter.MM_PER_UNIT_LAT_FIXED * (destinationSplit.fixedLat - vertex.getFixedLat());
+        return (int) (FastMath.sqrt(millimetersX * millimetersX + millimetersY * millimetersY) * secondsPerMillimeter);
+    }
+
+}
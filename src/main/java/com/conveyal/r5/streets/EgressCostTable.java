@@ -18,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -345,6 +346,19 @@ public class EgressCostTable implements Serializable {
         this.egressStopDelaysSeconds = superCostTable.egressStopDelaysSeconds;
     }
 
+    /**
+     * Constructor for cost tables that were built elsewhere, typically read-only views into a SharedLinkageFile.
+     */
+    EgressCostTable (LinkedPointSet linkedPointSet,
+                     StreetRouter.State.RoutingVariable linkageCostUnit,
+                     List<int[]> stopToPointLinkageCostTables,
+                     int[] egressStopDelaysSeconds) {
+        this.linkedPointSet = linkedPointSet;
+        this.linkageCostUnit = linkageCostUnit;
+        this.stopToPointLinkageCostTables = stopToPointLinkageCostTables;
+        this.egressStopDelaysSeconds = egressStopDelaysSeconds;
+    }
+
     /**
      * Factory method for copying a strict sub-geographic area, with no rebuilding of any linkages or tables.
      * If implemented as a constructor, this has a similar or identical signature to the other constructor, which makes
@@ -365,17 +379,19 @@ public class EgressCostTable implements Serializable {
         // For each transit stop, we have a table of costs to reach pointset points (or null if none can be reached).
         // If such tables have already been built for the source linkage, copy them and crop to a smaller rectangle as
         // needed (as was done for the basic linkage information above).
-        List<int[]> stopToPointLinkageCostTables = superCostTable.stopToPointLinkageCostTables.stream()
-                .map(distanceTable -> {
+        int nStops = superCostTable.stopToPointLinkageCostTables.size();
+        List<int[]> stopToPointLinkageCostTables = IntStream.range(0, nStops)
+                .mapToObj(stop -> {
+                    IntBuffer distanceTable = superCostTable.getStopToPointTable(stop);
                     if (distanceTable == null) {
                         // If the stop could not reach any points in the super-pointset,
                         // it cannot reach any points in this sub-pointset.
                         return null;
                     }
                     TIntList newDistanceTable = new TIntArrayList();
-                    for (int i = 0; i < distanceTable.length; i += 2) {
-                        int targetInSuperLinkage = distanceTable[i];
-                        int distance = distanceTable[i + 1];
+                    for (int i = 0; i < distanceTable.limit(); i += 2) {
+                        int targetInSuperLinkage = distanceTable.get(i);
+                        int distance = distanceTable.get(i + 1);
 
                         int superX = targetInSuperLinkage % superGrid.extents.width;
                         int superY = targetInSuperLinkage / superGrid.extents.width;
@@ -401,6 +417,18 @@ public class EgressCostTable implements Serializable {
         return new EgressCostTable(subLinkage, superCostTable, stopToPointLinkageCostTables);
     }
 
+    /**
+     * @return the costs from the given stop to points as (point_index, cost) pairs, or null if it reaches no points.
+     * Tables held in a SharedLinkageFile are read in place rather than being copied onto the heap.
+     */
+    private IntBuffer getStopToPointTable (int stop) {
+        if (stopToPointLinkageCostTables instanceof SharedLinkageFile.MappedCostTables) {
+            return ((SharedLinkageFile.MappedCostTables) stopToPointLinkageCostTables).view(stop);
+        }
+        int[] table = stopToPointLinkageCostTables.get(stop);
+        return (table == null) ? null : IntBuffer.wrap(table);
+    }
+
     /**
      * This method transposes the cost tables, yielding impedance from each point back to all stops that can reach it.
      * The original calculation is performed from each stop out to the points it can reach, primarily because there are
@@ -416,37 +444,52 @@ public class EgressCostTable implements Serializable {
      *
      * We were effectively already avoiding data duplication in the region-wide cost tables by never calling the method
      * that lazily transposed the tables.
+     *
+     * Tables held in a SharedLinkageFile are not on the heap, so they are read in place and kept. This allows the base
+     * linkage to be used for propagation and still serve as a source for copies.
      * TODO really we should have separate EgressCostTable and PropagationEgressCostTable classes, one copied from the other.
      * One should represent the region, or read-through crops of the whole region, and the other should be per-scenario.
      */
     public synchronized void destructivelyTransposeForPropagationAsNeeded() {
         if (pointToStopLinkageCostTables == null) {
-            // Release reference to the source table, in order to fail fast if any other thread tries to read them.
-            // We make a local copy so we can release each reference while copying.
-            List<int[]> stopToPointTables = new ArrayList<>(this.stopToPointLinkageCostTables);
-            this.stopToPointLinkageCostTables = null;
             TIntIntMap[] result = new TIntIntMap[linkedPointSet.size()];
-            for (int stop = 0; stop < stopToPointTables.size(); stop++) {
-                int[] stopToPointTable = stopToPointTables.get(stop);
-                if (stopToPointTable == null) {
-                    continue;
+            if (stopToPointLinkageCostTables instanceof SharedLinkageFile.MappedCostTables) {
+                for (int stop = 0; stop < stopToPointLinkageCostTables.size(); stop++) {
+                    transposeInto(result, stop, getStopToPointTable(stop));
                 }
-                for (int idx = 0; idx < stopToPointTable.length; idx += 2) {
-                    int point = stopToPointTable[idx];
-                    int distance = stopToPointTable[idx + 1];
-                    if (result[point] == null) {
-                        result[point] = new TIntIntHashMap();
+            } else {
+                // Release reference to the source table, in order to fail fast if any other thread tries to read them.
+                // We make a local copy so we can release each reference while copying.
+                List<int[]> stopToPointTables = new ArrayList<>(this.stopToPointLinkageCostTables);
+                this.stopToPointLinkageCostTables = null;
+                for (int stop = 0; stop < stopToPointTables.size(); stop++) {
+                    int[] stopToPointTable = stopToPointTables.get(stop);
+                    if (stopToPointTable != null) {
+                        transposeInto(result, stop, IntBuffer.wrap(stopToPointTable));
                     }
-                    result[point].put(stop, distance);
+                    // Release the reference to this stop's table for garbage collection.
+                    stopToPointTables.set(stop, null);
                 }
-                // Release the reference to this stop's table for garbage collection.
-                stopToPointTables.set(stop, null);
             }
             // Make the transposed table available to propagation.
             this.pointToStopLinkageCostTables = Arrays.asList(result);
         }
     }
 
+    private static void transposeInto (TIntIntMap[] result, int stop, IntBuffer stopToPointTable) {
+        if (stopToPointTable == null) {
+            return;
+        }
+        for (int idx = 0; idx < stopToPointTable.limit(); idx += 2) {
+            int point = stopToPointTable.get(idx);
+            int distance = stopToPointTable.get(idx + 1);
+            if (result[point] == null) {
+                result[point] = new TIntIntHashMap();
+            }
+            result[point].put(stop, distance);
+        }
+    }
+
     /**
      * You should first call destructivelyTransposeForPropagationAsNeeded before calling this method.
      * @return for the given destination point index, a map from stop_index -> cost_to_reach_point for all nearby stops
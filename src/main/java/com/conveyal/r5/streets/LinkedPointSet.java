@@ -20,11 +20,12 @@ import org.slf4j.LoggerFactory;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Arrays;
+import java.nio.IntBuffer;
 import java.util.stream.IntStream;
 
 import static com.conveyal.r5.streets.StreetRouter.State.RoutingVariable;
 import static com.conveyal.r5.streets.VertexStore.floatingDegreesToFixed;
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * A LinkedPointSet is a PointSet that has been connected to a StreetLayer in a non-destructive, reversible way.
@@ -35,6 +36,9 @@ import static com.conveyal.r5.streets.VertexStore.floatingDegreesToFixed;
  * LinkedPointSet is serializable because we save one PointSet and the associated WALK linkage in each Network to speed
  * up the time to first response on this common mode. We might want to also store linkages for other common modes.
  *
+ * The linkage information is held in IntBuffers rather than arrays so the large base linkages can be read directly
+ * from a memory-mapped file shared between JVMs (see SharedLinkageFile). Linkages built in memory wrap ordinary arrays.
+ *
  * FIXME a LinkedPointSet is not a PointSet, it's associated with a PointSet. It should be called PointSetLinkage.
  */
 public class LinkedPointSet implements Serializable {
@@ -74,24 +78,24 @@ public class LinkedPointSet implements Serializable {
      * For each point, the closest edge in the street layer. This is in fact the even (forward) edge ID of the closest
      * edge pairs.
      */
-    public final int[] edges;
+    public final IntBuffer edges;
 
     /**
      * For each point, distance from the point to the split point (closest point on the edge to the point to be linked)
      */
-    public final int[] distancesToEdge_mm;
+    public final IntBuffer distancesToEdge_mm;
 
     /**
      * For each point, distance from the beginning vertex of the edge geometry up to the split point (closest point on
      * the edge to the point to be linked)
      */
-    public final int[] distances0_mm;
+    public final IntBuffer distances0_mm;
 
     /**
      * For each point, distance from the end vertex of the edge geometry up to the split point (closest point on the
      * edge to the point to be linked)
      */
-    public final int[] distances1_mm;
+    public final IntBuffer distances1_mm;
 
     /**
      * LinkedPointSets and their EgressCostTables are often copied from existing ones.
@@ -161,10 +165,10 @@ public class LinkedPointSet implements Serializable {
         }
 
         if (baseLinkage == null) {
-            edges = new int[nPoints];
-            distancesToEdge_mm = new int[nPoints];
-            distances0_mm = new int[nPoints];
-            distances1_mm = new int[nPoints];
+            edges = IntBuffer.allocate(nPoints);
+            distancesToEdge_mm = IntBuffer.allocate(nPoints);
+            distances0_mm = IntBuffer.allocate(nPoints);
+            distances1_mm = IntBuffer.allocate(nPoints);
         } else {
             // The caller has supplied an existing linkage for a scenario StreetLayer's base StreetLayer.
             // We want to re-use most of that that existing linkage to reduce linking time.
@@ -176,10 +180,10 @@ public class LinkedPointSet implements Serializable {
             // as in the base linkage. However, if the TransitLayer was also modified by the scenario, the
             // stopToVertexDistanceTables list might need to grow.
             // TODO add assertion that arrays may grow but will never shrink. Check expected array lengths.
-            edges = Arrays.copyOf(baseLinkage.edges, nPoints);
-            distancesToEdge_mm = Arrays.copyOf(baseLinkage.distancesToEdge_mm, nPoints);
-            distances0_mm = Arrays.copyOf(baseLinkage.distances0_mm, nPoints);
-            distances1_mm = Arrays.copyOf(baseLinkage.distances1_mm, nPoints);
+            edges = copyOf(baseLinkage.edges, nPoints);
+            distancesToEdge_mm = copyOf(baseLinkage.distancesToEdge_mm, nPoints);
+            distances0_mm = copyOf(baseLinkage.distances0_mm, nPoints);
+            distances1_mm = copyOf(baseLinkage.distances1_mm, nPoints);
 
         }
 
@@ -220,10 +224,10 @@ public class LinkedPointSet implements Serializable {
         this.cropped = true; // This allows calling the correct cost table builder function later, see Javadoc on field.
 
         int nCells = subGrid.extents.width * subGrid.extents.height;
-        edges = new int[nCells];
-        distancesToEdge_mm = new int[nCells];
-        distances0_mm = new int[nCells];
-        distances1_mm = new int[nCells];
+        edges = IntBuffer.allocate(nCells);
+        distancesToEdge_mm = IntBuffer.allocate(nCells);
+        distances0_mm = IntBuffer.allocate(nCells);
+        distances1_mm = IntBuffer.allocate(nCells);
 
         // FIXME Grid-cropping math here and in EgressCostTable secondary constructor is identical.
         //       This seems to imply we should have a subgrid-mapping class.
@@ -238,18 +242,54 @@ public class LinkedPointSet implements Serializable {
                 if (sourceColumn < 0 || sourceColumn >= superGrid.extents.width || sourceRow < 0 || sourceRow >= superGrid.extents.height) { //point is outside super-grid
                     // Set the edge value to -1 to indicate no linkage.
                     // Distances should never be read downstream, so they don't need to be set here.
-                    edges[pixel] = -1;
+                    edges.put(pixel, -1);
                 } else { //point is inside super-grid
                     int sourcePixel = sourceRow * superGrid.extents.width + sourceColumn;
-                    edges[pixel] = sourceLinkage.edges[sourcePixel];
-                    distancesToEdge_mm[pixel] = sourceLinkage.distancesToEdge_mm[sourcePixel];
-                    distances0_mm[pixel] = sourceLinkage.distances0_mm[sourcePixel];
-                    distances1_mm[pixel] = sourceLinkage.distances1_mm[sourcePixel];
+                    edges.put(pixel, sourceLinkage.edges.get(sourcePixel));
+                    distancesToEdge_mm.put(pixel, sourceLinkage.distancesToEdge_mm.get(sourcePixel));
+                    distances0_mm.put(pixel, sourceLinkage.distances0_mm.get(sourcePixel));
+                    distances1_mm.put(pixel, sourceLinkage.distances1_mm.get(sourcePixel));
                 }
             }
         }
     }
 
+    /**
+     * Construct a linkage for the same PointSet, StreetLayer and mode as an existing base linkage, with identical
+     * linkage information that is held elsewhere, typically in read-only buffers mapped from a SharedLinkageFile.
+     * Its EgressCostTable must then be supplied with useEgressCostTable rather than being built.
+     */
+    LinkedPointSet (
+            LinkedPointSet sourceLinkage,
+            IntBuffer edges,
+            IntBuffer distancesToEdge_mm,
+            IntBuffer distances0_mm,
+            IntBuffer distances1_mm
+    ) {
+        checkArgument(sourceLinkage.baseLinkage == null, "Only base linkages can be replaced with shared ones.");
+        checkArgument(edges.capacity() == sourceLinkage.size(), "Shared linkage has the wrong number of points.");
+        this.pointSet = sourceLinkage.pointSet;
+        this.streetLayer = sourceLinkage.streetLayer;
+        this.streetMode = sourceLinkage.streetMode;
+        this.baseLinkage = null;
+        this.cropped = false;
+        this.edges = edges;
+        this.distancesToEdge_mm = distancesToEdge_mm;
+        this.distances0_mm = distances0_mm;
+        this.distances1_mm = distances1_mm;
+    }
+
+    /** @return whether the egress cost table has already been built or supplied, without building it. */
+    synchronized boolean hasEgressCostTable () {
+        return egressCostTable != null;
+    }
+
+    /** Supply an egress cost table that was built elsewhere, in place of the one that would be built lazily. */
+    synchronized void useEgressCostTable (EgressCostTable egressCostTable) {
+        checkArgument(egressCostTable.linkedPointSet == this, "Egress cost table must be for this linkage.");
+        this.egressCostTable = egressCostTable;
+    }
+
     /**
      * Get (and lazily build) the EgressCostTable derived from this linkage and its associated TransportNetwork.
      * The synchronization is rather crude, but should do the job as long as all outside multi-threaded access to the
@@ -316,7 +356,7 @@ public class LinkedPointSet implements Serializable {
             // we may be able to use some type of flood-fill algorithm in geographic space, expanding the relink envelope until we
             // hit edges on all sides or reach some predefined maximum.
             boolean relinkThisPoint = false;
-            if (all || streetLayer.edgeIsDeletedByScenario(edges[p])) {
+            if (all || streetLayer.edgeIsDeletedByScenario(edges.get(p))) {
                 relinkThisPoint = true;
             } else if (addedEdgesBoundingGeometry != null) {
                 // If we have a geometry for added edges, see whether those might come closer than any existing linkage.
@@ -324,8 +364,8 @@ public class LinkedPointSet implements Serializable {
                 double pointLonFixed = floatingDegreesToFixed(pointSet.getLon(p));
                 Envelope pointEnvelopeFixed = new Envelope(pointLonFixed, pointLonFixed, pointLatFixed, pointLatFixed);
                 double radiusMeters = StreetLayer.LINK_RADIUS_METERS;
-                if (edges[p] != -1) {
-                    radiusMeters = this.distancesToEdge_mm[p] / 1000.0;
+                if (edges.get(p) != -1) {
+                    radiusMeters = this.distancesToEdge_mm.get(p) / 1000.0;
                 }
                 GeometryUtils.expandEnvelopeFixed(pointEnvelopeFixed, radiusMeters);
                 if (addedEdgesBoundingGeometry.intersects(GeometryUtils.geometryFactory.toGeometry(pointEnvelopeFixed))) {
@@ -337,12 +377,12 @@ public class LinkedPointSet implements Serializable {
                 Split split = streetLayer.findSplit(pointSet.getLat(p), pointSet.getLon(p),
                         StreetLayer.LINK_RADIUS_METERS, streetMode);
                 if (split == null) {
-                    edges[p] = -1;
+                    edges.put(p, -1);
                 } else {
-                    edges[p] = split.edge;
-                    distancesToEdge_mm[p] = split.distanceToEdge_mm;
-                    distances0_mm[p] = split.distance0_mm;
-                    distances1_mm[p] = split.distance1_mm;
+                    edges.put(p, split.edge);
+                    distancesToEdge_mm.put(p, split.distanceToEdge_mm);
+                    distances0_mm.put(p, split.distance0_mm);
+                    distances1_mm.put(p, split.distance1_mm);
                 }
                 linkCounter.increment();
             }
@@ -358,11 +398,11 @@ public class LinkedPointSet implements Serializable {
             int changedToUnlinked = 0;
             if (baseLinkage != null) {
                 for (int p = 0; p < totalPoints; p++) {
-                    if (baseLinkage.edges[p] != this.edges[p]) {
+                    if (baseLinkage.edges.get(p) != this.edges.get(p)) {
                         changedPoints += 1;
-                        if (this.edges[p] < 0) {
+                        if (this.edges.get(p) < 0) {
                             changedToUnlinked += 1;
-                        } else if (streetLayer.edgeIsAddedByScenario(this.edges[p])) {
+                        } else if (streetLayer.edgeIsAddedByScenario(this.edges.get(p))) {
                             changedToAddedEdge += 1;
                         } else {
                             changedToBaselineEdge += 1;
@@ -383,7 +423,14 @@ public class LinkedPointSet implements Serializable {
 
     /** @return the number of linkages, which should be the same as the number of points in the PointSet. */
     public int size () {
-        return edges.length;
+        return edges.capacity();
+    }
+
+    /** @return a new buffer of the given length on the heap, starting with the contents of the supplied buffer. */
+    private static IntBuffer copyOf (IntBuffer source, int length) {
+        IntBuffer copy = IntBuffer.allocate(length);
+        copy.put(0, source, 0, Math.min(length, source.capacity()));
+        return copy;
     }
 
     /**
@@ -431,27 +478,29 @@ public class LinkedPointSet implements Serializable {
                 int offStreetSpeed,
                 Split origin
             ) {
-        int[] travelTimes = new int[edges.length];
+        int nPoints = size();
+        int[] travelTimes = new int[nPoints];
         EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
-        for (int i = 0; i < edges.length; i++) {
-            if (edges[i] < 0) {
+        for (int i = 0; i < nPoints; i++) {
+            int edgeIndex = edges.get(i);
+            if (edgeIndex < 0) {
                 // Target point is unlinked.
                 travelTimes[i] = Integer.MAX_VALUE;
                 continue;
             }
 
-            edge.seek(edges[i]);
+            edge.seek(edgeIndex);
 
             if (streetMode == StreetMode.CAR) {
                 onStreetSpeed = (int) (edge.getCarSpeedMetersPerSecond() * 1000);
             }
 
-            if (origin != null && origin.edge == edges[i]) {
+            if (origin != null && origin.edge == edgeIndex) {
                 // The target point lies along the same edge as the origin
-                int onStreetDistance_mm = Math.abs(origin.distance0_mm - distances0_mm[i]);
+                int onStreetDistance_mm = Math.abs(origin.distance0_mm - distances0_mm.get(i));
                 travelTimes[i] = // origin.distanceToEdge_mm / offStreetSpeed + TODO origin to origin split point
                                 onStreetDistance_mm / onStreetSpeed + // along street
-                                distancesToEdge_mm[i] / offStreetSpeed; // from destination split point to destination
+                                distancesToEdge_mm.get(i) / offStreetSpeed; // from destination split point to destination
             } else {
                 travelTimes[i] = timeToPoint(timeToVertex, edge, i, onStreetSpeed);
             }
@@ -508,7 +557,8 @@ public class LinkedPointSet implements Serializable {
         // It's returning every point in the bounding box. But it is also sensitive to which vertices are in the map.
         relevantPoints.forEach(p -> {
             // An edge index of -1 for a particular point indicates that this point is unlinked.
-            if (edges[p] == -1) {
+            int edgeIndex = edges.get(p);
+            if (edgeIndex == -1) {
                 return true; // Continue to next iteration.
             }
 
@@ -516,7 +566,7 @@ public class LinkedPointSet implements Serializable {
                 return true; // Point is outside supplied area, continue to next iteration.
             }
 
-            edge.seek(edges[p]);
+            edge.seek(edgeIndex);
 
             int cost = Integer.MAX_VALUE;
 
@@ -552,8 +602,8 @@ public class LinkedPointSet implements Serializable {
     public void dumpLinkagesToWkt () {
         // Dump all linkages as WKT CSV for QGIS
         try (FileWriter writer = new FileWriter("linkage.wkt.csv")) {
-            for (int p = 0; p < edges.length; p++) {
-                int edgeIndex = edges[p];
+            for (int p = 0; p < size(); p++) {
+                int edgeIndex = edges.get(p);
                 if (edgeIndex < 0) continue;
                 double pointLat = pointSet.getLat(p);
                 double pointLon = pointSet.getLon(p);
@@ -590,8 +640,8 @@ public class LinkedPointSet implements Serializable {
         if (distance0 == Integer.MAX_VALUE && distance1 == Integer.MAX_VALUE) {
             return Integer.MAX_VALUE;
         } else {
-            distance0 += distances0_mm[pointIndex] + distancesToEdge_mm[pointIndex];
-            distance1 += distances1_mm[pointIndex] + distancesToEdge_mm[pointIndex];
+            distance0 += distances0_mm.get(pointIndex) + distancesToEdge_mm.get(pointIndex);
+            distance1 += distances1_mm.get(pointIndex) + distancesToEdge_mm.get(pointIndex);
             return Math.min(handleOverflow(distance0), handleOverflow(distance1));
         }
     }
@@ -613,9 +663,9 @@ public class LinkedPointSet implements Serializable {
         if (time0 == Integer.MAX_VALUE && time1 == Integer.MAX_VALUE) {
             return Integer.MAX_VALUE;
         } else {
-            int offStreetTime = distancesToEdge_mm[pointIndex] / OFF_STREET_SPEED_MILLIMETERS_PER_SECOND;
-            time0 += distances0_mm[pointIndex] / onStreetSpeed + offStreetTime;
-            time1 += distances1_mm[pointIndex] / onStreetSpeed + offStreetTime;
+            int offStreetTime = distancesToEdge_mm.get(pointIndex) / OFF_STREET_SPEED_MILLIMETERS_PER_SECOND;
+            time0 += distances0_mm.get(pointIndex) / onStreetSpeed + offStreetTime;
+            time1 += distances1_mm.get(pointIndex) / onStreetSpeed + offStreetTime;
             return Math.min(handleOverflow(time0), handleOverflow(time1));
         }
     }
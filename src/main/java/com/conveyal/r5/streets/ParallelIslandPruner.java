@@ -0,0 +1,212 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.profile.StreetMode;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.stack.TIntStack;
+import gnu.trove.stack.array.TIntArrayStack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static com.conveyal.r5.streets.EdgeStore.EdgeFlag.ALLOWS_BIKE;
+import static com.conveyal.r5.streets.EdgeStore.EdgeFlag.ALLOWS_CAR;
+import static com.conveyal.r5.streets.EdgeStore.EdgeFlag.ALLOWS_PEDESTRIAN;
+
+/**
+ * Prunes islands for cars, pedestrians and bicycles, removing exactly the permissions that would be removed by running
+ * a TarjanIslandPruner for CAR, WALK and BICYCLE in that order. See TarjanIslandPruner for a description of the
+ * pruning itself and why walk islands must be removed before bicycle islands.
+ *
+ * The street graph is first copied into a compact read-only adjacency (outgoing edges of each vertex in consecutive
+ * array positions) along with a snapshot of the edge flags. The strong components are then found on separate threads
+ * for driving and for walking followed by cycling, the latter using flags with the walk islands already removed. Each
+ * search is a standard non-recursive Tarjan search over the shared adjacency, recording the component of every vertex
+ * in a single array rather than building a set per component. Finally the permissions are removed from the street
+ * layer on the calling thread, so the edge store is never written concurrently.
+ */
+public class ParallelIslandPruner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelIslandPruner.class);
+
+    private final StreetLayer streets;
+    public final int minComponentSize;
+
+    private final int nVertices;
+
+    /** The outgoing edges of vertex v are at positions firstOutgoing[v] (inclusive) to firstOutgoing[v + 1]. */
+    private int[] firstOutgoing;
+
+    /** The edge index at each position in the adjacency. */
+    private int[] outgoingEdge;
+
+    /** The vertex reached by the edge at each position in the adjacency. */
+    private int[] outgoingToVertex;
+
+    public ParallelIslandPruner (StreetLayer streetLayer, int minComponentSize) {
+        this.streets = streetLayer;
+        this.minComponentSize = minComponentSize;
+        this.nVertices = streetLayer.getVertexCount();
+    }
+
+    public void run () {
+        long startTime = System.currentTimeMillis();
+        buildAdjacency();
+        int[] flags = streets.edgeStore.flags.toArray();
+
+        CompletableFuture<StrongComponents> carComponents = CompletableFuture.supplyAsync(
+                () -> new StrongComponents(StreetMode.CAR, flags, ALLOWS_CAR.flag)
+        );
+        CompletableFuture<StrongComponents[]> walkAndBikeComponents = CompletableFuture.supplyAsync(() -> {
+            StrongComponents walk = new StrongComponents(StreetMode.WALK, flags, ALLOWS_PEDESTRIAN.flag);
+            // Walking a bike is only possible where walking is still allowed after removing walk islands.
+            int[] flagsWithoutWalkIslands = flags.clone();
+            walk.clearFlagAroundIslands(flagsWithoutWalkIslands, ALLOWS_PEDESTRIAN.flag);
+            StrongComponents bike = new StrongComponents(
+                    StreetMode.BICYCLE, flagsWithoutWalkIslands, ALLOWS_BIKE.flag | ALLOWS_PEDESTRIAN.flag
+            );
+            return new StrongComponents[] {walk, bike};
+        });
+        StrongComponents car = carComponents.join();
+        StrongComponents walk = walkAndBikeComponents.join()[0];
+        StrongComponents bike = walkAndBikeComponents.join()[1];
+
+        int[] prunedFlags = flags.clone();
+        car.clearFlagAroundIslands(prunedFlags, ALLOWS_CAR.flag);
+        walk.clearFlagAroundIslands(prunedFlags, ALLOWS_PEDESTRIAN.flag);
+        bike.clearFlagAroundIslands(prunedFlags, ALLOWS_BIKE.flag);
+        int nEdgesChanged = 0;
+        for (int edge = 0; edge < prunedFlags.length; edge++) {
+            if (prunedFlags[edge] != flags[edge]) {
+                streets.edgeStore.flags.set(edge, prunedFlags[edge]);
+                nEdgesChanged++;
+            }
+        }
+        LOG.info("Removed islands for all modes in {}sec, changing permissions on {} edges.",
+                (System.currentTimeMillis() - startTime) / 1000d, nEdgesChanged);
+    }
+
+    private void buildAdjacency () {
+        firstOutgoing = new int[nVertices + 1];
+        for (int v = 0; v < nVertices; v++) {
+            firstOutgoing[v + 1] = firstOutgoing[v] + streets.outgoingEdges.get(v).size();
+        }
+        outgoingEdge = new int[firstOutgoing[nVertices]];
+        outgoingToVertex = new int[firstOutgoing[nVertices]];
+        EdgeStore.Edge edge = streets.edgeStore.getCursor();
+        for (int v = 0; v < nVertices; v++) {
+            TIntList edges = streets.outgoingEdges.get(v);
+            for (int i = 0; i < edges.size(); i++) {
+                int position = firstOutgoing[v] + i;
+                outgoingEdge[position] = edges.get(i);
+                edge.seek(edges.get(i));
+                outgoingToVertex[position] = edge.getToVertex();
+            }
+        }
+    }
+
+    /** The strong components of the subgraph made up of the edges having any of the given flags. */
+    private class StrongComponents {
+
+        final StreetMode mode;
+
+        /** The strong component containing each vertex. */
+        final int[] componentForVertex;
+
+        /** The number of vertices in each strong component. */
+        final TIntList componentSizes = new TIntArrayList();
+
+        StrongComponents (StreetMode mode, int[] flags, int modeFlags) {
+            long startTime = System.currentTimeMillis();
+            this.mode = mode;
+            componentForVertex = new int[nVertices];
+            Arrays.fill(componentForVertex, -1);
+            int[] discoveryIndex = new int[nVertices];
+            Arrays.fill(discoveryIndex, -1);
+            // Called LOWLINK in Tarjan 1972.
+            int[] lowLink = new int[nVertices];
+            // The next position in the adjacency to examine, for each vertex in the depth-first search path.
+            int[] nextPosition = new int[nVertices];
+            // The path of the depth-first search, replacing recursion.
+            TIntStack searchPath = new TIntArrayStack();
+            TIntStack tarjanStack = new TIntArrayStack();
+            int nextDiscoveryIndex = 0;
+
+            for (int root = 0; root < nVertices; root++) {
+                if (discoveryIndex[root] != -1) continue;
+                discoveryIndex[root] = lowLink[root] = nextDiscoveryIndex++;
+                nextPosition[root] = firstOutgoing[root];
+                searchPath.push(root);
+                tarjanStack.push(root);
+                while (searchPath.size() > 0) {
+                    int vertex = searchPath.peek();
+                    if (nextPosition[vertex] < firstOutgoing[vertex + 1]) {
+                        int position = nextPosition[vertex]++;
+                        if ((flags[outgoingEdge[position]] & modeFlags) == 0) continue;
+                        int toVertex = outgoingToVertex[position];
+                        if (discoveryIndex[toVertex] == -1) {
+                            discoveryIndex[toVertex] = lowLink[toVertex] = nextDiscoveryIndex++;
+                            nextPosition[toVertex] = firstOutgoing[toVertex];
+                            searchPath.push(toVertex);
+                            tarjanStack.push(toVertex);
+                        } else if (componentForVertex[toVertex] == -1) {
+                            // Discovered vertices not yet assigned to a component are exactly those on the Tarjan stack.
+                            lowLink[vertex] = Math.min(lowLink[vertex], discoveryIndex[toVertex]);
+                        }
+                    } else {
+                        // All successors have been explored, return to the previous vertex in the search path.
+                        searchPath.pop();
+                        if (searchPath.size() > 0) {
+                            int previousVertex = searchPath.peek();
+                            lowLink[previousVertex] = Math.min(lowLink[previousVertex], lowLink[vertex]);
+                        }
+                        if (lowLink[vertex] == discoveryIndex[vertex]) {
+                            // This vertex is the root of a strong component, which is on top of the Tarjan stack.
+                            int component = componentSizes.size();
+                            int size = 0;
+                            int poppedVertex;
+                            do {
+                                poppedVertex = tarjanStack.pop();
+                                componentForVertex[poppedVertex] = component;
+                                size++;
+                            } while (poppedVertex != vertex);
+                            componentSizes.add(size);
+                        }
+                    }
+                }
+            }
+            int nIslands = 0;
+            int nIslandVertices = 0;
+            for (int component = 0; component < componentSizes.size(); component++) {
+                if (componentSizes.get(component) < minComponentSize) {
+                    nIslands++;
+                    nIslandVertices += componentSizes.get(component);
+                }
+            }
+            LOG.info("Found {} strong components for mode {} in {}sec, {} of them islands with fewer than {} " +
+                    "vertices ({} vertices in total).", componentSizes.size(), mode,
+                    (System.currentTimeMillis() - startTime) / 1000d, nIslands, minComponentSize, nIslandVertices);
+        }
+
+        boolean isIsland (int vertex) {
+            return componentSizes.get(componentForVertex[vertex]) < minComponentSize;
+        }
+
+        /** Clear the given flag on all edges entering or leaving vertices in components smaller than the minimum. */
+        void clearFlagAroundIslands (int[] flags, int flag) {
+            for (int vertex = 0; vertex < nVertices; vertex++) {
+                if (!isIsland(vertex)) continue;
+                for (TIntList edges : new TIntList[] {
+                        streets.outgoingEdges.get(vertex), streets.incomingEdges.get(vertex)
+                }) {
+                    for (int i = 0; i < edges.size(); i++) {
+                        flags[edges.get(i)] &= ~flag;
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.kryo.KryoNetworkSerializer;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransportNetwork;
+import com.google.common.io.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.conveyal.r5.streets.StreetRouter.State.RoutingVariable;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Holds the base linkage of a TransportNetwork's full-extent grid for one street mode, together with its egress cost
+ * tables, in a file that is memory-mapped read-only rather than copied onto the heap.
+ *
+ * These are some of the largest objects in a worker, and they are identical in every JVM that loads the same network.
+ * When several worker JVMs run on one machine (to limit the impact of GC pauses) and all map the same file, the
+ * operating system keeps only one copy of these tables in its page cache and shares it between the processes.
+ * The tables are never modified once built: scenarios and cropped grids copy what they need from the base linkage.
+ *
+ * The file for each network and mode is written by whichever JVM first needs it, to a temporary file that is then
+ * atomically renamed, so other JVMs never see a partially written file. Before a file is used its header is checked
+ * against the network being loaded, and a file written by another version of R5 or for another network is rebuilt.
+ */
+public class SharedLinkageFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedLinkageFile.class);
+
+    private static final byte[] HEADER = "R5LINKAGE".getBytes();
+
+    /** Increment this whenever the layout of the linkage file changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Cost tables are mapped in segments of at most 2^28 ints (1GB) because a single mapping cannot exceed 2GB. */
+    private static final int MAX_SEGMENT_INTS = 1 << 28;
+
+    /**
+     * Replace the base grid linkages of the given network, which must have just been loaded, with linkages read
+     * from shared files in the given directory. Any files that don't exist yet are written from the linkages that
+     * were loaded with the network, whose arrays can then be garbage collected. Only linkages whose egress cost tables
+     * were loaded with the network are shared: tables for other modes are left to be built if and when they're needed.
+     */
+    public static void attach (TransportNetwork network, File directory) {
+        network.linkageCache.replaceUnevictableLinkages(linkage -> {
+            if (linkage.pointSet != network.fullExtentGridPointSet || linkage.baseLinkage != null
+                    || !linkage.hasEgressCostTable()) {
+                return linkage;
+            }
+            File file = new File(directory, String.format("%s_%s_%s.linkage",
+                    network.scenarioId, KryoNetworkSerializer.NETWORK_FORMAT_VERSION, linkage.streetMode));
+            try {
+                return attachOrCreate(network, linkage, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not share linkage through file " + file, e);
+            }
+        });
+    }
+
+    private static LinkedPointSet attachOrCreate (TransportNetwork network, LinkedPointSet linkage, File file)
+            throws IOException {
+        if (file.exists()) {
+            try {
+                return read(network, linkage, file);
+            } catch (IOException e) {
+                LOG.warn("Shared linkage file {} cannot be used, rebuilding it: {}", file, e.getMessage());
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        write(network, linkage, file);
+        return read(network, linkage, file);
+    }
+
+    /**
+     * Write the supplied linkage and its egress cost tables to the given file, unless another process does so first.
+     * The linkage is not modified.
+     */
+    static void write (TransportNetwork network, LinkedPointSet linkage, File file) throws IOException {
+        EgressCostTable egressCostTable = linkage.getEgressCostTable();
+        List<int[]> costTables = egressCostTable.stopToPointLinkageCostTables;
+        checkState(costTables != null, "Cost tables have already been transposed for propagation.");
+        int nPoints = linkage.size();
+        LOG.info("Writing {} linkage for {} points and {} stops to shared file {}.", linkage.streetMode, nPoints,
+                costTables.size(), file);
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.write(HEADER);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(network.scenarioId);
+                out.writeUTF(linkage.streetMode.name());
+                out.writeUTF(egressCostTable.linkageCostUnit.name());
+                out.writeInt(nPoints);
+                out.writeInt(costTables.size());
+                int[] delays = egressCostTable.egressStopDelaysSeconds;
+                out.writeBoolean(delays != null);
+                if (delays != null) {
+                    writeInts(out, IntBuffer.wrap(delays));
+                }
+                writeInts(out, linkage.edges);
+                writeInts(out, linkage.distancesToEdge_mm);
+                writeInts(out, linkage.distances0_mm);
+                writeInts(out, linkage.distances1_mm);
+                // Offsets of each stop's table from the start of the tables, in ints. Null tables are empty.
+                long offset = 0;
+                for (int[] table : costTables) {
+                    out.writeLong(offset);
+                    offset += (table == null) ? 0 : table.length;
+                }
+                out.writeLong(offset);
+                for (int[] table : costTables) {
+                    if (table != null) {
+                        writeInts(out, IntBuffer.wrap(table));
+                    }
+                }
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                LOG.info("Shared linkage file {} was written by another process.", file);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Map the given file, checking that it was written for the same network, mode and dimensions as the supplied
+     * linkage, and return a new linkage and egress cost table backed by the mapped file.
+     */
+    static LinkedPointSet read (TransportNetwork network, LinkedPointSet linkage, File file) throws IOException {
+        EgressCostTable egressCostTable = linkage.getEgressCostTable();
+        int nStops = network.transitLayer.getStopCount();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            DataInputStream in = new DataInputStream(counter);
+            byte[] magic = new byte[HEADER.length];
+            in.readFully(magic);
+            if (!Arrays.equals(HEADER, magic)) {
+                throw new IOException("Unrecognized file header. Is this an R5 shared linkage file?");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(String.format(
+                    "Shared linkage file version is %d, this R5 requires %d.", version, FORMAT_VERSION
+                ));
+            }
+            String networkId = in.readUTF();
+            if (!networkId.equals(network.scenarioId)) {
+                throw new IOException(String.format(
+                    "Shared linkage file is for network %s, expected %s.", networkId, network.scenarioId
+                ));
+            }
+            StreetMode streetMode = StreetMode.valueOf(in.readUTF());
+            RoutingVariable linkageCostUnit = RoutingVariable.valueOf(in.readUTF());
+            int nPoints = in.readInt();
+            int nTables = in.readInt();
+            if (streetMode != linkage.streetMode || linkageCostUnit != egressCostTable.linkageCostUnit
+                    || nPoints != linkage.size() || nTables != nStops) {
+                throw new IOException("Shared linkage file does not match the linkage loaded with the network.");
+            }
+            // Delays are small, so they're copied onto the heap where propagation expects to find them.
+            int[] delays = null;
+            if (in.readBoolean()) {
+                delays = new int[nStops];
+                for (int s = 0; s < nStops; s++) {
+                    delays[s] = in.readInt();
+                }
+            }
+            IntBuffer[] linkageArrays = new IntBuffer[4];
+            for (int i = 0; i < linkageArrays.length; i++) {
+                linkageArrays[i] = mapInts(channel, counter.getCount(), nPoints);
+                in.skipNBytes(nPoints * 4L);
+            }
+            long[] offsets = new long[nStops + 1];
+            for (int s = 0; s <= nStops; s++) {
+                offsets[s] = in.readLong();
+            }
+            MappedCostTables costTables = new MappedCostTables(channel, counter.getCount(), offsets);
+            LinkedPointSet sharedLinkage = new LinkedPointSet(
+                    linkage, linkageArrays[0], linkageArrays[1], linkageArrays[2], linkageArrays[3]
+            );
+            sharedLinkage.useEgressCostTable(new EgressCostTable(sharedLinkage, linkageCostUnit, costTables, delays));
+            LOG.info("Mapped shared {} linkage and egress cost tables from {}.", streetMode, file);
+            return sharedLinkage;
+        }
+    }
+
+    private static void writeInts (DataOutputStream out, IntBuffer ints) throws IOException {
+        for (int i = 0; i < ints.capacity(); i++) {
+            out.writeInt(ints.get(i));
+        }
+    }
+
+    private static IntBuffer mapInts (FileChannel channel, long position, long n) throws IOException {
+        checkState(n <= MAX_SEGMENT_INTS, "Too many values to map at once: %s", n);
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, n * 4).asIntBuffer();
+    }
+
+    /**
+     * A read-only view of the per-stop cost tables in a mapped file. Cropping and propagation read the tables in place
+     * through the view method. Scenario cost tables reuse the base tables of stops the scenario can't affect, so get
+     * copies a stop's table onto the heap, returning the same copy for as long as any scenario still refers to it.
+     * The file is mapped in segments, with each table falling entirely within one segment.
+     */
+    static class MappedCostTables extends AbstractList<int[]> {
+
+        /** The offset of each stop's table from the start of the tables in ints, plus one final entry at the end. */
+        private final long[] offsets;
+
+        private final IntBuffer[] segments;
+
+        /** The index of the segment holding each stop's table. */
+        private final int[] segmentForStop;
+
+        /** The offset of the start of each segment from the start of the tables in ints. */
+        private final long[] segmentOffsets;
+
+        /** Weak references to the heap copies of each stop's table returned by get, so they're only made once. */
+        private final AtomicReferenceArray<WeakReference<int[]>> copies;
+
+        MappedCostTables (FileChannel channel, long position, long[] offsets) throws IOException {
+            int nStops = offsets.length - 1;
+            this.offsets = offsets;
+            this.segmentForStop = new int[nStops];
+            long[] segmentStarts = new long[nStops + 1];
+            int nSegments = 1;
+            for (int stop = 0; stop < nStops; stop++) {
+                checkState(offsets[stop + 1] - offsets[stop] <= MAX_SEGMENT_INTS, "Cost table is too large to map.");
+                if (offsets[stop + 1] - segmentStarts[nSegments - 1] > MAX_SEGMENT_INTS) {
+                    segmentStarts[nSegments++] = offsets[stop];
+                }
+                segmentForStop[stop] = nSegments - 1;
+            }
+            segmentStarts[nSegments] = offsets[nStops];
+            this.segmentOffsets = Arrays.copyOf(segmentStarts, nSegments);
+            this.segments = new IntBuffer[nSegments];
+            for (int s = 0; s < nSegments; s++) {
+                segments[s] = mapInts(channel, position + segmentStarts[s] * 4, segmentStarts[s + 1] - segmentStarts[s]);
+            }
+            this.copies = new AtomicReferenceArray<>(nStops);
+        }
+
+        /** @return a read-only buffer over one stop's table in the mapped file, or null if it reaches no points. */
+        IntBuffer view (int stop) {
+            int length = (int) (offsets[stop + 1] - offsets[stop]);
+            if (length == 0) {
+                return null;
+            }
+            int segment = segmentForStop[stop];
+            int start = (int) (offsets[stop] - segmentOffsets[segment]);
+            return segments[segment].duplicate().position(start).limit(start + length).slice();
+        }
+
+        @Override
+        public int[] get (int stop) {
+            WeakReference<int[]> reference = copies.get(stop);
+            int[] table = (reference == null) ? null : reference.get();
+            if (table == null) {
+                IntBuffer view = view(stop);
+                if (view == null) {
+                    return null;
+                }
+                // Two threads may copy the same table at once, which is harmless: only one copy is remembered.
+                table = new int[view.limit()];
+                view.get(table);
+                copies.set(stop, new WeakReference<>(table));
+            }
+            return table;
+        }
+
+        @Override
+        public int size () {
+            return segmentForStop.length;
+        }
+
+    }
+
+}
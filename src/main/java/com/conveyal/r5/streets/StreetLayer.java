@@ -30,6 +30,7 @@ import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
@@ -127,6 +128,12 @@ public class StreetLayer implements Serializable, Cloneable {
      */
     private transient IntHashGrid temporaryEdgeIndex;
 
+    /**
+     * If the edges and vertices of this base StreetLayer have been moved into a tile file, the store holding them.
+     * Null for layers held entirely on the heap. Scenario copies share this reference with their base layer.
+     */
+    public StreetTileStore tileStore;
+
     // Key is street vertex index, value is BikeRentalStation (with name, number of bikes, spaces id etc.)
     public TIntObjectMap<BikeRentalStation> bikeRentalStationMap;
     public TIntObjectMap<ParkRideParking> parkRideLocationsMap;
@@ -365,10 +372,9 @@ public class StreetLayer implements Serializable, Cloneable {
         buildEdgeLists();
         stressLabeler.applyIntersectionCosts(this);
         if (removeIslands) {
-            new TarjanIslandPruner(this, MIN_SUBGRAPH_SIZE, StreetMode.CAR).run();
-            // due to bike walking, walk must go before bike, see comment in TarjanIslandPruner javadoc
-            new TarjanIslandPruner(this, MIN_SUBGRAPH_SIZE, StreetMode.WALK).run();
-            new TarjanIslandPruner(this, MIN_SUBGRAPH_SIZE, StreetMode.BICYCLE).run();
+            // Prunes car, walk and bike islands concurrently, with the same result as running a TarjanIslandPruner for
+            // each mode in turn (walk before bike, see comment in TarjanIslandPruner javadoc).
+            new ParallelIslandPruner(this, MIN_SUBGRAPH_SIZE).run();
         }
 
         // index the streets, we need the index to connect things to them.
@@ -1254,7 +1260,7 @@ public class StreetLayer implements Serializable, Cloneable {
     /**
      * The edge lists (which edges go out of and come into each vertex) are derived from the edges in the EdgeStore.
      * So any time you add edges or change their endpoints, you need to rebuild the edge index.
-     * TODO some way to signal that a few new edges have been added, rather than rebuilding the whole lists.
+     * When a scenario has only added a few new edges, extendEdgeLists is much faster.
      */
     public void buildEdgeLists() {
         LOG.info("Building edge lists from edges...");
@@ -1272,6 +1278,53 @@ public class StreetLayer implements Serializable, Cloneable {
         LOG.info("Done building edge lists.");
     }
 
+    /**
+     * Bring the edge lists of a scenario copy up to date with the edges added by the scenario, without rebuilding them
+     * for every vertex as buildEdgeLists does. The per-vertex lists of the base StreetLayer are shared with this copy,
+     * and only the lists for vertices at either end of an added edge are replaced with extended copies, so the base
+     * StreetLayer is not disturbed. Like buildEdgeLists, this leaves temporarily deleted edges in the lists, as they
+     * are skipped during routing.
+     * @return the number of vertices whose edge lists were created or extended.
+     */
+    public int extendEdgeLists () {
+        if (!edgeStore.isExtendOnlyCopy() || outgoingEdges == null) {
+            buildEdgeLists();
+            return vertexStore.getVertexCount();
+        }
+        // Vertex and edge stores are extend-only, so the existing lists remain correct for all pre-existing vertices
+        // except those touched by new edges. Copy only the outer lists, sharing the per-vertex lists.
+        List<TIntList> extendedOutgoingEdges = new ArrayList<>(vertexStore.getVertexCount());
+        List<TIntList> extendedIncomingEdges = new ArrayList<>(vertexStore.getVertexCount());
+        extendedOutgoingEdges.addAll(outgoingEdges);
+        extendedIncomingEdges.addAll(incomingEdges);
+        TIntSet copiedVertices = new TIntHashSet();
+        for (int v = outgoingEdges.size(); v < vertexStore.getVertexCount(); v++) {
+            extendedOutgoingEdges.add(new TIntArrayList(4));
+            extendedIncomingEdges.add(new TIntArrayList(4));
+            copiedVertices.add(v);
+        }
+        Edge edge = edgeStore.getCursor();
+        edgeStore.forEachTemporarilyAddedEdge(e -> {
+            edge.seek(e);
+            int fromVertex = edge.getFromVertex();
+            int toVertex = edge.getToVertex();
+            // Copy on write, the first time each pre-existing vertex is touched.
+            if (copiedVertices.add(fromVertex)) {
+                extendedOutgoingEdges.set(fromVertex, new TIntArrayList(extendedOutgoingEdges.get(fromVertex)));
+                extendedIncomingEdges.set(fromVertex, new TIntArrayList(extendedIncomingEdges.get(fromVertex)));
+            }
+            if (copiedVertices.add(toVertex)) {
+                extendedOutgoingEdges.set(toVertex, new TIntArrayList(extendedOutgoingEdges.get(toVertex)));
+                extendedIncomingEdges.set(toVertex, new TIntArrayList(extendedIncomingEdges.get(toVertex)));
+            }
+            extendedOutgoingEdges.get(fromVertex).add(e);
+            extendedIncomingEdges.get(toVertex).add(e);
+        });
+        outgoingEdges = extendedOutgoingEdges;
+        incomingEdges = extendedIncomingEdges;
+        return copiedVertices.size();
+    }
+
     /**
      * Find an existing street vertex near the supplied coordinates, or create a new one if there are no vertices
      * near enough. Note that calling this method is potentially destructive (it can modify the street network).
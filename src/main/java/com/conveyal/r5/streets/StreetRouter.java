@@ -89,7 +89,7 @@ public class StreetRouter {
 
     // These are used for scaling coordinates in approximate distance calculations.
     // The lon value must be properly scaled to underestimate distances in the region where we're routing.
-    private static final double MM_PER_UNIT_LAT_FIXED =
+    static final double MM_PER_UNIT_LAT_FIXED =
             (SphericalDistanceLibrary.EARTH_CIRCUMFERENCE_METERS * 1000) / (360 * VertexStore.FIXED_FACTOR);
     private double millimetersPerUnitLonFixed;
     // Yes, that's indeed the speed unit "seconds per millimeter", to avoid computing 1/x repeatedly.
@@ -618,7 +618,7 @@ public class StreetRouter {
      * Given a new state, check whether it is dominated by any existing state that resulted from traversing the
      * same edge. Side effect: Boot out any existing states that are dominated by the new one.
      */
-    private boolean isDominated(State newState) {
+    boolean isDominated(State newState) {
         // States in turn restrictions are incomparable (don't dominate and aren't dominated by other states)
         // If the new state is not in a turn restriction, check whether it dominates any existing states and remove them.
         // Multimap returns empty list for missing keys.
@@ -1045,7 +1045,7 @@ public class StreetRouter {
      * Saves maxStops number of transitStops that are at least minTravelTimeSeconds from start of search
      * If stop is found multiple times best states according to quantityToMinimize wins.
      */
-    private static class StopVisitor implements RoutingVisitor {
+    static class StopVisitor implements RoutingVisitor {
         private final int minTravelTimeSeconds;
 
         private final StreetLayer streetLayer;
@@ -1115,7 +1115,7 @@ public class StreetRouter {
      * <p>
      * If vertex is found multiple times vertex with lower quantityToMinimize is saved
      */
-    private static class VertexFlagVisitor implements RoutingVisitor {
+    static class VertexFlagVisitor implements RoutingVisitor {
         private final int minTravelTimeSeconds;
 
         private final State.RoutingVariable dominanceVariable;
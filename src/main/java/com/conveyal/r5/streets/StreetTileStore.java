@@ -0,0 +1,521 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.osmlib.WebMercatorTile;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.common.base.Preconditions;
+import gnu.trove.list.TIntList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the per-edge and per-vertex characteristics of a base StreetLayer in a file rather than on the heap. This
+ * allows workers to handle national street networks while only a few metro areas are actually being routed on.
+ *
+ * Edge pairs and vertices are partitioned into geographic tiles (Web Mercator tiles at zoom 12, see WebMercatorTile).
+ * An edge pair is placed in the tile containing its from-vertex. Each tile is stored as one contiguous block in the
+ * file, so the characteristics of streets that are close to each other on the ground are also close to each other on
+ * disk. A tile is read and decoded into primitive arrays the first time any of its elements is accessed, and a bounded
+ * number of decoded tiles is kept resident in a cache. Tiles are never written back, as the base street layer is
+ * immutable once built (scenarios extend it rather than modifying it, see EdgeStore.extendOnlyCopy).
+ *
+ * The tile file is attached to a StreetLayer by replacing the Trove lists in its EdgeStore and VertexStore with
+ * read-only views (TIntTiledList etc.) that resolve each index through this store. All code reading those lists,
+ * including StreetRouter, LinkedPointSet and EgressCostTable, therefore transparently loads tiles on demand.
+ * The edge lists and spatial index of the StreetLayer remain on the heap. Building them means iterating over every
+ * edge, which would load every tile, so they are kept in this store when it is attached and serialized along with the
+ * reference to the tile file (see StreetTileStoreSerializer). When a tiled network is loaded they are restored rather
+ * than rebuilt, see TransportNetwork.rebuildTransientIndexes.
+ *
+ * The element-to-tile location tables are memory-mapped, so they are paged in by the operating system rather than
+ * taking up heap space. Tile blocks are read with positional reads on a shared FileChannel, which is threadsafe.
+ * The channel stays open until close() is called, which TransportNetworkCache does when the network is evicted.
+ */
+public class StreetTileStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetTileStore.class);
+
+    private static final byte[] HEADER = "R5TILES".getBytes();
+
+    /** Increment this whenever the layout of the tile file changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The default number of decoded tiles of each kind (edge and vertex tiles) to keep in memory at once. */
+    public static final int DEFAULT_MAX_RESIDENT_TILES = 1000;
+
+    /** Fixed number of bytes in an encoded edge pair, not including its intermediate geometry coordinates. */
+    private static final int EDGE_PAIR_BYTES = 4 + 4 + 4 + 8 + 1 + 1 + 1 + 4 + 4 + 4;
+
+    private static final int VERTEX_BYTES = 4 + 4 + 1;
+
+    /** Location tables are mapped in segments of 2^27 longs (1GB) because a single mapping cannot exceed 2GB. */
+    private static final int SEGMENT_SHIFT = 27;
+
+    /** The file backing this store, retained so the store can be re-attached after network serialization. */
+    public final File file;
+
+    public final int nEdgePairs;
+
+    public final int nVertices;
+
+    private final FileChannel channel;
+
+    /** Byte offsets of the beginning of each tile block in the file, with an extra entry marking the end. */
+    private final long[] edgeTileOffsets;
+
+    private final long[] vertexTileOffsets;
+
+    /** For each edge pair and each vertex, the tile index in the high 32 bits and position within the tile below. */
+    private final LongBuffer[] edgeLocations;
+
+    private final LongBuffer[] vertexLocations;
+
+    private final LoadingCache<Integer, EdgeTile> edgeTiles;
+
+    private final LoadingCache<Integer, VertexTile> vertexTiles;
+
+    /**
+     * The edge lists and spatial index of the StreetLayer this store is attached to, which are otherwise transient.
+     * These are set by attach() or on deserialization, and are shared with the StreetLayer.
+     */
+    public List<TIntList> outgoingEdges;
+
+    public List<TIntList> incomingEdges;
+
+    public IntHashGrid spatialIndex;
+
+    /** The characteristics of all edge pairs in one tile, decoded into parallel arrays. */
+    private static class EdgeTile {
+        int[] fromVertices;
+        int[] toVertices;
+        int[] lengths_mm;
+        long[] osmids;
+        byte[] streetClasses;
+        byte[] inAngles;
+        byte[] outAngles;
+        /** Two entries per edge pair, for the forward and backward edges. */
+        int[] flags;
+        int[][] geometries;
+    }
+
+    private static class VertexTile {
+        int[] fixedLats;
+        int[] fixedLons;
+        byte[] vertexFlags;
+    }
+
+    private StreetTileStore (File file, int maxResidentTiles) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = readFully(0, HEADER.length + 4 * 5);
+        byte[] magic = new byte[HEADER.length];
+        header.get(magic);
+        if (!Arrays.equals(HEADER, magic)) {
+            throw new IOException("Unrecognized file header. Is this an R5 street tile file? " + file);
+        }
+        int version = header.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(String.format(
+                "Street tile file version is %d, this R5 requires %d.", version, FORMAT_VERSION
+            ));
+        }
+        nEdgePairs = header.getInt();
+        nVertices = header.getInt();
+        int nEdgeTiles = header.getInt();
+        int nVertexTiles = header.getInt();
+        long position = header.capacity();
+        edgeTileOffsets = readLongs(position, nEdgeTiles + 1);
+        position += (nEdgeTiles + 1) * 8L;
+        vertexTileOffsets = readLongs(position, nVertexTiles + 1);
+        position += (nVertexTiles + 1) * 8L;
+        edgeLocations = mapLongs(position, nEdgePairs);
+        position += nEdgePairs * 8L;
+        vertexLocations = mapLongs(position, nVertices);
+        edgeTiles = Caffeine.newBuilder().maximumSize(maxResidentTiles).build(this::loadEdgeTile);
+        vertexTiles = Caffeine.newBuilder().maximumSize(maxResidentTiles).build(this::loadVertexTile);
+        LOG.info("Opened street tile file {} with {} edge tiles and {} vertex tiles.", file, nEdgeTiles, nVertexTiles);
+    }
+
+    /** Open an existing street tile file, keeping at most the given number of tiles of each kind in memory. */
+    public static StreetTileStore open (File file, int maxResidentTiles) {
+        try {
+            return new StreetTileStore(file, maxResidentTiles);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open street tile file " + file, e);
+        }
+    }
+
+    /**
+     * Replace the edge and vertex characteristics of the given StreetLayer with tiled views into this store. The
+     * StreetLayer must be the one this store was written from, must not be a scenario copy, and must already have
+     * its edge lists and spatial index built. Those are retained by this store so they need not be rebuilt from tiles.
+     */
+    public void attach (StreetLayer streetLayer) {
+        EdgeStore edgeStore = streetLayer.edgeStore;
+        VertexStore vertexStore = streetLayer.vertexStore;
+        Preconditions.checkState(!streetLayer.isScenarioCopy(), "Only base street layers can be tiled.");
+        Preconditions.checkState(edgeStore.nEdges() == nEdgePairs * 2, "Tile file does not match edge store.");
+        Preconditions.checkState(vertexStore.getVertexCount() == nVertices, "Tile file does not match vertex store.");
+        Preconditions.checkState(streetLayer.outgoingEdges != null, "Edge lists must be built before tiling.");
+        outgoingEdges = streetLayer.outgoingEdges;
+        incomingEdges = streetLayer.incomingEdges;
+        spatialIndex = streetLayer.spatialIndex;
+        streetLayer.tileStore = this;
+        edgeStore.flags = new TIntTiledList(this, Column.EDGE_FLAGS);
+        edgeStore.fromVertices = new TIntTiledList(this, Column.FROM_VERTEX);
+        edgeStore.toVertices = new TIntTiledList(this, Column.TO_VERTEX);
+        edgeStore.lengths_mm = new TIntTiledList(this, Column.LENGTH_MM);
+        edgeStore.osmids = new TLongTiledList(this, Column.OSM_ID);
+        edgeStore.streetClasses = new TByteTiledList(this, Column.STREET_CLASS);
+        edgeStore.inAngles = new TByteTiledList(this, Column.IN_ANGLE);
+        edgeStore.outAngles = new TByteTiledList(this, Column.OUT_ANGLE);
+        edgeStore.geometries = new TiledGeometryList(this);
+        vertexStore.fixedLats = new TIntTiledList(this, Column.FIXED_LAT);
+        vertexStore.fixedLons = new TIntTiledList(this, Column.FIXED_LON);
+        vertexStore.vertexFlags = new TByteTiledList(this, Column.VERTEX_FLAGS);
+    }
+
+    /**
+     * Give the StreetLayer this store is attached to the edge lists and spatial index retained by this store, in place
+     * of calling buildEdgeLists() and indexStreets() which would load every tile.
+     */
+    public void restoreIndexes (StreetLayer streetLayer) {
+        Preconditions.checkState(streetLayer.tileStore == this, "Street layer is not attached to this store.");
+        Preconditions.checkState(outgoingEdges != null, "Edge lists were not saved with this store.");
+        streetLayer.outgoingEdges = outgoingEdges;
+        streetLayer.incomingEdges = incomingEdges;
+        streetLayer.spatialIndex = spatialIndex;
+    }
+
+    /**
+     * Close the tile file. Tiles that are not already resident can no longer be read after this is called, so it
+     * should only be called once the network using this store is no longer in use.
+     */
+    @Override
+    public void close () {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close street tile file " + file, e);
+        }
+    }
+
+    /** The columns of the EdgeStore and VertexStore that are held in tiles. */
+    public enum Column {
+        EDGE_FLAGS, FROM_VERTEX, TO_VERTEX, LENGTH_MM, OSM_ID, STREET_CLASS, IN_ANGLE, OUT_ANGLE,
+        FIXED_LAT, FIXED_LON, VERTEX_FLAGS;
+
+        /** @return the number of elements in this column, i.e. the size of the list it replaces. */
+        int size (StreetTileStore store) {
+            switch (this) {
+                case EDGE_FLAGS: return store.nEdgePairs * 2;
+                case FIXED_LAT:
+                case FIXED_LON:
+                case VERTEX_FLAGS: return store.nVertices;
+                default: return store.nEdgePairs;
+            }
+        }
+    }
+
+    int getInt (Column column, int index) {
+        if (column == Column.FIXED_LAT || column == Column.FIXED_LON) {
+            long location = locate(vertexLocations, index);
+            VertexTile tile = vertexTiles.get(tileIndex(location));
+            int offset = offset(location);
+            return column == Column.FIXED_LAT ? tile.fixedLats[offset] : tile.fixedLons[offset];
+        }
+        if (column == Column.EDGE_FLAGS) {
+            long location = locate(edgeLocations, index / 2);
+            return edgeTiles.get(tileIndex(location)).flags[offset(location) * 2 + index % 2];
+        }
+        long location = locate(edgeLocations, index);
+        EdgeTile tile = edgeTiles.get(tileIndex(location));
+        int offset = offset(location);
+        switch (column) {
+            case FROM_VERTEX: return tile.fromVertices[offset];
+            case TO_VERTEX: return tile.toVertices[offset];
+            case LENGTH_MM: return tile.lengths_mm[offset];
+            default: throw new IllegalArgumentException("Not an int column: " + column);
+        }
+    }
+
+    byte getByte (Column column, int index) {
+        if (column == Column.VERTEX_FLAGS) {
+            long location = locate(vertexLocations, index);
+            return vertexTiles.get(tileIndex(location)).vertexFlags[offset(location)];
+        }
+        long location = locate(edgeLocations, index);
+        EdgeTile tile = edgeTiles.get(tileIndex(location));
+        int offset = offset(location);
+        switch (column) {
+            case STREET_CLASS: return tile.streetClasses[offset];
+            case IN_ANGLE: return tile.inAngles[offset];
+            case OUT_ANGLE: return tile.outAngles[offset];
+            default: throw new IllegalArgumentException("Not a byte column: " + column);
+        }
+    }
+
+    long getLong (Column column, int index) {
+        Preconditions.checkArgument(column == Column.OSM_ID, "Not a long column: " + column);
+        long location = locate(edgeLocations, index);
+        return edgeTiles.get(tileIndex(location)).osmids[offset(location)];
+    }
+
+    int[] getGeometry (int pairIndex) {
+        long location = locate(edgeLocations, pairIndex);
+        return edgeTiles.get(tileIndex(location)).geometries[offset(location)];
+    }
+
+    /** @return the number of tiles of each kind currently decoded and held in memory, for logging and tests. */
+    public long residentTileCount () {
+        return edgeTiles.estimatedSize() + vertexTiles.estimatedSize();
+    }
+
+    private static long locate (LongBuffer[] segments, int index) {
+        return segments[index >>> SEGMENT_SHIFT].get(index & ((1 << SEGMENT_SHIFT) - 1));
+    }
+
+    private static int tileIndex (long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset (long location) {
+        return (int) location;
+    }
+
+    private EdgeTile loadEdgeTile (int tileIndex) throws IOException {
+        ByteBuffer block = readBlock(edgeTileOffsets, tileIndex);
+        int n = block.getInt();
+        EdgeTile tile = new EdgeTile();
+        tile.fromVertices = new int[n];
+        tile.toVertices = new int[n];
+        tile.lengths_mm = new int[n];
+        tile.osmids = new long[n];
+        tile.streetClasses = new byte[n];
+        tile.inAngles = new byte[n];
+        tile.outAngles = new byte[n];
+        tile.flags = new int[n * 2];
+        tile.geometries = new int[n][];
+        for (int i = 0; i < n; i++) {
+            tile.fromVertices[i] = block.getInt();
+            tile.toVertices[i] = block.getInt();
+            tile.lengths_mm[i] = block.getInt();
+            tile.osmids[i] = block.getLong();
+            tile.streetClasses[i] = block.get();
+            tile.inAngles[i] = block.get();
+            tile.outAngles[i] = block.get();
+            tile.flags[i * 2] = block.getInt();
+            tile.flags[i * 2 + 1] = block.getInt();
+            int[] geometry = new int[block.getInt()];
+            for (int g = 0; g < geometry.length; g++) {
+                geometry[g] = block.getInt();
+            }
+            tile.geometries[i] = geometry;
+        }
+        return tile;
+    }
+
+    private VertexTile loadVertexTile (int tileIndex) throws IOException {
+        ByteBuffer block = readBlock(vertexTileOffsets, tileIndex);
+        int n = block.getInt();
+        VertexTile tile = new VertexTile();
+        tile.fixedLats = new int[n];
+        tile.fixedLons = new int[n];
+        tile.vertexFlags = new byte[n];
+        for (int i = 0; i < n; i++) {
+            tile.fixedLats[i] = block.getInt();
+            tile.fixedLons[i] = block.getInt();
+            tile.vertexFlags[i] = block.get();
+        }
+        return tile;
+    }
+
+    private ByteBuffer readBlock (long[] tileOffsets, int tileIndex) throws IOException {
+        long start = tileOffsets[tileIndex];
+        return readFully(start, (int) (tileOffsets[tileIndex + 1] - start));
+    }
+
+    private ByteBuffer readFully (long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of street tile file " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private long[] readLongs (long position, int n) throws IOException {
+        long[] longs = new long[n];
+        readFully(position, n * 8).asLongBuffer().get(longs);
+        return longs;
+    }
+
+    private LongBuffer[] mapLongs (long position, int n) throws IOException {
+        int segmentSize = 1 << SEGMENT_SHIFT;
+        int nSegments = Math.max(1, (n + segmentSize - 1) / segmentSize);
+        LongBuffer[] segments = new LongBuffer[nSegments];
+        for (int s = 0; s < nSegments; s++) {
+            long size = Math.min(segmentSize, n - (long) s * segmentSize);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, position + (long) s * segmentSize * 8, size * 8)
+                    .asLongBuffer();
+        }
+        return segments;
+    }
+
+    /**
+     * Write the edge and vertex characteristics of the given base StreetLayer out to a tile file. This does not modify
+     * the StreetLayer; call open() then attach() to make it use the tiles.
+     */
+    public static void write (StreetLayer streetLayer, File file) {
+        EdgeStore edgeStore = streetLayer.edgeStore;
+        VertexStore vertexStore = streetLayer.vertexStore;
+        Preconditions.checkState(!streetLayer.isScenarioCopy(), "Only base street layers can be tiled.");
+        int nVertices = vertexStore.getVertexCount();
+        int nEdgePairs = edgeStore.nEdges() / 2;
+        LOG.info("Writing {} vertices and {} edge pairs to street tile file {}.", nVertices, nEdgePairs, file);
+
+        // Find the Web Mercator tile of each vertex, and number the distinct tiles in x, y order so that
+        // neighboring tiles are stored near each other in the file.
+        long[] tileKeyForVertex = new long[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            WebMercatorTile tile = new WebMercatorTile(
+                VertexStore.fixedDegreesToFloating(vertexStore.fixedLats.get(v)),
+                VertexStore.fixedDegreesToFloating(vertexStore.fixedLons.get(v))
+            );
+            tileKeyForVertex[v] = ((long) tile.xtile << 32) | tile.ytile;
+        }
+        long[] distinctKeys = Arrays.stream(tileKeyForVertex).distinct().sorted().toArray();
+        TLongIntMap tileIndexForKey = new TLongIntHashMap(distinctKeys.length);
+        for (int t = 0; t < distinctKeys.length; t++) {
+            tileIndexForKey.put(distinctKeys[t], t);
+        }
+        int nTiles = distinctKeys.length;
+        int[] tileForVertex = new int[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            tileForVertex[v] = tileIndexForKey.get(tileKeyForVertex[v]);
+        }
+        tileKeyForVertex = null;
+        // Edge pairs are placed in the tile of their from-vertex. Both kinds of elements use the same tile numbering,
+        // though some tiles may be empty of edges.
+        int[] tileForEdgePair = new int[nEdgePairs];
+        for (int p = 0; p < nEdgePairs; p++) {
+            tileForEdgePair[p] = tileForVertex[edgeStore.fromVertices.get(p)];
+        }
+        int[][] verticesByTile = groupByTile(tileForVertex, nTiles);
+        int[][] edgePairsByTile = groupByTile(tileForEdgePair, nTiles);
+
+        long headerBytes = HEADER.length + 4 * 5;
+        long directoryBytes = (nTiles + 1) * 8L * 2;
+        long locationBytes = (nEdgePairs + (long) nVertices) * 8;
+        long position = headerBytes + directoryBytes + locationBytes;
+        long[] edgeTileOffsets = new long[nTiles + 1];
+        for (int t = 0; t < nTiles; t++) {
+            edgeTileOffsets[t] = position;
+            position += 4;
+            for (int p : edgePairsByTile[t]) {
+                position += EDGE_PAIR_BYTES + edgeStore.geometries.get(p).length * 4L;
+            }
+        }
+        edgeTileOffsets[nTiles] = position;
+        long[] vertexTileOffsets = new long[nTiles + 1];
+        for (int t = 0; t < nTiles; t++) {
+            vertexTileOffsets[t] = position;
+            position += 4 + verticesByTile[t].length * (long) VERTEX_BYTES;
+        }
+        vertexTileOffsets[nTiles] = position;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(HEADER);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(nEdgePairs);
+            out.writeInt(nVertices);
+            out.writeInt(nTiles);
+            out.writeInt(nTiles);
+            for (long offset : edgeTileOffsets) out.writeLong(offset);
+            for (long offset : vertexTileOffsets) out.writeLong(offset);
+            writeLocations(out, tileForEdgePair, edgePairsByTile);
+            writeLocations(out, tileForVertex, verticesByTile);
+            for (int[] edgePairs : edgePairsByTile) {
+                out.writeInt(edgePairs.length);
+                for (int p : edgePairs) {
+                    out.writeInt(edgeStore.fromVertices.get(p));
+                    out.writeInt(edgeStore.toVertices.get(p));
+                    out.writeInt(edgeStore.lengths_mm.get(p));
+                    out.writeLong(edgeStore.osmids.get(p));
+                    out.writeByte(edgeStore.streetClasses.get(p));
+                    out.writeByte(edgeStore.inAngles.get(p));
+                    out.writeByte(edgeStore.outAngles.get(p));
+                    out.writeInt(edgeStore.flags.get(p * 2));
+                    out.writeInt(edgeStore.flags.get(p * 2 + 1));
+                    int[] geometry = edgeStore.geometries.get(p);
+                    out.writeInt(geometry.length);
+                    for (int coordinate : geometry) {
+                        out.writeInt(coordinate);
+                    }
+                }
+            }
+            for (int[] vertices : verticesByTile) {
+                out.writeInt(vertices.length);
+                for (int v : vertices) {
+                    out.writeInt(vertexStore.fixedLats.get(v));
+                    out.writeInt(vertexStore.fixedLons.get(v));
+                    out.writeByte(vertexStore.vertexFlags.get(v));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write street tile file " + file, e);
+        }
+        LOG.info("Done writing {} street tiles, {} bytes.", nTiles, position);
+    }
+
+    /** @return for each tile, the indexes of the elements it contains in ascending order. */
+    private static int[][] groupByTile (int[] tileForElement, int nTiles) {
+        int[] counts = new int[nTiles];
+        for (int tile : tileForElement) {
+            counts[tile] += 1;
+        }
+        int[][] elementsByTile = new int[nTiles][];
+        for (int t = 0; t < nTiles; t++) {
+            elementsByTile[t] = new int[counts[t]];
+        }
+        Arrays.fill(counts, 0);
+        for (int e = 0; e < tileForElement.length; e++) {
+            int tile = tileForElement[e];
+            elementsByTile[tile][counts[tile]++] = e;
+        }
+        return elementsByTile;
+    }
+
+    private static void writeLocations (DataOutputStream out, int[] tileForElement, int[][] elementsByTile)
+            throws IOException {
+        int[] offsetInTile = new int[tileForElement.length];
+        for (int[] elements : elementsByTile) {
+            for (int i = 0; i < elements.length; i++) {
+                offsetInTile[elements[i]] = i;
+            }
+        }
+        for (int e = 0; e < tileForElement.length; e++) {
+            out.writeLong(((long) tileForElement[e] << 32) | offsetInTile[e]);
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+package com.conveyal.r5.streets;
+
+import gnu.trove.TByteCollection;
+import gnu.trove.function.TByteFunction;
+import gnu.trove.iterator.TByteIterator;
+import gnu.trove.list.TByteList;
+import gnu.trove.procedure.TByteProcedure;
+
+import java.util.Collection;
+
+/**
+ * A read-only TByteList view of one column of a StreetTileStore. Every call to get() resolves the index through the
+ * store, which loads the tile containing that element if it is not already resident.
+ */
+public class TByteTiledList extends TiledList implements TByteList {
+
+    public TByteTiledList (StreetTileStore store, StreetTileStore.Column column) {
+        super(store, column);
+    }
+
+    @Override
+    public byte get (int index) {
+        checkIndex(index);
+        return store.getByte(column, index);
+    }
+
+    @Override
+    public byte set (int index, byte value) {
+        throw modificationNotAllowed();
+    }
+
+    @Override
+    public boolean add (byte val) {
+        throw extensionNotAllowed();
+    }
+
+    @Override
+    public TByteIterator iterator () {
+        return new TByteIterator() {
+            int pos = 0;
+
+            @Override
+            public byte next () {
+                return get(pos++);
+            }
+
+            @Override
+            public boolean hasNext () {
+                return pos < size;
+            }
+
+            @Override
+            public void remove () {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     *  Nominally implement the rest of the TByteList interface, beyond the methods in TiledList.
+     *  But all of these remain unimplemented until we need them.
+     */
+
+    @Override
+    public void set(int offset, byte[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void set(int offset, byte[] values, int valOffset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte replace(int offset, byte val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(TByteCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(byte[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Byte> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(TByteCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(byte[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(TByteCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(byte[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(TByteCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(byte[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte removeAt(int offset) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void transformValues(TByteFunction function) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TByteList subList(int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] toArray(int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] toArray(byte[] dest) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] toArray(byte[] dest, int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] toArray(byte[] dest, int source_pos, int dest_pos, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEach(TByteProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEachDescending(TByteProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(byte val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(int fromIndex, int toIndex, byte val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(byte value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(int offset, byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(int offset, byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TByteList grep(TByteProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TByteList inverseGrep(TByteProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte max() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte min() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte sum() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte getNoEntryValue() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(byte[] vals) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(byte[] vals, int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, byte[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, byte[] values, int valOffset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+}
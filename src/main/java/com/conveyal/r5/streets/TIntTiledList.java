@@ -0,0 +1,279 @@
+package com.conveyal.r5.streets;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.procedure.TIntProcedure;
+
+import java.util.Collection;
+
+/**
+ * A read-only TIntList view of one column of a StreetTileStore. Every call to get() resolves the index through the
+ * store, which loads the tile containing that element if it is not already resident.
+ */
+public class TIntTiledList extends TiledList implements TIntList {
+
+    public TIntTiledList (StreetTileStore store, StreetTileStore.Column column) {
+        super(store, column);
+    }
+
+    @Override
+    public int get (int index) {
+        checkIndex(index);
+        return store.getInt(column, index);
+    }
+
+    @Override
+    public int set (int index, int value) {
+        throw modificationNotAllowed();
+    }
+
+    @Override
+    public boolean add (int val) {
+        throw extensionNotAllowed();
+    }
+
+    @Override
+    public TIntIterator iterator () {
+        return new TIntIterator() {
+            int pos = 0;
+
+            @Override
+            public int next () {
+                return get(pos++);
+            }
+
+            @Override
+            public boolean hasNext () {
+                return pos < size;
+            }
+
+            @Override
+            public void remove () {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     *  Nominally implement the rest of the TIntList interface, beyond the methods in TiledList.
+     *  But all of these remain unimplemented until we need them.
+     */
+
+    @Override
+    public void set(int offset, int[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void set(int offset, int[] values, int valOffset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int replace(int offset, int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Integer> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(TIntCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(int[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int removeAt(int offset) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void transformValues(TIntFunction function) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList subList(int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int[] dest) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int[] dest, int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int[] toArray(int[] dest, int source_pos, int dest_pos, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEach(TIntProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEachDescending(TIntProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(int fromIndex, int toIndex, int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(int value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList grep(TIntProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList inverseGrep(TIntProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int max() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int min() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int sum() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getNoEntryValue() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(int[] vals) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(int[] vals, int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, int[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, int[] values, int valOffset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+}
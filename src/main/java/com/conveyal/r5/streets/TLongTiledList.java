@@ -0,0 +1,279 @@
+package com.conveyal.r5.streets;
+
+import gnu.trove.TLongCollection;
+import gnu.trove.function.TLongFunction;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.list.TLongList;
+import gnu.trove.procedure.TLongProcedure;
+
+import java.util.Collection;
+
+/**
+ * A read-only TLongList view of one column of a StreetTileStore. Every call to get() resolves the index through the
+ * store, which loads the tile containing that element if it is not already resident.
+ */
+public class TLongTiledList extends TiledList implements TLongList {
+
+    public TLongTiledList (StreetTileStore store, StreetTileStore.Column column) {
+        super(store, column);
+    }
+
+    @Override
+    public long get (int index) {
+        checkIndex(index);
+        return store.getLong(column, index);
+    }
+
+    @Override
+    public long set (int index, long value) {
+        throw modificationNotAllowed();
+    }
+
+    @Override
+    public boolean add (long val) {
+        throw extensionNotAllowed();
+    }
+
+    @Override
+    public TLongIterator iterator () {
+        return new TLongIterator() {
+            int pos = 0;
+
+            @Override
+            public long next () {
+                return get(pos++);
+            }
+
+            @Override
+            public boolean hasNext () {
+                return pos < size;
+            }
+
+            @Override
+            public void remove () {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     *  Nominally implement the rest of the TLongList interface, beyond the methods in TiledList.
+     *  But all of these remain unimplemented until we need them.
+     */
+
+    @Override
+    public void set(int offset, long[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void set(int offset, long[] values, int valOffset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long replace(int offset, long val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(TLongCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsAll(long[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Long> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(TLongCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(long[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(TLongCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(long[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(TLongCollection collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(long[] array) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long removeAt(int offset) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void transformValues(TLongFunction function) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TLongList subList(int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long[] toArray() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long[] toArray(int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long[] toArray(long[] dest) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long[] toArray(long[] dest, int offset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long[] toArray(long[] dest, int source_pos, int dest_pos, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEach(TLongProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean forEachDescending(TLongProcedure procedure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(long val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fill(int fromIndex, int toIndex, long val) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch(long value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf(int offset, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf(int offset, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TLongList grep(TLongProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TLongList inverseGrep(TLongProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long max() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long min() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long sum() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getNoEntryValue() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(long[] vals) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(long[] vals, int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, long[] values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(int offset, long[] values, int valOffset, int len) {
+        throw new UnsupportedOperationException();
+    }
+
+}
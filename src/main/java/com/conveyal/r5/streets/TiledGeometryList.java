@@ -0,0 +1,32 @@
+package com.conveyal.r5.streets;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+
+/**
+ * A read-only view of the intermediate edge geometries held in a StreetTileStore, standing in for the list of int
+ * arrays in EdgeStore.geometries. The arrays returned are shared with the resident tile and must not be modified.
+ * This must be serialized field by field rather than as a collection, which would write out every geometry.
+ */
+public class TiledGeometryList extends AbstractList<int[]> implements Serializable {
+
+    private final StreetTileStore store;
+
+    public TiledGeometryList (StreetTileStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public int[] get (int index) {
+        if (index < 0 || index >= store.nEdgePairs) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return store.getGeometry(index);
+    }
+
+    @Override
+    public int size () {
+        return store.nEdgePairs;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.conveyal.r5.streets;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * The parts shared by the read-only Trove list views of StreetTileStore columns (TIntTiledList etc.). Locating the
+ * tile holding each element, and loading and caching tiles, is done entirely by the StreetTileStore. Subclasses only
+ * add the methods of their Trove list interface whose signatures depend on the primitive element type.
+ * Like the extend-only lists in com.conveyal.r5.trove, these only implement the parts of the interface we use.
+ * They are serialized field by field with the network, so only a reference to the shared store is written.
+ */
+abstract class TiledList implements Serializable {
+
+    protected final StreetTileStore store;
+
+    protected final StreetTileStore.Column column;
+
+    protected final int size;
+
+    protected TiledList (StreetTileStore store, StreetTileStore.Column column) {
+        this.store = store;
+        this.column = column;
+        this.size = column.size(store);
+    }
+
+    protected void checkIndex (int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+    }
+
+    protected static RuntimeException modificationNotAllowed () {
+        return new RuntimeException("Modifying the base graph is not allowed.");
+    }
+
+    protected static RuntimeException extensionNotAllowed () {
+        return new RuntimeException("Tiled street storage cannot be extended, wrap it in an augmented list.");
+    }
+
+    public int size () {
+        return size;
+    }
+
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    /**
+     *  The methods below are common to all the (enormous) Trove list interfaces.
+     *  They remain unimplemented until we need them.
+     */
+
+    public void clear () {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean containsAll (Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean retainAll (Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean removeAll (Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void remove (int offset, int length) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void reverse () {
+        throw new UnsupportedOperationException();
+    }
+
+    public void reverse (int from, int to) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void shuffle (Random rand) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void sort () {
+        throw new UnsupportedOperationException();
+    }
+
+    public void sort (int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+}
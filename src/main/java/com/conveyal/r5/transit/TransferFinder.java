@@ -10,9 +10,14 @@ import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -116,42 +121,11 @@ public class TransferFinder {
         transitLayer.transfersForStop.addAll(
                 IntStream.range(firstStopToProcess, nStopsTotal).parallel().mapToObj(sourceStopIndex -> {
             stopCounter.increment();
-            // From each stop, run a street search looking for other transit stops.
-            int originStreetVertex = transitLayer.streetVertexForStop.get(sourceStopIndex);
-            if (originStreetVertex == -1) {
+            if (transitLayer.streetVertexForStop.get(sourceStopIndex) == -1) {
                 unconnectedCounter.increment();
-                // We must add an array to transfersForStop for every source stop to maintain the right length.
-                return EMPTY_INT_LIST;
-            }
-
-            StreetRouter streetRouter = new StreetRouter(streetLayer);
-            streetRouter.distanceLimitMeters = TRANSFER_DISTANCE_LIMIT_METERS;
-
-            streetRouter.setOrigin(originStreetVertex);
-            streetRouter.quantityToMinimize = RoutingVariable.DISTANCE_MILLIMETERS;
-
-            streetRouter.route();
-            TIntIntMap distancesToReachedStops = streetRouter.getReachedStops();
-            // Same-stop "transfers" are handled in the router and do not need to be materialized in our list of
-            // transfer distances. It's actually important to remove the source stop to handle certain cases with
-            // loop routes (see CTA Brown Line to Purple Line example in discussion on #763).
-            distancesToReachedStops.remove(sourceStopIndex);
-            retainClosestStopsOnPatterns(distancesToReachedStops);
-            // At this point we have the distances to all stops that are the closest one on some pattern.
-            // Make transfers to them, packed as pairs of (target stop index, distance).
-            TIntList packedTransfers = new TIntArrayList();
-            distancesToReachedStops.forEachEntry((targetStopIndex, distance) -> {
-                packedTransfers.add(targetStopIndex);
-                packedTransfers.add(distance);
-                return true;
-            });
-            // Record this list of transfers as leading out of the stop with index sourceStopIndex.
-            // Deduplicate empty lists.
-            if (packedTransfers.size() > 0) {
-                return packedTransfers;
-            } else {
-                return EMPTY_INT_LIST;
             }
+            // We must add an array to transfersForStop for every source stop to maintain the right length.
+            return findTransfersFromStop(sourceStopIndex);
         }).collect(Collectors.toList()));
         LOG.info("Done finding transfers. {} stops were not linked to the street network.", unconnectedCounter.getCount());
 
@@ -181,6 +155,77 @@ public class TransferFinder {
         }
     }
 
+    /**
+     * Find transfers for any new stops as in findTransfers(), then recompute the transfers out of all pre-existing
+     * stops within the given zone, replacing those copied from the base network. This is for use after a scenario has
+     * added or removed streets: if the zone contains every stop within the transfer distance limit of those streets,
+     * it contains both ends of every transfer whose walking path could have changed, so transfers out of all other
+     * stops remain valid. The list of transfers is copied on write to avoid perturbing the base network.
+     * @param rebuildZone the zone in FIXED-POINT DEGREES within which to recompute transfers.
+     * @return the number of pre-existing stops whose transfers were recomputed.
+     */
+    public int findTransfers (Geometry rebuildZone) {
+        int firstNewStop = transitLayer.transfersForStop.size();
+        findTransfers();
+        int[] stopsToRecompute = IntStream.range(0, firstNewStop).filter(stopIndex -> {
+            Point p = transitLayer.getJTSPointForStopFixed(stopIndex);
+            return p != null && rebuildZone.contains(p);
+        }).toArray();
+        if (stopsToRecompute.length == 0) {
+            return 0;
+        }
+        LOG.info("Recomputing transfers from {} existing stops near modified streets...", stopsToRecompute.length);
+        // The results of these searches replace the inverse transfers appended to these stops by findTransfers(),
+        // as the searches are performed on the modified street network and will also find any new stops.
+        List<TIntList> recomputedTransfers = Arrays.stream(stopsToRecompute).parallel()
+                .mapToObj(this::findTransfersFromStop)
+                .collect(Collectors.toList());
+        transitLayer.transfersForStop = new ArrayList<>(transitLayer.transfersForStop);
+        for (int i = 0; i < stopsToRecompute.length; i++) {
+            transitLayer.transfersForStop.set(stopsToRecompute[i], recomputedTransfers.get(i));
+        }
+        return stopsToRecompute.length;
+    }
+
+    /**
+     * Run a street search from the given stop looking for other transit stops.
+     * @return transfers out of the stop as packed pairs of (toStopIndex, distance), or an empty list if the stop is
+     *         not linked to the street network.
+     */
+    private TIntList findTransfersFromStop (int sourceStopIndex) {
+        int originStreetVertex = transitLayer.streetVertexForStop.get(sourceStopIndex);
+        if (originStreetVertex == -1) {
+            return EMPTY_INT_LIST;
+        }
+
+        StreetRouter streetRouter = new StreetRouter(streetLayer);
+        streetRouter.distanceLimitMeters = TRANSFER_DISTANCE_LIMIT_METERS;
+
+        streetRouter.setOrigin(originStreetVertex);
+        streetRouter.quantityToMinimize = RoutingVariable.DISTANCE_MILLIMETERS;
+
+        streetRouter.route();
+        TIntIntMap distancesToReachedStops = streetRouter.getReachedStops();
+        // Same-stop "transfers" are handled in the router and do not need to be materialized in our list of
+        // transfer distances. It's actually important to remove the source stop to handle certain cases with
+        // loop routes (see CTA Brown Line to Purple Line example in discussion on #763).
+        distancesToReachedStops.remove(sourceStopIndex);
+        retainClosestStopsOnPatterns(distancesToReachedStops);
+        // At this point we have the distances to all stops that are the closest one on some pattern.
+        // Make transfers to them, packed as pairs of (target stop index, distance).
+        TIntList packedTransfers = new TIntArrayList();
+        distancesToReachedStops.forEachEntry((targetStopIndex, distance) -> {
+            packedTransfers.add(targetStopIndex);
+            packedTransfers.add(distance);
+            return true;
+        });
+        // Deduplicate empty lists.
+        if (packedTransfers.size() > 0) {
+            return packedTransfers;
+        } else {
+            return EMPTY_INT_LIST;
+        }
+    }
 
     /**
      * Filters down a map of potential transfer target stops so that for each pattern, only the closest other stop is
@@ -101,6 +101,12 @@ public class TransitLayer implements Serializable, Cloneable {
 
     public List<TripPattern> tripPatterns = new ArrayList<>();
 
+    /**
+     * Shares identical per-stop arrays among the schedules of this layer, and those of all scenario copies of it.
+     * Not serialized: schedules already share arrays when serialized, and the pool is refilled after loading.
+     */
+    public transient TripTimesPool tripTimesPool = new TripTimesPool();
+
     /** Stores the relevant patterns and trips based on the transit modes and date in an analysis request. */
     public transient FilteredPatternCache filteredPatternCache = new FilteredPatternCache(this);
 
@@ -373,6 +379,7 @@ public class TransitLayer implements Serializable, Cloneable {
             Collection<Frequency> frequencies = gtfs.getFrequencies(trip.trip_id);
             TripSchedule tripSchedule = TripSchedule.create(trip, arrivals.toArray(), departures.toArray(), frequencies, stopSequences.toArray(), serviceCode);
             if (tripSchedule == null) continue;
+            tripTimesPool.intern(tripSchedule);
 
             tripPattern.addTrip(tripSchedule);
 
@@ -486,6 +493,13 @@ public class TransitLayer implements Serializable, Cloneable {
     public void rebuildTransientIndexes () {
         LOG.info("Rebuilding transient indices.");
 
+        // 0. Refill the pool of shared schedule arrays for a layer just loaded from disk, so scenarios can share them.
+        // Scenario copies share the pool of their base layer, and add the schedules they create to it separately.
+        if (tripTimesPool == null || tripTimesPool.isEmpty()) {
+            tripTimesPool = new TripTimesPool();
+            tripPatterns.forEach(tripTimesPool::intern);
+        }
+
         // 1. Which patterns pass through each stop?
         // We could store references to patterns rather than indexes.
         int nStops = stopIdForIndex.size();
@@ -22,10 +22,10 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -53,15 +53,13 @@ public class TransportNetwork implements Serializable {
     public TransitLayer transitLayer;
 
     /**
-     * This stores any number of lightweight scenario networks built upon the current base network.
-     * FIXME that sounds like a memory leak, should be a WeighingCache or at least size-limited.
-     * A single network cache at the top level could store base networks and scenarios since they all have globally
-     * unique IDs. A hierarchical cache does have the advantage of evicting all the scenarios with the associated
-     * base network, which keeps the references in the scenarios from holding on to the base network. But considering
-     * that we have never started evicting networks (other than for a "cache" of one element) this might be getting
-     * ahead of ourselves.
+     * This stores any number of lightweight scenario networks built upon the current base network. This is a
+     * hierarchical cache: the TransportNetworkCache weighs each base network together with its scenario networks
+     * against its memory budget, and evicting a base network evicts all the scenarios with it, which keeps the
+     * references in the scenarios from holding on to the base network. Scenario networks may be added concurrently by
+     * several threads.
      */
-    public transient Map<String, TransportNetwork> scenarios = new HashMap<>();
+    public transient Map<String, TransportNetwork> scenarios = new ConcurrentHashMap<>();
 
     /**
      * A grid point set that covers the full extent of this transport network.
@@ -93,11 +91,16 @@ public class TransportNetwork implements Serializable {
 
     /**
      * Build some simple derived index tables that are not serialized with the network.
-     * Distance tables and street spatial indexes are now serialized with the network.
+     * Distance tables are serialized with the network. For street layers whose edges are held in a tile file, the edge
+     * lists and spatial index are saved along with the tile store, since rebuilding them would read every tile.
      */
     public void rebuildTransientIndexes() {
-        streetLayer.buildEdgeLists();
-        streetLayer.indexStreets();
+        if (streetLayer.tileStore != null && !streetLayer.isScenarioCopy()) {
+            streetLayer.tileStore.restoreIndexes(streetLayer);
+        } else {
+            streetLayer.buildEdgeLists();
+            streetLayer.indexStreets();
+        }
         transitLayer.rebuildTransientIndexes();
     }
 
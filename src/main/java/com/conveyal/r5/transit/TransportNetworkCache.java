@@ -16,9 +16,13 @@ import com.conveyal.r5.common.JsonUtilities;
 import com.conveyal.r5.kryo.KryoNetworkSerializer;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.OSMCache;
+import com.conveyal.r5.streets.SharedLinkageFile;
 import com.conveyal.r5.streets.StreetLayer;
+import com.conveyal.r5.streets.StreetTileStore;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,34 +34,65 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import static com.conveyal.file.FileCategory.BUNDLES;
 import static com.conveyal.file.FileCategory.DATASOURCES;
+import static com.conveyal.r5.common.Util.human;
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * This holds one or more TransportNetworks keyed on unique strings.
  * Because (de)serialization is now much faster than building networks from scratch, built graphs are cached on the
  * local filesystem and on S3 for later re-use.
- * Currently this holds ONLY ONE base (non-scenario) network, and evicts that network when a new network is requested.
- * However there may be many scenario networks derived from that base network, which  are stored in the scenarios
- * field of the baseNetwork.
+ * Any number of base (non-scenario) networks are held in memory, up to a budget in bytes estimated from the number of
+ * edges, vertices, stops and scheduled stop times in each network. There may be many scenario networks derived from
+ * each base network, which are stored in the scenarios field of the baseNetwork and weighed along with it.
+ * Networks are loaded and scenarios applied concurrently, each thread blocking only on the network or scenario it
+ * requested. Networks in use by running tasks can be pinned so they are not evicted.
  */
 public class TransportNetworkCache implements Component {
 
     private static final Logger LOG = LoggerFactory.getLogger(TransportNetworkCache.class);
 
-    /** Cache size is currently limited to one, i.e. the worker holds on to only one network at a time. */
-    private static final int DEFAULT_CACHE_SIZE = 1;
+    /** By default, networks may use up to this fraction of the maximum heap size. */
+    private static final double DEFAULT_HEAP_FRACTION = 0.5;
+
+    // Rough estimates of the memory used by each element of a network, including the indexes, linkages and distance
+    // tables built for them. These only need to be accurate enough to decide how many networks fit in the budget.
+    private static final long BYTES_PER_EDGE = 120;
+    private static final long BYTES_PER_VERTEX = 40;
+    private static final long BYTES_PER_STOP = 4096;
+    private static final long BYTES_PER_STOP_TIME = 8;
 
     // TODO change all other caches from Guava to Caffeine caches. This one is already a Caffeine cache.
     private final LoadingCache<String, TransportNetwork> cache;
 
+    /** The memory budget for all networks in this cache, in kilobytes (the unit of the cache weights). */
+    private final long maxWeightKilobytes;
+
+    /**
+     * The number of running tasks using each network, by network ID. Pinned networks are given zero weight, which
+     * prevents Caffeine from evicting them. They are re-weighed when pinned and unpinned.
+     */
+    private final Map<String, Integer> pinCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Scenarios currently being applied, keyed on both network and scenario ID. Other threads requesting the same
+     * scenario wait for the first one to finish, without blocking requests for any other network or scenario.
+     */
+    private final Map<String, CompletableFuture<TransportNetwork>> scenariosInProgress = new ConcurrentHashMap<>();
+
     private final FileStorage fileStorage;
     private final GTFSCache gtfsCache;
     private final OSMCache osmCache;
@@ -68,19 +103,48 @@ public class TransportNetworkCache implements Component {
      */
     private final ScenarioCache scenarioCache = new ScenarioCache();
 
-    /** Create a transport network cache. If source bucket is null, will work offline. */
+    /**
+     * If not null, the base grid linkages and egress cost tables of loaded networks are held in memory-mapped files
+     * in this directory instead of on the heap. See shareBaseLinkages.
+     */
+    private volatile File sharedLinkageDirectory;
+
+    /**
+     * Create a transport network cache with a memory budget of DEFAULT_HEAP_FRACTION of the maximum heap size.
+     * If source bucket is null, will work offline.
+     */
     public TransportNetworkCache (FileStorage fileStorage, GTFSCache gtfsCache, OSMCache osmCache) {
+        this(fileStorage, gtfsCache, osmCache, (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION));
+    }
+
+    /** Create a transport network cache holding as many networks as fit in the given number of bytes. */
+    public TransportNetworkCache (FileStorage fileStorage, GTFSCache gtfsCache, OSMCache osmCache, long maxHeapBytes) {
         this.osmCache = osmCache;
         this.gtfsCache = gtfsCache;
-        this.cache = createCache(DEFAULT_CACHE_SIZE);
+        this.maxWeightKilobytes = Math.max(1, maxHeapBytes / 1024);
+        this.cache = createCache();
         this.fileStorage = fileStorage;
+        LOG.info("Transport networks may use up to {} of memory.", human(maxHeapBytes, "B"));
+    }
+
+    /**
+     * Hold the base grid linkages and egress cost tables of all networks loaded from now on in memory-mapped files in
+     * the given directory, rather than on the heap. When several worker JVMs on the same machine use the same
+     * directory, they all read a single copy of these tables from the operating system's page cache. Within one JVM,
+     * as when the backend runs its local workers as threads sharing this cache, this only moves the tables off the heap.
+     */
+    public void shareBaseLinkages (File directory) {
+        checkArgument(directory.isDirectory(), "Shared linkage directory does not exist: %s", directory);
+        this.sharedLinkageDirectory = directory;
+        LOG.info("Base linkages will be shared through memory-mapped files in {}.", directory);
     }
 
     /**
      * Find a transport network by ID, building or loading as needed from pre-existing OSM, GTFS, MapDB, or Kryo files.
      * This should never return null. If a TransportNetwork can't be built or loaded, an exception will be thrown.
+     * Only one thread loads any given network, and threads requesting other networks are not blocked while it does so.
      */
-    public synchronized @Nonnull
+    public @Nonnull
     TransportNetwork getNetwork (String networkId) throws TransportNetworkException {
         try {
             return cache.get(networkId);
@@ -113,38 +177,122 @@ public class TransportNetworkCache implements Component {
      * The problem is that then you resolve the scenario every time, even when the ID is enough to look up the already
      * built network. So we need to pass the whole task in here, so either the ID or full scenario are visible.
      *
-     * Thread safety notes: This entire method is synchronized so access by multiple threads will be sequential.
-     * The first thread will have a chance to build and store the requested scenario before any others see it.
-     * This means each new scenario will be applied one after the other. This is probably OK as long as building egress
-     * tables is already parallelized.
+     * Thread safety notes: The first thread to request a scenario applies it to the base network, and any other
+     * threads requesting the same scenario wait for it to finish before seeing the resulting network. Scenarios on
+     * the same or other base networks are applied concurrently. The scenario network is weighed along with its base
+     * network once it's stored.
      */
-    public synchronized TransportNetwork getNetworkForScenario (String networkId, String scenarioId) {
-        // If the networkId is different than previous calls, a new network will be loaded. Its transient nested map
-        // of scenarios will be empty at first. This ensures it's initialized if null.
-        // FIXME apparently this can't happen - the field is transient and initialized in TransportNetwork.
+    public TransportNetwork getNetworkForScenario (String networkId, String scenarioId) {
         TransportNetwork baseNetwork = this.getNetwork(networkId);
-        if (baseNetwork.scenarios == null) {
-            baseNetwork.scenarios = new HashMap<>();
+        TransportNetwork scenarioNetwork = baseNetwork.scenarios.get(scenarioId);
+        if (scenarioNetwork != null) {
+            LOG.debug("Reusing cached TransportNetwork for scenario {}.", scenarioId);
+            return scenarioNetwork;
+        }
+        String scenarioKey = getScenarioFilename(networkId, scenarioId);
+        CompletableFuture<TransportNetwork> future = new CompletableFuture<>();
+        CompletableFuture<TransportNetwork> inProgress = scenariosInProgress.putIfAbsent(scenarioKey, future);
+        if (inProgress != null) {
+            LOG.debug("Waiting for another thread to apply scenario {}.", scenarioId);
+            try {
+                return inProgress.join();
+            } catch (CompletionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw e;
+            }
         }
+        try {
+            // Another thread may have finished applying the scenario since we last checked.
+            scenarioNetwork = baseNetwork.scenarios.get(scenarioId);
+            if (scenarioNetwork == null) {
+                // The network for this scenario was not found in the cache. Create that scenario network and cache it.
+                LOG.debug("Applying scenario to base network...");
+                // Fetch the full scenario if an ID was specified.
+                Scenario scenario = resolveScenario(networkId, scenarioId);
+                // Apply any scenario modifications to the network before use, performing protective copies where
+                // necessary. We used to prepend a filter to the scenario, removing trips that are not running during
+                // the search time window. However, because we are caching transportNetworks with scenarios already
+                // applied to them, we can’t use the InactiveTripsFilter. The solution may be to cache linked point
+                // sets based on scenario ID but always apply scenarios every time.
+                scenarioNetwork = scenario.applyToTransportNetwork(baseNetwork);
+                LOG.debug("Done applying scenario. Caching the resulting network.");
+                baseNetwork.scenarios.put(scenario.id, scenarioNetwork);
+                reweigh(networkId);
+            }
+            future.complete(scenarioNetwork);
+            return scenarioNetwork;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            scenariosInProgress.remove(scenarioKey, future);
+        }
+    }
 
-        TransportNetwork scenarioNetwork =  baseNetwork.scenarios.get(scenarioId);
-        if (scenarioNetwork == null) {
-            // The network for this scenario was not found in the cache. Create that scenario network and cache it.
-            LOG.debug("Applying scenario to base network...");
-            // Fetch the full scenario if an ID was specified.
-            Scenario scenario = resolveScenario(networkId, scenarioId);
-            // Apply any scenario modifications to the network before use, performing protective copies where necessary.
-            // We used to prepend a filter to the scenario, removing trips that are not running during the search time window.
-            // However, because we are caching transportNetworks with scenarios already applied to them, we can’t use
-            // the InactiveTripsFilter. The solution may be to cache linked point sets based on scenario ID but always
-            // apply scenarios every time.
-            scenarioNetwork = scenario.applyToTransportNetwork(baseNetwork);
-            LOG.debug("Done applying scenario. Caching the resulting network.");
-            baseNetwork.scenarios.put(scenario.id, scenarioNetwork);
-        } else {
-            LOG.debug("Reusing cached TransportNetwork for scenario {}.", scenarioId);
+    /**
+     * Prevent the given network and its scenarios from being evicted until unpin is called the same number of times.
+     * Callers should pin a network before fetching it for a task and unpin it in a finally block when the task is
+     * done, so the network is not reloaded between tasks of a job or while a task is using it.
+     */
+    public void pin (String networkId) {
+        pinCounts.merge(networkId, 1, Integer::sum);
+        reweigh(networkId);
+    }
+
+    /** Release a pin placed by a previous call to pin, allowing the network to be evicted once no pins remain. */
+    public void unpin (String networkId) {
+        pinCounts.computeIfPresent(networkId, (id, count) -> count > 1 ? count - 1 : null);
+        reweigh(networkId);
+    }
+
+    /** Have Caffeine call the weigher on a network again, e.g. when it is pinned or its scenarios change. */
+    private void reweigh (String networkId) {
+        cache.asMap().computeIfPresent(networkId, (id, network) -> network);
+    }
+
+    /**
+     * The Caffeine weigher, giving the estimated size of a base network and all its scenario networks in kilobytes.
+     * Pinned networks weigh nothing, so they are never evicted. A network larger than the whole budget is given the
+     * weight of the budget, so it can still be held in the cache alone rather than being evicted as soon as it's
+     * loaded.
+     */
+    private int weigh (String networkId, TransportNetwork network) {
+        if (pinCounts.containsKey(networkId)) {
+            return 0;
+        }
+        long bytes = estimateBytes(network, null);
+        for (TransportNetwork scenarioNetwork : network.scenarios.values()) {
+            bytes += estimateBytes(scenarioNetwork, network);
+        }
+        return (int) Math.min(Math.max(1, bytes / 1024), Math.min(maxWeightKilobytes, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Estimate the memory used by a network. If a base network is supplied, only the elements the network adds to
+     * that base network are counted: scenario networks share all unmodified edges, stops and patterns with their base.
+     */
+    private static long estimateBytes (TransportNetwork network, TransportNetwork baseNetwork) {
+        long nEdges = network.streetLayer.edgeStore.nEdges();
+        long nVertices = network.streetLayer.vertexStore.getVertexCount();
+        long nStops = network.transitLayer.getStopCount();
+        Set<TripPattern> basePatterns = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (baseNetwork != null) {
+            nEdges -= baseNetwork.streetLayer.edgeStore.nEdges();
+            nVertices -= baseNetwork.streetLayer.vertexStore.getVertexCount();
+            nStops -= baseNetwork.transitLayer.getStopCount();
+            basePatterns.addAll(baseNetwork.transitLayer.tripPatterns);
+        }
+        long nStopTimes = 0;
+        for (TripPattern pattern : network.transitLayer.tripPatterns) {
+            if (basePatterns.contains(pattern)) continue;
+            for (TripSchedule schedule : pattern.tripSchedules) {
+                nStopTimes += schedule.arrivals.length;
+            }
         }
-        return scenarioNetwork;
+        return Math.max(0, nEdges) * BYTES_PER_EDGE
+                + Math.max(0, nVertices) * BYTES_PER_VERTEX
+                + Math.max(0, nStops) * BYTES_PER_STOP
+                + nStopTimes * BYTES_PER_STOP_TIME;
     }
 
     public static String getScenarioFilename (String networkId, String scenarioId) {
@@ -159,6 +307,13 @@ public class TransportNetworkCache implements Component {
         return new FileStorageKey(BUNDLES, getR5NetworkFilename(networkId));
     }
 
+    /** The street tile file must have the same category as the network file, so both end up in the same directory. */
+    private static FileStorageKey getStreetTileFileStorageKey (String networkId) {
+        return new FileStorageKey(BUNDLES, String.format(
+            "%s_%s.tiles", networkId, KryoNetworkSerializer.NETWORK_FORMAT_VERSION
+        ));
+    }
+
     /** @return the network configuration (AKA manifest) for the given network ID, or null if no config file exists. */
     private TransportNetworkConfig loadNetworkConfig (String networkId) {
         FileStorageKey configFileKey = new FileStorageKey(BUNDLES, getNetworkConfigFilename(networkId));
@@ -206,6 +361,17 @@ public class TransportNetworkCache implements Component {
         }
         network.rebuildLinkedGridPointSet(buildGridsForModes);
 
+        // Optionally move the street edges and vertices into a tile file next to the serialized network. This is done
+        // last, after everything that iterates over the whole street layer, since that would load every tile.
+        if (networkConfig != null && Boolean.TRUE.equals(networkConfig.tiledStreets)) {
+            FileStorageKey tileKey = getStreetTileFileStorageKey(networkId);
+            File tileFile = FileUtils.createScratchFile();
+            StreetTileStore.write(network.streetLayer, tileFile);
+            fileStorage.moveIntoStorage(tileKey, tileFile);
+            StreetTileStore.open(fileStorage.getFile(tileKey), StreetTileStore.DEFAULT_MAX_RESIDENT_TILES)
+                    .attach(network.streetLayer);
+        }
+
         // Cache the serialized network on the local filesystem and mirror it to any remote storage.
         try {
             File cacheLocation = FileUtils.createScratchFile();
@@ -355,9 +521,19 @@ public class TransportNetworkCache implements Component {
         return GTFSCache.cleanId(networkId) + ".json";
     }
 
-    private LoadingCache createCache(int size) {
+    private LoadingCache<String, TransportNetwork> createCache () {
         return Caffeine.newBuilder()
-                .maximumSize(size)
+                .maximumWeight(maxWeightKilobytes)
+                .weigher(this::weigh)
+                .removalListener((String networkId, TransportNetwork network, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        LOG.info("Evicted TransportNetwork {} and its scenarios to stay within memory budget.", networkId);
+                    }
+                    // Networks in use are pinned and not evicted, so nothing should read from the tile file after this.
+                    if (network != null && network.streetLayer.tileStore != null) {
+                        network.streetLayer.tileStore.close();
+                    }
+                })
                 .build(this::loadNetwork);
     }
 
@@ -365,8 +541,8 @@ public class TransportNetworkCache implements Component {
      * CacheLoader method, which should only be called by the LoadingCache.
      * Return the graph for the given unique identifier. Load pre-built serialized networks from local or remote
      * storage. If none is available for the given id, build the network from its inputs, fetching them from remote
-     * storage to local storage as needed. Note the cache size is currently hard-wired to 1, so series of calls with
-     * the same ID will return the same object, but calls with different IDs will cause it to be reloaded from files.
+     * storage to local storage as needed. Caffeine calls this at most once at a time for each network ID, but may
+     * load different networks concurrently.
      * This should always return a usable TransportNetwork not null, and should throw an exception whenever it can't.
      */
     private @Nonnull TransportNetwork loadNetwork(String networkId) throws TransportNetworkException {
@@ -375,18 +551,32 @@ public class TransportNetworkCache implements Component {
             networkId, KryoNetworkSerializer.NETWORK_FORMAT_VERSION
         );
         try {
+            TransportNetwork network;
             FileStorageKey r5Key = getR5NetworkFileStorageKey(networkId);
             if (fileStorage.exists(r5Key)) {
+                // Make sure any street tile file is present locally, next to the network file that refers to it.
+                FileStorageKey tileKey = getStreetTileFileStorageKey(networkId);
+                if (fileStorage.exists(tileKey)) {
+                    fileStorage.getFile(tileKey);
+                }
                 File networkFile = fileStorage.getFile(r5Key);
                 LOG.debug("Loading cached transport network at {}", networkFile);
-                return KryoNetworkSerializer.read(networkFile);
+                network = KryoNetworkSerializer.read(networkFile);
+                // The transient map of scenarios may not have been initialized by deserialization.
+                if (network.scenarios == null) {
+                    network.scenarios = new ConcurrentHashMap<>();
+                }
             } else {
                 LOG.debug(
                     "Cached transport network for ID {} with file format version {} was not found. Building from scratch.",
                     networkId, KryoNetworkSerializer.NETWORK_FORMAT_VERSION
                 );
-                return buildNetwork(networkId);
+                network = buildNetwork(networkId);
             }
+            if (sharedLinkageDirectory != null) {
+                SharedLinkageFile.attach(network, sharedLinkageDirectory);
+            }
+            return network;
         } catch (Exception e) {
             throw new TransportNetworkException("Exception occurred retrieving or building network.", e);
         }
@@ -406,6 +596,17 @@ public class TransportNetworkCache implements Component {
         return cache.asMap().keySet();
     }
 
+    /** Perform any pending evictions and weight updates now, rather than asynchronously. Used in tests. */
+    void cleanUp () {
+        cache.cleanUp();
+    }
+
+    /** @return the total weight in kilobytes of all networks held in the cache, after any pending updates. */
+    long getWeightedKilobytes () {
+        cache.cleanUp();
+        return cache.policy().eviction().get().weightedSize().getAsLong();
+    }
+
     public Set<String> getAppliedScenarios() {
         return cache.asMap().values().stream()
                 .filter(network -> network.scenarios != null)
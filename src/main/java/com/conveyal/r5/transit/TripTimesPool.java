@@ -0,0 +1,116 @@
+package com.conveyal.r5.transit;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplicates the per-stop arrays of TripSchedules (arrival and departure times, and stop sequence numbers), so
+ * that all schedules containing arrays with identical contents refer to a single shared instance.
+ * <p>
+ * There is a lot of identical data in these arrays. Most feeds have no dwell times, so the arrivals and departures of
+ * each trip are equal. All trips on a pattern usually have the same stop sequence numbers. Most importantly, one pool
+ * is shared by a base network and all the scenario networks derived from it (see TransitLayer.scenarioCopy). When
+ * analysts compare many variants of a scenario, the same modifications are applied again and again, and the
+ * schedules they produce can then be held in memory only once no matter how many scenario networks contain them.
+ * <p>
+ * Arrays become shared as soon as they're passed through this pool, so they must never be modified afterward. Any
+ * changes to a schedule must be made on new arrays, which is already how all modifications work.
+ * <p>
+ * The pool only holds weak references to the arrays, so it does not keep alive the schedules of scenarios that failed
+ * to apply or whose networks are no longer referenced. This is like Guava's Interners.newWeakInterner(), which can't
+ * be used directly because arrays are compared by identity rather than by contents.
+ */
+public class TripTimesPool {
+
+    /** Each entry is its own key, so that the map holds no strong references to the arrays. */
+    private final Map<WeakArray, WeakArray> arrays = new ConcurrentHashMap<>();
+
+    /** Entries whose arrays have been garbage collected, to be removed from the map on the next call to intern. */
+    private final ReferenceQueue<int[]> collected = new ReferenceQueue<>();
+
+    /**
+     * @return an array with the same contents as the supplied one, which is the supplied array itself if no equal
+     *         array has been seen before. Null is returned unchanged.
+     */
+    public int[] intern (int[] array) {
+        if (array == null) {
+            return null;
+        }
+        removeCollected();
+        WeakArray entry = new WeakArray(array, collected);
+        while (true) {
+            WeakArray existing = arrays.putIfAbsent(entry, entry);
+            if (existing == null) {
+                return array;
+            }
+            // The existing array may have been collected since it was found equal, in which case it no longer matches.
+            int[] existingArray = existing.get();
+            if (existingArray != null) {
+                return existingArray;
+            }
+        }
+    }
+
+    private void removeCollected () {
+        Reference<? extends int[]> reference;
+        while ((reference = collected.poll()) != null) {
+            arrays.remove(reference);
+        }
+    }
+
+    /** Replace the per-stop arrays of the given schedule with shared instances having the same contents. */
+    public void intern (TripSchedule schedule) {
+        schedule.arrivals = intern(schedule.arrivals);
+        schedule.departures = intern(schedule.departures);
+        schedule.stopSequences = intern(schedule.stopSequences);
+    }
+
+    /** Replace the per-stop arrays of all schedules on the given pattern with shared instances. */
+    public void intern (TripPattern pattern) {
+        for (TripSchedule schedule : pattern.tripSchedules) {
+            intern(schedule);
+        }
+    }
+
+    public boolean isEmpty () {
+        return arrays.isEmpty();
+    }
+
+    /**
+     * Compares arrays by their contents. The hash code is cached, as these arrays are often long and it must remain
+     * the same after the array is collected. Once collected, an entry is only equal to itself so it can be removed.
+     */
+    private static class WeakArray extends WeakReference<int[]> {
+
+        private final int hashCode;
+
+        WeakArray (int[] array, ReferenceQueue<int[]> queue) {
+            super(array, queue);
+            this.hashCode = Arrays.hashCode(array);
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof WeakArray) || ((WeakArray) other).hashCode != hashCode) {
+                return false;
+            }
+            int[] array = get();
+            int[] otherArray = ((WeakArray) other).get();
+            return array != null && otherArray != null && Arrays.equals(array, otherArray);
+        }
+
+        @Override
+        public int hashCode () {
+            return hashCode;
+        }
+
+    }
+
+}
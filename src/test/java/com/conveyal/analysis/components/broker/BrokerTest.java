@@ -0,0 +1,81 @@
+package com.conveyal.analysis.components.broker;
+
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.WorkerStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Check the number of tasks the broker hands to a worker polling for regional work.
+ */
+public class BrokerTest {
+
+    private static final String JOB_ID = "batch";
+
+    /** Before a worker reports its throughput the fixed batch size is used, then batches are sized to its speed. */
+    @Test
+    public void adaptiveBatchSizeIsBounded () {
+        Broker broker = new Broker(null, null, null, null);
+        Job job = newJob();
+        assertEquals(broker.MAX_TASKS_PER_WORKER, broker.batchSize(job, null));
+        assertEquals(broker.MAX_TASKS_PER_WORKER, broker.batchSize(job, Map.of()));
+        assertEquals(broker.MAX_TASKS_PER_WORKER, broker.batchSize(job, Map.of(JOB_ID, 0)));
+        // One task per minute would give less than one task in TARGET_BATCH_SECONDS.
+        assertEquals(broker.MIN_ADAPTIVE_TASKS_PER_WORKER, broker.batchSize(job, Map.of(JOB_ID, 1)));
+        assertEquals(30, broker.batchSize(job, Map.of(JOB_ID, 60)));
+        assertEquals(broker.MAX_ADAPTIVE_TASKS_PER_WORKER, broker.batchSize(job, Map.of(JOB_ID, 10_000)));
+        // Throughput on other jobs is not relevant.
+        assertEquals(broker.MAX_TASKS_PER_WORKER, broker.batchSize(job, Map.of("other", 10_000)));
+    }
+
+    /** Near the end of a pass, the remaining tasks are shared among all the workers active on the job. */
+    @Test
+    public void batchSizeIsCappedAtFairShare () {
+        Broker broker = new Broker(null, null, null, null);
+        Job job = newJob();
+        job.generateSomeTasksToDeliver(job.nTasksTotal - 10);
+        Map<String, Integer> fast = Map.of(JOB_ID, 10_000);
+        // With no workers cataloged, the polling worker is assumed to be the only one.
+        assertEquals(10, broker.batchSize(job, fast));
+        for (int w = 0; w < 3; w++) {
+            broker.recordWorkerObservation(newWorkerStatus("worker" + w, 600));
+        }
+        assertEquals(4, broker.batchSize(job, fast));
+        // Polling again must not count a worker twice.
+        broker.recordWorkerObservation(newWorkerStatus("worker0", 600));
+        assertEquals(4, broker.batchSize(job, fast));
+        // A worker that is no longer processing tasks on this job does not take a share.
+        broker.recordWorkerObservation(newWorkerStatus("worker2", 0));
+        assertEquals(5, broker.batchSize(job, fast));
+        // The fair share never drops below one task, and the adaptive size still applies when it is smaller.
+        job.generateSomeTasksToDeliver(9);
+        assertEquals(1, broker.batchSize(job, fast));
+        assertEquals(1, broker.batchSize(job, Map.of(JOB_ID, 1)));
+    }
+
+    private static Job newJob () {
+        RegionalTask task = new RegionalTask();
+        task.jobId = JOB_ID;
+        task.graphId = "graph";
+        task.workerVersion = "v1";
+        task.zoom = 9;
+        task.west = 1000;
+        task.north = 2000;
+        task.width = 20;
+        task.height = 20;
+        return new Job(task, new WorkerTags("group", "user", "region"));
+    }
+
+    private static WorkerStatus newWorkerStatus (String workerId, int tasksPerMinute) {
+        WorkerStatus status = new WorkerStatus();
+        status.workerId = workerId;
+        status.workerVersion = "v1";
+        status.networks.add("graph");
+        status.tasksPerMinuteByJobId = Map.of(JOB_ID, tasksPerMinute);
+        return status;
+    }
+
+}
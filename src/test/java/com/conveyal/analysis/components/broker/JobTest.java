@@ -0,0 +1,142 @@
+package com.conveyal.analysis.components.broker;
+
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static com.conveyal.analysis.components.broker.Job.ORIGIN_BLOCK_SIZE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check the order in which a regional job hands out its tasks, and when it hands them out again.
+ */
+public class JobTest {
+
+    /**
+     * Straggling tasks may be handed to a second worker once per pass, and a task that has completed must never be
+     * handed out again, whether speculatively or in a later delivery pass.
+     */
+    @Test
+    public void completedTasksAreNotRedelivered () {
+        Job job = newJob(20, 20);
+        assertEquals(job.nTasksTotal, job.generateSomeTasksToDeliver(job.nTasksTotal).size());
+        // Nothing is redelivered before any task has come back.
+        assertTrue(job.generateSpeculativeTasksToDeliver(job.nTasksTotal).isEmpty());
+        BitSet completed = new BitSet();
+        for (int t = 0; t < job.nTasksTotal; t += 2) {
+            complete(job, completed, t);
+        }
+        // Results came back right away, so the remaining tasks are not yet straggling.
+        assertTrue(job.generateSpeculativeTasksToDeliver(job.nTasksTotal).isEmpty());
+
+        job.creationTime -= 60_000;
+        BitSet speculative = new BitSet();
+        List<RegionalTask> firstBatch = job.generateSpeculativeTasksToDeliver(10);
+        assertEquals(10, firstBatch.size());
+        redeliver(firstBatch, completed, speculative);
+        // Complete half of the odd tasks, including some that were just redelivered and some that were not.
+        for (int t = 1; t < job.nTasksTotal / 2; t += 2) {
+            complete(job, completed, t);
+        }
+        // Those completions took a minute, so move well past the delay that this latency implies.
+        job.creationTime -= 60 * 60_000;
+        List<RegionalTask> tasks;
+        while (!(tasks = job.generateSpeculativeTasksToDeliver(10)).isEmpty()) {
+            redeliver(tasks, completed, speculative);
+        }
+        // Every incomplete task was redelivered exactly once.
+        speculative.or(completed);
+        assertEquals(job.nTasksTotal, speculative.cardinality());
+
+        // A new delivery pass only hands out the tasks that are still incomplete.
+        job.lastDeliveryTime = 0;
+        assertTrue(job.hasTasksToDeliver());
+        List<RegionalTask> secondPass = job.generateSomeTasksToDeliver(job.nTasksTotal);
+        assertEquals(job.nTasksTotal - completed.cardinality(), secondPass.size());
+        for (RegionalTask task : secondPass) {
+            assertFalse(completed.get(task.taskId));
+        }
+        for (RegionalTask task : secondPass) {
+            complete(job, completed, task.taskId);
+        }
+        assertTrue(job.isComplete());
+        assertTrue(job.generateSpeculativeTasksToDeliver(job.nTasksTotal).isEmpty());
+        assertFalse(job.hasTasksToDeliver());
+    }
+
+    /**
+     * Grid origins should all be delivered exactly once, block by block, with the blocks on coarser lattices first so
+     * that early results are spread over the whole region.
+     */
+    @Test
+    public void spatialTaskOrderIsCoarseToFine () {
+        int[][] sizes = { { 1, 1 }, { 20, 20 }, { 37, 5 }, { 64, 64 }, { 100, 30 } };
+        for (int[] size : sizes) {
+            int width = size[0], height = size[1];
+            Job job = newJob(width, height);
+            List<RegionalTask> tasks = job.generateSomeTasksToDeliver(job.nTasksTotal);
+            assertEquals(width * height, tasks.size());
+            BitSet delivered = new BitSet();
+            BitSet blocksVisited = new BitSet();
+            int widthBlocks = (width + ORIGIN_BLOCK_SIZE - 1) / ORIGIN_BLOCK_SIZE;
+            int heightBlocks = (height + ORIGIN_BLOCK_SIZE - 1) / ORIGIN_BLOCK_SIZE;
+            int previousBlock = -1;
+            int previousLevel = Integer.MAX_VALUE;
+            for (RegionalTask task : tasks) {
+                assertFalse(delivered.get(task.taskId));
+                delivered.set(task.taskId);
+                int blockX = task.taskId % width / ORIGIN_BLOCK_SIZE;
+                int blockY = task.taskId / width / ORIGIN_BLOCK_SIZE;
+                int block = blockY * widthBlocks + blockX;
+                if (block != previousBlock) {
+                    // All the origins in a block are delivered together.
+                    assertFalse(blocksVisited.get(block));
+                    blocksVisited.set(block);
+                    int level = latticeLevel(blockX, blockY);
+                    assertTrue(level <= previousLevel);
+                    previousBlock = block;
+                    previousLevel = level;
+                }
+            }
+            assertEquals(width * height, delivered.cardinality());
+            assertEquals(widthBlocks * heightBlocks, blocksVisited.cardinality());
+        }
+    }
+
+    /** The number of times both block coordinates can be halved, i.e. how coarse a lattice the block lies on. */
+    private static int latticeLevel (int blockX, int blockY) {
+        int bits = blockX | blockY;
+        return bits == 0 ? Integer.MAX_VALUE : Integer.numberOfTrailingZeros(bits);
+    }
+
+    private static void complete (Job job, BitSet completed, int taskId) {
+        assertTrue(job.markTaskCompleted(taskId));
+        completed.set(taskId);
+    }
+
+    private static void redeliver (List<RegionalTask> tasks, BitSet completed, BitSet speculative) {
+        for (RegionalTask task : tasks) {
+            assertFalse(completed.get(task.taskId));
+            assertFalse(speculative.get(task.taskId));
+            speculative.set(task.taskId);
+        }
+    }
+
+    static Job newJob (int width, int height) {
+        RegionalTask task = new RegionalTask();
+        task.jobId = "job";
+        task.graphId = "graph";
+        task.workerVersion = "v1";
+        task.zoom = 9;
+        task.west = 1000;
+        task.north = 2000;
+        task.width = width;
+        task.height = height;
+        return new Job(task, new WorkerTags("group", "user", "region"));
+    }
+
+}
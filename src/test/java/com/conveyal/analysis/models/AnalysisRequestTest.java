@@ -0,0 +1,32 @@
+package com.conveyal.analysis.models;
+
+import com.conveyal.analysis.UserPermissions;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.common.JsonUtilities;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import static com.conveyal.r5.profile.FrequencyOffsetSampling.LATIN_HYPERCUBE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AnalysisRequestTest {
+
+    /**
+     * Options chosen in the request must be copied into the task and survive its serialization to JSON, which is how
+     * tasks are sent to workers. The frequency offset sampling is only serialized when it's not the default.
+     */
+    @Test
+    public void testFrequencyOffsetSamplingIsSentToWorkers () throws Exception {
+        AnalysisRequest request = new AnalysisRequest();
+        request.bounds = Bounds.fromWgsEnvelope(new Envelope(-122.7, -122.6, 45.5, 45.6));
+        request.frequencyOffsetSampling = LATIN_HYPERCUBE;
+        RegionalTask task = new RegionalTask();
+        request.populateTaskParameters(task, new UserPermissions("test@example.com", false, "test"));
+        assertEquals(LATIN_HYPERCUBE, task.frequencyOffsetSampling);
+
+        String json = JsonUtilities.objectMapper.writeValueAsString(task);
+        RegionalTask received = JsonUtilities.objectMapper.readValue(json, RegionalTask.class);
+        assertEquals(LATIN_HYPERCUBE, received.frequencyOffsetSampling);
+    }
+
+}
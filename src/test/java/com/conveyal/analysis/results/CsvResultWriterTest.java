@@ -0,0 +1,212 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.file.LocalFileStorage;
+import com.conveyal.r5.analyst.FreeFormPointSet;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
+import com.csvreader.CsvWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static com.conveyal.file.FileCategory.RESULTS;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check that CSV results written through the queue and writer thread come out as they did when each result was
+ * written synchronously by the caller, and that failures and cancellation are handled without blocking the caller.
+ */
+public class CsvResultWriterTest {
+
+    /** More results than fit in the queue, so the caller is blocked at times and has to wait for the writer thread. */
+    private static final int N_RESULTS = 200;
+
+    @TempDir
+    public File directory;
+
+    private LocalFileStorage fileStorage;
+
+    @BeforeEach
+    public void setUp () {
+        fileStorage = new LocalFileStorage(new LocalFileStorage.Config() {
+            @Override
+            public String localCacheDirectory () {
+                return directory.getPath();
+            }
+            @Override
+            public int serverPort () {
+                return 7070;
+            }
+        });
+    }
+
+    /**
+     * Once decompressed, the stored file should be byte for byte what the synchronous writer produced before it was
+     * gzipped, including the order of the rows.
+     */
+    @Test
+    public void decompressedOutputMatchesSynchronousWriter () throws Exception {
+        TestCsvResultWriter writer = new TestCsvResultWriter(fileStorage);
+        for (int taskId = 0; taskId < N_RESULTS; taskId++) {
+            writer.writeOneWorkResult(result(taskId));
+        }
+        writer.finish();
+        byte[] actual;
+        File storedFile = fileStorage.getFile(new FileStorageKey(RESULTS, writer.fileName));
+        try (InputStream inputStream = new GZIPInputStream(new FileInputStream(storedFile))) {
+            actual = inputStream.readAllBytes();
+        }
+
+        // Write the same rows as the synchronous writer did, into an uncompressed buffer file.
+        File expectedFile = new File(directory, "expected.csv");
+        CsvWriter csvWriter = new CsvWriter(new BufferedWriter(new FileWriter(expectedFile)), ',');
+        csvWriter.writeRecord(TestCsvResultWriter.COLUMNS);
+        for (int taskId = 0; taskId < N_RESULTS; taskId++) {
+            for (String[] row : TestCsvResultWriter.rows(taskId)) {
+                csvWriter.writeRecord(row);
+            }
+        }
+        csvWriter.close();
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()), actual);
+    }
+
+    /** A failure on the writer thread is reported to the caller of a later write, and again when finishing. */
+    @Test
+    public void writerFailureIsRethrown () throws Exception {
+        TestCsvResultWriter writer = new TestCsvResultWriter(fileStorage);
+        writer.failingTaskId = 5;
+        for (int taskId = 0; taskId <= 5; taskId++) {
+            writer.writeOneWorkResult(result(taskId));
+        }
+        // Once the queue is full again, the failing result must have been taken from it, so the failure is seen.
+        boolean failureReported = false;
+        for (int taskId = 6; taskId < N_RESULTS && !failureReported; taskId++) {
+            try {
+                writer.writeOneWorkResult(result(taskId));
+            } catch (IllegalStateException e) {
+                assertNotNull(e.getCause());
+                failureReported = true;
+            }
+        }
+        assertTrue(failureReported);
+        assertThrows(IOException.class, writer::finish);
+        assertFalse(fileStorage.exists(new FileStorageKey(RESULTS, writer.fileName)));
+    }
+
+    /** Terminating the writer must release a caller blocked on the full queue, rather than leave it waiting forever. */
+    @Test
+    public void terminateReleasesBlockedCaller () throws Exception {
+        TestCsvResultWriter writer = new TestCsvResultWriter(fileStorage);
+        writer.blockWriting = new CountDownLatch(1);
+        List<Exception> callerExceptions = new ArrayList<>();
+        Thread caller = new Thread(() -> {
+            try {
+                for (int taskId = 0; taskId < N_RESULTS; taskId++) {
+                    writer.writeOneWorkResult(result(taskId));
+                }
+            } catch (Exception e) {
+                callerExceptions.add(e);
+            }
+        });
+        caller.start();
+        assertTrue(writer.writingStarted.await(10, TimeUnit.SECONDS));
+        // The writer thread is stuck on the first result, so the caller will soon be blocked on the full queue.
+        while (caller.getState() == Thread.State.RUNNABLE) {
+            Thread.sleep(10);
+        }
+        assertTimeoutPreemptively(Duration.ofSeconds(10), writer::terminate);
+        caller.join(10_000);
+        assertFalse(caller.isAlive());
+        assertTrue(callerExceptions.get(0) instanceof IllegalStateException);
+    }
+
+    private static RegionalWorkResult result (int taskId) {
+        RegionalTask task = new RegionalTask();
+        task.jobId = "csv";
+        task.taskId = taskId;
+        return new RegionalWorkResult(new RuntimeException("Not computed in tests."), task);
+    }
+
+    /** Writes a few rows derived from the task ID of each result, and can be made to fail or stall on demand. */
+    private static class TestCsvResultWriter extends CsvResultWriter {
+
+        static final String[] COLUMNS = { "origin", "row", "value" };
+
+        volatile int failingTaskId = -1;
+
+        volatile CountDownLatch blockWriting;
+
+        final CountDownLatch writingStarted = new CountDownLatch(1);
+
+        TestCsvResultWriter (LocalFileStorage fileStorage) throws IOException {
+            super(newTask(), fileStorage);
+        }
+
+        private static RegionalTask newTask () {
+            RegionalTask task = new RegionalTask();
+            task.jobId = "csv";
+            task.originPointSet = new FreeFormPointSet(new Coordinate(-83.0, 40.0));
+            return task;
+        }
+
+        static List<String[]> rows (int taskId) {
+            List<String[]> rows = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                rows.add(new String[] { "origin" + taskId, Integer.toString(r), Integer.toString(taskId * 1000 + r) });
+            }
+            return rows;
+        }
+
+        @Override
+        public CsvResultType resultType () {
+            return CsvResultType.TIMES;
+        }
+
+        @Override
+        protected String[] columnHeaders () {
+            return COLUMNS;
+        }
+
+        @Override
+        protected Iterable<String[]> rowValues (RegionalWorkResult workResult) {
+            writingStarted.countDown();
+            if (blockWriting != null) {
+                try {
+                    blockWriting.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return List.of();
+                }
+            }
+            if (workResult.taskId == failingTaskId) {
+                throw new RuntimeException("Failed to format rows.");
+            }
+            return rows(workResult.taskId);
+        }
+
+        @Override
+        protected void checkDimension (RegionalWorkResult workResult) { }
+    }
+
+}
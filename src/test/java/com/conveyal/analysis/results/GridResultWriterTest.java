@@ -0,0 +1,82 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import static com.conveyal.analysis.components.broker.Job.ORIGIN_BLOCK_SIZE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Check that partial results can be read back from an access grid buffer while a regional analysis is running.
+ */
+public class GridResultWriterTest {
+
+    private static final int WIDTH = 5 * ORIGIN_BLOCK_SIZE;
+    private static final int HEIGHT = 3 * ORIGIN_BLOCK_SIZE;
+
+    @Test
+    public void partialGridFillsMissingOriginsFromCoarserBlocks () throws IOException {
+        GridResultWriter writer = newWriter();
+        try {
+            // Receive results only for the origins in the first block, and one origin in the block to its right.
+            BitSet originsReceived = new BitSet();
+            for (int y = 0; y < ORIGIN_BLOCK_SIZE; y++) {
+                for (int x = 0; x < ORIGIN_BLOCK_SIZE; x++) {
+                    writeOrigin(writer, originsReceived, x, y);
+                }
+            }
+            writeOrigin(writer, originsReceived, ORIGIN_BLOCK_SIZE + 2, 3);
+
+            Grid grid = writer.readPartialGrid(1, originsReceived);
+            assertEquals(WIDTH, grid.extents.width);
+            assertEquals(HEIGHT, grid.extents.height);
+            assertEquals(valueAt(5, 6) + 1, grid.grid[5][6]);
+            assertEquals(valueAt(ORIGIN_BLOCK_SIZE + 2, 3) + 1, grid.grid[ORIGIN_BLOCK_SIZE + 2][3]);
+            // Origins not received take the value of the origin at the same position in the enclosing coarser block.
+            assertEquals(valueAt(1, 3) + 1, grid.grid[ORIGIN_BLOCK_SIZE + 1][3]);
+            assertEquals(valueAt(2, 3) + 1, grid.grid[3 * ORIGIN_BLOCK_SIZE + 2][2 * ORIGIN_BLOCK_SIZE + 3]);
+            assertEquals(valueAt(7, 7) + 1, grid.grid[WIDTH - 1][HEIGHT - 1]);
+            assertEquals(valueAt(4, 4), writer.readPartialGrid(0, originsReceived).grid[4][4]);
+        } finally {
+            writer.terminate();
+        }
+    }
+
+    /** A request for partial results racing with the end of the job should not fail on the closed buffer file. */
+    @Test
+    public void partialGridIsNotReadOnceClosed () throws IOException {
+        GridResultWriter writer = newWriter();
+        BitSet originsReceived = new BitSet();
+        writeOrigin(writer, originsReceived, 1, 2);
+        writer.terminate();
+        assertNull(writer.readPartialGrid(0, originsReceived));
+    }
+
+    private static GridResultWriter newWriter () {
+        RegionalTask task = new RegionalTask();
+        task.jobId = "partial";
+        task.zoom = 9;
+        task.west = 1000;
+        task.north = 2000;
+        task.width = WIDTH;
+        task.height = HEIGHT;
+        task.cutoffsMinutes = new int[] { 30, 60 };
+        return new GridResultWriter(task, null);
+    }
+
+    private static void writeOrigin (GridResultWriter writer, BitSet originsReceived, int x, int y) throws IOException {
+        int taskNumber = y * WIDTH + x;
+        writer.writeOneOrigin(taskNumber, new int[] { valueAt(x, y), valueAt(x, y) + 1 });
+        originsReceived.set(taskNumber);
+    }
+
+    private static int valueAt (int x, int y) {
+        return x * 100 + y;
+    }
+
+}
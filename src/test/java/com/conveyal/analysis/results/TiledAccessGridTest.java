@@ -0,0 +1,100 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.analysis.SelectingGridReducer;
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.LittleEndianIntOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Check that tiled access grids yield the same values as scanning the original access grid format.
+ */
+public class TiledAccessGridTest {
+
+    private static final int ZOOM = 9;
+    private static final int WEST = 1000;
+    private static final int NORTH = 2000;
+    // Not multiples of the tile size, to exercise the partial tiles at the east and south edges.
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 90;
+    private static final int CHANNELS = 3;
+
+    @Test
+    public void tiledGridMatchesAccessGrid () throws IOException {
+        File accessGridFile = File.createTempFile("access", ".access");
+        File gzippedAccessGridFile = File.createTempFile("access", ".access.gz");
+        File tiledFile = File.createTempFile("access", ".accesstiles");
+        try {
+            writeAccessGrid(accessGridFile, false);
+            writeAccessGrid(gzippedAccessGridFile, true);
+            TiledAccessGrid.write(accessGridFile, tiledFile);
+            try (TiledAccessGrid tiledAccessGrid = new TiledAccessGrid(tiledFile)) {
+                assertEquals(CHANNELS, tiledAccessGrid.channels);
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    Grid expected = new SelectingGridReducer(channel).compute(new FileInputStream(gzippedAccessGridFile));
+                    Grid actual = tiledAccessGrid.readGrid(channel);
+                    assertEquals(expected.extents, actual.extents);
+                    for (int x = 0; x < WIDTH; x++) {
+                        assertArrayEquals(expected.grid[x], actual.grid[x]);
+                    }
+
+                    // Read an area straddling tile boundaries and extending past the southeast corner of the grid.
+                    Grid area = tiledAccessGrid.readGrid(channel, WEST + 50, NORTH + 60, 200, 200);
+                    assertEquals(WEST + 50, area.extents.west);
+                    assertEquals(NORTH + 60, area.extents.north);
+                    assertEquals(WIDTH - 50, area.extents.width);
+                    assertEquals(HEIGHT - 60, area.extents.height);
+                    for (int x = 0; x < area.extents.width; x++) {
+                        for (int y = 0; y < area.extents.height; y++) {
+                            assertEquals(expected.grid[x + 50][y + 60], area.grid[x][y]);
+                        }
+                    }
+                }
+            }
+        } finally {
+            accessGridFile.delete();
+            gzippedAccessGridFile.delete();
+            tiledFile.delete();
+        }
+    }
+
+    /**
+     * Write an access grid of increasing values per origin, as accumulated by GridResultWriter. The random values
+     * are seeded, so every file written contains the same values.
+     */
+    private static void writeAccessGrid (File file, boolean gzip) throws IOException {
+        Random random = new Random(42);
+        BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
+        LittleEndianIntOutputStream data = new LittleEndianIntOutputStream(
+                gzip ? new GZIPOutputStream(outputStream) : outputStream
+        );
+        data.writeAscii("ACCESSGR");
+        data.writeInt(0);
+        data.writeInt(ZOOM);
+        data.writeInt(WEST);
+        data.writeInt(NORTH);
+        data.writeInt(WIDTH);
+        data.writeInt(HEIGHT);
+        data.writeInt(CHANNELS);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int c = 0; c < CHANNELS; c++) {
+                    // Values are delta-coded across the channels of each origin.
+                    data.writeInt(random.nextInt(1000));
+                }
+            }
+        }
+        data.close();
+    }
+
+}
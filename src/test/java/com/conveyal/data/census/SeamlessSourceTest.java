@@ -0,0 +1,86 @@
+package com.conveyal.data.census;
+
+import com.conveyal.data.geobuf.GeobufFeature;
+import com.conveyal.r5.analyst.progress.NoopProgressListener;
+import com.google.common.io.Files;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Extracts from seamless tiles on the local filesystem should contain each feature intersecting the bounds exactly
+ * once, whether the feature is duplicated across tiles, lies in a tile entirely inside the bounds, or only touches
+ * the bounds' envelope.
+ */
+public class SeamlessSourceTest {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    @Test
+    public void testExtractFromFileTiles () throws Exception {
+        // Small squares spread across about three by three zoom 11 tiles, many of them straddling tile edges.
+        List<GeobufFeature> features = new ArrayList<>();
+        ShapeDataStore store = new ShapeDataStore();
+        long id = 1;
+        for (double lon = -77.35; lon < -76.85; lon += 0.0137) {
+            for (double lat = 38.75; lat < 39.15; lat += 0.0137) {
+                GeobufFeature feature = new GeobufFeature();
+                feature.geometry = geometryFactory.toGeometry(new Envelope(lon, lon + 0.004, lat, lat + 0.004));
+                feature.numericId = id++;
+                feature.properties = new HashMap<>();
+                feature.properties.put("jobs", feature.numericId);
+                store.add(feature);
+                features.add(feature);
+            }
+        }
+        File dir = Files.createTempDir();
+        store.writeTiles(dir);
+        store.close();
+        SeamlessSource source = new FileSeamlessSource(dir.getAbsolutePath());
+
+        // A triangle, so that some tiles are entirely inside, some partly inside, and some outside but within its
+        // envelope.
+        Geometry triangle = geometryFactory.createPolygon(new Coordinate[] {
+                new Coordinate(-77.34, 38.76), new Coordinate(-76.86, 38.77),
+                new Coordinate(-77.30, 39.14), new Coordinate(-77.34, 38.76)
+        });
+        Geometry rectangle = geometryFactory.toGeometry(new Envelope(-77.2, -76.9, 38.8, 39.1));
+
+        for (Geometry bounds : new Geometry[] {triangle, rectangle}) {
+            for (boolean onDisk : new boolean[] {false, true}) {
+                Map<Long, GeobufFeature> extracted = source.extract(bounds, onDisk, new NoopProgressListener());
+                Set<Long> expected = new HashSet<>();
+                for (GeobufFeature feature : features) {
+                    if (bounds.intersects(feature.geometry)) expected.add(feature.numericId);
+                }
+                assertTrue(expected.size() > 100);
+                assertTrue(expected.size() < features.size());
+                assertEquals(expected, extracted.keySet());
+                for (GeobufFeature feature : extracted.values()) {
+                    assertEquals(feature.numericId, ((Number) feature.properties.get("jobs")).longValue());
+                }
+                // The test area spans fewer tiles than a default batch, so also merge across several small batches.
+                for (int tilesPerBatch : new int[] {1, 2, 5}) {
+                    Map<Long, GeobufFeature> batched =
+                            source.extract(bounds, onDisk, new NoopProgressListener(), tilesPerBatch);
+                    assertEquals(expected, batched.keySet());
+                }
+            }
+        }
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.conveyal.osmlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompactWayMapTest {
+
+    /** Ways should survive a round trip through the compact encoding, and be iterated in ascending ID order. */
+    @Test
+    public void testRoundTrip () {
+        CompactWayMap map = new CompactWayMap();
+        List<Way> originals = new ArrayList<>();
+        for (int w = 0; w < 100; w++) {
+            Way way = new Way();
+            // Include node IDs above 2^32 and negative deltas between consecutive nodes.
+            way.nodes = new long[] { (1L << 34) + w * 10, 5 + w, (1L << 34) + w * 10 + 1, 0 };
+            way.addTag("highway", w % 2 == 0 ? "residential" : "primary");
+            way.addTag("name", "Street " + w);
+            originals.add(way);
+            // Insert in descending order to check ordered iteration.
+            map.put(99L - w, way);
+        }
+        Way untagged = new Way();
+        untagged.nodes = new long[] { 1, 2, 3 };
+        map.put(1000L, untagged);
+
+        assertEquals(101, map.size());
+        for (int w = 0; w < 100; w++) {
+            assertEquals(originals.get(w), map.get(99L - w));
+        }
+        assertEquals(untagged, map.get(1000L));
+        assertTrue(map.get(1000L).hasNoTags());
+        assertNull(map.get(2000L));
+
+        // Tag strings are interned across ways.
+        assertSame(map.get(0L).getTag("highway"), map.get(2L).getTag("highway"));
+
+        long previousId = -1;
+        for (Map.Entry<Long, Way> entry : map.entrySet()) {
+            assertTrue(entry.getKey() > previousId);
+            previousId = entry.getKey();
+        }
+
+        map.remove(1000L);
+        assertEquals(100, map.size());
+        assertNull(map.get(1000L));
+    }
+
+    /**
+     * Loading the same PBF file into memory and into a MapDB file should give the same ways in the same order, and
+     * the same intersection nodes. The intersections are also checked against nodes counted from the MapDB ways.
+     */
+    @Test
+    public void testMatchesMapDb () {
+        OSM mapDb = new OSM(null);
+        mapDb.intersectionDetection = true;
+        mapDb.readFromFile(RoundTripTest.TEST_FILE);
+        OSM inMemory = new OSM("__MEMORY__");
+        inMemory.intersectionDetection = true;
+        inMemory.readFromFile(RoundTripTest.TEST_FILE);
+        assertTrue(inMemory.ways instanceof CompactWayMap);
+        assertTrue(mapDb.ways.size() > 1000);
+        assertEquals(mapDb.ways.size(), inMemory.ways.size());
+
+        Set<Long> referencedNodes = new HashSet<>();
+        Set<Long> intersectionNodes = new HashSet<>();
+        Iterator<Map.Entry<Long, Way>> inMemoryWays = inMemory.ways.entrySet().iterator();
+        for (Map.Entry<Long, Way> expected : mapDb.ways.entrySet()) {
+            Map.Entry<Long, Way> actual = inMemoryWays.next();
+            assertEquals(expected.getKey(), actual.getKey());
+            assertEquals(expected.getValue(), actual.getValue());
+            assertEquals(expected.getValue(), inMemory.ways.get(expected.getKey()));
+            if (expected.getValue().hasTag("building")) continue;
+            for (long nodeId : expected.getValue().nodes) {
+                if (!referencedNodes.add(nodeId)) intersectionNodes.add(nodeId);
+            }
+        }
+        assertFalse(inMemoryWays.hasNext());
+
+        assertEquals(intersectionNodes.size(), mapDb.intersectionNodes.cardinality());
+        assertEquals(intersectionNodes.size(), inMemory.intersectionNodes.cardinality());
+        for (long nodeId : referencedNodes) {
+            assertEquals(intersectionNodes.contains(nodeId), mapDb.intersectionNodes.contains(nodeId));
+            assertEquals(intersectionNodes.contains(nodeId), inMemory.intersectionNodes.contains(nodeId));
+        }
+        mapDb.close();
+        inMemory.close();
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.analyst.Grid.PixelWeight;
+import com.conveyal.r5.util.ShapefileReader;
+import com.google.common.io.Resources;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The scanline rasterizer should give the same pixel weights as Grid.getPixelWeights, which intersects the polygon
+ * with the geometry of every pixel it touches.
+ */
+public class PolygonRasterizerTest {
+
+    private static final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private static final double TOLERANCE = 1e-7;
+
+    @Test
+    public void testShapefilePolygons () throws Exception {
+        File shapefile = new File(Resources.getResource(Grid.class, "pdx-three-overlapping.shp").toURI());
+        ShapefileReader reader = new ShapefileReader(shapefile);
+        Grid grid = new Grid(WebMercatorExtents.forBufferedWgsEnvelope(reader.wgs84Bounds(), 9));
+        List<SimpleFeature> features = reader.wgs84Stream().collect(Collectors.toList());
+        reader.close();
+        for (SimpleFeature feature : features) {
+            assertSameWeights(grid, (Geometry) feature.getDefaultGeometry());
+        }
+    }
+
+    @Test
+    public void testHolesAndMultiPolygons () {
+        // Rings are given in both orientations, and the polygons cross the edges of the grid.
+        Polygon outer = polygon(
+                ring(-122.70, 45.45, -122.70, 45.58, -122.52, 45.60, -122.61, 45.52, -122.50, 45.44),
+                ring(-122.66, 45.50, -122.62, 45.49, -122.64, 45.54)
+        );
+        Polygon other = polygon(ring(-122.48, 45.40, -122.30, 45.41, -122.31, 45.55, -122.49, 45.54));
+        Grid grid = new Grid(9, outer.getEnvelopeInternal());
+        Grid smallerGrid = new Grid(grid.extents.west + 2, grid.extents.north + 1, 3, 3, 9);
+        for (Grid g : new Grid[] {grid, smallerGrid}) {
+            assertSameWeights(g, outer);
+            assertSameWeights(g, other);
+            assertSameWeights(g, geometryFactory.createMultiPolygon(new Polygon[] {outer, other}));
+        }
+    }
+
+    private static void assertSameWeights (Grid grid, Geometry geometry) {
+        for (boolean relativeToPixels : new boolean[] {true, false}) {
+            Map<Long, Double> expected = byPixel(grid.getPixelWeights(geometry, relativeToPixels));
+            Map<Long, Double> actual = byPixel(
+                    PolygonRasterizer.getPixelWeights(geometry, grid.extents, relativeToPixels)
+            );
+            // Pixels merely touched by the polygon may be present in only one of the lists, with negligible weight.
+            for (Long pixel : expected.keySet()) {
+                assertEquals(expected.get(pixel), actual.getOrDefault(pixel, 0d), TOLERANCE);
+            }
+            for (Long pixel : actual.keySet()) {
+                assertEquals(expected.getOrDefault(pixel, 0d), actual.get(pixel), TOLERANCE);
+            }
+            if (!relativeToPixels) {
+                double total = actual.values().stream().mapToDouble(Double::doubleValue).sum();
+                assertTrue(total <= 1 + TOLERANCE);
+            }
+        }
+    }
+
+    private static Map<Long, Double> byPixel (List<PixelWeight> weights) {
+        Map<Long, Double> byPixel = new HashMap<>();
+        for (PixelWeight weight : weights) {
+            Double previous = byPixel.put(((long) weight.x << 32) | weight.y, weight.weight);
+            assertEquals(null, previous, "Pixel weighted more than once.");
+        }
+        return byPixel;
+    }
+
+    private static Polygon polygon (LinearRing shell, LinearRing... holes) {
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
+    /** Make a closed ring from alternating longitudes and latitudes of its distinct vertices. */
+    private static LinearRing ring (double... lonLats) {
+        Coordinate[] coordinates = new Coordinate[lonLats.length / 2 + 1];
+        for (int i = 0; i < lonLats.length / 2; i++) {
+            coordinates[i] = new Coordinate(lonLats[i * 2], lonLats[i * 2 + 1]);
+        }
+        coordinates[coordinates.length - 1] = coordinates[0];
+        return geometryFactory.createLinearRing(coordinates);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class TemporalDensityResultTest {
+
+    private static final int WIDTH = 60;
+    private static final int HEIGHT = 50;
+
+    /**
+     * Accumulating targets a tile at a time should give exactly the histograms found by adding each target's
+     * opportunities as it is recorded, including for targets in a final partial tile.
+     */
+    @Test
+    public void testSameHistogramsAsOneTargetAtATime () {
+        Random random = new Random(1234);
+        Grid[] grids = new Grid[3];
+        for (int d = 0; d < grids.length; d++) {
+            grids[d] = new Grid(1000, 2000, WIDTH, HEIGHT, 9);
+            for (double[] column : grids[d].grid) {
+                for (int y = 0; y < HEIGHT; y++) {
+                    column[y] = random.nextInt(4) == 0 ? 0 : random.nextDouble() * 100;
+                }
+            }
+        }
+        RegionalTask task = new RegionalTask();
+        task.destinationPointSets = grids;
+        task.percentiles = new int[] {5, 25, 50, 75, 95};
+        TemporalDensityResult result = new TemporalDensityResult(task);
+
+        double[][][] expected = new double[grids.length][task.percentiles.length][120];
+        for (int target = 0; target < WIDTH * HEIGHT; target++) {
+            // Sorted travel times, reaching beyond the two-hour histogram and sometimes unreached.
+            int[] travelTimePercentilesSeconds = new int[task.percentiles.length];
+            for (int p = 0; p < travelTimePercentilesSeconds.length; p++) {
+                travelTimePercentilesSeconds[p] = random.nextInt(8000);
+            }
+            Arrays.sort(travelTimePercentilesSeconds);
+            int nUnreached = random.nextInt(10);
+            for (int p = travelTimePercentilesSeconds.length - 1; p >= 0 && nUnreached > 0; p--, nUnreached--) {
+                travelTimePercentilesSeconds[p] = UNREACHED;
+            }
+            for (int d = 0; d < grids.length; d++) {
+                for (int p = 0; p < travelTimePercentilesSeconds.length; p++) {
+                    int m = travelTimePercentilesSeconds[p] / 60;
+                    if (travelTimePercentilesSeconds[p] != UNREACHED && m < 120) {
+                        expected[d][p][m] += grids[d].getOpportunityCount(target);
+                    }
+                }
+            }
+            result.recordOneTarget(target, travelTimePercentilesSeconds);
+        }
+        result.finish();
+        for (int d = 0; d < grids.length; d++) {
+            for (int p = 0; p < task.percentiles.length; p++) {
+                assertArrayEquals(expected[d][p], result.opportunitiesPerMinute[d][p]);
+            }
+        }
+    }
+
+}
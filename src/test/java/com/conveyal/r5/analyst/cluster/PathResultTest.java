@@ -0,0 +1,132 @@
+package com.conveyal.r5.analyst.cluster;
+
+import com.conveyal.r5.analyst.PointSet;
+import com.conveyal.r5.analyst.StreetTimesAndModes.StreetTimeAndMode;
+import com.conveyal.r5.analyst.WebMercatorExtents;
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.transit.TripPattern;
+import com.conveyal.r5.transit.path.PatternSequence;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PathResultTest {
+
+    /**
+     * Paths recorded compactly for a regional task should be summarized exactly as they were when every iteration was
+     * retained, for both statistics. Wait times are drawn from a few values so that several iterations tie for the
+     * minimum, and some paths reach their destination without transit.
+     */
+    @Test
+    public void testCompactSummaryMatchesIterations () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        gridLayout.addHorizontalRoute(10, 20);
+        gridLayout.addHorizontalRoute(30, 20);
+        gridLayout.addVerticalRoute(20, 20);
+        TransportNetwork network = gridLayout.generateNetwork();
+        AnalysisWorkerTask task = newTask(gridLayout);
+        int nDestinations = task.nTargetsPerOrigin();
+
+        PathResult compact = new PathResult(task, network.transitLayer);
+        PathResult full = new PathResult(task, network.transitLayer, false);
+        Random random = new Random(42);
+        int nRecorded = 0;
+        for (int d = 0; d < nDestinations; d++) {
+            // Leave some destinations without any paths.
+            if (random.nextInt(4) == 0) continue;
+            Multimap<PatternSequence, PathResult.Iteration> patterns = randomPaths(network, random);
+            compact.setTarget(d, patterns);
+            full.setTarget(d, patterns);
+            nRecorded++;
+        }
+        assertTrue(nRecorded > 0);
+
+        for (PathResult.Stat stat : PathResult.Stat.values()) {
+            ArrayList<String[]>[] expected = full.summarizeIterations(stat);
+            ArrayList<String[]>[] actual = compact.summarizeIterations(stat);
+            assertEquals(nDestinations, actual.length);
+            for (int d = 0; d < nDestinations; d++) {
+                assertEquals(expected[d].size(), actual[d].size());
+                for (int r = 0; r < expected[d].size(); r++) {
+                    assertArrayEquals(expected[d].get(r), actual[d].get(r));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDestinationLimit () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        gridLayout.addHorizontalRoute(20, 20);
+        TransportNetwork network = gridLayout.generateNetwork();
+        AnalysisWorkerTask task = newTask(gridLayout);
+        int maxDestinations = PathResult.maxDestinations;
+        try {
+            PathResult.maxDestinations = task.nTargetsPerOrigin() - 1;
+            assertThrows(UnsupportedOperationException.class, () -> new PathResult(task, network.transitLayer));
+        } finally {
+            PathResult.maxDestinations = maxDestinations;
+        }
+    }
+
+    private static AnalysisWorkerTask newTask (GridLayout gridLayout) {
+        AnalysisWorkerTask task = gridLayout.newTaskBuilder().weekdayMorningPeak().setOrigin(20, 20).build();
+        task.includePathResults = true;
+        task.destinationPointSets = new PointSet[] {
+                new WebMercatorGridPointSet(WebMercatorExtents.forTask(task))
+        };
+        return task;
+    }
+
+    /** A few path templates to one destination, each with several iterations as TravelTimeReducer records them. */
+    private static Multimap<PatternSequence, PathResult.Iteration> randomPaths (TransportNetwork network, Random random) {
+        Multimap<PatternSequence, PathResult.Iteration> patterns = HashMultimap.create();
+        int nTemplates = 1 + random.nextInt(3);
+        for (int t = 0; t < nTemplates; t++) {
+            int nIterations = 1 + random.nextInt(6);
+            if (random.nextInt(5) == 0) {
+                PatternSequence direct = new PatternSequence(null, null, null, null);
+                int totalTime = 600 + random.nextInt(1200);
+                for (int i = 0; i < nIterations; i++) {
+                    patterns.put(direct, new PathResult.Iteration(totalTime));
+                }
+                continue;
+            }
+            int patternIndex = random.nextInt(network.transitLayer.tripPatterns.size());
+            TripPattern pattern = network.transitLayer.tripPatterns.get(patternIndex);
+            int alight = 1 + random.nextInt(pattern.stops.length - 1);
+            int rideTime = alight * 120;
+            PatternSequence transit = new PatternSequence(
+                    TIntArrayList.wrap(new int[] { patternIndex }),
+                    TIntArrayList.wrap(new int[] { pattern.stops[0] }),
+                    TIntArrayList.wrap(new int[] { pattern.stops[alight] }),
+                    TIntArrayList.wrap(new int[] { rideTime })
+            );
+            transit.stopSequence.access = new StreetTimeAndMode(60 + random.nextInt(300), StreetMode.WALK);
+            transit.stopSequence.egress = new StreetTimeAndMode(60 + random.nextInt(300), StreetMode.WALK);
+            for (int i = 0; i < nIterations; i++) {
+                int waitTime = random.nextInt(4) * 150;
+                int totalTime = transit.stopSequence.access.time + transit.stopSequence.egress.time + rideTime
+                        + waitTime + random.nextInt(120);
+                PathResult.Iteration iteration = new PathResult.Iteration(totalTime);
+                iteration.waitTimes = TIntArrayList.wrap(new int[] { waitTime });
+                patterns.put(transit, iteration);
+            }
+        }
+        return patterns;
+    }
+
+}
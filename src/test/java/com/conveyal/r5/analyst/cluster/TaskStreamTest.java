@@ -0,0 +1,283 @@
+package com.conveyal.r5.analyst.cluster;
+
+import com.conveyal.analysis.components.broker.Broker;
+import com.conveyal.analysis.controllers.WorkerStreamHandler;
+import com.conveyal.r5.analyst.WorkerCategory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Connect a TaskStreamClient to a WorkerStreamHandler over a real WebSocket, with the broker and worker on either end
+ * replaced by stand-ins that hand out numbered tasks and record what they receive.
+ */
+public class TaskStreamTest {
+
+    private static final int TIMEOUT_SEC = 10;
+
+    /** Heartbeats are never due within a test, unless this interval is zero. */
+    private static final int NO_HEARTBEAT_SEC = 60 * 60;
+
+    private int port;
+
+    private spark.Service sparkService;
+
+    private TestBroker broker;
+
+    private TestWorker worker;
+
+    @BeforeEach
+    public void setUp () throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        broker = new TestBroker();
+        worker = new TestWorker(port);
+        startBroker();
+    }
+
+    @AfterEach
+    public void tearDown () {
+        sparkService.stop();
+    }
+
+    /** Tasks are pushed in answer to each status message, never exceeding the queue slots the worker has offered. */
+    @Test
+    public void tasksAreDeliveredUpToCredit () throws Exception {
+        TaskStreamClient client = newClient();
+        broker.addTasks(20);
+        for (int taskId = 0; taskId < 16; taskId += 8) {
+            client.report(8, NO_HEARTBEAT_SEC);
+            assertEquals(8, broker.awaitStatus().maxTasksRequested);
+            assertTaskIds(taskId, taskId + 8);
+        }
+        // Only four tasks are left, so the broker holds on to the rest of the credit.
+        client.report(8, NO_HEARTBEAT_SEC);
+        assertEquals(8, broker.awaitStatus().maxTasksRequested);
+        assertTaskIds(16, 20);
+        // Four of the eight slots are still promised to the broker, so only four new ones are offered.
+        client.report(8, NO_HEARTBEAT_SEC);
+        assertEquals(4, broker.awaitStatus().maxTasksRequested);
+        // With no slots, results or heartbeat to report, nothing is sent.
+        client.report(0, NO_HEARTBEAT_SEC);
+        assertNull(broker.statuses.poll(1, TimeUnit.SECONDS));
+        // When a new job arrives, an idle worker picks it up with its next heartbeat, up to the credit it was holding.
+        broker.addTasks(20);
+        Thread.sleep(10);
+        client.report(0, 0);
+        assertEquals(0, broker.awaitStatus().maxTasksRequested);
+        assertTaskIds(20, 28);
+        client.close();
+    }
+
+    /** Results finished by the worker are carried to the broker by the next status message. */
+    @Test
+    public void resultsAreUploaded () throws Exception {
+        TaskStreamClient client = newClient();
+        for (int t = 0; t < 3; t++) {
+            worker.addResult(t);
+        }
+        client.report(0, NO_HEARTBEAT_SEC);
+        WorkerStatus status = broker.awaitStatus();
+        assertEquals(0, status.maxTasksRequested);
+        assertEquals(3, status.results.size());
+        for (int t = 0; t < 3; t++) {
+            assertEquals(t, status.results.get(t).taskId);
+        }
+        assertFalse(worker.hasWorkResults());
+        client.close();
+    }
+
+    /**
+     * When the broker goes away, results are kept until they can be sent, and after reconnecting the worker offers its
+     * whole queue afresh since tasks promised on the old connection will never arrive.
+     */
+    @Test
+    public void reconnectsAfterBrokerRestart () throws Exception {
+        TaskStreamClient client = newClient();
+        client.report(4, NO_HEARTBEAT_SEC);
+        assertEquals(4, broker.awaitStatus().maxTasksRequested);
+
+        sparkService.stop();
+        awaitTrue(() -> !client.isConnected());
+        worker.addResult(0);
+        client.report(4, NO_HEARTBEAT_SEC);
+        assertTrue(worker.hasWorkResults());
+
+        startBroker();
+        assertTrue(client.connect());
+        broker.addTasks(10);
+        client.report(4, NO_HEARTBEAT_SEC);
+        WorkerStatus status = broker.awaitStatus();
+        assertEquals(4, status.maxTasksRequested);
+        assertEquals(1, status.results.size());
+        assertTaskIds(0, 4);
+        client.close();
+    }
+
+    /** The worker's streaming loop keeps its connection open until the thread running it is interrupted. */
+    @Test
+    public void streamingStopsOnInterrupt () throws Exception {
+        broker.addTasks(3);
+        Thread streamThread = new Thread(() -> worker.streamTasks(new LinkedBlockingQueue<>(8)));
+        streamThread.start();
+        assertTaskIds(0, 3);
+        streamThread.interrupt();
+        streamThread.join(TIMEOUT_SEC * 1000);
+        assertFalse(streamThread.isAlive());
+    }
+
+    private void startBroker () {
+        awaitTrue(this::portIsFree);
+        sparkService = spark.Service.ignite();
+        sparkService.port(port);
+        sparkService.webSocket("/internal/stream", new WorkerStreamHandler(broker));
+        sparkService.init();
+        sparkService.awaitInitialization();
+    }
+
+    private boolean portIsFree () {
+        try (Socket socket = new Socket("localhost", port)) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private TaskStreamClient newClient () {
+        TaskStreamClient client = new TaskStreamClient(worker, worker.brokerBaseUrl + "/stream");
+        assertTrue(client.connect());
+        return client;
+    }
+
+    /** Check that the tasks numbered from (inclusive) to (exclusive) arrive in order, and nothing else. */
+    private void assertTaskIds (int from, int to) throws InterruptedException {
+        for (int taskId = from; taskId < to; taskId++) {
+            RegionalTask task = worker.tasksReceived.poll(TIMEOUT_SEC, TimeUnit.SECONDS);
+            assertNotNull(task);
+            assertEquals(taskId, task.taskId);
+        }
+        assertNull(worker.tasksReceived.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static void awaitTrue (BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_SEC * 1000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            AnalysisWorker.sleepSeconds(1);
+        }
+    }
+
+    /** Hands out numbered tasks from a single job, and records the status messages it receives. */
+    private static class TestBroker extends Broker {
+
+        final BlockingQueue<WorkerStatus> statuses = new LinkedBlockingQueue<>();
+
+        private int nextTaskId = 0;
+
+        private int nTasksAvailable = 0;
+
+        TestBroker () {
+            super(null, null, null, null);
+        }
+
+        synchronized void addTasks (int nTasks) {
+            nTasksAvailable += nTasks;
+        }
+
+        WorkerStatus awaitStatus () throws InterruptedException {
+            WorkerStatus status = statuses.poll(TIMEOUT_SEC, TimeUnit.SECONDS);
+            assertNotNull(status);
+            return status;
+        }
+
+        @Override
+        public void handleWorkerStatus (WorkerStatus workerStatus) {
+            statuses.add(workerStatus);
+        }
+
+        @Override
+        public synchronized List<RegionalTask> getSomeWork (
+                WorkerCategory workerCategory, int maxTasksRequested, Map<String, Integer> tasksPerMinuteByJobId
+        ) {
+            List<RegionalTask> tasks = new ArrayList<>();
+            while (tasks.size() < maxTasksRequested && nTasksAvailable > 0) {
+                RegionalTask task = new RegionalTask();
+                task.jobId = "job";
+                task.taskId = nextTaskId++;
+                tasks.add(task);
+                nTasksAvailable -= 1;
+            }
+            return tasks;
+        }
+    }
+
+    /** Collects the tasks it receives rather than running them, and reports results it is handed by the test. */
+    private static class TestWorker extends AnalysisWorker {
+
+        final BlockingQueue<RegionalTask> tasksReceived = new LinkedBlockingQueue<>();
+
+        private final List<RegionalWorkResult> results = new ArrayList<>();
+
+        TestWorker (int brokerPort) {
+            super(null, null, null, new Config() {
+                @Override public String brokerAddress () { return "localhost"; }
+                @Override public String brokerPort () { return Integer.toString(brokerPort); }
+                @Override public String initialGraphId () { return null; }
+                @Override public boolean streamTasks () { return true; }
+            });
+        }
+
+        synchronized void addResult (int taskId) {
+            RegionalTask task = new RegionalTask();
+            task.jobId = "job";
+            task.taskId = taskId;
+            results.add(new RegionalWorkResult(new RuntimeException("Not computed in tests."), task));
+        }
+
+        @Override
+        void enqueueRegionalTasks (List<RegionalTask> tasks) {
+            if (tasks != null) {
+                tasksReceived.addAll(tasks);
+            }
+        }
+
+        @Override
+        synchronized WorkerStatus makeWorkerStatus (int tasksToRequest) {
+            WorkerStatus workerStatus = new WorkerStatus();
+            workerStatus.workerId = "worker";
+            workerStatus.maxTasksRequested = tasksToRequest;
+            workerStatus.results = new ArrayList<>(results);
+            results.clear();
+            return workerStatus;
+        }
+
+        @Override
+        synchronized boolean hasWorkResults () {
+            return !results.isEmpty();
+        }
+
+        @Override
+        synchronized void restoreWorkResults (List<RegionalWorkResult> undeliveredResults) {
+            results.addAll(undeliveredResults);
+        }
+    }
+
+}
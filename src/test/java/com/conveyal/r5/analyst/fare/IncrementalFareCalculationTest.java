@@ -0,0 +1,155 @@
+package com.conveyal.r5.analyst.fare;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.network.GridFareSystem;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.profile.DominatingList;
+import com.conveyal.r5.profile.FareDominatingList;
+import com.conveyal.r5.profile.FastRaptorWorker;
+import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
+import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter.McRaptorState;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.IntFunction;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that fare calculators deriving fares incrementally from the previous state's fare summary give the same fare
+ * and transfer allowance at every state as the calculators did before they were migrated, which replayed the whole
+ * itinerary for each state. Copies of the calculators as they were before migration are kept in this package as
+ * Legacy*InRoutingFareCalculator. Fare-constrained McRaptor searches using either calculator alone must also reach
+ * every stop at the same times.
+ */
+public class IncrementalFareCalculationTest {
+
+    private static final int MONTE_CARLO_DRAWS = 120;
+
+    private static GridLayout gridLayout;
+
+    private static TransportNetwork network;
+
+    @BeforeAll
+    public static void buildNetwork () {
+        gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 100);
+        for (int i = 20; i <= 80; i += 20) {
+            gridLayout.addHorizontalRoute(i, 10);
+            gridLayout.addVerticalRoute(i, 10);
+        }
+        network = gridLayout.generateNetwork();
+        // Transfer allowances expire within the time limit, so the fares of some paths depend on boarding times.
+        GridFareSystem.addFareSystem(network, 30 * 60);
+    }
+
+    @Test
+    public void simpleFares () {
+        SimpleInRoutingFareCalculator incremental = new SimpleInRoutingFareCalculator();
+        LegacySimpleInRoutingFareCalculator legacy = new LegacySimpleInRoutingFareCalculator();
+        incremental.fare = legacy.fare = 100;
+        compare(incremental, legacy, 300);
+    }
+
+    @Test
+    public void chicagoFares () {
+        compare(new ChicagoInRoutingFareCalculator(), new LegacyChicagoInRoutingFareCalculator(), 250);
+    }
+
+    @Test
+    public void bogotaFares () {
+        BogotaInRoutingFareCalculator incremental = new BogotaInRoutingFareCalculator();
+        LegacyBogotaInRoutingFareCalculator legacy = new LegacyBogotaInRoutingFareCalculator();
+        incremental.tpcAgencyName = legacy.tpcAgencyName = GridFareSystem.TPC_AGENCY_NAME;
+        incremental.tmAgencyName = legacy.tmAgencyName = GridFareSystem.TM_AGENCY_NAME;
+        incremental.tpcBaseFare = legacy.tpcBaseFare = 2300;
+        incremental.tmBaseFare = legacy.tmBaseFare = 2500;
+        incremental.tpcToTmFare = legacy.tpcToTmFare = 200;
+        incremental.tpcToTpcFare = legacy.tpcToTpcFare = 0;
+        incremental.tmToTpcFare = legacy.tmToTpcFare = 0;
+        incremental.tmToTmFare = legacy.tmToTmFare = 2500;
+        compare(incremental, legacy, 5000);
+    }
+
+    @Test
+    public void mixedSystemFares () {
+        compare(new BogotaMixedInRoutingFareCalculator(), new LegacyBogotaMixedInRoutingFareCalculator(), 10);
+    }
+
+    @Test
+    public void bostonFares () {
+        compare(new BostonInRoutingFareCalculator(), new LegacyBostonInRoutingFareCalculator(), 1000);
+    }
+
+    private static void compare (InRoutingFareCalculator incremental, InRoutingFareCalculator legacy, int maxFare) {
+        CheckingFareCalculator checking = new CheckingFareCalculator(incremental, legacy);
+        int[][] checkedTimes = route(checking, maxFare);
+        assertTrue(checking.nStatesChecked > 0);
+        int[][] legacyTimes = route(legacy, maxFare);
+        int[][] incrementalTimes = route(incremental, maxFare);
+        assertArrayEquals(legacyTimes, incrementalTimes);
+        assertArrayEquals(legacyTimes, checkedTimes);
+    }
+
+    /** Perform a fare-constrained McRaptor search the same way TravelTimeComputer does, returning times to stops. */
+    private static int[][] route (InRoutingFareCalculator fareCalculator, int maxFare) {
+        AnalysisWorkerTask task = gridLayout.newTaskBuilder()
+                .weekdayMorningPeak()
+                .setOrigin(20, 20)
+                .monteCarloDraws(MONTE_CARLO_DRAWS)
+                .build();
+        fareCalculator.transitLayer = network.transitLayer;
+        task.inRoutingFareCalculator = fareCalculator;
+        task.maxFare = maxFare;
+        IntFunction<DominatingList> listSupplier = (departureTime) -> new FareDominatingList(
+                fareCalculator,
+                maxFare,
+                departureTime + task.maxTripDurationMinutes * FastRaptorWorker.SECONDS_PER_MINUTE
+        );
+        McRaptorSuboptimalPathProfileRouter router = new McRaptorSuboptimalPathProfileRouter(
+                network, task, null, null, listSupplier, InRoutingFareCalculator.getCollator(task)
+        );
+        router.route();
+        return router.getBestTimes();
+    }
+
+    /**
+     * Calculates every fare both incrementally and with the legacy calculator, asserting that they give the same fare
+     * and transfer allowance for each state. The search then proceeds with the incrementally calculated fare.
+     */
+    private static class CheckingFareCalculator extends InRoutingFareCalculator {
+
+        private final InRoutingFareCalculator incremental;
+
+        private final InRoutingFareCalculator legacy;
+
+        private int nStatesChecked = 0;
+
+        private CheckingFareCalculator (InRoutingFareCalculator incremental, InRoutingFareCalculator legacy) {
+            this.incremental = incremental;
+            this.legacy = legacy;
+            incremental.transitLayer = legacy.transitLayer = network.transitLayer;
+        }
+
+        @Override
+        public FareBounds calculateFare (McRaptorState state, int maxClockTime) {
+            FareBounds expected = legacy.calculateFare(state, maxClockTime);
+            FareBounds actual = incremental.calculateFare(state, maxClockTime);
+            assertEquals(expected.cumulativeFarePaid, actual.cumulativeFarePaid);
+            assertEquals(expected.transferAllowance.value, actual.transferAllowance.value);
+            assertEquals(expected.transferAllowance.number, actual.transferAllowance.number);
+            assertEquals(expected.transferAllowance.expirationTime, actual.transferAllowance.expirationTime);
+            nStatesChecked++;
+            return actual;
+        }
+
+        @Override
+        public String getType () {
+            return incremental.getType();
+        }
+    }
+
+}
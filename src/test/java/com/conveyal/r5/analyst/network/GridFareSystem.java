@@ -0,0 +1,82 @@
+package com.conveyal.r5.analyst.network;
+
+import com.conveyal.gtfs.model.Fare;
+import com.conveyal.gtfs.model.FareAttribute;
+import com.conveyal.gtfs.model.FareRule;
+import com.conveyal.r5.streets.VertexStore;
+import com.conveyal.r5.transit.RouteInfo;
+import com.conveyal.r5.transit.TransitLayer;
+import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.transit.TripPattern;
+
+import java.util.HashMap;
+
+/**
+ * The networks made by GridLayout have a single agency and no fares. This assigns fares, route types, agencies and
+ * stations that exercise the transfer rules of the in-routing fare calculators, following the conventions of the Boston
+ * (fare_id values), Chicago (route_type 1 is the L), Bogotá (agency names) and mixed-system (agency_id is the fare_id)
+ * calculators. Prices are whole numbers as the mixed-system calculator does not convert them to cents.
+ */
+public class GridFareSystem {
+
+    /**
+     * The fare_id of each route, in the order the routes appear in the TransitLayer, repeating if there are more
+     * routes. Subway routes have route_type 1 and the TransMilenio agency name, and subway stops at the same
+     * intersection share a parent station. Other routes have route_type 3 and the TPC agency name.
+     */
+    private static final String[] FARE_ID_FOR_ROUTE = {
+            "subway", "localBus", "innerExpressBus", "subway", "subway", "localBus", "commuterRail", "subway"
+    };
+
+    public static final String TPC_AGENCY_NAME = "TPC";
+
+    public static final String TM_AGENCY_NAME = "TM";
+
+    /**
+     * @param transferDurationSeconds how long transfer allowances remain valid after paying a fare. If this is longer
+     *                                than the maximum trip duration, fares do not depend on when a trip starts.
+     */
+    public static void addFareSystem (TransportNetwork network, int transferDurationSeconds) {
+        TransitLayer transitLayer = network.transitLayer;
+        transitLayer.fares = new HashMap<>();
+        addFare(transitLayer, "localBus", 2, 1, transferDurationSeconds);
+        addFare(transitLayer, "subway", 3, 1, transferDurationSeconds);
+        addFare(transitLayer, "innerExpressBus", 5, 1, transferDurationSeconds);
+        addFare(transitLayer, "commuterRail", 8, 0, 0);
+        for (int r = 0; r < transitLayer.routes.size(); r++) {
+            RouteInfo route = transitLayer.routes.get(r);
+            String fareId = FARE_ID_FOR_ROUTE[r % FARE_ID_FOR_ROUTE.length];
+            boolean subway = fareId.equals("subway");
+            route.route_type = subway ? 1 : 3;
+            route.agency_id = fareId;
+            route.agency_name = subway ? TM_AGENCY_NAME : TPC_AGENCY_NAME;
+            FareRule fareRule = new FareRule();
+            fareRule.fare_id = fareId;
+            fareRule.route_id = route.route_id;
+            transitLayer.fares.get(fareId).fare_rules.add(fareRule);
+        }
+        VertexStore.Vertex vertex = network.streetLayer.vertexStore.getCursor();
+        for (TripPattern pattern : transitLayer.tripPatterns) {
+            if (transitLayer.routes.get(pattern.routeIndex).route_type != 1) continue;
+            for (int stop : pattern.stops) {
+                int stopVertex = transitLayer.streetVertexForStop.get(stop);
+                if (stopVertex == -1) continue;
+                vertex.seek(stopVertex);
+                transitLayer.parentStationIdForStop.set(stop, vertex.getFixedLat() + "," + vertex.getFixedLon());
+            }
+        }
+    }
+
+    private static void addFare (
+            TransitLayer transitLayer, String fareId, double price, int transfers, int transferDurationSeconds
+    ) {
+        Fare fare = new Fare(fareId);
+        fare.fare_attribute = new FareAttribute();
+        fare.fare_attribute.fare_id = fareId;
+        fare.fare_attribute.price = price;
+        fare.fare_attribute.transfers = transfers;
+        fare.fare_attribute.transfer_duration = transferDurationSeconds;
+        transitLayer.fares.put(fareId, fare);
+    }
+
+}
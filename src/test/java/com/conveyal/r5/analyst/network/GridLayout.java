@@ -132,6 +132,11 @@ public class GridLayout {
         gtfs.close();
     }
 
+    /** Add a route that has been configured separately, e.g. with several timetables. */
+    public void addRoute (GridRoute route) {
+        this.routes.add(route);
+    }
+
     /** Add an east-west route at the given row of the grid, running at the default speed and the given headway. */
     public void addHorizontalRoute (int row, int headwayMinutes) {
         this.routes.add(GridRoute.newHorizontalRoute(this, row, headwayMinutes));
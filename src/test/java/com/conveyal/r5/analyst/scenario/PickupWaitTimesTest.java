@@ -0,0 +1,108 @@
+package com.conveyal.r5.analyst.scenario;
+
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.WebMercatorExtents;
+import com.conveyal.r5.profile.StreetMode;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringJoiner;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PickupWaitTimesTest {
+
+    private static final int ZOOM = WebMercatorExtents.DEFAULT_ZOOM;
+
+    @TempDir
+    public File directory;
+
+    /**
+     * Looking up the pickup service in the raster should give the same AccessService as querying the polygons, at pixel
+     * centers, at points between them, and outside all the polygons. The polygons overlap with higher and equal
+     * priorities, and one of them has no service. The raster should only be built once a pixel center is looked up.
+     */
+    @Test
+    public void testRasterMatchesPolygons () throws Exception {
+        IndexedPolygonCollection polygons = loadPolygons(
+                polygon("a", 5, 1, -83.1, 39.9, -82.9, 39.9, -82.9, 40.1, -83.1, 40.1),
+                polygon("b", 10, 2, -83.0, 40.0, -82.8, 40.0, -82.8, 40.2),
+                polygon("c", -1, 0, -82.95, 39.85, -82.85, 39.85, -82.85, 39.95, -82.95, 39.95),
+                polygon("d", 3, 1, -83.15, 40.05, -83.05, 40.05, -83.05, 40.15, -83.15, 40.15)
+        );
+        Map<ModificationPolygon, TIntSet> stopNumbersForZonePolygon = new HashMap<>();
+        stopNumbersForZonePolygon.put(polygons.getById("a"), new TIntHashSet(new int[] { 1, 2, 3 }));
+        stopNumbersForZonePolygon.put(polygons.getById("b"), new TIntHashSet(new int[] { 3, 4 }));
+        PickupWaitTimes pickupWaitTimes = new PickupWaitTimes(
+                polygons, stopNumbersForZonePolygon, Collections.emptySet(), StreetMode.CAR, ZOOM
+        );
+
+        // The area tested extends well beyond the polygons on every side.
+        Envelope envelope = polygons.getEnvelope();
+        envelope.expandBy(0.1);
+        Random random = new Random(42);
+        checkRandomPoints(pickupWaitTimes, envelope, random);
+        assertFalse(pickupWaitTimes.hasRaster());
+
+        WebMercatorExtents extents = WebMercatorExtents.forWgsEnvelope(envelope, ZOOM);
+        for (int y = extents.north; y < extents.north + extents.height; y++) {
+            for (int x = extents.west; x < extents.west + extents.width; x++) {
+                double lat = Grid.pixelToCenterLat(y, ZOOM);
+                double lon = Grid.pixelToCenterLon(x, ZOOM);
+                assertSame(pickupWaitTimes.getAccessServiceFromPolygons(lat, lon),
+                        pickupWaitTimes.getAccessService(lat, lon));
+            }
+        }
+        assertTrue(pickupWaitTimes.hasRaster());
+        checkRandomPoints(pickupWaitTimes, envelope, random);
+    }
+
+    /** Points at random are almost never exactly at pixel centers, so these are looked up in the polygons. */
+    private static void checkRandomPoints (PickupWaitTimes pickupWaitTimes, Envelope envelope, Random random) {
+        for (int i = 0; i < 10_000; i++) {
+            double lat = envelope.getMinY() + random.nextDouble() * envelope.getHeight();
+            double lon = envelope.getMinX() + random.nextDouble() * envelope.getWidth();
+            assertSame(pickupWaitTimes.getAccessServiceFromPolygons(lat, lon),
+                    pickupWaitTimes.getAccessService(lat, lon));
+        }
+    }
+
+    private IndexedPolygonCollection loadPolygons (String... features) throws Exception {
+        StringJoiner featureCollection = new StringJoiner(",", "{\"type\":\"FeatureCollection\",\"features\":[", "]}");
+        for (String feature : features) {
+            featureCollection.add(feature);
+        }
+        File file = new File(directory, "polygons.geojson");
+        Files.writeString(file.toPath(), featureCollection.toString());
+        IndexedPolygonCollection polygons = new IndexedPolygonCollection(
+                "polygons", "wait", "id", "name", "priority", 0
+        );
+        polygons.loadGeoJson(file);
+        assertTrue(polygons.getErrors().isEmpty());
+        return polygons;
+    }
+
+    /** A GeoJSON feature with the given ring of longitude and latitude pairs, which is closed automatically. */
+    private static String polygon (String id, double waitMinutes, int priority, double... lonLats) {
+        StringJoiner ring = new StringJoiner(",", "[", "]");
+        for (int i = 0; i <= lonLats.length; i += 2) {
+            int c = i % lonLats.length;
+            ring.add("[" + lonLats[c] + "," + lonLats[c + 1] + "]");
+        }
+        return String.format("{\"type\":\"Feature\",\"properties\":{\"id\":\"%s\",\"name\":\"%s\",\"wait\":%s," +
+                "\"priority\":%d},\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[%s]}}",
+                id, id, waitMinutes, priority, ring);
+    }
+
+}
@@ -4,15 +4,26 @@ import ch.qos.logback.classic.Logger;
 import com.conveyal.object_differ.ObjectDiffer;
 import com.conveyal.r5.analyst.scenario.FakeGraph;
 import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.EdgeStore;
 import com.conveyal.r5.streets.IntHashGrid;
+import com.conveyal.r5.streets.StreetLayer;
+import com.conveyal.r5.streets.StreetTileStore;
+import com.conveyal.r5.streets.VertexStore;
 import com.conveyal.r5.transit.TransportNetwork;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Envelope;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.BitSet;
 
 import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 
 /**
  * Tests that serialization and deserialization of TransportNetworks functions as expected and does not corrupt objects.
@@ -50,6 +61,68 @@ public class KryoNetworkSerializerTest {
         assertNoDifferences(copiedNetwork1, copiedNetwork2);
     }
 
+    /**
+     * A network whose streets are held in a tile file should be readable from the directory it was written to, with
+     * the same edge characteristics, edge lists and spatial index, and without loading any tiles to rebuild indexes.
+     */
+    @Test
+    public void testTiledStreetsRoundTrip (@TempDir File directory) throws Exception {
+        TransportNetwork originalNetwork = buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        StreetLayer originalStreets = originalNetwork.streetLayer;
+        int nEdges = originalStreets.edgeStore.nEdges();
+        int nVertices = originalStreets.vertexStore.getVertexCount();
+        int[] flags = originalStreets.edgeStore.flags.toArray();
+        int[] toVertices = originalStreets.edgeStore.toVertices.toArray();
+        int[] lengths = originalStreets.edgeStore.lengths_mm.toArray();
+        int[] fixedLats = originalStreets.vertexStore.fixedLats.toArray();
+        Envelope envelope = originalStreets.getEnvelope();
+        envelope = VertexStore.envelopeToFixed(new Envelope(envelope.centre()));
+        envelope.expandBy(VertexStore.floatingDegreesToFixed(0.01));
+        int[] edgesNearCenter = originalStreets.findEdgesInEnvelope(envelope).toArray();
+
+        File tileFile = new File(directory, "network.tiles");
+        StreetTileStore.write(originalStreets, tileFile);
+        StreetTileStore.open(tileFile, StreetTileStore.DEFAULT_MAX_RESIDENT_TILES).attach(originalStreets);
+        File networkFile = new File(directory, "network.dat");
+        KryoNetworkSerializer.write(originalNetwork, networkFile);
+        originalStreets.tileStore.close();
+
+        TransportNetwork copiedNetwork = KryoNetworkSerializer.read(networkFile);
+        StreetLayer copiedStreets = copiedNetwork.streetLayer;
+        StreetTileStore copiedStore = copiedStreets.tileStore;
+        assertNotNull(copiedStore);
+        assertNotSame(originalStreets.tileStore, copiedStore);
+        // The edge lists and spatial index were restored rather than rebuilt by iterating over every edge.
+        assertEquals(0, copiedStore.residentTileCount());
+        assertEquals(nVertices, copiedStreets.outgoingEdges.size());
+        for (int v = 0; v < nVertices; v++) {
+            assertArrayEquals(
+                originalStreets.outgoingEdges.get(v).toArray(), copiedStreets.outgoingEdges.get(v).toArray()
+            );
+            assertArrayEquals(
+                originalStreets.incomingEdges.get(v).toArray(), copiedStreets.incomingEdges.get(v).toArray()
+            );
+        }
+        int[] copiedEdgesNearCenter = copiedStreets.findEdgesInEnvelope(envelope).toArray();
+        Arrays.sort(edgesNearCenter);
+        Arrays.sort(copiedEdgesNearCenter);
+        assertArrayEquals(edgesNearCenter, copiedEdgesNearCenter);
+
+        EdgeStore copiedEdges = copiedStreets.edgeStore;
+        assertEquals(nEdges, copiedEdges.nEdges());
+        for (int e = 0; e < nEdges; e++) {
+            assertEquals(flags[e], copiedEdges.flags.get(e));
+        }
+        for (int p = 0; p < nEdges / 2; p++) {
+            assertEquals(toVertices[p], copiedEdges.toVertices.get(p));
+            assertEquals(lengths[p], copiedEdges.lengths_mm.get(p));
+        }
+        for (int v = 0; v < nVertices; v++) {
+            assertEquals(fixedLats[v], copiedStreets.vertexStore.fixedLats.get(v));
+        }
+        copiedStore.close();
+    }
+
     /**
      * Create an ObjectDiffer configured to work on R5 TransportNetworks.
      * Make some exclusions for classes that are inherently transient or contain unordered lists we can't yet compare.
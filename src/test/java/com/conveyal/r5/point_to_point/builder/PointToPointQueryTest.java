@@ -0,0 +1,194 @@
+package com.conveyal.r5.point_to_point.builder;
+
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.api.ProfileResponse;
+import com.conveyal.r5.api.util.LegMode;
+import com.conveyal.r5.api.util.ProfileOption;
+import com.conveyal.r5.api.util.SegmentPattern;
+import com.conveyal.r5.api.util.TransitModes;
+import com.conveyal.r5.api.util.TransitSegment;
+import com.conveyal.r5.common.JsonUtilities;
+import com.conveyal.r5.point_to_point.builder.BatchPlanRequest.OriginDestination;
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import static com.conveyal.r5.analyst.network.GridGtfsGenerator.WEEKDAY_DATE;
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares trips planned in a batch by getPlans with the same trips planned one at a time by getPlan, on a grid of
+ * scheduled routes with different headways.
+ */
+public class PointToPointQueryTest {
+
+    private static GridLayout gridLayout;
+
+    private static TransportNetwork network;
+
+    @BeforeAll
+    public static void buildNetwork () {
+        gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        int headwayMinutes = 10;
+        for (int i = 10; i <= 30; i += 10) {
+            gridLayout.addHorizontalRoute(i, headwayMinutes++);
+            gridLayout.addVerticalRoute(i, headwayMinutes++);
+        }
+        network = gridLayout.generateNetwork();
+    }
+
+    /** A batch of a single pair is planned with the same searches as getPlan, so the responses should be identical. */
+    @Test
+    public void testSinglePairMatchesPlan () throws Exception {
+        List<OriginDestination> pairs = List.of(pair(12, 8, 31, 27));
+        ProfileResponse[] responses = getPlans(pairs);
+        ProfileResponse expected = getPlan(pairs.get(0));
+        assertTrue(expected.getOptions().size() > 1);
+        assertEquals(JsonUtilities.objectMapper.writeValueAsString(expected),
+                JsonUtilities.objectMapper.writeValueAsString(responses[0]));
+    }
+
+    /**
+     * Pairs sharing origins are planned with one transit search from each origin. The response for each pair should
+     * contain every option returned by getPlan, with all of its patterns and departures, and may contain more.
+     */
+    @Test
+    public void testBatchIncludesPlanOptions () throws Exception {
+        List<OriginDestination> pairs = new ArrayList<>();
+        for (int[] origin : new int[][] { { 10, 5 }, { 22, 30 } }) {
+            for (int[] destination : new int[][] { { 31, 28 }, { 9, 21 }, { 35, 12 } }) {
+                pairs.add(pair(origin[0], origin[1], destination[0], destination[1]));
+            }
+        }
+        ProfileResponse[] responses = getPlans(pairs);
+        int nTransitOptions = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            assertNotNull(responses[i]);
+            Map<String, ProfileOption> expectedOptions = optionsByStops(getPlan(pairs.get(i)));
+            Map<String, ProfileOption> actualOptions = optionsByStops(responses[i]);
+            for (Map.Entry<String, ProfileOption> entry : expectedOptions.entrySet()) {
+                ProfileOption expected = entry.getValue();
+                ProfileOption actual = actualOptions.get(entry.getKey());
+                assertNotNull(actual);
+                if (expected.transit == null) {
+                    assertEquals(JsonUtilities.objectMapper.writeValueAsString(expected),
+                            JsonUtilities.objectMapper.writeValueAsString(actual));
+                } else {
+                    assertTrue(departures(actual).containsAll(departures(expected)));
+                    nTransitOptions++;
+                }
+            }
+        }
+        assertTrue(nTransitOptions > pairs.size());
+    }
+
+    /** When trips can't be planned from an origin, an error should be reported for each of its pairs. */
+    @Test
+    public void testErrorsAreReportedForEachPair () {
+        List<OriginDestination> pairs = List.of(pair(10, 5, 31, 28), pair(10, 5, 9, 21), pair(22, 30, 9, 21));
+        ProfileRequest request = newRequest();
+        // Access modes are required when searching for transit trips.
+        request.accessModes = null;
+        Exception[] errors = new Exception[pairs.size()];
+        new PointToPointQuery(network).getPlans(request, pairs, (response, pair) -> {
+            throw new AssertionError("No trips should be planned.");
+        }, (exception, pair) -> {
+            assertNull(errors[pair]);
+            errors[pair] = exception;
+        });
+        for (Exception error : errors) {
+            assertNotNull(error);
+        }
+    }
+
+    private static ProfileResponse[] getPlans (List<OriginDestination> pairs) {
+        ProfileResponse[] responses = new ProfileResponse[pairs.size()];
+        new PointToPointQuery(network).getPlans(newRequest(), pairs, (response, pair) -> {
+            assertNull(responses[pair]);
+            responses[pair] = response;
+        }, (exception, pair) -> {
+            throw new AssertionError("Failed to plan trip " + pair, exception);
+        });
+        return responses;
+    }
+
+    private static ProfileResponse getPlan (OriginDestination pair) {
+        ProfileRequest request = newRequest();
+        request.fromLat = pair.fromLat;
+        request.fromLon = pair.fromLon;
+        request.toLat = pair.toLat;
+        request.toLon = pair.toLon;
+        return new PointToPointQuery(network).getPlan(request);
+    }
+
+    private static ProfileRequest newRequest () {
+        ProfileRequest request = new ProfileRequest();
+        request.date = WEEKDAY_DATE;
+        request.fromTime = LocalTime.of(7, 0).toSecondOfDay();
+        request.toTime = LocalTime.of(8, 0).toSecondOfDay();
+        request.accessModes = request.egressModes = request.directModes = EnumSet.of(LegMode.WALK);
+        request.transitModes = EnumSet.allOf(TransitModes.class);
+        request.monteCarloDraws = 60;
+        request.maxRides = 3;
+        return request;
+    }
+
+    private static OriginDestination pair (int fromX, int fromY, int toX, int toY) {
+        Coordinate from = gridLayout.getIntersectionLatLon(fromX, fromY);
+        Coordinate to = gridLayout.getIntersectionLatLon(toX, toY);
+        OriginDestination pair = new OriginDestination();
+        pair.fromLat = from.y;
+        pair.fromLon = from.x;
+        pair.toLat = to.y;
+        pair.toLon = to.x;
+        return pair;
+    }
+
+    /** Options are keyed on the stops where each ride begins and ends, as transit paths are grouped into options. */
+    private static Map<String, ProfileOption> optionsByStops (ProfileResponse response) {
+        Map<String, ProfileOption> options = new HashMap<>();
+        for (ProfileOption option : response.getOptions()) {
+            StringJoiner stops = new StringJoiner(",");
+            if (option.transit == null) {
+                stops.add("direct");
+            } else {
+                for (TransitSegment segment : option.transit) {
+                    stops.add(segment.from.stopId + "-" + segment.to.stopId);
+                }
+            }
+            assertNull(options.put(stops.toString(), option));
+        }
+        return options;
+    }
+
+    /** Every departure of every pattern in each ride of a transit option. */
+    private static Set<String> departures (ProfileOption option) {
+        Set<String> departures = new HashSet<>();
+        for (int s = 0; s < option.transit.size(); s++) {
+            for (SegmentPattern pattern : option.transit.get(s).segmentPatterns) {
+                for (int d = 0; d < pattern.fromDepartureTime.size(); d++) {
+                    departures.add(String.join(" ", Integer.toString(s), pattern.patternId,
+                            pattern.fromDepartureTime.get(d).toString(), pattern.toArrivalTime.get(d).toString()));
+                }
+            }
+        }
+        return departures;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
+import com.conveyal.r5.analyst.fare.SimpleInRoutingFareCalculator;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.transit.TransportNetwork;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.junit.jupiter.api.Test;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static com.conveyal.r5.profile.FrequencyOffsetSampling.LATIN_HYPERCUBE;
+import static com.conveyal.r5.profile.FrequencyOffsetSampling.RANDOM;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Checks that the frequency offset sampling chosen in a task is used by both the standard and McRaptor routers. */
+public class FrequencyOffsetSamplingTest {
+
+    @Test
+    public void testRoutersUseRequestedSampling () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        gridLayout.addHorizontalFrequencyRoute(20, 10);
+        TransportNetwork network = gridLayout.generateNetwork();
+        for (FrequencyOffsetSampling sampling : new FrequencyOffsetSampling[] { RANDOM, LATIN_HYPERCUBE }) {
+            AnalysisWorkerTask task = gridLayout.newTaskBuilder()
+                    .weekdayMorningPeak()
+                    .setOrigin(20, 20)
+                    .monteCarloDraws(20)
+                    .build();
+            task.frequencyOffsetSampling = sampling;
+
+            FastRaptorWorker worker = new FastRaptorWorker(network.transitLayer, task, new TIntIntHashMap());
+            assertEquals(sampling, worker.offsets.getSampling());
+
+            InRoutingFareCalculator fareCalculator = new SimpleInRoutingFareCalculator();
+            fareCalculator.transitLayer = network.transitLayer;
+            task.inRoutingFareCalculator = fareCalculator;
+            McRaptorSuboptimalPathProfileRouter mcRaptor = new McRaptorSuboptimalPathProfileRouter(
+                    network, task, null, null, null, InRoutingFareCalculator.getCollator(task)
+            );
+            assertEquals(sampling, mcRaptor.offsets.getSampling());
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.analyst.network.GridRoute;
+import com.conveyal.r5.api.util.LegMode;
+import com.conveyal.r5.api.util.TransitModes;
+import com.conveyal.r5.streets.StreetRouter;
+import com.conveyal.r5.transit.TransportNetwork;
+import gnu.trove.map.TIntIntMap;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import static com.conveyal.r5.analyst.network.GridGtfsGenerator.WEEKDAY_DATE;
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares point to point McRAPTOR searches toward one or several destinations with the search as it was before it
+ * could target several destinations at once, which is kept as LegacyMcRaptorSuboptimalPathProfileRouter. The network
+ * is a grid of scheduled routes with different headways, so that suboptimal paths with several transfers are found.
+ * A second grid of frequency routes checks that they are boarded as they were before.
+ */
+public class McRaptorSuboptimalPathProfileRouterTest {
+
+    private static final int MONTE_CARLO_DRAWS = 60;
+
+    private static GridLayout gridLayout;
+
+    private static TransportNetwork network;
+
+    @BeforeAll
+    public static void buildNetwork () {
+        gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        int headwayMinutes = 10;
+        for (int i = 10; i <= 30; i += 10) {
+            gridLayout.addHorizontalRoute(i, headwayMinutes++);
+            gridLayout.addVerticalRoute(i, headwayMinutes++);
+        }
+        network = gridLayout.generateNetwork();
+    }
+
+    /** A search toward a single destination, as made by PointToPointQuery.getPlan, should find the same paths. */
+    @Test
+    public void testSingleDestinationUnchanged () {
+        assertTrue(compareWithLegacy(gridLayout, network, 10) > 10);
+    }
+
+    /**
+     * Where the frequency entries of a trip overlap, a state can board the same trip more than once at the same stop.
+     * The original search kept the boarding details in maps keyed on the state, so all its rides used the last trip
+     * boarded, and the same paths should still be found.
+     */
+    @Test
+    public void testOverlappingFrequencyEntriesUnchanged () {
+        GridLayout frequencyLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        int headwayMinutes = 10;
+        for (int i = 10; i <= 30; i += 10) {
+            frequencyLayout.addRoute(GridRoute.newHorizontalRoute(frequencyLayout, i, headwayMinutes++)
+                    .pureFrequency().addTimetable(GridRoute.Services.WEEKDAY, 7, 9, 7));
+            frequencyLayout.addRoute(GridRoute.newVerticalRoute(frequencyLayout, i, headwayMinutes++)
+                    .pureFrequency().addTimetable(GridRoute.Services.WEEKDAY, 7, 9, 9));
+        }
+        assertTrue(compareWithLegacy(frequencyLayout, frequencyLayout.generateNetwork(), 10) > 10);
+    }
+
+    /**
+     * Search from random origins to random destinations with the current and original routers, drawing the same
+     * frequency offsets in both, and check that the same paths are found. Returns the number of paths found.
+     */
+    private static int compareWithLegacy (GridLayout gridLayout, TransportNetwork network, int nSearches) {
+        Random random = new Random(42);
+        int nPaths = 0;
+        for (int i = 0; i < nSearches; i++) {
+            ProfileRequest request = newRequest(gridLayout, random);
+            Coordinate destination = randomIntersection(gridLayout, random);
+            request.toLat = destination.y;
+            request.toLon = destination.x;
+            Map<LegMode, TIntIntMap> accessTimes =
+                    walkTimesToStops(network, request, request.fromLat, request.fromLon, false);
+            Map<LegMode, TIntIntMap> egressTimes =
+                    walkTimesToStops(network, request, request.toLat, request.toLon, true);
+
+            LegacyMcRaptorSuboptimalPathProfileRouter legacyRouter = new LegacyMcRaptorSuboptimalPathProfileRouter(
+                    network, request, accessTimes, egressTimes, listSupplier(request), null);
+            legacyRouter.offsets.setSeed(i);
+            Collection<PathWithTimes> expected = legacyRouter.getPaths();
+            McRaptorSuboptimalPathProfileRouter router = new McRaptorSuboptimalPathProfileRouter(
+                    network, request, accessTimes, egressTimes, listSupplier(request), null);
+            router.offsets.setSeed(i);
+            Collection<PathWithTimes> actual = router.getPaths();
+            assertEquals(expected.size(), actual.size());
+            Map<PathWithTimes, PathWithTimes> actualPaths = new HashMap<>();
+            actual.forEach(path -> actualPaths.put(path, path));
+            for (PathWithTimes path : expected) {
+                PathWithTimes actualPath = actualPaths.get(path);
+                assertNotNull(actualPath);
+                assertEquals(path.stats.min, actualPath.stats.min);
+                assertEquals(path.stats.avg, actualPath.stats.avg);
+                assertEquals(path.stats.max, actualPath.stats.max);
+            }
+            nPaths += expected.size();
+        }
+        return nPaths;
+    }
+
+    /**
+     * A search toward several destinations, as made by PointToPointQuery.getPlans, should find every path found by a
+     * search toward each destination alone. It may find more, since its target pruning is looser.
+     */
+    @Test
+    public void testSeveralDestinationsIncludeSingleDestinationPaths () {
+        Random random = new Random(42);
+        int nPaths = 0;
+        for (int i = 0; i < 3; i++) {
+            ProfileRequest request = newRequest(gridLayout, random);
+            Map<LegMode, TIntIntMap> accessTimes =
+                    walkTimesToStops(network, request, request.fromLat, request.fromLon, false);
+            List<Map<LegMode, TIntIntMap>> egressTimes = new ArrayList<>();
+            for (int d = 0; d < 4; d++) {
+                Coordinate destination = randomIntersection(gridLayout, random);
+                egressTimes.add(walkTimesToStops(network, request, destination.y, destination.x, true));
+            }
+
+            List<Collection<PathWithTimes>> actual = new McRaptorSuboptimalPathProfileRouter(network, request,
+                    accessTimes, egressTimes, listSupplier(request)).getPathsToDestinations();
+            assertEquals(egressTimes.size(), actual.size());
+            for (int d = 0; d < egressTimes.size(); d++) {
+                Collection<PathWithTimes> expected = new McRaptorSuboptimalPathProfileRouter(network, request,
+                        accessTimes, egressTimes.get(d), listSupplier(request), null).getPaths();
+                Set<PathWithTimes> actualPaths = new HashSet<>(actual.get(d));
+                assertTrue(actualPaths.containsAll(expected));
+                nPaths += expected.size();
+            }
+        }
+        assertTrue(nPaths > 10);
+    }
+
+    private static ProfileRequest newRequest (GridLayout gridLayout, Random random) {
+        ProfileRequest request = new ProfileRequest();
+        request.date = WEEKDAY_DATE;
+        request.fromTime = LocalTime.of(7, 0).toSecondOfDay();
+        request.toTime = LocalTime.of(8, 0).toSecondOfDay();
+        request.accessModes = request.egressModes = request.directModes = EnumSet.of(LegMode.WALK);
+        request.transitModes = EnumSet.allOf(TransitModes.class);
+        request.monteCarloDraws = MONTE_CARLO_DRAWS;
+        request.maxRides = 3;
+        Coordinate origin = randomIntersection(gridLayout, random);
+        request.fromLat = origin.y;
+        request.fromLon = origin.x;
+        return request;
+    }
+
+    private static Coordinate randomIntersection (GridLayout gridLayout, Random random) {
+        int size = gridLayout.widthAndHeightInBlocks + 1;
+        return gridLayout.getIntersectionLatLon(random.nextInt(size), random.nextInt(size));
+    }
+
+    private static IntFunction<DominatingList> listSupplier (ProfileRequest request) {
+        return (departureTime) -> new SuboptimalDominatingList(request.suboptimalMinutes);
+    }
+
+    /** Find the walking times between the given point and nearby stops, as PointToPointQuery does. */
+    private static Map<LegMode, TIntIntMap> walkTimesToStops (TransportNetwork network, ProfileRequest request,
+                                                             double lat, double lon, boolean reverseSearch) {
+        ProfileRequest streetRequest = request.clone();
+        streetRequest.reverseSearch = reverseSearch;
+        StreetRouter streetRouter = new StreetRouter(network.streetLayer);
+        streetRouter.profileRequest = streetRequest;
+        streetRouter.streetMode = StreetMode.WALK;
+        streetRouter.timeLimitSeconds = request.getMaxTimeSeconds(LegMode.WALK);
+        streetRouter.transitStopSearch = true;
+        streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+        assertTrue(streetRouter.setOrigin(lat, lon));
+        streetRouter.route();
+        Map<LegMode, TIntIntMap> times = new HashMap<>();
+        times.put(LegMode.WALK, streetRouter.getReachedStops());
+        return times;
+    }
+
+}
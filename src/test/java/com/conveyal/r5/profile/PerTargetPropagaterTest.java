@@ -0,0 +1,89 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.PointSet;
+import com.conveyal.r5.analyst.TravelTimeReducer;
+import com.conveyal.r5.analyst.WebMercatorExtents;
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PerTargetPropagaterTest {
+
+    /**
+     * Skipping targets that transit can't reach faster than the non-transit time or the cutoff should not change the
+     * travel time percentiles or histograms at any target. Times at stops are random, so that some stops are reached
+     * too late to help any target, others only in some iterations, and some targets are reached faster on foot.
+     */
+    @Test
+    public void testPruningDoesNotChangeResults () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        gridLayout.addHorizontalRoute(10, 20);
+        gridLayout.addHorizontalRoute(30, 20);
+        gridLayout.addVerticalRoute(20, 20);
+        TransportNetwork network = gridLayout.generateNetwork();
+        AnalysisWorkerTask task = gridLayout.newTaskBuilder()
+                .weekdayMorningPeak()
+                .setOrigin(20, 20)
+                .build();
+        WebMercatorGridPointSet targets = new WebMercatorGridPointSet(WebMercatorExtents.forTask(task));
+        task.destinationPointSets = new PointSet[] { targets };
+
+        Random random = new Random(42);
+        int maxTravelTimeSeconds = task.maxTripDurationMinutes * 60;
+        int nIterations = task.getTotalIterations(network.transitLayer.hasFrequencies);
+        int nStops = network.transitLayer.getStopCount();
+        TravelTimesToStops travelTimesToStops = new TravelTimesToStops(nStops, nIterations);
+        for (int iteration = 0; iteration < nIterations; iteration++) {
+            int[] travelTimes = new int[nStops];
+            for (int stop = 0; stop < travelTimes.length; stop++) {
+                travelTimes[stop] = random.nextInt(8) == 0 ? UNREACHED : random.nextInt(maxTravelTimeSeconds * 5 / 4);
+            }
+            travelTimesToStops.setIteration(iteration, travelTimes);
+        }
+        int[] nonTransitTravelTimes = new int[targets.featureCount()];
+        for (int target = 0; target < nonTransitTravelTimes.length; target++) {
+            nonTransitTravelTimes[target] = random.nextInt(3) == 0 ? UNREACHED : random.nextInt(maxTravelTimeSeconds);
+        }
+
+        OneOriginResult pruned = propagate(network, task, targets, travelTimesToStops, nonTransitTravelTimes, true);
+        OneOriginResult full = propagate(network, task, targets, travelTimesToStops, nonTransitTravelTimes, false);
+        assertArrayEquals(full.travelTimes.getValues(), pruned.travelTimes.getValues());
+        for (int target = 0; target < targets.featureCount(); target++) {
+            assertArrayEquals(full.travelTimes.getHistogram(target), pruned.travelTimes.getHistogram(target));
+        }
+        assertEquals(targets.featureCount(), full.travelTimes.nPoints);
+    }
+
+    private static OneOriginResult propagate (
+            TransportNetwork network,
+            AnalysisWorkerTask task,
+            PointSet targets,
+            TravelTimesToStops travelTimesToStops,
+            int[] nonTransitTravelTimes,
+            boolean pruneTargets
+    ) {
+        PerTargetPropagater propagater = new PerTargetPropagater(
+                targets,
+                network.streetLayer,
+                EnumSet.of(StreetMode.WALK),
+                task,
+                travelTimesToStops,
+                nonTransitTravelTimes
+        );
+        propagater.travelTimeReducer = new TravelTimeReducer(task, network);
+        propagater.pruneTargets = pruneTargets;
+        return propagater.propagate();
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.conveyal.r5.profile;
+
+import org.junit.jupiter.api.Test;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Check that compact travel times to stops round-trip the values produced by routing, including unreached stops.
+ */
+public class TravelTimesToStopsTest {
+
+    @Test
+    public void storesTravelTimesByStop () {
+        int[][] travelTimesPerIteration = {
+                { 0, 600, UNREACHED },
+                { 120, 65534, UNREACHED },
+                { 60, 70000, 1800 }
+        };
+        TravelTimesToStops travelTimesToStops = TravelTimesToStops.fromIterations(travelTimesPerIteration);
+        assertEquals(3, travelTimesToStops.nIterations);
+        assertEquals(3, travelTimesToStops.nStops);
+        assertEquals(120, travelTimesToStops.get(0, 1));
+        assertEquals(65534, travelTimesToStops.get(1, 1));
+        // Times too large to store are far beyond any maximum trip duration, and are treated as unreached.
+        assertEquals(UNREACHED, travelTimesToStops.get(1, 2));
+        assertEquals(UNREACHED, travelTimesToStops.get(2, 0));
+        assertEquals(1800, travelTimesToStops.get(2, 2));
+
+        assertEquals(0, travelTimesToStops.getMin(0));
+        assertEquals(600, travelTimesToStops.getMin(1));
+        assertEquals(1800, travelTimesToStops.getMin(2));
+    }
+
+    @Test
+    public void convertsArrivalTimesToDurations () {
+        TravelTimesToStops travelTimesToStops = new TravelTimesToStops(2, 1);
+        travelTimesToStops.setIterationFromArrivalTimes(0, new int[] { 8 * 3600 + 300, UNREACHED }, 8 * 3600);
+        assertEquals(300, travelTimesToStops.get(0, 0));
+        assertEquals(UNREACHED, travelTimesToStops.get(1, 0));
+        assertEquals(UNREACHED, travelTimesToStops.getMin(1));
+        assertThrows(IllegalArgumentException.class, () -> travelTimesToStops.setIteration(0, new int[] { 1 }));
+        // Tests run with assertions enabled, so negative travel times are still caught here.
+        assertThrows(AssertionError.class, () -> travelTimesToStops.setIteration(0, new int[] { -1, 0 }));
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.api.util.LegMode;
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.profile.StreetPath;
+import com.conveyal.r5.streets.StreetRouter.State;
+import com.conveyal.r5.transit.TransportNetwork;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the single layered bike share search with the three StreetRouter searches that PointToPointQuery used to
+ * run one after another. The removed code is kept here as legacyBikeRentalPath, as it was apart from its logging.
+ * Every 25th street vertex of the Columbus test network is made a bike share station.
+ */
+public class BikeShareRouterTest {
+
+    private static final int PICKUP_TIME_S = 60;
+    private static final int PICKUP_COST = 120;
+    private static final int DROPOFF_TIME_S = 30;
+    private static final int DROPOFF_COST = 30;
+
+    private static TransportNetwork network;
+
+    @BeforeAll
+    public static void buildBikeShareNetwork () {
+        network = buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        StreetLayer streetLayer = network.streetLayer;
+        VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor();
+        for (int v = 0; v < streetLayer.getVertexCount(); v += 25) {
+            vertex.seek(v);
+            vertex.setFlag(VertexStore.VertexFlag.BIKE_SHARING);
+        }
+        streetLayer.bikeSharing = true;
+    }
+
+    /**
+     * The single layered search should find bike share trips as fast as separate walking, cycling and walking searches
+     * that each explore every station within their time limits, and the paths should unroll through its routers. The
+     * removed code only walked to the 20 nearest stations in direct searches, so its trips can only be slower.
+     */
+    @Test
+    public void testDirectSearch () {
+        StreetLayer streetLayer = network.streetLayer;
+        Random random = new Random(42);
+        int nTrips = 0;
+        for (int i = 0; i < 20; i++) {
+            ProfileRequest request = randomRequest(random);
+            request.streetTime = 45;
+            VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor();
+            vertex.seek(random.nextInt(streetLayer.getVertexCount()));
+            request.toLat = vertex.getLat();
+            request.toLon = vertex.getLon();
+
+            State expected = separateSearches(streetLayer, request);
+            StreetRouter end = new BikeShareRouter(streetLayer, request, PICKUP_TIME_S, DROPOFF_TIME_S).route(true);
+            State actual = end == null ? null : end.getState(request.toLat, request.toLon);
+            StreetRouter legacyEnd = legacyBikeRentalPath(request, true);
+            State legacy = legacyEnd == null ? null : legacyEnd.getState(request.toLat, request.toLon);
+            if (legacy != null) {
+                assertNotNull(actual);
+                assertTrue(actual.getDurationSeconds() <= legacy.getDurationSeconds());
+            }
+            if (expected == null) {
+                assertNull(actual);
+                continue;
+            }
+            assertEquals(expected.getDurationSeconds(), actual.getDurationSeconds());
+            StreetPath path = new StreetPath(actual, end, LegMode.BICYCLE_RENT, network);
+            assertTrue(path.getStates().stream().anyMatch(s -> s.streetMode == StreetMode.BICYCLE));
+            nTrips++;
+        }
+        assertTrue(nTrips > 5);
+    }
+
+    /**
+     * When finding access to transit, the single layered search should reach exactly the same transit stops in the
+     * same times as the removed code, as well as the same stations by bike.
+     */
+    @Test
+    public void testAccessSearch () {
+        StreetLayer streetLayer = network.streetLayer;
+        Random random = new Random(42);
+        int nStopsReached = 0;
+        for (int i = 0; i < 20; i++) {
+            ProfileRequest request = randomRequest(random);
+            request.maxBikeTime = 20;
+
+            StreetRouter expected = legacyBikeRentalPath(request, false);
+            StreetRouter actual = new BikeShareRouter(streetLayer, request, PICKUP_TIME_S, DROPOFF_TIME_S).route(false);
+            if (expected == null) {
+                assertNull(actual);
+                continue;
+            }
+            TIntIntMap expectedStops = expected.getReachedStops();
+            assertEquals(expectedStops, actual.getReachedStops());
+            TIntObjectMap<State> expectedStations =
+                    expected.previousRouter.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING);
+            TIntObjectMap<State> actualStations =
+                    actual.previousRouter.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING);
+            assertEquals(expectedStations.keySet(), actualStations.keySet());
+            expectedStations.forEachEntry((vertex, state) -> {
+                assertEquals(state.getDurationSeconds(), actualStations.get(vertex).getDurationSeconds());
+                return true;
+            });
+            nStopsReached += expectedStops.size();
+        }
+        assertTrue(nStopsReached > 0);
+    }
+
+    private static ProfileRequest randomRequest (Random random) {
+        StreetLayer streetLayer = network.streetLayer;
+        VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor();
+        ProfileRequest request = new ProfileRequest();
+        request.maxWalkTime = 10;
+        vertex.seek(random.nextInt(streetLayer.getVertexCount()));
+        request.fromLat = vertex.getLat();
+        request.fromLon = vertex.getLon();
+        return request;
+    }
+
+    /** Find a bike share trip with three complete searches run one after another. */
+    private static State separateSearches (StreetLayer streetLayer, ProfileRequest request) {
+        StreetRouter walk = new StreetRouter(streetLayer);
+        walk.profileRequest = request;
+        walk.streetMode = StreetMode.WALK;
+        walk.timeLimitSeconds = request.maxWalkTime * 60;
+        walk.flagSearch = VertexStore.VertexFlag.BIKE_SHARING;
+        walk.flagSearchQuantity = Integer.MAX_VALUE;
+        if (!walk.setOrigin(request.fromLat, request.fromLon)) return null;
+        walk.route();
+
+        StreetRouter bicycle = new StreetRouter(streetLayer);
+        bicycle.profileRequest = request;
+        bicycle.streetMode = StreetMode.BICYCLE;
+        bicycle.timeLimitSeconds = request.streetTime * 60;
+        bicycle.flagSearch = VertexStore.VertexFlag.BIKE_SHARING;
+        bicycle.flagSearchQuantity = Integer.MAX_VALUE;
+        bicycle.setOrigin(walk.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING), PICKUP_TIME_S, 0,
+                LegMode.BICYCLE_RENT);
+        bicycle.route();
+
+        StreetRouter end = new StreetRouter(streetLayer);
+        end.profileRequest = request;
+        end.streetMode = StreetMode.WALK;
+        end.timeLimitSeconds = bicycle.timeLimitSeconds;
+        end.setOrigin(bicycle.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING), DROPOFF_TIME_S, 0,
+                LegMode.BICYCLE_RENT);
+        end.route();
+        return end.getState(request.toLat, request.toLon);
+    }
+
+    /**
+     * PointToPointQuery.findBikeRentalPath before it was replaced by BikeShareRouter, given a StreetRouter set up as
+     * its callers did.
+     */
+    private static StreetRouter legacyBikeRentalPath (ProfileRequest request, boolean direct) {
+        StreetRouter streetRouter = new StreetRouter(network.streetLayer);
+        streetRouter.profileRequest = request;
+        streetRouter.streetMode = StreetMode.WALK;
+        streetRouter.timeLimitSeconds = request.maxWalkTime * 60;
+        if (!direct) {
+            streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+        }
+        streetRouter.flagSearch = VertexStore.VertexFlag.BIKE_SHARING;
+        if (streetRouter.setOrigin(request.fromLat, request.fromLon)) {
+            if (direct && !streetRouter.setDestination(request.toLat, request.toLon)) {
+                return null;
+            }
+            Split destinationSplit = streetRouter.getDestinationSplit();
+            streetRouter.setDestination(null);
+            streetRouter.route();
+            TIntObjectMap<StreetRouter.State> bikeStations =
+                    streetRouter.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING);
+
+            StreetRouter bicycle = new StreetRouter(network.streetLayer);
+            bicycle.previousRouter = streetRouter;
+            bicycle.streetMode = StreetMode.BICYCLE;
+            bicycle.profileRequest = request;
+            bicycle.flagSearch = streetRouter.flagSearch;
+            bicycle.flagSearchQuantity = Integer.MAX_VALUE;
+            if (direct) {
+                bicycle.timeLimitSeconds = request.streetTime * 60;
+            } else {
+                bicycle.timeLimitSeconds = request.maxBikeTime * 60;
+                bicycle.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+            }
+            bicycle.setOrigin(bikeStations, PICKUP_TIME_S, PICKUP_COST, LegMode.BICYCLE_RENT);
+            bicycle.setDestination(destinationSplit);
+            bicycle.route();
+            TIntObjectMap<StreetRouter.State> cycledStations =
+                    bicycle.getReachedVertices(VertexStore.VertexFlag.BIKE_SHARING);
+
+            StreetRouter end = new StreetRouter(network.streetLayer);
+            end.streetMode = StreetMode.WALK;
+            end.profileRequest = request;
+            end.timeLimitSeconds = bicycle.timeLimitSeconds;
+            if (!direct) {
+                end.transitStopSearch = true;
+                end.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+            }
+            end.setOrigin(cycledStations, DROPOFF_TIME_S, DROPOFF_COST, LegMode.BICYCLE_RENT);
+            end.route();
+            end.previousRouter = bicycle;
+            return end;
+        } else {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.osmlib.OSM;
+import com.conveyal.r5.profile.StreetMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class ParallelIslandPrunerTest {
+
+    private static final int MIN_COMPONENT_SIZE = 40;
+
+    /**
+     * Pruning all modes at once should remove exactly the permissions removed by pruning car, walk and bike islands
+     * one after another.
+     */
+    @Test
+    public void testSameResultAsTarjanIslandPruner () {
+        String[] resources = new String[] {
+                "subgraph.pbf", "speedFlagsTest.pbf", "cathedral-no-left.pbf", "delft-station.pbf",
+                "fiji-ferry.pbf", "snake-rd.pbf", "reisterstown-via-restriction.pbf",
+                "/com/conveyal/r5/analyst/scenario/columbus.osm.pbf"
+        };
+        for (String resource : resources) {
+            StreetLayer expected = loadWithoutPruning(resource);
+            int[] unprunedFlags = expected.edgeStore.flags.toArray();
+            new TarjanIslandPruner(expected, MIN_COMPONENT_SIZE, StreetMode.CAR).run();
+            new TarjanIslandPruner(expected, MIN_COMPONENT_SIZE, StreetMode.WALK).run();
+            new TarjanIslandPruner(expected, MIN_COMPONENT_SIZE, StreetMode.BICYCLE).run();
+
+            StreetLayer actual = loadWithoutPruning(resource);
+            new ParallelIslandPruner(actual, MIN_COMPONENT_SIZE).run();
+            assertArrayEquals(expected.edgeStore.flags.toArray(), actual.edgeStore.flags.toArray(), resource);
+            if (resource.equals("subgraph.pbf")) {
+                // Make sure the comparison is not trivial.
+                assertFalse(Arrays.equals(unprunedFlags, actual.edgeStore.flags.toArray()));
+            }
+        }
+    }
+
+    private static StreetLayer loadWithoutPruning (String resource) {
+        OSM osm = new OSM(null);
+        osm.intersectionDetection = true;
+        osm.readFromUrl(ParallelIslandPrunerTest.class.getResource(resource).toString());
+        StreetLayer streetLayer = new StreetLayer();
+        streetLayer.loadFromOsm(osm, false, true);
+        osm.close();
+        return streetLayer;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.WebMercatorExtents;
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.kryo.KryoNetworkSerializer;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SharedLinkageFileTest {
+
+    /** Moving a base linkage and its egress cost tables into a shared file should not change any of their values. */
+    @Test
+    public void testSharedLinkageMatchesHeapLinkage () throws Exception {
+        TransportNetwork network = buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        network.scenarioId = "shared";
+        network.rebuildLinkedGridPointSet(StreetMode.WALK);
+        LinkedPointSet linkage = getBaseLinkage(network);
+        int[][] linkageArrays = linkageArrays(linkage);
+        List<int[]> costTables = new ArrayList<>(linkage.getEgressCostTable().stopToPointLinkageCostTables);
+
+        File directory = Files.createTempDirectory("linkage").toFile();
+        directory.deleteOnExit();
+        SharedLinkageFile.attach(network, directory);
+        LinkedPointSet sharedLinkage = getBaseLinkage(network);
+        assertNotSame(linkage, sharedLinkage);
+        assertTrue(sharedLinkage.edges.isDirect());
+        assertSameContents(linkageArrays, costTables, sharedLinkage);
+
+        // A file written for another network is detected and rebuilt.
+        File file = new File(directory, "shared_" + KryoNetworkSerializer.NETWORK_FORMAT_VERSION + "_WALK.linkage");
+        File otherFile = new File(directory, "other_" + KryoNetworkSerializer.NETWORK_FORMAT_VERSION + "_WALK.linkage");
+        Files.copy(file.toPath(), otherFile.toPath());
+        network.scenarioId = "other";
+        SharedLinkageFile.attach(network, directory);
+        assertSameContents(linkageArrays, costTables, getBaseLinkage(network));
+
+        for (File f : directory.listFiles()) {
+            f.delete();
+        }
+    }
+
+    /**
+     * Cropping and transposing the mapped cost tables, which read them in place, should give the same results as
+     * doing so with tables on the heap. Transposing must not discard the mapped tables, which remain usable as sources.
+     */
+    @Test
+    public void testSharedTablesCropAndTransposeInPlace () throws Exception {
+        TransportNetwork network = buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        network.scenarioId = "crop";
+        network.rebuildLinkedGridPointSet(StreetMode.WALK);
+        LinkedPointSet linkage = getBaseLinkage(network);
+        File directory = Files.createTempDirectory("linkage").toFile();
+        directory.deleteOnExit();
+        SharedLinkageFile.attach(network, directory);
+        LinkedPointSet sharedLinkage = getBaseLinkage(network);
+        EgressCostTable sharedTable = sharedLinkage.getEgressCostTable();
+
+        // Scenario tables share the copies of unaffected base tables, so the same copy is returned each time.
+        List<int[]> sharedTables = sharedTable.stopToPointLinkageCostTables;
+        for (int stop = 0; stop < sharedTables.size(); stop++) {
+            assertSame(sharedTables.get(stop), sharedTables.get(stop));
+        }
+
+        WebMercatorExtents extents = network.fullExtentGridPointSet.extents;
+        WebMercatorGridPointSet subGrid = new WebMercatorGridPointSet(new WebMercatorExtents(
+                extents.west + extents.width / 4, extents.north + extents.height / 4,
+                extents.width / 2, extents.height / 2, extents.zoom
+        ));
+        List<int[]> croppedTables =
+                new LinkedPointSet(linkage, subGrid).getEgressCostTable().stopToPointLinkageCostTables;
+        List<int[]> sharedCroppedTables =
+                new LinkedPointSet(sharedLinkage, subGrid).getEgressCostTable().stopToPointLinkageCostTables;
+        assertEquals(croppedTables.size(), sharedCroppedTables.size());
+        for (int stop = 0; stop < croppedTables.size(); stop++) {
+            assertArrayEquals(croppedTables.get(stop), sharedCroppedTables.get(stop));
+        }
+
+        sharedTable.destructivelyTransposeForPropagationAsNeeded();
+        assertNotNull(sharedTable.stopToPointLinkageCostTables);
+        EgressCostTable heapTable = linkage.getEgressCostTable();
+        heapTable.destructivelyTransposeForPropagationAsNeeded();
+        for (int point = 0; point < linkage.size(); point++) {
+            assertEquals(heapTable.getCostTableForPoint(point), sharedTable.getCostTableForPoint(point));
+        }
+
+        for (File f : directory.listFiles()) {
+            f.delete();
+        }
+    }
+
+    private static LinkedPointSet getBaseLinkage (TransportNetwork network) {
+        return network.linkageCache.getLinkage(network.fullExtentGridPointSet, network.streetLayer, StreetMode.WALK);
+    }
+
+    private static int[][] linkageArrays (LinkedPointSet linkage) {
+        int[][] arrays = new int[4][linkage.size()];
+        linkage.edges.get(0, arrays[0]);
+        linkage.distancesToEdge_mm.get(0, arrays[1]);
+        linkage.distances0_mm.get(0, arrays[2]);
+        linkage.distances1_mm.get(0, arrays[3]);
+        return arrays;
+    }
+
+    private static void assertSameContents (int[][] linkageArrays, List<int[]> costTables, LinkedPointSet linkage) {
+        int[][] sharedArrays = linkageArrays(linkage);
+        for (int i = 0; i < linkageArrays.length; i++) {
+            assertArrayEquals(linkageArrays[i], sharedArrays[i]);
+        }
+        List<int[]> sharedTables = linkage.getEgressCostTable().stopToPointLinkageCostTables;
+        assertEquals(costTables.size(), sharedTables.size());
+        for (int stop = 0; stop < costTables.size(); stop++) {
+            assertArrayEquals(costTables.get(stop), sharedTables.get(stop));
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package com.conveyal.r5.streets;
 import com.conveyal.osmlib.OSM;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.VertexStore.VertexFlag;
+import com.conveyal.r5.transit.TransportNetwork;
 import gnu.trove.TIntCollection;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.TIntList;
@@ -127,6 +128,46 @@ public class StreetLayerTest {
         //streetLayer.edgeStore.dump();
     }
 
+    /**
+     * Test that extending the edge lists of a scenario copy after non-destructively splitting an edge yields the same
+     * lists as rebuilding them from scratch, and leaves the lists of the base StreetLayer untouched.
+     */
+    @Test
+    public void testExtendEdgeListsInScenarioCopy () {
+        OSM osm = new OSM(null);
+        osm.intersectionDetection = true;
+        osm.readFromUrl(StreetLayerTest.class.getResource("speedFlagsTest.pbf").toString());
+
+        StreetLayer baseStreetLayer = new StreetLayer();
+        baseStreetLayer.loadFromOsm(osm, false, true);
+        osm.close();
+        baseStreetLayer.buildEdgeLists();
+        baseStreetLayer.indexStreets();
+        List<TIntList> baseOutgoingEdges = baseStreetLayer.outgoingEdges;
+        int baseVertexCount = baseStreetLayer.vertexStore.getVertexCount();
+        int baseEdgeListEntries = countEntries(baseOutgoingEdges);
+
+        StreetLayer streetLayer = baseStreetLayer.scenarioCopy(new TransportNetwork(), true);
+        int vertex = streetLayer.getOrCreateVertexNear(46.5558163, 15.6126969, StreetMode.WALK);
+        assertTrue(vertex >= baseVertexCount);
+
+        int verticesUpdated = streetLayer.extendEdgeLists();
+        assertTrue(verticesUpdated > 0);
+        List<TIntList> extendedOutgoingEdges = streetLayer.outgoingEdges;
+        List<TIntList> extendedIncomingEdges = streetLayer.incomingEdges;
+        streetLayer.buildEdgeLists();
+        assertEquals(streetLayer.outgoingEdges, extendedOutgoingEdges);
+        assertEquals(streetLayer.incomingEdges, extendedIncomingEdges);
+
+        assertTrue(baseStreetLayer.outgoingEdges == baseOutgoingEdges);
+        assertEquals(baseVertexCount, baseOutgoingEdges.size());
+        assertEquals(baseEdgeListEntries, countEntries(baseOutgoingEdges));
+    }
+
+    private static int countEntries (List<TIntList> edgeLists) {
+        return edgeLists.stream().mapToInt(TIntList::size).sum();
+    }
+
     /**
      * Test if edge length and geometry are preserved when an edge is split by stop linking.
      * This test verifies that R5 issue #511 is resolved.
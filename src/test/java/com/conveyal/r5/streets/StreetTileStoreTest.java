@@ -0,0 +1,76 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.osmlib.OSM;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StreetTileStoreTest {
+
+    /** Moving edges and vertices into a tile file should not change any of their characteristics. */
+    @Test
+    public void testTiledStreetsMatchHeapStreets () throws Exception {
+        OSM osm = new OSM(null);
+        osm.intersectionDetection = true;
+        osm.readFromUrl(StreetLayerTest.class.getResource("subgraph.pbf").toString());
+        StreetLayer streetLayer = new StreetLayer();
+        streetLayer.loadFromOsm(osm, false, true);
+        EdgeStore edgeStore = streetLayer.edgeStore;
+        VertexStore vertexStore = streetLayer.vertexStore;
+
+        int nEdges = edgeStore.nEdges();
+        int nVertices = vertexStore.getVertexCount();
+        int[] flags = edgeStore.flags.toArray();
+        int[] fromVertices = edgeStore.fromVertices.toArray();
+        int[] toVertices = edgeStore.toVertices.toArray();
+        int[] lengths = edgeStore.lengths_mm.toArray();
+        long[] osmIds = edgeStore.osmids.toArray();
+        byte[] streetClasses = edgeStore.streetClasses.toArray();
+        byte[] inAngles = edgeStore.inAngles.toArray();
+        byte[] outAngles = edgeStore.outAngles.toArray();
+        List<int[]> geometries = new ArrayList<>(edgeStore.geometries);
+        int[] fixedLats = vertexStore.fixedLats.toArray();
+        int[] fixedLons = vertexStore.fixedLons.toArray();
+        byte[] vertexFlags = vertexStore.vertexFlags.toArray();
+
+        File tileFile = File.createTempFile("streets", ".tiles");
+        tileFile.deleteOnExit();
+        StreetTileStore.write(streetLayer, tileFile);
+        // Allow only a couple of resident tiles so that eviction and reloading are exercised.
+        StreetTileStore store = StreetTileStore.open(tileFile, 2);
+        store.attach(streetLayer);
+
+        assertEquals(nEdges, edgeStore.nEdges());
+        assertEquals(nVertices, vertexStore.getVertexCount());
+        for (int e = 0; e < nEdges; e++) {
+            assertEquals(flags[e], edgeStore.flags.get(e));
+        }
+        for (int p = 0; p < nEdges / 2; p++) {
+            assertEquals(fromVertices[p], edgeStore.fromVertices.get(p));
+            assertEquals(toVertices[p], edgeStore.toVertices.get(p));
+            assertEquals(lengths[p], edgeStore.lengths_mm.get(p));
+            assertEquals(osmIds[p], edgeStore.osmids.get(p));
+            assertEquals(streetClasses[p], edgeStore.streetClasses.get(p));
+            assertEquals(inAngles[p], edgeStore.inAngles.get(p));
+            assertEquals(outAngles[p], edgeStore.outAngles.get(p));
+            assertArrayEquals(geometries.get(p), edgeStore.geometries.get(p));
+        }
+        for (int v = 0; v < nVertices; v++) {
+            assertEquals(fixedLats[v], vertexStore.fixedLats.get(v));
+            assertEquals(fixedLons[v], vertexStore.fixedLons.get(v));
+            assertEquals(vertexFlags[v], vertexStore.vertexFlags.get(v));
+        }
+        // The tiled base layer is immutable, but scenario copies can still extend it.
+        assertThrows(RuntimeException.class, () -> edgeStore.flags.set(0, 0));
+        EdgeStore extended = edgeStore.extendOnlyCopy(streetLayer);
+        assertEquals(nEdges, extended.nEdges());
+        assertEquals(nVertices, extended.vertexStore.getVertexCount());
+    }
+
+}
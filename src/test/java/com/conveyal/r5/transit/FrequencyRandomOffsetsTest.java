@@ -3,19 +3,30 @@ package com.conveyal.r5.transit;
 
 import com.conveyal.gtfs.model.Frequency;
 import com.conveyal.gtfs.model.Trip;
+import com.conveyal.r5.profile.FrequencyOffsetSampling;
 import com.conveyal.r5.profile.FrequencyRandomOffsets;
 import gnu.trove.list.array.TIntArrayList;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.ToIntFunction;
 
+import static com.conveyal.r5.profile.FrequencyOffsetSampling.LATIN_HYPERCUBE;
+import static com.conveyal.r5.profile.FrequencyOffsetSampling.RANDOM;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
- * Test that phasing works correctly.
+ * Test that phasing works correctly, and that stratified offsets improve on random ones.
  */
 public class FrequencyRandomOffsetsTest {
+
+    private static final int HEADWAY_SECONDS = 30 * 60;
+
+    private static final int[] PERCENTILES = new int[] {5, 25, 50, 75, 95};
+
     @Test
     public void testPhasing () {
         // make a fake transit layer
@@ -148,4 +159,144 @@ public class FrequencyRandomOffsetsTest {
         // trip, or 20 minutes before (which is the same phasing, just changing which route arrives first).
         assertTrue(10 * 60 == timeDifference || -1 * (30 - 10) * 60 == timeDifference);
     }
-}
\ No newline at end of file
+
+    /**
+     * Phased entries may depend on other phased entries, appearing in any order in the transit layer. Circular
+     * references cannot be solved.
+     */
+    @Test
+    public void testChainedAndCircularPhasing () {
+        TransitLayer layer = new TransitLayer();
+        layer.hasFrequencies = true;
+        layer.hasSchedules = false;
+        for (int i = 0; i < 6; i++) {
+            layer.stopIdForIndex.add(String.format("FEED:STOP_%d", i));
+        }
+        // The third route is phased from the second, which is phased from the first, but the patterns are added in
+        // reverse order.
+        TripSchedule ts3 = addFrequencyRoute(layer, "TRIP3", 4, 5);
+        TripSchedule ts2 = addFrequencyRoute(layer, "TRIP2", 2, 3);
+        TripSchedule ts1 = addFrequencyRoute(layer, "TRIP1", 0, 1);
+        phase(ts2, "TRIP1", "FEED:STOP_0", "FEED:STOP_2", 600);
+        phase(ts3, "TRIP2", "FEED:STOP_2", "FEED:STOP_4", 300);
+        layer.rebuildTransientIndexes();
+
+        FrequencyRandomOffsets fro = new FrequencyRandomOffsets(layer);
+        for (int i = 0; i < 10; i++) {
+            fro.randomize();
+            int offset1 = fro.getOffsetSeconds(ts1, 0);
+            assertEquals((offset1 + 600) % HEADWAY_SECONDS, fro.getOffsetSeconds(ts2, 0));
+            assertEquals((offset1 + 900) % HEADWAY_SECONDS, fro.getOffsetSeconds(ts3, 0));
+        }
+
+        phase(ts1, "TRIP3", "FEED:STOP_4", "FEED:STOP_0", 0);
+        layer.rebuildTransientIndexes();
+        FrequencyRandomOffsets circular = new FrequencyRandomOffsets(layer);
+        assertThrows(IllegalArgumentException.class, circular::randomize);
+    }
+
+    /**
+     * Latin hypercube sampling of offsets should estimate travel time percentiles more accurately than independent
+     * random sampling. With a single route, stratified sampling should beat random sampling with four times as many
+     * draws. Where riders can choose between two independently phased routes, it should still clearly reduce the
+     * error for the same number of draws.
+     */
+    @Test
+    public void testStratifiedSampling () {
+        TransitLayer layer = new TransitLayer();
+        layer.hasFrequencies = true;
+        layer.hasSchedules = false;
+        for (int i = 0; i < 4; i++) {
+            layer.stopIdForIndex.add(String.format("FEED:STOP_%d", i));
+        }
+        TripSchedule ts1 = addFrequencyRoute(layer, "TRIP1", 0, 1);
+        TripSchedule ts2 = addFrequencyRoute(layer, "TRIP2", 2, 3);
+        layer.rebuildTransientIndexes();
+
+        // The wait for the first route at the start of its frequency entry is uniform over 30 minutes.
+        ToIntFunction<FrequencyRandomOffsets> oneRoute = fro -> fro.getOffsetSeconds(ts1, 0);
+        double[] expectedOneRoute = new double[PERCENTILES.length];
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            expectedOneRoute[p] = HEADWAY_SECONDS * PERCENTILES[p] / 100d;
+        }
+        double stratifiedError = percentileError(layer, LATIN_HYPERCUBE, 20, oneRoute, expectedOneRoute);
+        double randomError = percentileError(layer, RANDOM, 80, oneRoute, expectedOneRoute);
+        assertTrue(stratifiedError < randomError, "Stratified sampling should need fewer draws.");
+
+        // The second route takes five minutes longer, so the travel time is the minimum of two phased waits.
+        ToIntFunction<FrequencyRandomOffsets> twoRoutes =
+                fro -> Math.min(fro.getOffsetSeconds(ts1, 0), fro.getOffsetSeconds(ts2, 0) + 300);
+        double[] expectedTwoRoutes = new double[PERCENTILES.length];
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            // Solve P(min(a, b + 300) <= t) = percentile for a and b uniform over the headway.
+            double fraction = PERCENTILES[p] / 100d;
+            double low = 0, high = HEADWAY_SECONDS;
+            for (int i = 0; i < 60; i++) {
+                double t = (low + high) / 2;
+                double a = t / HEADWAY_SECONDS;
+                double b = Math.max(0, t - 300) / HEADWAY_SECONDS;
+                if (1 - (1 - a) * (1 - b) < fraction) low = t; else high = t;
+            }
+            expectedTwoRoutes[p] = low;
+        }
+        stratifiedError = percentileError(layer, LATIN_HYPERCUBE, 40, twoRoutes, expectedTwoRoutes);
+        randomError = percentileError(layer, RANDOM, 40, twoRoutes, expectedTwoRoutes);
+        assertTrue(stratifiedError < 0.8 * randomError, "Stratified sampling should reduce percentile error.");
+    }
+
+    private static TripSchedule addFrequencyRoute (TransitLayer layer, String tripId, int... stops) {
+        TripPattern pattern = new TripPattern(new TIntArrayList(stops));
+        Trip trip = new Trip();
+        trip.feed_id = "FEED";
+        trip.trip_id = tripId;
+        Frequency frequency = new Frequency();
+        frequency.start_time = 5 * 60 * 60;
+        frequency.end_time = 11 * 60 * 60;
+        frequency.headway_secs = HEADWAY_SECONDS;
+        frequency.exact_times = 0;
+        frequency.trip_id = tripId;
+        TripSchedule schedule = TripSchedule.create(trip, new int[] {0, 600}, new int[] {0, 600},
+                Arrays.asList(frequency), stops, 0);
+        pattern.addTrip(schedule);
+        layer.tripPatterns.add(pattern);
+        return schedule;
+    }
+
+    private static void phase (TripSchedule target, String sourceTripId, String sourceStop, String targetStop,
+                               int phaseSeconds) {
+        target.phaseFromId = new String[] { "FEED:" + sourceTripId + "_05:00:00_to_11:00:00_every_30m00s" };
+        target.phaseFromStop = new String[] { sourceStop };
+        target.phaseAtStop = new String[] { targetStop };
+        target.phaseSeconds = new int[] { phaseSeconds };
+    }
+
+    /**
+     * Repeatedly take the given number of draws, estimating percentiles of the given travel time from each set of
+     * draws, and return the root mean square error of those estimates against the expected percentiles.
+     */
+    private static double percentileError (
+            TransitLayer layer, FrequencyOffsetSampling sampling, int nDraws,
+            ToIntFunction<FrequencyRandomOffsets> travelTime, double[] expectedPercentiles
+    ) {
+        final int nRepetitions = 500;
+        double sumSquaredError = 0;
+        for (int r = 0; r < nRepetitions; r++) {
+            FrequencyRandomOffsets fro = new FrequencyRandomOffsets(layer, sampling, nDraws);
+            int[] travelTimes = new int[nDraws];
+            for (int d = 0; d < nDraws; d++) {
+                fro.randomize();
+                travelTimes[d] = travelTime.applyAsInt(fro);
+            }
+            Arrays.sort(travelTimes);
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                // Interpolate between draws, treating each as the midpoint of its share of the distribution.
+                double position = PERCENTILES[p] / 100d * nDraws - 0.5;
+                int below = Math.max(0, Math.min(nDraws - 2, (int) Math.floor(position)));
+                double fraction = Math.max(0, Math.min(1, position - below));
+                double estimate = travelTimes[below] + fraction * (travelTimes[below + 1] - travelTimes[below]);
+                sumSquaredError += Math.pow(estimate - expectedPercentiles[p], 2);
+            }
+        }
+        return Math.sqrt(sumSquaredError / (nRepetitions * PERCENTILES.length));
+    }
+}
@@ -0,0 +1,74 @@
+package com.conveyal.r5.transit;
+
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.analyst.network.GridRoute;
+import com.conveyal.r5.analyst.scenario.AddStreets;
+import com.conveyal.r5.analyst.scenario.Scenario;
+import com.conveyal.r5.profile.StreetMode;
+import gnu.trove.list.TIntList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class TransferFinderTest {
+
+    /**
+     * When a scenario adds streets, transfers are only recomputed from stops near those streets. This should give
+     * the same transfers as finding all of them again on the modified network.
+     */
+    @Test
+    public void testAddedStreetGivesSameTransfersAsFullRebuild () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        // Two short routes whose nearest stops are six blocks apart along the streets, too far to transfer.
+        GridRoute horizontal = GridRoute.newHorizontalRoute(gridLayout, 10, 10);
+        horizontal.nStops = 11;
+        gridLayout.addRoute(horizontal);
+        GridRoute vertical = GridRoute.newVerticalRoute(gridLayout, 13, 10);
+        vertical.startY = 13;
+        vertical.nStops = 11;
+        gridLayout.addRoute(vertical);
+        // A route far from the new street, whose transfers should not be recomputed.
+        gridLayout.addHorizontalRoute(35, 10);
+        TransportNetwork network = gridLayout.generateNetwork();
+
+        // A diagonal street between the ends of the two short routes brings them within transfer distance.
+        Coordinate from = gridLayout.getIntersectionLatLon(10, 10);
+        Coordinate to = gridLayout.getIntersectionLatLon(13, 13);
+        AddStreets addStreets = new AddStreets();
+        addStreets.lineStrings = new double[][][] { { { from.x, from.y }, { to.x, to.y } } };
+        addStreets.allowedModes = EnumSet.of(StreetMode.WALK);
+        addStreets.linkable = true;
+        Scenario scenario = new Scenario();
+        scenario.modifications = List.of(addStreets);
+        TransportNetwork modified = scenario.applyToTransportNetwork(network);
+        List<TIntIntMap> transfers = transfersForStops(modified.transitLayer.transfersForStop);
+
+        modified.transitLayer.transfersForStop = new ArrayList<>();
+        new TransferFinder(modified).findTransfers();
+        assertEquals(transfersForStops(modified.transitLayer.transfersForStop), transfers);
+        assertNotEquals(transfersForStops(network.transitLayer.transfersForStop), transfers);
+    }
+
+    /** Unpack the transfers from each stop into a map from target stop to distance, ignoring their order. */
+    private static List<TIntIntMap> transfersForStops (List<TIntList> packedTransfersForStop) {
+        List<TIntIntMap> transfersForStop = new ArrayList<>();
+        for (TIntList packedTransfers : packedTransfersForStop) {
+            TIntIntMap transfers = new TIntIntHashMap();
+            for (int i = 0; i < packedTransfers.size(); i += 2) {
+                transfers.put(packedTransfers.get(i), packedTransfers.get(i + 1));
+            }
+            transfersForStop.add(transfers);
+        }
+        return transfersForStop;
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.conveyal.r5.transit;
+
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.file.LocalFileStorage;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.r5.analyst.scenario.AddTrips;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.analyst.scenario.Modification;
+import com.conveyal.r5.analyst.scenario.Scenario;
+import com.conveyal.r5.analyst.scenario.StopSpec;
+import com.conveyal.r5.kryo.KryoNetworkSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.conveyal.file.FileCategory.BUNDLES;
+import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that the TransportNetworkCache keeps pinned networks, weighs scenario networks along with their base network,
+ * and applies each scenario only once when several threads request it at the same time. The networks are serialized
+ * into a temporary file storage, from which the cache loads them as it would load networks built by the backend.
+ */
+public class TransportNetworkCacheTest {
+
+    private static final List<String> NETWORK_IDS = List.of("a", "b", "c");
+
+    @TempDir
+    public File directory;
+
+    private LocalFileStorage fileStorage;
+
+    @BeforeEach
+    public void writeNetworks () throws Exception {
+        fileStorage = new LocalFileStorage(new LocalFileStorage.Config() {
+            @Override
+            public String localCacheDirectory () {
+                return directory.getPath();
+            }
+            @Override
+            public int serverPort () {
+                return 7070;
+            }
+        });
+        for (String networkId : NETWORK_IDS) {
+            TransportNetwork network = buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+            network.scenarioId = networkId;
+            File file = File.createTempFile("network", ".dat", directory);
+            KryoNetworkSerializer.write(network, file);
+            String filename = String.format("%s_%s.dat", networkId, KryoNetworkSerializer.NETWORK_FORMAT_VERSION);
+            fileStorage.moveIntoStorage(new FileStorageKey(BUNDLES, filename), file);
+        }
+    }
+
+    /**
+     * With a budget of one kilobyte every unpinned network is given the weight of the whole budget, so only one of
+     * them fits. A pinned network must stay in the cache however many other networks are loaded after it.
+     */
+    @Test
+    public void testPinnedNetworkIsNotEvicted () {
+        TransportNetworkCache cache = new TransportNetworkCache(fileStorage, null, null, 1024);
+        cache.pin("a");
+        TransportNetwork pinned = cache.getNetwork("a");
+        cache.getNetwork("b");
+        cache.getNetwork("c");
+        cache.cleanUp();
+        assertTrue(cache.getLoadedNetworkIds().contains("a"));
+        assertEquals(2, cache.getLoadedNetworkIds().size());
+        assertSame(pinned, cache.getNetwork("a"));
+
+        // Once unpinned, the network competes for the budget like any other and only one network remains.
+        cache.unpin("a");
+        cache.getNetwork("b");
+        cache.cleanUp();
+        assertEquals(1, cache.getLoadedNetworkIds().size());
+    }
+
+    /** Storing a scenario network should increase the weight of its base network by the elements it adds. */
+    @Test
+    public void testScenarioIsWeighed () {
+        TransportNetworkCache cache = new TransportNetworkCache(fileStorage, null, null, 1L << 30);
+        cache.getNetwork("a");
+        long baseKilobytes = cache.getWeightedKilobytes();
+        assertTrue(baseKilobytes > 0);
+
+        // Three new stops alone add 12kB to the estimate.
+        Scenario scenario = new Scenario();
+        scenario.id = "newStops";
+        scenario.modifications = Arrays.asList(addTripsWithNewStops());
+        cache.rememberScenario(scenario);
+        cache.getNetworkForScenario("a", scenario.id);
+        assertTrue(cache.getWeightedKilobytes() >= baseKilobytes + 12);
+
+        // A pinned network and its scenarios weigh nothing, and regain their weight when unpinned.
+        cache.pin("a");
+        assertEquals(0, cache.getWeightedKilobytes());
+        cache.unpin("a");
+        assertTrue(cache.getWeightedKilobytes() >= baseKilobytes + 12);
+    }
+
+    /** Threads requesting the same scenario at the same time should all receive the network built by one of them. */
+    @Test
+    public void testConcurrentRequestsShareScenarioNetwork () throws Exception {
+        TransportNetworkCache cache = new TransportNetworkCache(fileStorage, null, null, 1L << 30);
+        cache.getNetwork("a");
+        CountingModification counting = new CountingModification();
+        Scenario scenario = new Scenario();
+        scenario.id = "counted";
+        scenario.modifications = Arrays.asList(counting);
+        cache.rememberScenario(scenario);
+
+        int nThreads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<TransportNetwork>[] futures = new Future[nThreads];
+            for (int i = 0; i < nThreads; i++) {
+                futures[i] = executor.submit(() -> {
+                    start.await();
+                    return cache.getNetworkForScenario("a", scenario.id);
+                });
+            }
+            start.countDown();
+            TransportNetwork scenarioNetwork = futures[0].get();
+            for (Future<TransportNetwork> future : futures) {
+                assertSame(scenarioNetwork, future.get());
+            }
+            assertEquals(1, counting.nApplications.get());
+            assertSame(scenarioNetwork, cache.getNetwork("a").scenarios.get(scenario.id));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static AddTrips addTripsWithNewStops () {
+        AddTrips addTrips = new AddTrips();
+        addTrips.bidirectional = false;
+        addTrips.stops = Arrays.asList(
+                new StopSpec(-83.0345, 39.962),
+                new StopSpec(-83.0014, 39.962),
+                new StopSpec(-82.9495, 39.962)
+        );
+        addTrips.mode = Route.BUS;
+        AddTrips.PatternTimetable entry = new AddTrips.PatternTimetable();
+        entry.headwaySecs = 900;
+        entry.monday = entry.tuesday = entry.wednesday = entry.thursday = entry.friday = true;
+        entry.saturday = entry.sunday = false;
+        entry.hopTimes = new int[] { 120, 140 };
+        entry.dwellTimes = new int[] { 0, 30, 0 };
+        entry.startTime = 7 * 3600;
+        entry.endTime = 10 * 3600;
+        addTrips.frequencies = Arrays.asList(entry);
+        return addTrips;
+    }
+
+    /** Counts how many times it is applied, taking long enough that the requesting threads overlap. */
+    private static class CountingModification extends Modification {
+
+        private final AtomicInteger nApplications = new AtomicInteger();
+
+        @Override
+        public boolean apply (TransportNetwork network) {
+            nApplications.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return false;
+        }
+
+        @Override
+        public int getSortOrder () {
+            return 0;
+        }
+    }
+
+}
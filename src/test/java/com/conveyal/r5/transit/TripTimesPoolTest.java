@@ -0,0 +1,89 @@
+package com.conveyal.r5.transit;
+
+import com.conveyal.r5.analyst.scenario.AdjustDwellTime;
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.analyst.scenario.Scenario;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static com.conveyal.r5.analyst.scenario.FakeGraph.set;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class TripTimesPoolTest {
+
+    @Test
+    public void testEqualArraysAreShared () {
+        TripTimesPool pool = new TripTimesPool();
+        int[] first = new int[] { 0, 500, 1000 };
+        assertSame(first, pool.intern(first));
+        assertSame(first, pool.intern(new int[] { 0, 500, 1000 }));
+        int[] other = new int[] { 0, 500, 1001 };
+        assertSame(other, pool.intern(other));
+
+        // All trips on the single line of the test network visit the same stops, and have no dwell at the ends.
+        TransportNetwork network = buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+        List<TripSchedule> schedules = network.transitLayer.tripPatterns.get(0).tripSchedules;
+        for (TripSchedule schedule : schedules) {
+            assertSame(schedules.get(0).stopSequences, schedule.stopSequences);
+        }
+    }
+
+    /**
+     * Applying a scenario must not alter the arrays of the base network, even though they are shared. Applying an
+     * identical scenario again should produce schedules sharing the arrays of the first scenario network.
+     */
+    @Test
+    public void testScenarioDoesNotAlterBaseArrays () {
+        TransportNetwork network = buildNetwork(FakeGraph.TransitNetwork.SINGLE_LINE);
+        List<TripSchedule> baseSchedules = network.transitLayer.tripPatterns.get(0).tripSchedules;
+        List<int[]> baseArrays = new ArrayList<>();
+        List<int[]> baseContents = new ArrayList<>();
+        for (TripSchedule schedule : baseSchedules) {
+            for (int[] array : List.of(schedule.arrivals, schedule.departures, schedule.stopSequences)) {
+                baseArrays.add(array);
+                baseContents.add(array.clone());
+            }
+        }
+
+        TransportNetwork first = applyDwellTime(network, 42);
+        TransportNetwork second = applyDwellTime(network, 42);
+
+        int i = 0;
+        for (TripSchedule schedule : baseSchedules) {
+            for (int[] array : List.of(schedule.arrivals, schedule.departures, schedule.stopSequences)) {
+                assertSame(baseArrays.get(i), array);
+                assertArrayEquals(baseContents.get(i), array);
+                i += 1;
+            }
+        }
+
+        List<TripSchedule> firstSchedules = first.transitLayer.tripPatterns.get(0).tripSchedules;
+        List<TripSchedule> secondSchedules = second.transitLayer.tripPatterns.get(0).tripSchedules;
+        assertEquals(baseSchedules.size(), firstSchedules.size());
+        assertEquals(firstSchedules.size(), secondSchedules.size());
+        for (int s = 0; s < firstSchedules.size(); s++) {
+            TripSchedule schedule = firstSchedules.get(s);
+            assertNotSame(baseSchedules.get(s).departures, schedule.departures);
+            assertSame(schedule.arrivals, secondSchedules.get(s).arrivals);
+            assertSame(schedule.departures, secondSchedules.get(s).departures);
+            assertSame(schedule.stopSequences, secondSchedules.get(s).stopSequences);
+        }
+    }
+
+    private static TransportNetwork applyDwellTime (TransportNetwork network, int dwellSecs) {
+        AdjustDwellTime adjustDwellTime = new AdjustDwellTime();
+        adjustDwellTime.dwellSecs = dwellSecs;
+        adjustDwellTime.routes = set("SINGLE_LINE:route");
+        Scenario scenario = new Scenario();
+        scenario.modifications = Arrays.asList(adjustDwellTime);
+        return scenario.applyToTransportNetwork(network);
+    }
+
+}